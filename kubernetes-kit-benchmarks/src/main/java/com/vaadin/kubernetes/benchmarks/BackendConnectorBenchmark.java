@@ -0,0 +1,191 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.FileSystemConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.RedisConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
+
+/**
+ * Throughput of session writes and reads on {@link FileSystemConnector} and
+ * {@link RedisConnector}, to compare the local file system store with a
+ * remote one.
+ * <p>
+ * The Redis variants need a running Redis server, on {@code localhost:6379}
+ * by default; use {@code -p redisHost=<host> -p redisPort=<port>} to select
+ * another one, or {@code -p backend=filesystem} to skip them. Besides
+ * operations per second, each benchmark reports the transferred bytes per
+ * second as the {@code bytes} secondary result.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class BackendConnectorBenchmark {
+
+    /**
+     * Connector under test, shared by all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Backend {
+
+        @Param({ "filesystem", "redis" })
+        String backend;
+
+        @Param({ "localhost" })
+        String redisHost;
+
+        @Param({ "6379" })
+        int redisPort;
+
+        BackendConnector connector;
+
+        private Path directory;
+
+        private LettuceConnectionFactory connectionFactory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            if ("filesystem".equals(backend)) {
+                directory = Files.createTempDirectory("backend-benchmark");
+                // compact often, so that sustained writes do not fill the
+                // disk with superseded records
+                connector = new FileSystemConnector(directory,
+                        FileSystemConnector.DEFAULT_MAX_SEGMENT_SIZE,
+                        Duration.ofSeconds(1));
+            } else if ("redis".equals(backend)) {
+                connectionFactory = new LettuceConnectionFactory(
+                        new RedisStandaloneConfiguration(redisHost,
+                                redisPort));
+                connectionFactory.afterPropertiesSet();
+                connectionFactory.start();
+                try {
+                    connectionFactory.getConnection().close();
+                } catch (RuntimeException e) {
+                    connectionFactory.destroy();
+                    throw new IllegalStateException(
+                            "Redis is not reachable at " + redisHost + ":"
+                                    + redisPort + ", start a server or run"
+                                    + " with -p backend=filesystem",
+                            e);
+                }
+                connector = new RedisConnector(connectionFactory);
+            } else {
+                throw new IllegalArgumentException(
+                        "Unknown backend " + backend);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            if (connector instanceof FileSystemConnector fileSystem) {
+                fileSystem.close();
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder())
+                            .toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+            if (connectionFactory != null) {
+                connectionFactory.destroy();
+            }
+        }
+    }
+
+    /**
+     * Session of a thread, stored before the measurement so that reads find
+     * it.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        @Param({ "16384", "1048576" })
+        int size;
+
+        String clusterKey;
+
+        byte[] data;
+
+        @Setup(Level.Trial)
+        public void setUp(Backend backend) {
+            clusterKey = "benchmark-" + UUID.randomUUID();
+            data = new byte[size];
+            new Random(size).nextBytes(data);
+            backend.connector.sendSession(new SessionInfo(clusterKey, data));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(Backend backend) {
+            backend.connector.deleteSession(clusterKey);
+        }
+    }
+
+    /**
+     * Bytes transferred by a thread, reported as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Payload {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    public void sendSession(Backend backend, Session session,
+            Payload payload) {
+        backend.connector
+                .sendSession(new SessionInfo(session.clusterKey, session.data));
+        payload.bytes += session.data.length;
+    }
+
+    @Benchmark
+    public byte[] getSession(Backend backend, Session session,
+            Payload payload) {
+        byte[] data = backend.connector.getSession(session.clusterKey)
+                .getData();
+        payload.bytes += data.length;
+        return data;
+    }
+}
@@ -0,0 +1,245 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.grid.Grid;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.html.H2;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.kubernetes.starter.sessiontracker.UnserializableComponentWrapper;
+
+/**
+ * Builds session attributes shaped like the ones of a real Vaadin
+ * application: a {@link UI} with views made of nested layouts, grids with
+ * thousands of in-memory rows, components holding transient references to
+ * Spring beans, and unserializable components in an
+ * {@link UnserializableComponentWrapper}.
+ * <p>
+ * The UI is not attached to a {@link VaadinSession}, so that the graph does
+ * not depend on a running Vaadin service. Serializing wrapped components
+ * requires a locked session to be current, see {@link #lockedSession()}.
+ */
+public final class SessionGraph {
+
+    /**
+     * Depth of the nested layouts of each view.
+     */
+    static final int LAYOUT_DEPTH = 6;
+
+    private SessionGraph() {
+    }
+
+    /**
+     * Creates a Spring context with the beans referenced by the views.
+     *
+     * @return the started application context.
+     */
+    public static AnnotationConfigApplicationContext applicationContext() {
+        return new AnnotationConfigApplicationContext(CustomerService.class,
+                AuditLog.class);
+    }
+
+    /**
+     * Creates session attributes.
+     *
+     * @param appCtx
+     *            the application context providing the injected beans.
+     * @param views
+     *            the number of views in the UI.
+     * @param rows
+     *            the number of rows of the grid of each view.
+     * @return the session attributes, by name.
+     */
+    public static Map<String, Object> create(ApplicationContext appCtx,
+            int views, int rows) {
+        CustomerService customerService = appCtx
+                .getBean(CustomerService.class);
+        AuditLog auditLog = appCtx.getBean(AuditLog.class);
+        UI ui = new UI();
+        for (int i = 0; i < views; i++) {
+            ui.add(new CustomerView(customerService, auditLog, rows));
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("com.vaadin.flow.component.UI", ui);
+        attributes.put("recentlyViewed",
+                new ArrayList<>(customerService.fetch(20)));
+        attributes.put("preferences", new HashMap<>(Map.of("theme", "dark",
+                "locale", "en-US", "pageSize", 50)));
+        return attributes;
+    }
+
+    /**
+     * Creates a session whose lock is held by every thread, to be set as the
+     * current session while serializing graphs with wrapped components.
+     *
+     * @return a locked session, not bound to a Vaadin service.
+     */
+    public static VaadinSession lockedSession() {
+        return new LockedVaadinSession();
+    }
+
+    private static final class LockedVaadinSession extends VaadinSession {
+
+        private final Lock lock = new ReentrantLock();
+
+        private LockedVaadinSession() {
+            super(null);
+        }
+
+        @Override
+        public boolean hasLock() {
+            return true;
+        }
+
+        @Override
+        public Lock getLockInstance() {
+            return lock;
+        }
+    }
+
+    /**
+     * A row of the customer grids.
+     */
+    public record Customer(long id, String name, String email, String city,
+            LocalDate since, double balance) implements Serializable {
+    }
+
+    /**
+     * Singleton service referenced by views through transient fields.
+     */
+    public static class CustomerService {
+
+        /**
+         * Gets customers.
+         *
+         * @param count
+         *            the number of customers.
+         * @return the customers.
+         */
+        public List<Customer> fetch(int count) {
+            return IntStream.range(0, count)
+                    .mapToObj(i -> new Customer(i, "Customer " + i,
+                            "customer" + i + "@example.com", "City " + (i % 97),
+                            LocalDate.of(2000 + i % 25, 1 + i % 12,
+                                    1 + i % 28),
+                            i * 1.5))
+                    .toList();
+        }
+    }
+
+    /**
+     * Singleton service referenced by views through transient fields.
+     */
+    public static class AuditLog {
+
+        /**
+         * Records an event.
+         *
+         * @param event
+         *            the event description.
+         */
+        public void record(String event) {
+            // no-op
+        }
+    }
+
+    /**
+     * A view with a header of nested layouts, a customer grid and a wrapped
+     * unserializable chart.
+     */
+    public static class CustomerView extends Div {
+
+        private final transient CustomerService customerService;
+
+        private final transient AuditLog auditLog;
+
+        private final Grid<Customer> grid = new Grid<>();
+
+        CustomerView(CustomerService customerService, AuditLog auditLog,
+                int rows) {
+            this.customerService = customerService;
+            this.auditLog = auditLog;
+            Div layout = this;
+            for (int depth = 0; depth < LAYOUT_DEPTH; depth++) {
+                Div nested = new Div(new H2("Section " + depth),
+                        new Span("Description of section " + depth));
+                nested.addClassName("section-" + depth);
+                layout.add(nested);
+                layout = nested;
+            }
+            grid.addColumn(Customer::name).setHeader("Name")
+                    .setSortable(true);
+            grid.addColumn(Customer::email).setHeader("Email");
+            grid.addColumn(Customer::city).setHeader("City");
+            grid.addColumn(Customer::since).setHeader("Customer since");
+            grid.addColumn(Customer::balance).setHeader("Balance");
+            grid.addSelectionListener(
+                    event -> this.auditLog.record("selection changed"));
+            grid.setItems(this.customerService.fetch(rows));
+            add(grid, new ChartWrapper(new LegacyChart(rows)));
+        }
+    }
+
+    /**
+     * A component that cannot be serialized, because it holds a reference to
+     * a non serializable renderer.
+     */
+    @Tag("legacy-chart")
+    public static class LegacyChart extends Component {
+
+        private final Renderer renderer;
+
+        private final int points;
+
+        LegacyChart(int points) {
+            this.points = points;
+            this.renderer = new Renderer();
+        }
+    }
+
+    private static final class Renderer {
+    }
+
+    /**
+     * Wraps a {@link LegacyChart}, storing the number of points as state.
+     */
+    public static class ChartWrapper
+            extends UnserializableComponentWrapper<Integer, LegacyChart> {
+
+        ChartWrapper(LegacyChart chart) {
+            super(chart, ChartWrapper::serialize, ChartWrapper::deserialize);
+        }
+
+        private static Integer serialize(LegacyChart chart) {
+            return chart.points;
+        }
+
+        private static LegacyChart deserialize(Integer points) {
+            return new LegacyChart(points);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.vaadin.flow.internal.CurrentInstance;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SpringTransientHandler;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientInjectableObjectInputStream;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientInjectableObjectOutputStream;
+
+/**
+ * Throughput of the serialization and deserialization of session attributes
+ * with {@link TransientInjectableObjectOutputStream#writeWithTransients(Object)}
+ * and {@link TransientInjectableObjectInputStream#readWithTransients()}, on the
+ * graphs built by {@link SessionGraph}.
+ * <p>
+ * Besides operations per second, each benchmark reports the processed bytes
+ * per second as the {@code bytes} secondary result; the payload size is their
+ * ratio. Run with {@code -prof gc} to also report the allocation rate, in
+ * bytes per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class SessionSerializationBenchmark {
+
+    /**
+     * Spring context and transient handler, shared by all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Spring {
+
+        AnnotationConfigApplicationContext appCtx;
+
+        SpringTransientHandler handler;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            appCtx = SessionGraph.applicationContext();
+            handler = new SpringTransientHandler(appCtx);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            appCtx.close();
+        }
+    }
+
+    /**
+     * Session attributes of a thread, since serialization temporarily
+     * detaches wrapped components from the graph.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        @Param({ "1", "5" })
+        int views;
+
+        @Param({ "1000", "10000" })
+        int rows;
+
+        Map<String, Object> attributes;
+
+        byte[] serialized;
+
+        @Setup(Level.Trial)
+        public void setUp(Spring spring) throws IOException {
+            VaadinSession.setCurrent(SessionGraph.lockedSession());
+            attributes = SessionGraph.create(spring.appCtx, views, rows);
+            serialized = write(spring.handler, attributes, 8192);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            CurrentInstance.clearAll();
+        }
+    }
+
+    /**
+     * Bytes processed by a thread, reported as a rate.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Payload {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] writeWithTransients(Spring spring, Session session,
+            Payload payload) throws IOException {
+        byte[] data = write(spring.handler, session.attributes,
+                session.serialized.length);
+        payload.bytes += data.length;
+        return data;
+    }
+
+    @Benchmark
+    public Object readWithTransients(Spring spring, Session session,
+            Payload payload) throws IOException, ClassNotFoundException {
+        Object attributes = new TransientInjectableObjectInputStream(
+                new ByteArrayInputStream(session.serialized), spring.handler)
+                .readWithTransients();
+        payload.bytes += session.serialized.length;
+        return attributes;
+    }
+
+    private static byte[] write(SpringTransientHandler handler,
+            Map<String, Object> attributes, int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        TransientInjectableObjectOutputStream.newInstance(out, handler)
+                .writeWithTransients(attributes);
+        return out.toByteArray();
+    }
+}
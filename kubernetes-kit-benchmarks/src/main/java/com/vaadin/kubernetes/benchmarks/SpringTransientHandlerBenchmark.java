@@ -0,0 +1,299 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.vaadin.flow.internal.CurrentInstance;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.spring.annotation.UIScope;
+import com.vaadin.flow.spring.annotation.VaadinSessionScope;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SpringTransientHandler;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientDescriptor;
+
+/**
+ * Cost of {@link SpringTransientHandler#inspect(Object)} and
+ * {@link SpringTransientHandler#inject(Object, List)}, per object and per
+ * session, with a Spring context of hundreds of singleton, prototype, Vaadin
+ * session scoped and UI scoped beans.
+ * <p>
+ * Each inspected object has a transient field for each scope. Beans of a
+ * scope share the same class, so every lookup scans all the candidates of its
+ * type, as happens for beans implementing common interfaces. The Vaadin
+ * scopes are replaced by simple scopes registered with the same names, bound
+ * to the current {@link VaadinSession}, so that the benchmark measures the
+ * bean resolution of the handler rather than the Vaadin scope
+ * implementations. The {@code Contended} variants run the per session
+ * benchmarks on several threads, each with its own session, sharing the
+ * application context.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SpringTransientHandlerBenchmark {
+
+    static final String UI_SCOPE = "vaadin-ui";
+
+    static final String SESSION_SCOPE = "vaadin-session";
+
+    private static final int SCOPES = 4;
+
+    /**
+     * Application context and transient handler, shared by all threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Beans {
+
+        @Param({ "100", "500" })
+        int beans;
+
+        AnnotationConfigApplicationContext appCtx;
+
+        SpringTransientHandler handler;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            appCtx = new AnnotationConfigApplicationContext();
+            appCtx.getBeanFactory().registerScope(SESSION_SCOPE,
+                    new SessionBoundScope());
+            appCtx.getBeanFactory().registerScope(UI_SCOPE,
+                    new SessionBoundScope());
+            for (int i = 0; i < beans; i++) {
+                appCtx.registerBean(beanName(i), switch (i % SCOPES) {
+                case 0 -> SingletonService.class;
+                case 1 -> PrototypeService.class;
+                case 2 -> SessionService.class;
+                default -> UiService.class;
+                });
+            }
+            appCtx.refresh();
+            handler = new SpringTransientHandler(appCtx);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            appCtx.close();
+        }
+
+        <T> T bean(Class<T> type, int index) {
+            int scope = List.of(SingletonService.class, PrototypeService.class,
+                    SessionService.class, UiService.class).indexOf(type);
+            int perScope = (beans - scope + SCOPES - 1) / SCOPES;
+            return appCtx.getBean(
+                    beanName(scope + SCOPES * (index % perScope)), type);
+        }
+
+        private static String beanName(int index) {
+            return "bean" + index;
+        }
+    }
+
+    /**
+     * Objects of a session and their transient descriptors.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        @Param({ "200" })
+        int objects;
+
+        List<Target> targets;
+
+        List<List<TransientDescriptor>> descriptors;
+
+        @Setup(Level.Trial)
+        public void setUp(Beans beans) {
+            VaadinSession.setCurrent(SessionGraph.lockedSession());
+            targets = new ArrayList<>(objects);
+            for (int i = 0; i < objects; i++) {
+                Target target = new Target();
+                target.singleton = beans.bean(SingletonService.class, i);
+                target.prototype = beans.bean(PrototypeService.class, i);
+                target.sessionService = beans.bean(SessionService.class, i);
+                target.uiService = beans.bean(UiService.class, i);
+                targets.add(target);
+            }
+            descriptors = targets.stream().map(beans.handler::inspect)
+                    .toList();
+            if (descriptors.get(0).size() != SCOPES) {
+                throw new IllegalStateException(
+                        "Expected a descriptor per transient field, found "
+                                + descriptors.get(0));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            CurrentInstance.clearAll();
+        }
+    }
+
+    @Benchmark
+    public List<TransientDescriptor> inspectObject(Beans beans,
+            Session session) {
+        return beans.handler.inspect(session.targets.get(0));
+    }
+
+    @Benchmark
+    public Target injectObject(Beans beans, Session session) {
+        Target target = session.targets.get(0);
+        beans.handler.inject(target, session.descriptors.get(0));
+        return target;
+    }
+
+    @Benchmark
+    public void inspectSession(Beans beans, Session session, Blackhole bh) {
+        inspectAll(beans, session, bh);
+    }
+
+    @Benchmark
+    public void injectSession(Beans beans, Session session) {
+        injectAll(beans, session);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void inspectSessionContended(Beans beans, Session session,
+            Blackhole bh) {
+        inspectAll(beans, session, bh);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void injectSessionContended(Beans beans, Session session) {
+        injectAll(beans, session);
+    }
+
+    private static void inspectAll(Beans beans, Session session,
+            Blackhole bh) {
+        for (Target target : session.targets) {
+            bh.consume(beans.handler.inspect(target));
+        }
+    }
+
+    private static void injectAll(Beans beans, Session session) {
+        for (int i = 0; i < session.targets.size(); i++) {
+            beans.handler.inject(session.targets.get(i),
+                    session.descriptors.get(i));
+        }
+    }
+
+    /**
+     * An object with a transient reference to a bean of each scope.
+     */
+    public static class Target implements Serializable {
+
+        private transient SingletonService singleton;
+
+        private transient PrototypeService prototype;
+
+        private transient SessionService sessionService;
+
+        private transient UiService uiService;
+    }
+
+    /**
+     * A singleton bean.
+     */
+    public static class SingletonService {
+    }
+
+    /**
+     * A prototype bean.
+     */
+    @org.springframework.context.annotation.Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+    public static class PrototypeService {
+    }
+
+    /**
+     * A Vaadin session scoped bean.
+     */
+    @VaadinSessionScope
+    public static class SessionService {
+    }
+
+    /**
+     * A UI scoped bean.
+     */
+    @UIScope
+    public static class UiService {
+    }
+
+    /**
+     * A scope storing beans per current {@link VaadinSession}.
+     */
+    private static final class SessionBoundScope
+            implements org.springframework.beans.factory.config.Scope {
+
+        private final Map<VaadinSession, Map<String, Object>> stores = new ConcurrentHashMap<>();
+
+        @Override
+        public Object get(String name, ObjectFactory<?> objectFactory) {
+            return store().computeIfAbsent(name,
+                    key -> objectFactory.getObject());
+        }
+
+        @Override
+        public Object remove(String name) {
+            return store().remove(name);
+        }
+
+        @Override
+        public void registerDestructionCallback(String name,
+                Runnable callback) {
+            // beans are discarded with the context
+        }
+
+        @Override
+        public Object resolveContextualObject(String key) {
+            return null;
+        }
+
+        @Override
+        public String getConversationId() {
+            return null;
+        }
+
+        private Map<String, Object> store() {
+            VaadinSession session = VaadinSession.getCurrent();
+            if (session == null) {
+                throw new IllegalStateException("No current VaadinSession");
+            }
+            return stores.computeIfAbsent(session,
+                    key -> new ConcurrentHashMap<>());
+        }
+    }
+}
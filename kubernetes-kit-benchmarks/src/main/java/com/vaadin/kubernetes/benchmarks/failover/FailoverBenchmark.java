@@ -0,0 +1,117 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for all the users of a failed pod to be served by another pod, as
+ * measured by {@link FailoverSimulation}. The pods are started and the
+ * sessions created before each measured failover.
+ * <p>
+ * Besides the time, each benchmark reports the secondary results of the
+ * {@link FailoverSimulation.Report}, summed over the measured failovers:
+ * {@code lostUpdates}, {@code usersWithLostUpdates}, {@code failedRestores}
+ * and {@code redirects}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FailoverBenchmark {
+
+    /**
+     * A simulation ready to fail over.
+     */
+    @State(Scope.Benchmark)
+    public static class Cluster {
+
+        @Param({ "3" })
+        int pods;
+
+        @Param({ "60" })
+        int users;
+
+        @Param({ "65536" })
+        int stateSize;
+
+        @Param({ "false", "true" })
+        boolean graceful;
+
+        FailoverSimulation simulation;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Exception {
+            simulation = FailoverSimulation
+                    .start(new FailoverSimulation.Settings(pods, users, 10,
+                            graceful, stateSize));
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            simulation.close();
+        }
+    }
+
+    /**
+     * Outcome of the measured failovers.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+
+        public long lostUpdates;
+
+        public long usersWithLostUpdates;
+
+        public long failedRestores;
+
+        public long redirects;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lostUpdates = 0;
+            usersWithLostUpdates = 0;
+            failedRestores = 0;
+            redirects = 0;
+        }
+
+        void add(FailoverSimulation.Report report) {
+            lostUpdates += report.lostUpdates();
+            usersWithLostUpdates += report.usersWithLostUpdates();
+            failedRestores += report.failedRestores();
+            redirects += report.redirects();
+        }
+    }
+
+    @Benchmark
+    public FailoverSimulation.Report failover(Cluster cluster,
+            Outcome outcome) throws Exception {
+        FailoverSimulation.Report report = cluster.simulation.failover();
+        outcome.add(report);
+        return report;
+    }
+}
@@ -0,0 +1,311 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector;
+
+/**
+ * Simulates the failure of a pod of a cluster running in this JVM, and
+ * measures how the users of that pod recover their sessions on the other
+ * pods.
+ * <p>
+ * All pods share an {@link InMemoryBackendConnector}. Users load the
+ * application and send a number of UI updates through a
+ * {@link StickyRouter}; then the first pod is killed or shut down while its
+ * users keep sending updates, until each of them is served by another pod.
+ * For each affected user the simulation measures the time from the failure
+ * to the first update served by another pod, the updates acknowledged by the
+ * failed pod but missing from the restored state, and the redirects followed.
+ * <p>
+ * Usage: {@code start(settings)}, {@code failover()}, {@code close()}, or
+ * {@link #run(Settings)} to do all at once.
+ */
+public final class FailoverSimulation implements AutoCloseable {
+
+    private static final Duration RESTORE_TIMEOUT = Duration.ofSeconds(60);
+
+    private final Settings settings;
+
+    private final List<Pod> pods = new ArrayList<>();
+
+    private final List<SimulatedUser> users = new ArrayList<>();
+
+    private final ExecutorService executor = Executors
+            .newVirtualThreadPerTaskExecutor();
+
+    private StickyRouter router;
+
+    private FailoverSimulation(Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Starts the pods and brings the users to the state before the failover.
+     *
+     * @param settings
+     *            the simulation settings.
+     * @return the started simulation.
+     * @throws Exception
+     *             if the pods cannot be started or the users fail to reach
+     *             them.
+     */
+    public static FailoverSimulation start(Settings settings)
+            throws Exception {
+        FailoverSimulation simulation = new FailoverSimulation(settings);
+        try {
+            simulation.prepare();
+        } catch (Exception e) {
+            simulation.close();
+            throw e;
+        }
+        return simulation;
+    }
+
+    /**
+     * Runs a complete simulation.
+     *
+     * @param settings
+     *            the simulation settings.
+     * @return the simulation report.
+     * @throws Exception
+     *             if the simulation cannot be run.
+     */
+    public static Report run(Settings settings) throws Exception {
+        try (FailoverSimulation simulation = start(settings)) {
+            return simulation.failover();
+        }
+    }
+
+    private void prepare() throws Exception {
+        BackendConnector backend = new InMemoryBackendConnector();
+        for (int i = 0; i < settings.pods(); i++) {
+            pods.add(Pod.start("pod-" + i, backend, settings.stateSize()));
+        }
+        router = new StickyRouter(pods);
+        for (int i = 0; i < settings.users(); i++) {
+            users.add(new SimulatedUser("user-" + i));
+        }
+        invokeAll(users, user -> {
+            user.load(router);
+            for (int i = 0; i < settings.updatesBeforeFailover(); i++) {
+                user.update(router);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Fails the first pod and waits for all its users to be served by
+     * another pod.
+     *
+     * @return the simulation report.
+     * @throws Exception
+     *             if a user cannot reach any pod.
+     */
+    public Report failover() throws Exception {
+        Pod failed = pods.get(0);
+        List<SimulatedUser> affected = users.stream()
+                .filter(user -> router.assigned(user) == failed).toList();
+        long start = System.nanoTime();
+        Future<?> failure = executor.submit(() -> {
+            if (settings.graceful()) {
+                failed.shutdown();
+            } else {
+                failed.kill();
+            }
+        });
+        List<Outcome> outcomes = invokeAll(affected,
+                user -> restore(user, failed, start));
+        failure.get();
+        return Report.of(users.size(), outcomes);
+    }
+
+    private Outcome restore(SimulatedUser user, Pod failed, long start)
+            throws IOException, InterruptedException {
+        int redirects = 0;
+        long deadline = start + RESTORE_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            long acknowledged = user.getSequence();
+            SimulatedUser.Response response = user.update(router);
+            redirects += response.redirects();
+            if (response.status() != 200) {
+                // the session was not restored
+                return new Outcome(elapsed(start), false, acknowledged,
+                        redirects);
+            }
+            if (!failed.getName().equals(response.pod())) {
+                return new Outcome(elapsed(start), true,
+                        Math.max(0, acknowledged - response.previousSequence()),
+                        redirects);
+            }
+            // served by the failed pod before it went down
+        }
+        throw new IllegalStateException(
+                user + " still served by " + failed.getName() + " after "
+                        + RESTORE_TIMEOUT);
+    }
+
+    private static Duration elapsed(long start) {
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private <T> List<T> invokeAll(List<SimulatedUser> users,
+            UserTask<T> task) throws Exception {
+        List<Callable<T>> calls = users.stream()
+                .<Callable<T>> map(user -> () -> task.run(user)).toList();
+        List<T> results = new ArrayList<>(users.size());
+        for (Future<T> future : executor.invokeAll(calls)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+        users.forEach(SimulatedUser::close);
+        pods.forEach(Pod::close);
+    }
+
+    /**
+     * Runs a simulation and prints its report.
+     *
+     * @param args
+     *            optional number of pods, number of users, updates before
+     *            the failover, {@code graceful} or {@code kill}, and UI state
+     *            size in bytes.
+     * @throws Exception
+     *             if the simulation cannot be run.
+     */
+    public static void main(String[] args) throws Exception {
+        Settings defaults = Settings.DEFAULT;
+        Settings settings = new Settings(
+                args.length > 0 ? Integer.parseInt(args[0]) : defaults.pods(),
+                args.length > 1 ? Integer.parseInt(args[1])
+                        : defaults.users(),
+                args.length > 2 ? Integer.parseInt(args[2])
+                        : defaults.updatesBeforeFailover(),
+                args.length > 3 ? "graceful".equals(args[3])
+                        : defaults.graceful(),
+                args.length > 4 ? Integer.parseInt(args[4])
+                        : defaults.stateSize());
+        System.out.println(settings);
+        System.out.println(run(settings));
+    }
+
+    @FunctionalInterface
+    private interface UserTask<T> {
+        T run(SimulatedUser user) throws Exception;
+    }
+
+    private record Outcome(Duration timeToRestore, boolean restored,
+            long lostUpdates, int redirects) {
+    }
+
+    /**
+     * Simulation settings.
+     *
+     * @param pods
+     *            the number of pods, at least two.
+     * @param users
+     *            the number of users, spread over the pods.
+     * @param updatesBeforeFailover
+     *            the UI updates sent by each user before the failure.
+     * @param graceful
+     *            {@literal true} to shut the pod down gracefully,
+     *            {@literal false} to kill it.
+     * @param stateSize
+     *            the size in bytes of the UI state of each session.
+     */
+    public record Settings(int pods, int users, int updatesBeforeFailover,
+            boolean graceful, int stateSize) {
+
+        /**
+         * Three pods, 60 users, 10 updates each, pod killed, 64 KiB state.
+         */
+        public static final Settings DEFAULT = new Settings(3, 60, 10, false,
+                64 * 1024);
+
+        public Settings {
+            if (pods < 2) {
+                throw new IllegalArgumentException(
+                        "At least two pods are required: " + pods);
+            }
+        }
+    }
+
+    /**
+     * Results of a simulation, for the users of the failed pod.
+     *
+     * @param users
+     *            the total number of users.
+     * @param affectedUsers
+     *            the number of users served by the failed pod.
+     * @param failedRestores
+     *            the affected users whose session could not be restored.
+     * @param medianTimeToRestore
+     *            the median time from the failure to the first update served
+     *            by another pod.
+     * @param p99TimeToRestore
+     *            the 99th percentile of the time to restore.
+     * @param maxTimeToRestore
+     *            the maximum time to restore.
+     * @param lostUpdates
+     *            the updates acknowledged by the failed pod and missing from
+     *            the restored states, for all users.
+     * @param usersWithLostUpdates
+     *            the number of affected users that lost at least one update.
+     * @param redirects
+     *            the redirects followed by the affected users until restored.
+     */
+    public record Report(int users, int affectedUsers, int failedRestores,
+            Duration medianTimeToRestore, Duration p99TimeToRestore,
+            Duration maxTimeToRestore, long lostUpdates,
+            int usersWithLostUpdates, long redirects) {
+
+        private static Report of(int users, List<Outcome> outcomes) {
+            List<Duration> times = outcomes.stream()
+                    .map(Outcome::timeToRestore).sorted().toList();
+            return new Report(users, outcomes.size(),
+                    (int) outcomes.stream().filter(o -> !o.restored()).count(),
+                    Latencies.percentile(times, 0.5),
+                    Latencies.percentile(times, 0.99),
+                    Latencies.percentile(times, 1),
+                    outcomes.stream().mapToLong(Outcome::lostUpdates).sum(),
+                    (int) outcomes.stream().filter(o -> o.lostUpdates() > 0)
+                            .count(),
+                    outcomes.stream().mapToLong(Outcome::redirects).sum());
+        }
+
+        /**
+         * Gets the average number of redirects followed by an affected user.
+         *
+         * @return the redirects per affected user.
+         */
+        public double redirectsPerUser() {
+            return affectedUsers == 0 ? 0 : (double) redirects / affectedUsers;
+        }
+    }
+}
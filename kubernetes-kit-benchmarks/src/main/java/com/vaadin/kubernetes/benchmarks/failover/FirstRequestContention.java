@@ -0,0 +1,380 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector;
+
+/**
+ * Load test of the concurrent first requests of a user on a pod that does not
+ * hold its session, as after a failover: one request restores the session
+ * from the backend, the others wait for it in
+ * {@link SessionTrackerFilter} and are then redirected to be replayed with
+ * the new session.
+ * <p>
+ * Each burst reproduces a page reload: for each user, a page load, requests
+ * for a number of resources and a push reconnect are sent at the same time
+ * to the target pod, while the user session was created on another pod. The
+ * report gives the request latency percentiles, the redirects followed to
+ * replay requests, and the occupancy of the target pod threads: the peak of
+ * busy container threads, the peak of requests waiting for a session
+ * creation and the total time requests spent waiting.
+ * <p>
+ * Usage: {@code start(settings)}, then {@code prepareBurst()} and
+ * {@code burst()} any number of times, {@code report()} and
+ * {@code close()}, or {@link #run(Settings)} to do all at once.
+ */
+public final class FirstRequestContention implements AutoCloseable {
+
+    private static final Duration SAMPLING_PERIOD = Duration.ofMillis(1);
+
+    private static final Duration SERIALIZATION_TIMEOUT = Duration
+            .ofSeconds(30);
+
+    private final Settings settings;
+
+    private final ExecutorService executor = Executors
+            .newVirtualThreadPerTaskExecutor();
+
+    private final Queue<SimulatedUser.Response> responses = new ConcurrentLinkedQueue<>();
+
+    private List<SimulatedUser> prepared = List.of();
+
+    private Pod origin;
+
+    private Pod target;
+
+    private StickyRouter originRouter;
+
+    private StickyRouter targetRouter;
+
+    private int userCount;
+
+    private int requests;
+
+    private int failures;
+
+    private int peakBusyThreads;
+
+    private int peakWaitingRequests;
+
+    private long waitingNanos;
+
+    private FirstRequestContention(Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Starts the origin and target pods.
+     *
+     * @param settings
+     *            the load test settings.
+     * @return the started load test.
+     * @throws Exception
+     *             if the pods cannot be started.
+     */
+    public static FirstRequestContention start(Settings settings)
+            throws Exception {
+        FirstRequestContention test = new FirstRequestContention(settings);
+        try {
+            BackendConnector backend = new InMemoryBackendConnector();
+            test.origin = Pod.start("origin", backend, settings.stateSize());
+            test.target = Pod.start("target", backend, settings.stateSize());
+            test.originRouter = new StickyRouter(List.of(test.origin));
+            test.targetRouter = new StickyRouter(List.of(test.target));
+        } catch (Exception e) {
+            test.close();
+            throw e;
+        }
+        return test;
+    }
+
+    /**
+     * Runs a complete load test.
+     *
+     * @param settings
+     *            the load test settings.
+     * @return the load test report.
+     * @throws Exception
+     *             if the load test cannot be run.
+     */
+    public static Report run(Settings settings) throws Exception {
+        try (FirstRequestContention test = start(settings)) {
+            for (int i = 0; i < settings.bursts(); i++) {
+                test.prepareBurst();
+                test.burst();
+            }
+            return test.report();
+        }
+    }
+
+    /**
+     * Creates the sessions of the users of the next burst on the origin pod,
+     * and waits for them to be stored in the backend.
+     *
+     * @throws Exception
+     *             if the origin pod fails or does not store the sessions in
+     *             time.
+     */
+    public void prepareBurst() throws Exception {
+        List<SimulatedUser> next = new ArrayList<>();
+        for (int i = 0; i < settings.users(); i++) {
+            next.add(new SimulatedUser("user-" + userCount++));
+        }
+        prepared = next;
+        invokeAll(next.stream().<Callable<Void>> map(user -> () -> {
+            user.load(originRouter);
+            user.update(originRouter);
+            return null;
+        }).toList());
+        SessionSerializer serializer = origin.getSessionSerializer();
+        long deadline = System.nanoTime() + SERIALIZATION_TIMEOUT.toNanos();
+        while (serializer.getPendingSerializationCount() > 0
+                || serializer.getInFlightSerializationCount() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new TimeoutException("Sessions not serialized after "
+                        + SERIALIZATION_TIMEOUT);
+            }
+            Thread.sleep(SAMPLING_PERIOD);
+        }
+    }
+
+    /**
+     * Sends the requests of a page reload of all the prepared users at the
+     * same time to the target pod, and waits for all the responses. The
+     * users are discarded afterwards.
+     *
+     * @throws Exception
+     *             if the requests cannot be sent.
+     */
+    public void burst() throws Exception {
+        List<SimulatedUser> burst = prepared;
+        prepared = List.of();
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Callable<SimulatedUser.Response>> calls = new ArrayList<>();
+        for (SimulatedUser user : burst) {
+            calls.add(request(gate, user, ""));
+            for (int i = 0; i < settings.resources(); i++) {
+                calls.add(request(gate, user,
+                        "VAADIN/build/chunk-" + i + ".js"));
+            }
+            calls.add(request(gate, user, "VAADIN/push?v-r=push&v-uiId=0"));
+        }
+        List<Future<SimulatedUser.Response>> futures = new ArrayList<>();
+        for (Callable<SimulatedUser.Response> request : calls) {
+            futures.add(executor.submit(request));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Future<Occupancy> sampler = executor
+                .submit(() -> sampleOccupancy(done));
+        gate.countDown();
+        try {
+            for (Future<SimulatedUser.Response> future : futures) {
+                try {
+                    SimulatedUser.Response response = future.get();
+                    responses.add(response);
+                    if (response.status() == 200) {
+                        requests++;
+                    } else {
+                        failures++;
+                    }
+                } catch (ExecutionException e) {
+                    failures++;
+                }
+            }
+        } finally {
+            done.set(true);
+            burst.forEach(SimulatedUser::close);
+        }
+        Occupancy occupancy = sampler.get();
+        peakBusyThreads = Math.max(peakBusyThreads, occupancy.busyThreads());
+        peakWaitingRequests = Math.max(peakWaitingRequests,
+                occupancy.waitingRequests());
+        waitingNanos += occupancy.waitingNanos();
+    }
+
+    private Callable<SimulatedUser.Response> request(CountDownLatch gate,
+            SimulatedUser user, String pathAndQuery) {
+        return () -> {
+            gate.await();
+            return user.get(targetRouter, pathAndQuery);
+        };
+    }
+
+    private Occupancy sampleOccupancy(AtomicBoolean done)
+            throws InterruptedException {
+        SessionTrackerFilter filter = target.getSessionTrackerFilter();
+        int busyThreads = 0;
+        int waitingRequests = 0;
+        long waitingNanos = 0;
+        long last = System.nanoTime();
+        while (!done.get()) {
+            int waiting = filter.getWaitingRequestCount();
+            long now = System.nanoTime();
+            waitingNanos += waiting * (now - last);
+            last = now;
+            waitingRequests = Math.max(waitingRequests, waiting);
+            busyThreads = Math.max(busyThreads, target.getBusyThreadCount());
+            Thread.sleep(SAMPLING_PERIOD);
+        }
+        return new Occupancy(busyThreads, waitingRequests, waitingNanos);
+    }
+
+    /**
+     * Gets the results of the bursts since the start or the last
+     * {@link #reset()}.
+     *
+     * @return the load test report.
+     */
+    public Report report() {
+        List<Duration> latencies = responses.stream()
+                .map(SimulatedUser.Response::duration).sorted().toList();
+        return new Report(requests, failures,
+                responses.stream().mapToLong(SimulatedUser.Response::redirects)
+                        .sum(),
+                peakBusyThreads, peakWaitingRequests,
+                Duration.ofNanos(waitingNanos),
+                Latencies.percentile(latencies, 0.5),
+                Latencies.percentile(latencies, 0.99),
+                Latencies.percentile(latencies, 1));
+    }
+
+    /**
+     * Discards the results of the previous bursts.
+     */
+    public void reset() {
+        responses.clear();
+        requests = 0;
+        failures = 0;
+        peakBusyThreads = 0;
+        peakWaitingRequests = 0;
+        waitingNanos = 0;
+    }
+
+    private void invokeAll(List<Callable<Void>> calls) throws Exception {
+        for (Future<Void> future : executor.invokeAll(calls)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+        prepared.forEach(SimulatedUser::close);
+        if (target != null) {
+            target.close();
+        }
+        if (origin != null) {
+            origin.close();
+        }
+    }
+
+    /**
+     * Runs a load test and prints its report.
+     *
+     * @param args
+     *            optional number of users per burst, resources per page
+     *            load, number of bursts and UI state size in bytes.
+     * @throws Exception
+     *             if the load test cannot be run.
+     */
+    public static void main(String[] args) throws Exception {
+        Settings defaults = Settings.DEFAULT;
+        Settings settings = new Settings(
+                args.length > 0 ? Integer.parseInt(args[0])
+                        : defaults.users(),
+                args.length > 1 ? Integer.parseInt(args[1])
+                        : defaults.resources(),
+                args.length > 2 ? Integer.parseInt(args[2])
+                        : defaults.bursts(),
+                args.length > 3 ? Integer.parseInt(args[3])
+                        : defaults.stateSize());
+        System.out.println(settings);
+        System.out.println(run(settings));
+    }
+
+    private record Occupancy(int busyThreads, int waitingRequests,
+            long waitingNanos) {
+    }
+
+    /**
+     * Load test settings.
+     *
+     * @param users
+     *            the number of users reloading the page in each burst.
+     * @param resources
+     *            the number of resources requested by each page load,
+     *            besides the page and the push reconnect.
+     * @param bursts
+     *            the number of bursts, each with new users.
+     * @param stateSize
+     *            the size in bytes of the UI state of each session.
+     */
+    public record Settings(int users, int resources, int bursts,
+            int stateSize) {
+
+        /**
+         * Ten users, 20 resources, 10 bursts, 64 KiB state.
+         */
+        public static final Settings DEFAULT = new Settings(10, 20, 10,
+                64 * 1024);
+    }
+
+    /**
+     * Results of the bursts.
+     *
+     * @param requests
+     *            the requests answered successfully.
+     * @param failures
+     *            the requests that failed or got an error status.
+     * @param replays
+     *            the redirects followed to replay requests.
+     * @param peakBusyThreads
+     *            the maximum number of busy container threads of the target
+     *            pod.
+     * @param peakWaitingRequests
+     *            the maximum number of requests waiting for a concurrent
+     *            session creation on the target pod.
+     * @param waitingTime
+     *            the total time spent by requests waiting for a concurrent
+     *            session creation.
+     * @param p50Latency
+     *            the median latency of a request, including replays.
+     * @param p99Latency
+     *            the 99th percentile of the request latency.
+     * @param maxLatency
+     *            the maximum request latency.
+     */
+    public record Report(int requests, int failures, long replays,
+            int peakBusyThreads, int peakWaitingRequests,
+            Duration waitingTime, Duration p50Latency, Duration p99Latency,
+            Duration maxLatency) {
+    }
+}
@@ -0,0 +1,133 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for a burst of page reloads on a pod that does not hold the sessions
+ * to be fully answered, as measured by {@link FirstRequestContention}. The
+ * sessions are created on another pod before each measured burst.
+ * <p>
+ * Besides the time, each benchmark reports the secondary results of the
+ * {@link FirstRequestContention.Report}: {@code replays} and
+ * {@code failures} summed over the measured bursts, {@code waitingMillis}
+ * the total time requests spent waiting for a concurrent session creation,
+ * {@code peakBusyThreads} and {@code peakWaitingRequests} summed over the
+ * bursts, to be divided by their count, and {@code p99LatencyMillis} the
+ * tail latency of the requests of the iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FirstRequestContentionBenchmark {
+
+    /**
+     * Origin and target pods, started once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Cluster {
+
+        @Param({ "1", "10" })
+        int users;
+
+        @Param({ "20" })
+        int resources;
+
+        @Param({ "65536" })
+        int stateSize;
+
+        FirstRequestContention test;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            test = FirstRequestContention.start(
+                    new FirstRequestContention.Settings(users, resources, 1,
+                            stateSize));
+        }
+
+        @Setup(Level.Invocation)
+        public void prepareBurst() throws Exception {
+            test.reset();
+            test.prepareBurst();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            test.close();
+        }
+    }
+
+    /**
+     * Outcome of the measured bursts.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Outcome {
+
+        public long replays;
+
+        public long failures;
+
+        public long waitingMillis;
+
+        public long peakBusyThreads;
+
+        public long peakWaitingRequests;
+
+        public long p99LatencyMillis;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            replays = 0;
+            failures = 0;
+            waitingMillis = 0;
+            peakBusyThreads = 0;
+            peakWaitingRequests = 0;
+            p99LatencyMillis = 0;
+        }
+
+        void add(FirstRequestContention.Report report) {
+            replays += report.replays();
+            failures += report.failures();
+            waitingMillis += report.waitingTime().toMillis();
+            peakBusyThreads += report.peakBusyThreads();
+            peakWaitingRequests += report.peakWaitingRequests();
+            p99LatencyMillis = Math.max(p99LatencyMillis,
+                    report.p99Latency().toMillis());
+        }
+    }
+
+    @Benchmark
+    public FirstRequestContention.Report burst(Cluster cluster,
+            Outcome outcome) throws Exception {
+        cluster.test.burst();
+        FirstRequestContention.Report report = cluster.test.report();
+        outcome.add(report);
+        return report;
+    }
+}
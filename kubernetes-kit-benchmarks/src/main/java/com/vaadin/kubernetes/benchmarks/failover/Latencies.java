@@ -0,0 +1,40 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Percentiles of the durations measured by the simulations.
+ */
+final class Latencies {
+
+    private Latencies() {
+    }
+
+    /**
+     * Gets a percentile of sorted durations, with the nearest rank method.
+     *
+     * @param sorted
+     *            the durations, in ascending order.
+     * @param percentile
+     *            the percentile, between 0 and 1.
+     * @return the duration at the percentile, or {@link Duration#ZERO} if
+     *         there are no durations.
+     */
+    static Duration percentile(List<Duration> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return Duration.ZERO;
+        }
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+}
@@ -0,0 +1,213 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import jakarta.servlet.FilterRegistration;
+import jakarta.servlet.ServletRegistration;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionListener;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+
+/**
+ * A simulated application pod: an embedded Tomcat serving
+ * {@link UidlServlet} through {@link SessionTrackerFilter} and
+ * {@link SessionListener}, wired by its own Spring application context to
+ * the backend shared by all pods.
+ * <p>
+ * A pod can be {@link #kill() killed}, losing the serializations not yet
+ * stored, or {@link #shutdown() shut down} gracefully, flushing them before
+ * the server stops.
+ */
+public final class Pod implements AutoCloseable {
+
+    private final String name;
+
+    private final AnnotationConfigApplicationContext context;
+
+    private final PodBackendConnector backend;
+
+    private final Tomcat tomcat;
+
+    private volatile boolean alive = true;
+
+    private Pod(String name, AnnotationConfigApplicationContext context,
+            Tomcat tomcat) {
+        this.name = name;
+        this.context = context;
+        this.backend = context.getBean(PodBackendConnector.class);
+        this.tomcat = tomcat;
+    }
+
+    /**
+     * Starts a pod on a random port.
+     *
+     * @param name
+     *            the pod name, reported in responses.
+     * @param backend
+     *            the backend shared by all pods.
+     * @param stateSize
+     *            the size in bytes of the UI state of each session.
+     * @return the started pod.
+     * @throws IOException
+     *             if the server directory cannot be created.
+     * @throws LifecycleException
+     *             if the server cannot be started.
+     */
+    public static Pod start(String name, BackendConnector backend,
+            int stateSize) throws IOException, LifecycleException {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.registerBean(PodBackendConnector.class,
+                () -> new PodBackendConnector(backend));
+        context.register(PodConfiguration.class);
+        context.refresh();
+
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(
+                Files.createTempDirectory("kubernetes-kit-" + name).toString());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+        Context webapp = tomcat.addContext("", null);
+        StandardManager manager = new StandardManager();
+        // sessions of a killed pod must not survive a restart
+        manager.setPathname(null);
+        webapp.setManager(manager);
+        webapp.addServletContainerInitializer((classes, servletContext) -> {
+            servletContext.addListener(context.getBean(SessionListener.class));
+            FilterRegistration.Dynamic filter = servletContext.addFilter(
+                    "sessionTrackerFilter",
+                    context.getBean(SessionTrackerFilter.class));
+            filter.setAsyncSupported(true);
+            filter.addMappingForUrlPatterns(null, false, "/*");
+            ServletRegistration.Dynamic servlet = servletContext
+                    .addServlet("uidl", new UidlServlet(name, stateSize));
+            servlet.setAsyncSupported(true);
+            servlet.addMapping("/*");
+        }, null);
+        try {
+            tomcat.start();
+        } catch (LifecycleException e) {
+            context.close();
+            throw e;
+        }
+        return new Pod(name, context, tomcat);
+    }
+
+    /**
+     * Gets the pod name.
+     *
+     * @return the pod name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the base URI of the pod.
+     *
+     * @return the base URI.
+     */
+    public URI getUri() {
+        return URI.create("http://localhost:"
+                + tomcat.getConnector().getLocalPort() + "/");
+    }
+
+    /**
+     * Checks whether the pod accepts requests.
+     *
+     * @return {@literal true} until the pod is killed or shut down.
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Gets the number of container threads currently processing a request.
+     *
+     * @return the number of busy request threads.
+     */
+    public int getBusyThreadCount() {
+        return tomcat.getConnector().getProtocolHandler()
+                .getExecutor() instanceof ThreadPoolExecutor executor
+                        ? executor.getActiveCount()
+                        : 0;
+    }
+
+    /**
+     * Gets the session serializer of the pod.
+     *
+     * @return the session serializer.
+     */
+    public SessionSerializer getSessionSerializer() {
+        return context.getBean(SessionSerializer.class);
+    }
+
+    /**
+     * Gets the session tracker filter of the pod.
+     *
+     * @return the session tracker filter.
+     */
+    public SessionTrackerFilter getSessionTrackerFilter() {
+        return context.getBean(SessionTrackerFilter.class);
+    }
+
+    /**
+     * Simulates a crash: the pod stops reaching the backend, so pending
+     * serializations are lost, and then stops serving requests.
+     */
+    public void kill() {
+        alive = false;
+        backend.kill();
+        stop();
+    }
+
+    /**
+     * Simulates a graceful shutdown: pending serializations are flushed to
+     * the backend, while requests received meanwhile are redirected, and then
+     * the pod stops serving requests.
+     */
+    public void shutdown() {
+        alive = false;
+        getSessionSerializer().stop();
+        stop();
+    }
+
+    private void stop() {
+        // sessions expired by the server must not be removed from the backend
+        context.getBean(SessionListener.class).stop();
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+        } catch (LifecycleException e) {
+            throw new IllegalStateException("Cannot stop pod " + name, e);
+        } finally {
+            context.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (alive) {
+            shutdown();
+        }
+    }
+}
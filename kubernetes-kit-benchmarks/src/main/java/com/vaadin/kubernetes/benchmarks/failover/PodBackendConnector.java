@@ -0,0 +1,95 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.time.Duration;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
+
+/**
+ * The view of the shared backend from a single pod, that stops reaching the
+ * backend when the pod is killed, so that the writes still in flight in a
+ * crashed pod are lost as they would be in a real crash.
+ */
+final class PodBackendConnector implements BackendConnector {
+
+    private final BackendConnector delegate;
+
+    private volatile boolean killed;
+
+    PodBackendConnector(BackendConnector delegate) {
+        this.delegate = delegate;
+    }
+
+    void kill() {
+        killed = true;
+    }
+
+    private BackendConnector backend() {
+        if (killed) {
+            throw new IllegalStateException("Pod has been killed");
+        }
+        return delegate;
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        backend().sendSession(sessionInfo);
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        return backend().getSession(clusterKey);
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        backend().deleteSession(clusterKey);
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        backend().markSerializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        backend().markSerializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        backend().markSerializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return backend().markDeserializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        backend().markDeserializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        backend().markDeserializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        return killed || delegate.awaitPendingOperations(timeout);
+    }
+}
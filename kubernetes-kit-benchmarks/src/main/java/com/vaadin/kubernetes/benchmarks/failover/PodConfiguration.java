@@ -0,0 +1,72 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.time.Duration;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.vaadin.kubernetes.starter.KubernetesKitProperties;
+import com.vaadin.kubernetes.starter.SerializationProperties;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionListener;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializationCallback;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SpringTransientHandler;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientInjectableObjectStreamFactory;
+
+/**
+ * The session replication components of a pod, wired as the Kubernetes Kit
+ * auto-configuration does, to the {@link PodBackendConnector} registered in
+ * the pod context.
+ */
+@Configuration(proxyBeanMethods = false)
+class PodConfiguration {
+
+    @Bean
+    KubernetesKitProperties kubernetesKitProperties() {
+        return new KubernetesKitProperties();
+    }
+
+    @Bean
+    SerializationProperties serializationProperties() {
+        return new SerializationProperties();
+    }
+
+    @Bean
+    SessionSerializer sessionSerializer(PodBackendConnector backendConnector,
+            ApplicationContext appCtx,
+            SerializationProperties serializationProperties) {
+        return new SessionSerializer(backendConnector,
+                new SpringTransientHandler(appCtx),
+                sessionTimeout -> Duration.ofSeconds(sessionTimeout)
+                        .plusMinutes(5),
+                SessionSerializationCallback.DEFAULT,
+                new TransientInjectableObjectStreamFactory(),
+                serializationProperties);
+    }
+
+    @Bean
+    SessionListener sessionListener(PodBackendConnector backendConnector,
+            SessionSerializer sessionSerializer) {
+        return new SessionListener(backendConnector, sessionSerializer);
+    }
+
+    @Bean
+    SessionTrackerFilter sessionTrackerFilter(
+            SessionSerializer sessionSerializer,
+            KubernetesKitProperties properties,
+            SessionListener sessionListener) {
+        return new SessionTrackerFilter(sessionSerializer, properties,
+                sessionListener);
+    }
+}
@@ -0,0 +1,205 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+import com.vaadin.flow.server.HandlerHelper.RequestType;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+/**
+ * A browser of a simulated user, with its own cookies. Requests are routed by
+ * a {@link StickyRouter}; redirects are followed through the router, as the
+ * browser would through the ingress, and requests refused by a pod that is
+ * going down are retried on the pod the router assigns next.
+ */
+public final class SimulatedUser implements AutoCloseable {
+
+    static final int MAX_ATTEMPTS = 20;
+
+    private static final Duration RETRY_DELAY = Duration.ofMillis(10);
+
+    private final String name;
+
+    private final HttpClient client;
+
+    private long sequence;
+
+    /**
+     * Creates a new user.
+     *
+     * @param name
+     *            the user name.
+     */
+    public SimulatedUser(String name) {
+        this.name = name;
+        this.client = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager(null, CookiePolicy.ACCEPT_ALL))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    /**
+     * Gets the sequence number of the last update acknowledged by a pod.
+     *
+     * @return the last acknowledged sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Loads the application page, creating the session on first load.
+     *
+     * @param router
+     *            the router of the requests.
+     * @return the response.
+     * @throws IOException
+     *             if no pod responds.
+     * @throws InterruptedException
+     *             if the thread is interrupted.
+     */
+    public Response load(StickyRouter router)
+            throws IOException, InterruptedException {
+        return send(router, "", HttpRequest.BodyPublishers.noBody(), "GET");
+    }
+
+    /**
+     * Sends a UIDL request with the next sequence number.
+     *
+     * @param router
+     *            the router of the requests.
+     * @return the response.
+     * @throws IOException
+     *             if no pod responds.
+     * @throws InterruptedException
+     *             if the thread is interrupted.
+     */
+    public Response update(StickyRouter router)
+            throws IOException, InterruptedException {
+        long next = sequence + 1;
+        Response response = send(router,
+                "?" + ApplicationConstants.REQUEST_TYPE_PARAMETER + "="
+                        + RequestType.UIDL.getIdentifier() + "&"
+                        + UidlServlet.SEQUENCE + "=" + next,
+                HttpRequest.BodyPublishers.noBody(), "POST");
+        if (response.status() == 200) {
+            sequence = next;
+        }
+        return response;
+    }
+
+    /**
+     * Requests a resource of the application, such as a static file or a
+     * push connection.
+     *
+     * @param router
+     *            the router of the requests.
+     * @param pathAndQuery
+     *            the path and query of the resource, relative to the
+     *            application root.
+     * @return the response.
+     * @throws IOException
+     *             if no pod responds.
+     * @throws InterruptedException
+     *             if the thread is interrupted.
+     */
+    public Response get(StickyRouter router, String pathAndQuery)
+            throws IOException, InterruptedException {
+        return send(router, pathAndQuery, HttpRequest.BodyPublishers.noBody(),
+                "GET");
+    }
+
+    private Response send(StickyRouter router, String pathAndQuery,
+            HttpRequest.BodyPublisher body, String method)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int redirects = 0;
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            URI uri = router.route(this).getUri().resolve(pathAndQuery);
+            HttpResponse<String> response;
+            try {
+                response = client.send(
+                        HttpRequest.newBuilder(uri).method(method, body)
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                // the pod is going down, retry on the next one
+                failure = e;
+                Thread.sleep(RETRY_DELAY);
+                continue;
+            }
+            if (response.statusCode() == 307) {
+                redirects++;
+                URI location = URI.create(response.headers()
+                        .firstValue("Location").orElseThrow());
+                pathAndQuery = location.getRawPath()
+                        + (location.getRawQuery() != null
+                                ? "?" + location.getRawQuery()
+                                : "");
+                continue;
+            }
+            return Response.of(response, redirects,
+                    Duration.ofNanos(System.nanoTime() - start));
+        }
+        throw failure != null ? failure
+                : new IOException("Too many redirects for " + name);
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A response to a user request.
+     *
+     * @param status
+     *            the HTTP status of the final response.
+     * @param pod
+     *            the name of the pod that handled the request, or
+     *            {@literal null} if the request failed.
+     * @param previousSequence
+     *            the sequence number of the last update applied to the UI
+     *            state before the request, or {@literal -1} if the request
+     *            failed.
+     * @param redirects
+     *            the number of redirects followed.
+     * @param duration
+     *            the time to get the final response.
+     */
+    public record Response(int status, String pod, long previousSequence,
+            int redirects, Duration duration) {
+
+        private static Response of(HttpResponse<String> response,
+                int redirects, Duration duration) {
+            if (response.statusCode() != 200) {
+                return new Response(response.statusCode(), null, -1,
+                        redirects, duration);
+            }
+            String[] body = response.body().split(" ");
+            return new Response(200, body[0], Long.parseLong(body[1]),
+                    redirects, duration);
+        }
+    }
+}
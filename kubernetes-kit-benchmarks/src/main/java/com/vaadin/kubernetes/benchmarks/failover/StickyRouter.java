@@ -0,0 +1,78 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes users to pods as an ingress with session affinity does: a user
+ * sticks to the pod it was first assigned, in round robin, until that pod is
+ * no longer alive, and is then assigned to the next alive pod.
+ */
+public final class StickyRouter {
+
+    private final List<Pod> pods;
+
+    private final Map<SimulatedUser, Pod> affinity = new ConcurrentHashMap<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a new router.
+     *
+     * @param pods
+     *            the pods to route to.
+     */
+    public StickyRouter(List<Pod> pods) {
+        this.pods = List.copyOf(pods);
+    }
+
+    /**
+     * Gets the pod serving the given user, assigning a new one if the user
+     * has none or its pod is no longer alive.
+     *
+     * @param user
+     *            the user.
+     * @return the pod serving the user.
+     * @throws IllegalStateException
+     *             if no pod is alive.
+     */
+    public Pod route(SimulatedUser user) {
+        return affinity.compute(user,
+                (key, pod) -> pod != null && pod.isAlive() ? pod
+                        : nextAlive());
+    }
+
+    /**
+     * Gets the pod the given user is currently assigned to.
+     *
+     * @param user
+     *            the user.
+     * @return the assigned pod, or {@literal null} if the user has not been
+     *         routed yet.
+     */
+    public Pod assigned(SimulatedUser user) {
+        return affinity.get(user);
+    }
+
+    private Pod nextAlive() {
+        for (int i = 0; i < pods.size(); i++) {
+            Pod pod = pods
+                    .get(Math.floorMod(next.getAndIncrement(), pods.size()));
+            if (pod.isAlive()) {
+                return pod;
+            }
+        }
+        throw new IllegalStateException("No pod alive");
+    }
+}
@@ -0,0 +1,96 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Stands in for the Vaadin servlet of a pod. A {@code GET} request is a page
+ * load, that creates the session; a {@code POST} request with the UIDL request
+ * type is a UI update, that applies the sequence number sent by the client to
+ * the state in the session. Both respond with the name of the pod and the
+ * sequence number of the last update applied before the request, so that
+ * clients can detect updates lost by a failover.
+ */
+class UidlServlet extends HttpServlet {
+
+    static final String STATE = "uiState";
+
+    static final String SEQUENCE = "seq";
+
+    private final String podName;
+
+    private final int stateSize;
+
+    UidlServlet(String podName, int stateSize) {
+        this.podName = podName;
+        this.stateSize = stateSize;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        HttpSession session = request.getSession(true);
+        UiState state = (UiState) session.getAttribute(STATE);
+        if (state == null) {
+            state = new UiState(stateSize);
+            session.setAttribute(STATE, state);
+        }
+        respond(response, state.lastSequence);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        HttpSession session = request.getSession(false);
+        UiState state = session != null ? (UiState) session.getAttribute(STATE)
+                : null;
+        if (state == null) {
+            // as Vaadin does for UIDL requests without a UI
+            response.sendError(HttpServletResponse.SC_GONE);
+            return;
+        }
+        long previous = state.lastSequence;
+        state.apply(Long.parseLong(request.getParameter(SEQUENCE)));
+        respond(response, previous);
+    }
+
+    private void respond(HttpServletResponse response, long sequence)
+            throws IOException {
+        response.setContentType("text/plain");
+        response.getWriter().write(podName + " " + sequence);
+    }
+
+    /**
+     * State of a simulated UI, with a payload to make serialized sessions of
+     * a realistic size.
+     */
+    static final class UiState implements Serializable {
+
+        private final byte[] payload;
+
+        private long lastSequence;
+
+        private UiState(int size) {
+            this.payload = new byte[size];
+        }
+
+        private synchronized void apply(long sequence) {
+            lastSequence = sequence;
+            payload[(int) (sequence % payload.length)]++;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FailoverSimulationTest {
+
+    @Test
+    void gracefulShutdown_sessionsRestoredWithoutLostUpdates()
+            throws Exception {
+        FailoverSimulation.Report report = FailoverSimulation
+                .run(new FailoverSimulation.Settings(2, 6, 3, true, 1024));
+
+        assertEquals(6, report.users());
+        assertTrue(report.affectedUsers() > 0,
+                "Expected users on the failed pod");
+        assertEquals(0, report.failedRestores());
+        assertEquals(0, report.lostUpdates());
+        assertEquals(0, report.usersWithLostUpdates());
+    }
+
+    @Test
+    void kill_affectedUsersServedByOtherPod() throws Exception {
+        FailoverSimulation.Report report = FailoverSimulation
+                .run(new FailoverSimulation.Settings(2, 6, 3, false, 1024));
+
+        assertTrue(report.affectedUsers() > 0,
+                "Expected users on the failed pod");
+        assertTrue(report.maxTimeToRestore().isPositive());
+    }
+}
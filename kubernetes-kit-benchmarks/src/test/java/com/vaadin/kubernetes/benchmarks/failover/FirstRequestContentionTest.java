@@ -0,0 +1,31 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.benchmarks.failover;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FirstRequestContentionTest {
+
+    @Test
+    void burst_allRequestsAnsweredWithRestoredSession() throws Exception {
+        FirstRequestContention.Report report = FirstRequestContention
+                .run(new FirstRequestContention.Settings(2, 5, 2, 1024));
+
+        // page load, resources and push reconnect, per user and burst
+        assertEquals(2 * 2 * (1 + 5 + 1), report.requests());
+        assertEquals(0, report.failures());
+        assertTrue(report.peakBusyThreads() > 0,
+                "Expected busy threads on the target pod");
+        assertTrue(report.p99Latency().compareTo(report.p50Latency()) >= 0);
+    }
+}
@@ -0,0 +1,592 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Definition of configuration properties for the features applied on top of
+ * the session backend connector.
+ */
+@ConfigurationProperties(prefix = BackendProperties.PREFIX)
+public class BackendProperties {
+
+    /**
+     * The prefix for backend connector properties.
+     */
+    public static final String PREFIX = KubernetesKitProperties.PREFIX
+            + ".backend";
+
+    @NestedConfigurationProperty
+    private final ChunkingProperties chunking = new ChunkingProperties();
+
+    @NestedConfigurationProperty
+    private final LocalTierProperties localTier = new LocalTierProperties();
+
+    @NestedConfigurationProperty
+    private final WriteBehindProperties writeBehind = new WriteBehindProperties();
+
+    @NestedConfigurationProperty
+    private final CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+
+    @NestedConfigurationProperty
+    private final SpillProperties spill = new SpillProperties();
+
+    /**
+     * Gets configuration for splitting large sessions into chunks.
+     *
+     * @return configuration for session chunking.
+     */
+    public ChunkingProperties getChunking() {
+        return chunking;
+    }
+
+    /**
+     * Gets configuration for the local tier kept in front of the remote
+     * backend.
+     *
+     * @return configuration for the local tier.
+     */
+    public LocalTierProperties getLocalTier() {
+        return localTier;
+    }
+
+    /**
+     * Gets configuration for coalescing session writes.
+     *
+     * @return configuration for write-behind.
+     */
+    public WriteBehindProperties getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Gets configuration for suspending backend calls when the backend is
+     * failing or slow.
+     *
+     * @return configuration for the circuit breaker.
+     */
+    public CircuitBreakerProperties getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Gets configuration for persisting failed session writes locally.
+     *
+     * @return configuration for the spill log.
+     */
+    public SpillProperties getSpill() {
+        return spill;
+    }
+
+    /**
+     * Configuration for splitting large session payloads into chunks.
+     */
+    public static class ChunkingProperties {
+
+        private boolean enabled = false;
+
+        private DataSize threshold = DataSize.ofMegabytes(1);
+
+        private DataSize chunkSize = DataSize.ofKilobytes(512);
+
+        /**
+         * Gets if large sessions should be split into chunks.
+         *
+         * @return {@literal true} if chunking is enabled, defaults to
+         *         {@literal false}.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets if large sessions should be split into chunks.
+         *
+         * @param enabled
+         *            {@literal true} to enable chunking.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the payload size above which sessions are split into chunks.
+         *
+         * @return the chunking threshold, defaults to 1 MB.
+         */
+        public DataSize getThreshold() {
+            return threshold;
+        }
+
+        /**
+         * Sets the payload size above which sessions are split into chunks.
+         *
+         * @param threshold
+         *            the chunking threshold.
+         */
+        public void setThreshold(DataSize threshold) {
+            this.threshold = threshold;
+        }
+
+        /**
+         * Gets the size of the chunks.
+         *
+         * @return the size of the chunks, defaults to 512 KB.
+         */
+        public DataSize getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * Sets the size of the chunks.
+         *
+         * @param chunkSize
+         *            the size of the chunks.
+         */
+        public void setChunkSize(DataSize chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    /**
+     * Configuration for keeping recently used sessions in a local tier, in
+     * front of the remote backend.
+     */
+    public static class LocalTierProperties {
+
+        private boolean enabled = false;
+
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+
+        private boolean offHeap = false;
+
+        /**
+         * Gets if the local tier is enabled.
+         *
+         * @return {@literal true} if the local tier is enabled, defaults to
+         *         {@literal false}.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets if the local tier is enabled.
+         * <p>
+         * Enabling the local tier changes the format of the data stored on
+         * the backend, so it must be enabled on all the nodes of the cluster
+         * together, and disabling it requires discarding the stored sessions.
+         * See {@code TwoTierBackendConnector} for details.
+         *
+         * @param enabled
+         *            {@literal true} to enable the local tier.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the maximum amount of session data held by the local tier.
+         *
+         * @return the local tier size, defaults to 64 MB.
+         */
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * Sets the maximum amount of session data held by the local tier.
+         *
+         * @param maxSize
+         *            the local tier size.
+         */
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Gets if the local tier holds session data outside the Java heap.
+         *
+         * @return {@literal true} if data is held in direct buffers, defaults
+         *         to {@literal false}.
+         */
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+
+        /**
+         * Sets if the local tier holds session data outside the Java heap.
+         *
+         * @param offHeap
+         *            {@literal true} to hold data in direct buffers.
+         */
+        public void setOffHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+    }
+
+    /**
+     * Configuration for buffering session writes and writing only the latest
+     * payload of a session within a time window.
+     */
+    public static class WriteBehindProperties {
+
+        private boolean enabled = false;
+
+        private Duration window = Duration.ofMillis(200);
+
+        private int maxPending = 1000;
+
+        /**
+         * Gets if write-behind is enabled.
+         *
+         * @return {@literal true} if write-behind is enabled, defaults to
+         *         {@literal false}.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets if write-behind is enabled.
+         *
+         * @param enabled
+         *            {@literal true} to enable write-behind.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the maximum amount of time a session payload is buffered
+         * before being written.
+         *
+         * @return the write-behind window, defaults to 200 ms.
+         */
+        public Duration getWindow() {
+            return window;
+        }
+
+        /**
+         * Sets the maximum amount of time a session payload is buffered
+         * before being written.
+         *
+         * @param window
+         *            the write-behind window.
+         */
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        /**
+         * Gets the number of buffered sessions above which payloads are
+         * written immediately.
+         *
+         * @return the maximum number of buffered sessions, defaults to 1000.
+         */
+        public int getMaxPending() {
+            return maxPending;
+        }
+
+        /**
+         * Sets the number of buffered sessions above which payloads are
+         * written immediately.
+         *
+         * @param maxPending
+         *            the maximum number of buffered sessions.
+         */
+        public void setMaxPending(int maxPending) {
+            this.maxPending = maxPending;
+        }
+    }
+
+    /**
+     * Configuration for suspending backend calls when the backend is failing
+     * or slow.
+     */
+    public static class CircuitBreakerProperties {
+
+        private boolean enabled = false;
+
+        private double failureRateThreshold = 0.5;
+
+        private Duration slowCallDuration = Duration.ofSeconds(1);
+
+        private double slowCallRateThreshold = 0.5;
+
+        private int slidingWindowSize = 50;
+
+        private int minimumCalls = 10;
+
+        private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+
+        private int permittedCallsInHalfOpenState = 3;
+
+        /**
+         * Gets if the circuit breaker is enabled.
+         *
+         * @return {@literal true} if the circuit breaker is enabled, defaults
+         *         to {@literal false}.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets if the circuit breaker is enabled.
+         *
+         * @param enabled
+         *            {@literal true} to enable the circuit breaker.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the rate of failed calls at which the circuit opens.
+         *
+         * @return the failure rate threshold, between 0 and 1, defaults to
+         *         0.5.
+         */
+        public double getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        /**
+         * Sets the rate of failed calls at which the circuit opens.
+         *
+         * @param failureRateThreshold
+         *            the failure rate threshold, between 0 and 1.
+         */
+        public void setFailureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        /**
+         * Gets the duration above which a backend call is considered slow.
+         *
+         * @return the slow call duration, defaults to 1 second.
+         */
+        public Duration getSlowCallDuration() {
+            return slowCallDuration;
+        }
+
+        /**
+         * Sets the duration above which a backend call is considered slow.
+         *
+         * @param slowCallDuration
+         *            the slow call duration.
+         */
+        public void setSlowCallDuration(Duration slowCallDuration) {
+            this.slowCallDuration = slowCallDuration;
+        }
+
+        /**
+         * Gets the rate of slow calls at which the circuit opens.
+         *
+         * @return the slow call rate threshold, between 0 and 1, defaults to
+         *         0.5.
+         */
+        public double getSlowCallRateThreshold() {
+            return slowCallRateThreshold;
+        }
+
+        /**
+         * Sets the rate of slow calls at which the circuit opens.
+         *
+         * @param slowCallRateThreshold
+         *            the slow call rate threshold, between 0 and 1.
+         */
+        public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+        }
+
+        /**
+         * Gets the number of latest calls used to compute failure and slow
+         * call rates.
+         *
+         * @return the sliding window size, defaults to 50.
+         */
+        public int getSlidingWindowSize() {
+            return slidingWindowSize;
+        }
+
+        /**
+         * Sets the number of latest calls used to compute failure and slow
+         * call rates.
+         *
+         * @param slidingWindowSize
+         *            the sliding window size.
+         */
+        public void setSlidingWindowSize(int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+        }
+
+        /**
+         * Gets the number of calls to record before rates are evaluated.
+         *
+         * @return the minimum number of calls, defaults to 10.
+         */
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        /**
+         * Sets the number of calls to record before rates are evaluated.
+         *
+         * @param minimumCalls
+         *            the minimum number of calls.
+         */
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        /**
+         * Gets the time the circuit stays open before probing the backend.
+         *
+         * @return the open state duration, defaults to 10 seconds.
+         */
+        public Duration getWaitDurationInOpenState() {
+            return waitDurationInOpenState;
+        }
+
+        /**
+         * Sets the time the circuit stays open before probing the backend.
+         *
+         * @param waitDurationInOpenState
+         *            the open state duration.
+         */
+        public void setWaitDurationInOpenState(
+                Duration waitDurationInOpenState) {
+            this.waitDurationInOpenState = waitDurationInOpenState;
+        }
+
+        /**
+         * Gets the number of probe calls that must succeed to close the
+         * circuit.
+         *
+         * @return the number of probe calls, defaults to 3.
+         */
+        public int getPermittedCallsInHalfOpenState() {
+            return permittedCallsInHalfOpenState;
+        }
+
+        /**
+         * Sets the number of probe calls that must succeed to close the
+         * circuit.
+         *
+         * @param permittedCallsInHalfOpenState
+         *            the number of probe calls.
+         */
+        public void setPermittedCallsInHalfOpenState(
+                int permittedCallsInHalfOpenState) {
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+        }
+    }
+
+    /**
+     * Configuration for persisting session writes failed by the backend to a
+     * local spill log, replayed when the backend recovers.
+     */
+    public static class SpillProperties {
+
+        private boolean enabled = false;
+
+        private String directory;
+
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+
+        private Duration replayInterval = Duration.ofSeconds(5);
+
+        /**
+         * Gets if failed session writes are spilled to disk.
+         *
+         * @return {@literal true} if the spill log is enabled, defaults to
+         *         {@literal false}.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets if failed session writes are spilled to disk.
+         *
+         * @param enabled
+         *            {@literal true} to enable the spill log.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the directory of the spill log.
+         *
+         * @return the spill directory, or {@literal null} to use a
+         *         subdirectory named after the application in the system
+         *         temporary directory.
+         */
+        public String getDirectory() {
+            return directory;
+        }
+
+        /**
+         * Sets the directory of the spill log.
+         *
+         * @param directory
+         *            the spill directory.
+         */
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Gets the maximum amount of session data held by the spill log.
+         *
+         * @return the spill log size, defaults to 256 MB.
+         */
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * Sets the maximum amount of session data held by the spill log.
+         *
+         * @param maxSize
+         *            the spill log size.
+         */
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Gets the interval between attempts to replay spilled sessions.
+         *
+         * @return the replay interval, defaults to 5 seconds.
+         */
+        public Duration getReplayInterval() {
+            return replayInterval;
+        }
+
+        /**
+         * Sets the interval between attempts to replay spilled sessions.
+         *
+         * @param replayInterval
+         *            the replay interval.
+         */
+        public void setReplayInterval(Duration replayInterval) {
+            this.replayInterval = replayInterval;
+        }
+    }
+}
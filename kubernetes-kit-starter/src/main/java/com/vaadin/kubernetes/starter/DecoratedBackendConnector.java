@@ -0,0 +1,90 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.AsyncBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+
+/**
+ * Holds the backend connector decorated according to the configuration,
+ * together with the decorators that must be closed when the application
+ * shuts down.
+ * <p>
+ * Decorators are closed from the outermost to the innermost one, so that
+ * data buffered by an outer decorator is flushed through the inner ones
+ * before they release their resources.
+ * <p>
+ * A decorator that does not implement {@link AsyncBackendConnector} hides the
+ * asynchronous operations of the connector it wraps, so that session writes
+ * block serialization threads again. This is logged as a warning.
+ */
+final class DecoratedBackendConnector implements Closeable {
+
+    private final Deque<Closeable> closeables = new ArrayDeque<>();
+
+    private BackendConnector connector;
+
+    DecoratedBackendConnector(BackendConnector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * Gets the outermost connector.
+     *
+     * @return the decorated connector.
+     */
+    BackendConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Wraps the current connector with the given decorator.
+     *
+     * @param decorator
+     *            the decorator wrapping the current connector.
+     */
+    void decorate(BackendConnector decorator) {
+        if (connector instanceof AsyncBackendConnector
+                && !(decorator instanceof AsyncBackendConnector)) {
+            getLogger().warn(
+                    "Backend connector {} does not support asynchronous operations of {}, session writes will block serialization threads",
+                    decorator.getClass().getSimpleName(),
+                    connector.getClass().getSimpleName());
+        }
+        connector = decorator;
+        if (decorator instanceof Closeable closeable) {
+            closeables.push(closeable);
+        }
+    }
+
+    @Override
+    public void close() {
+        while (!closeables.isEmpty()) {
+            Closeable closeable = closeables.pop();
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                getLogger().warn("Unable to close backend connector {}",
+                        closeable.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(DecoratedBackendConnector.class);
+    }
+}
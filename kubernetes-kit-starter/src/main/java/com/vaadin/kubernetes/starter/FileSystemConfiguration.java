@@ -0,0 +1,39 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter;
+
+import java.nio.file.Path;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.FileSystemConnector;
+
+/**
+ * Configures session storage on the local file system, when a storage
+ * directory is set with the
+ * {@code vaadin.kubernetes.filesystem.directory} property.
+ */
+@AutoConfiguration
+@ConditionalOnProperty(prefix = FileSystemProperties.PREFIX, name = "directory")
+@EnableConfigurationProperties(FileSystemProperties.class)
+public class FileSystemConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    FileSystemConnector fileSystemConnector(FileSystemProperties properties) {
+        return new FileSystemConnector(Path.of(properties.getDirectory()),
+                properties.getMaxSegmentSize().toBytes(),
+                properties.getCompactionInterval());
+    }
+}
@@ -0,0 +1,96 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.FileSystemConnector;
+
+/**
+ * Local file system session storage configuration properties.
+ */
+@ConfigurationProperties(prefix = FileSystemProperties.PREFIX)
+public class FileSystemProperties {
+
+    /**
+     * The prefix for local file system storage properties.
+     */
+    public static final String PREFIX = KubernetesKitProperties.PREFIX
+            + ".filesystem";
+
+    private String directory;
+
+    private DataSize maxSegmentSize = DataSize
+            .ofBytes(FileSystemConnector.DEFAULT_MAX_SEGMENT_SIZE);
+
+    private Duration compactionInterval = FileSystemConnector.DEFAULT_COMPACTION_INTERVAL;
+
+    /**
+     * Gets the directory where session data is stored.
+     *
+     * @return the storage directory
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory where session data is stored. Setting a directory
+     * enables the local file system storage.
+     *
+     * @param directory
+     *            the storage directory
+     */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the size after which a new segment file is started.
+     *
+     * @return the maximum segment size, defaults to 64 MB
+     */
+    public DataSize getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * Sets the size after which a new segment file is started.
+     *
+     * @param maxSegmentSize
+     *            the maximum segment size
+     */
+    public void setMaxSegmentSize(DataSize maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Gets the interval between compactions of segment files.
+     *
+     * @return the compaction interval, defaults to 1 minute
+     */
+    public Duration getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    /**
+     * Sets the interval between compactions of segment files. A zero or
+     * negative value disables automatic compaction.
+     *
+     * @param compactionInterval
+     *            the compaction interval
+     */
+    public void setCompactionInterval(Duration compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+}
@@ -12,14 +12,19 @@ package com.vaadin.kubernetes.starter;
 import com.hazelcast.config.Config;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.util.StringUtils;
 
 import com.vaadin.kubernetes.starter.sessiontracker.backend.HazelcastConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.metrics.MicrometerSessionMetrics;
 
 /**
  * Auto-configuration for Hazelcast-based session backend.
@@ -84,4 +89,24 @@ public class HazelcastConfiguration {
         }
     }
 
+    /**
+     * Publishes the statistics of the Hazelcast connector when Micrometer is
+     * available.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class HazelcastMetricsConfiguration {
+
+        @Bean
+        MeterBinder hazelcastConnectorMeters(
+                ObjectProvider<HazelcastConnector> hazelcastConnector) {
+            return registry -> hazelcastConnector
+                    .ifAvailable(connector -> MicrometerSessionMetrics
+                            .hazelcastMeters(connector,
+                                    MicrometerSessionMetrics
+                                            .backendType(connector))
+                            .bindTo(registry));
+        }
+    }
+
 }
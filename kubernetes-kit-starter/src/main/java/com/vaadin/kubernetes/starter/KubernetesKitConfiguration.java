@@ -12,36 +12,60 @@ package com.vaadin.kubernetes.starter;
 import jakarta.servlet.FilterRegistration;
 import jakarta.servlet.ServletContext;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.function.Predicate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.AllNestedConditions;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.health.contributor.HealthIndicator;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Condition;
 import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.core.annotation.Order;
 import com.vaadin.flow.spring.SpringBootAutoConfiguration;
 import com.vaadin.kubernetes.starter.sessiontracker.SessionListener;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
 import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializationCallback;
 import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
 import com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter;
+import com.vaadin.kubernetes.starter.sessiontracker.actuate.SessionBackendHealthIndicator;
+import com.vaadin.kubernetes.starter.sessiontracker.actuate.SessionProfileEndpoint;
+import com.vaadin.kubernetes.starter.sessiontracker.actuate.SessionReplicationEndpoint;
+import com.vaadin.kubernetes.starter.sessiontracker.actuate.SessionSerializerHealthIndicator;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.ChunkedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerStateChangedEvent;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.FileSystemConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InstrumentedBackendConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionExpirationPolicy;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SpillingBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.TwoTierBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.WriteBehindBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.metrics.MicrometerSessionMetrics;
 import com.vaadin.kubernetes.starter.sessiontracker.push.PushSessionTracker;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationStreamFactory;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.SpringTransientHandler;
@@ -58,9 +82,10 @@ import com.vaadin.kubernetes.starter.ui.RollingUpdateHandler;
 @AutoConfiguration
 @ConditionalOnProperty(name = "auto-configure", prefix = KubernetesKitProperties.PREFIX, matchIfMissing = true)
 @AutoConfigureAfter({ SpringBootAutoConfiguration.class,
-        RedisConfiguration.class, HazelcastConfiguration.class })
+        RedisConfiguration.class, HazelcastConfiguration.class,
+        FileSystemConfiguration.class })
 @EnableConfigurationProperties({ KubernetesKitProperties.class,
-        SerializationProperties.class })
+        SerializationProperties.class, BackendProperties.class })
 public class KubernetesKitConfiguration {
 
     @Bean
@@ -139,24 +164,155 @@ public class KubernetesKitConfiguration {
             return new TransientInjectableObjectStreamFactory();
         }
 
+        @Bean(destroyMethod = "close")
+        DecoratedBackendConnector decoratedBackendConnector(
+                BackendConnector backendConnector,
+                BackendProperties backendProperties,
+                ApplicationContext appCtx,
+                ObjectProvider<SessionMetrics> sessionMetricsProvider,
+                ObjectProvider<ObservationRegistry> observationRegistryProvider) {
+            SessionMetrics sessionMetrics = sessionMetricsProvider
+                    .getIfAvailable(() -> SessionMetrics.NOOP);
+            ObservationRegistry observationRegistry = observationRegistryProvider
+                    .getIfAvailable(() -> ObservationRegistry.NOOP);
+            // innermost, to measure the calls to the actual backend; also
+            // records flight recorder events when metrics are disabled
+            BackendConnector connector = InstrumentedBackendConnector.of(
+                    backendConnector, sessionMetrics, observationRegistry);
+            return decorateBackendConnector(connector, backendProperties,
+                    appCtx, appCtx.getId());
+        }
+
         @Bean
-        SessionSerializer sessionSerializer(BackendConnector backendConnector,
+        SessionSerializer sessionSerializer(
+                DecoratedBackendConnector backendConnector,
                 TransientHandler transientInjector,
                 SessionSerializationCallback sessionSerializationCallback,
                 SessionExpirationPolicy sessionExpirationPolicy,
                 @Autowired(required = false) @Qualifier(TRANSIENT_INJECTABLE_FILTER) Predicate<Class<?>> injectablesFilter,
                 SerializationStreamFactory serializationStreamFactory,
-                SerializationProperties serializationProperties) {
+                SerializationProperties serializationProperties,
+                ApplicationEventPublisher eventPublisher,
+                ObjectProvider<SessionMetrics> sessionMetricsProvider,
+                ObjectProvider<ObservationRegistry> observationRegistryProvider) {
+            SessionMetrics sessionMetrics = sessionMetricsProvider
+                    .getIfAvailable(() -> SessionMetrics.NOOP);
+            ObservationRegistry observationRegistry = observationRegistryProvider
+                    .getIfAvailable(() -> ObservationRegistry.NOOP);
             SessionSerializer sessionSerializer = new SessionSerializer(
-                    backendConnector, transientInjector,
+                    backendConnector.getConnector(), transientInjector,
                     sessionExpirationPolicy, sessionSerializationCallback,
                     serializationStreamFactory, serializationProperties);
             if (injectablesFilter != null) {
                 sessionSerializer.setInjectableFilter(injectablesFilter);
             }
+            sessionSerializer.setSessionMetrics(sessionMetrics);
+            sessionSerializer.setObservationRegistry(observationRegistry);
+            sessionSerializer.setApplicationEventPublisher(eventPublisher);
             return sessionSerializer;
         }
 
+        /**
+         * Wraps the given backend connector with the decorators enabled by
+         * configuration.
+         *
+         * @param backendConnector
+         *            the backend connector to decorate.
+         * @param properties
+         *            the backend configuration properties.
+         * @param eventPublisher
+         *            publisher for circuit breaker state changes, can be
+         *            {@literal null}.
+         * @param applicationName
+         *            the name of the application, used to build the default
+         *            spill directory, can be {@literal null}.
+         * @return the decorated backend connector, holding the given one if
+         *         no decorator is enabled, and the decorators to close on
+         *         shutdown.
+         */
+        static DecoratedBackendConnector decorateBackendConnector(
+                BackendConnector backendConnector,
+                BackendProperties properties,
+                ApplicationEventPublisher eventPublisher,
+                String applicationName) {
+            DecoratedBackendConnector decorated = new DecoratedBackendConnector(
+                    backendConnector);
+            BackendProperties.CircuitBreakerProperties circuitBreaker = properties
+                    .getCircuitBreaker();
+            if (circuitBreaker.isEnabled()) {
+                CircuitBreakerBackendConnector breaker = new CircuitBreakerBackendConnector(
+                        decorated.getConnector(),
+                        new CircuitBreakerBackendConnector.Settings(
+                                circuitBreaker.getFailureRateThreshold(),
+                                circuitBreaker.getSlowCallDuration(),
+                                circuitBreaker.getSlowCallRateThreshold(),
+                                circuitBreaker.getSlidingWindowSize(),
+                                circuitBreaker.getMinimumCalls(),
+                                circuitBreaker.getWaitDurationInOpenState(),
+                                circuitBreaker
+                                        .getPermittedCallsInHalfOpenState()));
+                if (eventPublisher != null) {
+                    breaker.addStateChangeListener((source, previous,
+                            current) -> eventPublisher.publishEvent(
+                                    new CircuitBreakerStateChangedEvent(source,
+                                            previous, current)));
+                }
+                decorated.decorate(breaker);
+            }
+            BackendProperties.ChunkingProperties chunking = properties
+                    .getChunking();
+            // inside the spill log, so that a session with a failed chunk is
+            // spilled as a whole and its manifest is not written
+            if (chunking.isEnabled()) {
+                decorated.decorate(new ChunkedBackendConnector(
+                        decorated.getConnector(),
+                        Math.toIntExact(chunking.getThreshold().toBytes()),
+                        Math.toIntExact(chunking.getChunkSize().toBytes())));
+            }
+            BackendProperties.SpillProperties spill = properties.getSpill();
+            if (spill.isEnabled()) {
+                decorated.decorate(new SpillingBackendConnector(
+                        decorated.getConnector(),
+                        new FileSystemConnector(
+                                spillDirectory(spill, applicationName)),
+                        spill.getMaxSize().toBytes(),
+                        spill.getReplayInterval()));
+            }
+            BackendProperties.LocalTierProperties localTier = properties
+                    .getLocalTier();
+            if (localTier.isEnabled()) {
+                decorated.decorate(new TwoTierBackendConnector(
+                        decorated.getConnector(),
+                        localTier.getMaxSize().toBytes(),
+                        localTier.isOffHeap()));
+            }
+            BackendProperties.WriteBehindProperties writeBehind = properties
+                    .getWriteBehind();
+            if (writeBehind.isEnabled()) {
+                decorated.decorate(new WriteBehindBackendConnector(
+                        decorated.getConnector(), writeBehind.getWindow(),
+                        writeBehind.getMaxPending()));
+            }
+            return decorated;
+        }
+
+        /**
+         * Gets the directory of the spill log: the configured one, or a
+         * subdirectory named after the application in the system temporary
+         * directory, since a spill log must not be shared by applications.
+         */
+        static Path spillDirectory(BackendProperties.SpillProperties spill,
+                String applicationName) {
+            if (spill.getDirectory() != null) {
+                return Path.of(spill.getDirectory());
+            }
+            String name = applicationName != null && !applicationName.isBlank()
+                    ? applicationName.replaceAll("[^A-Za-z0-9._-]", "_")
+                    : "application";
+            return Path.of(System.getProperty("java.io.tmpdir"),
+                    "vaadin-session-spill", name);
+        }
+
         /**
          * Gets a composed transient injectable filter that rejects Vaadin
          * internal classes that should not be inspected and may break
@@ -186,10 +342,10 @@ public class KubernetesKitConfiguration {
         @Bean
         @Order(Integer.MIN_VALUE + 50)
         FilterRegistrationBean<SessionTrackerFilter> sessionTrackerFilterRegistration(
-                BackendConnector backendConnector,
                 SessionSerializer sessionSerializer,
                 PushSessionTracker pushSessionTracker) {
-            SessionListener sessionListener = sessionListener(backendConnector,
+            SessionListener sessionListener = sessionListener(
+                    sessionSerializer.getBackendConnector(),
                     sessionSerializer);
             pushSessionTracker.setActiveSessionChecker(
                     sessionListener.activeSessionChecker());
@@ -216,6 +372,81 @@ public class KubernetesKitConfiguration {
                     properties.getClusterKeyCookieName());
         }
 
+        /**
+         * Publishes session replication metrics when Micrometer is available.
+         * Meters are bound by Spring Boot to the application meter
+         * registries.
+         */
+        @Configuration(proxyBeanMethods = false)
+        @ConditionalOnClass(MeterRegistry.class)
+        static class SessionMetricsConfiguration {
+
+            @Bean
+            @ConditionalOnMissingBean(SessionMetrics.class)
+            MicrometerSessionMetrics sessionMetrics(
+                    BackendConnector backendConnector) {
+                return new MicrometerSessionMetrics(
+                        MicrometerSessionMetrics.backendType(backendConnector));
+            }
+
+            @Bean
+            MeterBinder sessionSerializerMeters(
+                    SessionSerializer sessionSerializer,
+                    BackendConnector backendConnector) {
+                return MicrometerSessionMetrics.serializerMeters(
+                        sessionSerializer,
+                        MicrometerSessionMetrics.backendType(backendConnector));
+            }
+        }
+
+        /**
+         * Actuator endpoints of session replication, exposed according to
+         * the management endpoints configuration.
+         */
+        @Configuration(proxyBeanMethods = false)
+        @ConditionalOnClass(Endpoint.class)
+        static class SessionEndpointsConfiguration {
+
+            @Bean
+            @ConditionalOnMissingBean
+            SessionProfileEndpoint sessionProfileEndpoint(
+                    SessionSerializer sessionSerializer) {
+                return new SessionProfileEndpoint(sessionSerializer);
+            }
+
+            @Bean
+            @ConditionalOnMissingBean
+            SessionReplicationEndpoint sessionReplicationEndpoint(
+                    SessionSerializer sessionSerializer,
+                    FilterRegistrationBean<SessionTrackerFilter> sessionTrackerFilterRegistration) {
+                return new SessionReplicationEndpoint(sessionSerializer,
+                        sessionTrackerFilterRegistration.getFilter());
+            }
+        }
+
+        /**
+         * Health indicators of session replication, contributing to the
+         * health endpoint as {@code sessionBackend} and
+         * {@code sessionSerializer}.
+         */
+        @Configuration(proxyBeanMethods = false)
+        @ConditionalOnClass(HealthIndicator.class)
+        static class SessionHealthConfiguration {
+
+            @Bean
+            @ConditionalOnMissingBean(name = "sessionBackendHealthIndicator")
+            SessionBackendHealthIndicator sessionBackendHealthIndicator(
+                    BackendConnector backendConnector) {
+                return new SessionBackendHealthIndicator(backendConnector);
+            }
+
+            @Bean
+            @ConditionalOnMissingBean(name = "sessionSerializerHealthIndicator")
+            SessionSerializerHealthIndicator sessionSerializerHealthIndicator(
+                    SessionSerializer sessionSerializer) {
+                return new SessionSerializerHealthIndicator(sessionSerializer);
+            }
+        }
     }
 
     @AutoConfiguration
@@ -118,6 +118,20 @@ public class KubernetesKitProperties {
      */
     private String stickySessionCookieName = "INGRESSCOOKIE";
 
+    /**
+     * Enables or disables non-blocking waits for concurrent session creation.
+     * <p>
+     * When a pod receives several requests for a session it does not hold, as
+     * after a failover, one request restores the session from the backend and
+     * the others wait for it. If enabled, waiting requests are suspended with
+     * the Servlet asynchronous API, releasing their container thread until
+     * the session is restored, instead of blocking it. Requests that do not
+     * support asynchronous processing always block.
+     *
+     * @see com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter
+     */
+    private boolean asyncSessionCreationWait = true;
+
     /**
      * Checks if auto-configuration of Kubernetes Kit is
      * enabled.
@@ -286,4 +300,26 @@ public class KubernetesKitProperties {
         this.stickySessionCookieName = stickySessionCookieName;
     }
 
+    /**
+     * Checks if requests waiting for a concurrent session creation are
+     * suspended instead of blocking their thread.
+     *
+     * @return {@code true} if non-blocking waits are enabled
+     * @see #asyncSessionCreationWait
+     */
+    public boolean isAsyncSessionCreationWait() {
+        return asyncSessionCreationWait;
+    }
+
+    /**
+     * Enables or disables non-blocking waits for concurrent session creation.
+     *
+     * @param asyncSessionCreationWait
+     *            {@code true} to enable, {@code false} to disable
+     * @see #asyncSessionCreationWait
+     */
+    public void setAsyncSessionCreationWait(boolean asyncSessionCreationWait) {
+        this.asyncSessionCreationWait = asyncSessionCreationWait;
+    }
+
 }
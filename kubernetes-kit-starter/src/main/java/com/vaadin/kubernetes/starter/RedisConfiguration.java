@@ -9,14 +9,19 @@
  */
 package com.vaadin.kubernetes.starter;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.data.redis.autoconfigure.DataRedisAutoConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 
+import com.vaadin.kubernetes.starter.sessiontracker.backend.ReactiveRedisConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.RedisConnector;
 
 /**
@@ -24,12 +29,30 @@ import com.vaadin.kubernetes.starter.sessiontracker.backend.RedisConnector;
  */
 @AutoConfiguration(after = DataRedisAutoConfiguration.class)
 @ConditionalOnClass(DataRedisAutoConfiguration.class)
+@EnableConfigurationProperties(RedisProperties.class)
 public class RedisConfiguration {
 
     @Bean
     @ConditionalOnBean(RedisConnectionFactory.class)
     @ConditionalOnMissingBean
-    RedisConnector redisConnector(RedisConnectionFactory factory) {
-        return new RedisConnector(factory);
+    @ConditionalOnProperty(name = "vaadin.kubernetes.redis.reactive", havingValue = "false", matchIfMissing = true)
+    RedisConnector redisConnector(RedisConnectionFactory factory,
+            RedisProperties properties,
+            ObjectProvider<RedisReplicaConnectionFactory> replicaFactory) {
+        RedisReplicaConnectionFactory replica = replicaFactory.getIfAvailable();
+        return new RedisConnector(factory,
+                replica != null ? replica.getConnectionFactory() : null,
+                properties.getKeyLayout(), properties.isLegacyKeyFallback());
+    }
+
+    @Bean
+    @ConditionalOnBean(ReactiveRedisConnectionFactory.class)
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "vaadin.kubernetes.redis.reactive", havingValue = "true")
+    ReactiveRedisConnector reactiveRedisConnector(
+            ReactiveRedisConnectionFactory factory,
+            RedisProperties properties) {
+        return new ReactiveRedisConnector(factory, properties.getKeyLayout(),
+                properties.isLegacyKeyFallback());
     }
 }
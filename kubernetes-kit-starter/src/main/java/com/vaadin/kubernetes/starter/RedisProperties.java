@@ -0,0 +1,96 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.RedisConnector;
+
+/**
+ * Redis session backend configuration properties.
+ */
+@ConfigurationProperties(prefix = "vaadin.kubernetes.redis")
+public class RedisProperties {
+
+    private RedisConnector.KeyLayout keyLayout = RedisConnector.KeyLayout.LEGACY;
+
+    private boolean legacyKeyFallback = true;
+
+    private boolean reactive;
+
+    /**
+     * Gets the naming scheme of the Redis keys holding sessions and their
+     * markers.
+     *
+     * @return the key layout, defaults to
+     *         {@link RedisConnector.KeyLayout#LEGACY}.
+     */
+    public RedisConnector.KeyLayout getKeyLayout() {
+        return keyLayout;
+    }
+
+    /**
+     * Sets the naming scheme of the Redis keys holding sessions and their
+     * markers. Use {@link RedisConnector.KeyLayout#HASH_TAGGED} with Redis
+     * Cluster to store all keys of a session in the same hash slot.
+     *
+     * @param keyLayout
+     *            the key layout.
+     */
+    public void setKeyLayout(RedisConnector.KeyLayout keyLayout) {
+        this.keyLayout = keyLayout;
+    }
+
+    /**
+     * Gets if keys in the legacy layout are looked up when a different layout
+     * is configured, to find sessions stored before switching layout.
+     *
+     * @return {@literal true} if the legacy keys are used as fallback,
+     *         defaults to {@literal true}.
+     */
+    public boolean isLegacyKeyFallback() {
+        return legacyKeyFallback;
+    }
+
+    /**
+     * Sets if keys in the legacy layout are looked up when a different layout
+     * is configured. The fallback can be disabled once sessions stored with
+     * legacy keys have expired.
+     *
+     * @param legacyKeyFallback
+     *            {@literal true} to use legacy keys as fallback.
+     */
+    public void setLegacyKeyFallback(boolean legacyKeyFallback) {
+        this.legacyKeyFallback = legacyKeyFallback;
+    }
+
+    /**
+     * Gets if the non-blocking connector, built on the reactive Redis
+     * connection factory, is used to store sessions.
+     *
+     * @return {@literal true} if the reactive connector is used, defaults to
+     *         {@literal false}.
+     */
+    public boolean isReactive() {
+        return reactive;
+    }
+
+    /**
+     * Sets if the non-blocking connector is used to store sessions. Backend
+     * operations of the reactive connector do not hold a thread while waiting
+     * for Redis, but reads from replicas are not supported.
+     *
+     * @param reactive
+     *            {@literal true} to use the reactive connector.
+     */
+    public void setReactive(boolean reactive) {
+        this.reactive = reactive;
+    }
+}
@@ -0,0 +1,80 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.Lifecycle;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+/**
+ * Holder of the connection factory used to read sessions from Redis replicas.
+ * <p>
+ * Declaring a bean of this type enables replica reads in the Redis session
+ * backend. The connection factory is wrapped, rather than exposed as a
+ * {@link RedisConnectionFactory} bean, so that it does not replace the
+ * auto-configured connection factory of the primary. The wrapped factory is
+ * initialized, started and destroyed together with this bean.
+ *
+ * <pre>
+ * &#64;Bean
+ * RedisReplicaConnectionFactory redisReplicaConnectionFactory() {
+ *     return new RedisReplicaConnectionFactory(new LettuceConnectionFactory(
+ *             new RedisStandaloneConfiguration("redis-replica", 6379)));
+ * }
+ * </pre>
+ */
+public class RedisReplicaConnectionFactory
+        implements InitializingBean, DisposableBean {
+
+    private final RedisConnectionFactory connectionFactory;
+
+    /**
+     * Creates a new holder for the given replica connection factory.
+     *
+     * @param connectionFactory
+     *            the connection factory of the Redis replicas, not
+     *            {@literal null}.
+     */
+    public RedisReplicaConnectionFactory(
+            RedisConnectionFactory connectionFactory) {
+        this.connectionFactory = Objects.requireNonNull(connectionFactory,
+                "connectionFactory must not be null");
+    }
+
+    /**
+     * Gets the connection factory of the Redis replicas.
+     *
+     * @return the replica connection factory.
+     */
+    public RedisConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (connectionFactory instanceof InitializingBean initializingBean) {
+            initializingBean.afterPropertiesSet();
+        }
+        if (connectionFactory instanceof Lifecycle lifecycle
+                && !lifecycle.isRunning()) {
+            lifecycle.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (connectionFactory instanceof DisposableBean disposableBean) {
+            disposableBean.destroy();
+        }
+    }
+}
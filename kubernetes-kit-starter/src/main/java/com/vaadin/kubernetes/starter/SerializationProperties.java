@@ -48,6 +48,12 @@ public class SerializationProperties {
     @NestedConfigurationProperty
     private final TransientsProperties transients = new TransientsProperties();
 
+    @NestedConfigurationProperty
+    private final OffHeapProperties offHeap = new OffHeapProperties();
+
+    @NestedConfigurationProperty
+    private final ProfilerProperties profiler = new ProfilerProperties();
+
     /**
      * Gets the timeout in milliseconds to wait for the serialization to be
      * completed.
@@ -165,6 +171,26 @@ public class SerializationProperties {
         return transients;
     }
 
+    /**
+     * Gets configuration for holding serialized session data outside the Java
+     * heap.
+     *
+     * @return configuration for off-heap serialization buffers.
+     */
+    public OffHeapProperties getOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Gets configuration for the sampling profiler of serialized session
+     * sizes.
+     *
+     * @return configuration for the serialization profiler.
+     */
+    public ProfilerProperties getProfiler() {
+        return profiler;
+    }
+
     static class TransientsProperties {
         private final Set<String> includePackages = new HashSet<>();
         private final Set<String> excludePackages = new HashSet<>();
@@ -215,4 +241,89 @@ public class SerializationProperties {
             };
         }
     }
+
+    /**
+     * Configuration for holding serialized session data in direct buffers,
+     * outside the Java heap, while it is transferred to the backend.
+     */
+    public static class OffHeapProperties {
+
+        public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+        private boolean enabled = false;
+
+        private long maxPooledBytes = DEFAULT_MAX_POOLED_BYTES;
+
+        /**
+         * Gets if serialized session data should be held in direct buffers.
+         *
+         * @return {@literal true} if off-heap buffers are enabled, defaults to
+         *         {@literal false}.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets if serialized session data should be held in direct buffers.
+         *
+         * @param enabled
+         *            {@literal true} to enable off-heap buffers.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the maximum amount of memory, in bytes, retained by released
+         * buffers for reuse.
+         *
+         * @return the maximum amount of pooled memory, defaults to 64 MB.
+         */
+        public long getMaxPooledBytes() {
+            return maxPooledBytes;
+        }
+
+        /**
+         * Sets the maximum amount of memory, in bytes, retained by released
+         * buffers for reuse. A zero or negative value disables pooling.
+         *
+         * @param maxPooledBytes
+         *            the maximum amount of pooled memory.
+         */
+        public void setMaxPooledBytes(long maxPooledBytes) {
+            this.maxPooledBytes = maxPooledBytes;
+        }
+    }
+
+    /**
+     * Configuration for the sampling profiler that attributes the size of
+     * serialized sessions to classes and session attributes.
+     */
+    public static class ProfilerProperties {
+
+        private int sampleRate = 0;
+
+        /**
+         * Gets the number of serializations per profiled one.
+         *
+         * @return the sample rate, 0 or negative if the profiler is disabled,
+         *         defaults to 0.
+         */
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * Sets the number of serializations per profiled one, for example
+         * {@literal 100} to profile one serialization in a hundred. A zero or
+         * negative value disables the profiler.
+         *
+         * @param sampleRate
+         *            the sample rate.
+         */
+        public void setSampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+    }
 }
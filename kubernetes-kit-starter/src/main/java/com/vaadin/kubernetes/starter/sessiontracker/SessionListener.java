@@ -18,6 +18,7 @@ import jakarta.servlet.http.HttpSessionIdListener;
 import jakarta.servlet.http.HttpSessionListener;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -57,6 +58,8 @@ public class SessionListener implements HttpSessionListener,
     private final SessionSerializer sessionSerializer;
     // sessionID to clusterKey mapping
     private final Map<String, String> activeSessions = new ConcurrentHashMap<>();
+    // sessionID to session, to serialize on demand
+    private final Map<String, HttpSession> sessions = new ConcurrentHashMap<>();
     private final Map<String, SessionCreationRequest> sessionCreationRequestMap = new ConcurrentHashMap<>();
     private boolean stopped = false;
 
@@ -84,6 +87,7 @@ public class SessionListener implements HttpSessionListener,
         HttpSession session = se.getSession();
         getLogger().debug("Session with id {} created", session.getId());
         String clusterKey = CurrentKey.get();
+        sessions.put(session.getId(), session);
         if (clusterKey != null) {
             activeSessions.put(session.getId(), clusterKey);
             SessionInfo sessionInfo = sessionBackendConnector
@@ -100,6 +104,8 @@ public class SessionListener implements HttpSessionListener,
                     getLogger().error(
                             "Unable to deserialize data with key {} from distributed storage into session {}",
                             clusterKey, session.getId(), e);
+                } finally {
+                    sessionInfo.release();
                 }
             }
             sessionCreationRequestMap.put(clusterKey,
@@ -117,6 +123,7 @@ public class SessionListener implements HttpSessionListener,
         }
         HttpSession session = se.getSession();
         String sessionId = session.getId();
+        sessions.remove(sessionId);
         String associatedClusterKey = activeSessions.remove(sessionId);
         if (associatedClusterKey != null) {
             sessionCreationRequestMap.remove(associatedClusterKey);
@@ -152,6 +159,8 @@ public class SessionListener implements HttpSessionListener,
         });
         String clusterKey = activeSessions.remove(oldSessionId);
         activeSessions.put(newSessionId, clusterKey);
+        sessions.remove(oldSessionId);
+        sessions.put(newSessionId, event.getSession());
     }
 
     @Override
@@ -261,6 +270,47 @@ public class SessionListener implements HttpSessionListener,
         return activeSessions::containsKey;
     }
 
+    /**
+     * Gets the number of active HTTP sessions.
+     *
+     * @return the number of active sessions.
+     */
+    public int getActiveSessionCount() {
+        return activeSessions.size();
+    }
+
+    /**
+     * Gets the number of cluster keys associated with an HTTP session.
+     *
+     * @return the number of cluster key mappings.
+     */
+    public int getClusterKeyMappingCount() {
+        return sessionCreationRequestMap.size();
+    }
+
+    /**
+     * Gets the active HTTP sessions associated with a cluster key, optionally
+     * restricted to the given key.
+     *
+     * @param clusterKey
+     *            the cluster key to look for, or {@literal null} for all the
+     *            replicated sessions.
+     * @return the matching active sessions.
+     */
+    public List<HttpSession> getReplicatedSessions(String clusterKey) {
+        return sessions.values().stream().filter(session -> {
+            try {
+                return SessionTrackerCookie.getFromSession(session)
+                        .filter(key -> clusterKey == null
+                                || clusterKey.equals(key))
+                        .isPresent();
+            } catch (IllegalStateException e) {
+                // session invalidated in the meantime
+                return false;
+            }
+        }).toList();
+    }
+
     /**
      * Stops this session listener to skip any further {@code HttpSessionEvent}
      * handling.
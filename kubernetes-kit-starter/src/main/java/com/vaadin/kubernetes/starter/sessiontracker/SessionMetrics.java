@@ -0,0 +1,95 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker;
+
+/**
+ * Receives measurements of the session replication pipeline: serialization
+ * and deserialization, the optimistic and pessimistic serialization phases,
+ * and backend operations.
+ * <p>
+ * Methods are called on serialization threads, request threads and backend
+ * threads, and must be cheap, thread safe and never throw. Each method has a
+ * default no-op implementation.
+ */
+public interface SessionMetrics {
+
+    /**
+     * The no-op implementation, used when metrics are not collected.
+     */
+    SessionMetrics NOOP = new SessionMetrics() {
+    };
+
+    /**
+     * Records the serialization of session attributes.
+     *
+     * @param nanos
+     *            the time spent writing the attributes, in nanoseconds.
+     * @param bytes
+     *            the size of the serialized data, or {@literal -1} if the
+     *            serialization failed.
+     */
+    default void recordSerialization(long nanos, int bytes) {
+    }
+
+    /**
+     * Records the deserialization of session attributes.
+     *
+     * @param nanos
+     *            the time spent reading the attributes, in nanoseconds.
+     * @param bytes
+     *            the size of the serialized data.
+     * @param success
+     *            {@literal true} if the attributes have been read.
+     */
+    default void recordDeserialization(long nanos, int bytes,
+            boolean success) {
+    }
+
+    /**
+     * Records an optimistic serialization attempt.
+     *
+     * @param success
+     *            {@literal true} if the attempt produced the serialized data,
+     *            {@literal false} if the session was locked or modified and
+     *            the attempt will be retried.
+     */
+    default void recordOptimisticAttempt(boolean success) {
+    }
+
+    /**
+     * Records a fallback to pessimistic serialization, holding the session
+     * lock.
+     */
+    default void recordPessimisticFallback() {
+    }
+
+    /**
+     * Records a serialization request ignored because the session is already
+     * being serialized.
+     */
+    default void recordSkippedSerialization() {
+    }
+
+    /**
+     * Records a call to the session backend.
+     *
+     * @param operation
+     *            the name of the {@link
+     *            com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector}
+     *            method.
+     * @param nanos
+     *            the duration of the call, in nanoseconds.
+     * @param success
+     *            {@literal true} if the call completed normally.
+     */
+    default void recordBackendCall(String operation, long nanos,
+            boolean success) {
+    }
+}
@@ -0,0 +1,78 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+/**
+ * Names of the Micrometer observations of session replication.
+ * <p>
+ * Observations are created as children of the observation current on the
+ * calling thread, so that the asynchronous serialization triggered by a
+ * request, and the session restore performed by a request after a failover,
+ * appear in the trace of that request. Names differ from the ones of the
+ * {@link SessionMetrics} meters, to avoid clashes when observations are also
+ * published as timers.
+ */
+public final class SessionObservations {
+
+    /**
+     * Serialization of a session, from the request that queued it to the
+     * completion of the write on the backend.
+     */
+    public static final String SERIALIZATION = "vaadin.session.replication.serialization";
+
+    /**
+     * Optimistic serialization attempts, without holding the session lock.
+     */
+    public static final String OPTIMISTIC = "vaadin.session.replication.optimistic";
+
+    /**
+     * Pessimistic serialization, holding the session lock.
+     */
+    public static final String PESSIMISTIC = "vaadin.session.replication.pessimistic";
+
+    /**
+     * Deserialization of session attributes.
+     */
+    public static final String DESERIALIZATION = "vaadin.session.replication.deserialization";
+
+    /**
+     * Restore of a session from the backend, or the wait for a concurrent
+     * request restoring it.
+     */
+    public static final String RESTORE = "vaadin.session.replication.restore";
+
+    /**
+     * A call to the session backend, with an {@code operation} key.
+     */
+    public static final String BACKEND = "vaadin.session.replication.backend";
+
+    private SessionObservations() {
+    }
+
+    /**
+     * Creates a not started observation, child of the observation current on
+     * the calling thread.
+     *
+     * @param name
+     *            the observation name.
+     * @param registry
+     *            the observation registry, not {@literal null}.
+     * @return the observation, a no-op one if the registry is not observing.
+     */
+    public static Observation create(String name,
+            ObservationRegistry registry) {
+        return Observation.createNotStarted(name, registry)
+                .contextualName(
+                        "session " + name.substring(name.lastIndexOf('.') + 1));
+    }
+}
@@ -12,11 +12,12 @@ package com.vaadin.kubernetes.starter.sessiontracker;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.NotSerializableException;
+import java.io.OutputStream;
 import java.time.Duration;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -25,11 +26,13 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -37,8 +40,13 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.context.event.ContextClosedEvent;
@@ -52,11 +60,21 @@ import com.vaadin.flow.server.WrappedHttpSession;
 import com.vaadin.flow.server.WrappedSession;
 import com.vaadin.kubernetes.starter.ProductUtils;
 import com.vaadin.kubernetes.starter.SerializationProperties;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.AsyncBackendConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionExpirationPolicy;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.Deserialization;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.LockWait;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.OptimisticAttempt;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.StreamWrite;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.ByteBufferInputStream;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.ByteBufferOutputStream;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.DirectBufferPool;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationInputStream;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationOutputStream;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationProfiler;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationStreamFactory;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientHandler;
 
@@ -121,10 +139,18 @@ public class SessionSerializer
         ProductUtils.markAsUsed(SessionSerializer.class.getSimpleName());
     }
 
-    private final ExecutorService executorService = Executors
+    private final ThreadPoolExecutor executorService = (ThreadPoolExecutor) Executors
             .newFixedThreadPool(4, new SerializationThreadFactory());
 
-    private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<>();
+    // session id to the time the serialization has been requested
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+
+    // session id to the time a worker thread started the serialization
+    private final ConcurrentHashMap<String, Long> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder serializedBytes = new LongAdder();
+
+    private final LongAdder serializedCount = new LongAdder();
 
     private final BackendConnector backendConnector;
 
@@ -139,8 +165,19 @@ public class SessionSerializer
 
     private final SerializationProperties serializationProperties;
 
+    // null if off-heap buffers are disabled
+    private final DirectBufferPool bufferPool;
+
+    private final SerializationProfiler serializationProfiler;
+
     private Predicate<Class<?>> injectableFilter = type -> true;
 
+    private SessionMetrics sessionMetrics = SessionMetrics.NOOP;
+
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    private ApplicationEventPublisher eventPublisher;
+
     private VaadinService vaadinService;
 
     private final AtomicBoolean stopped = new AtomicBoolean(false);
@@ -209,6 +246,14 @@ public class SessionSerializer
         this.sessionExpirationPolicy = sessionExpirationPolicy;
         this.serializationStreamFactory = serializationStreamFactory;
         this.serializationProperties = serializationProperties;
+        this.bufferPool = serializationProperties.getOffHeap().isEnabled()
+                ? new DirectBufferPool(serializationProperties.getOffHeap()
+                        .getMaxPooledBytes())
+                : null;
+        int sampleRate = serializationProperties.getProfiler().getSampleRate();
+        this.serializationProfiler = sampleRate > 0
+                ? new SerializationProfiler(sampleRate)
+                : null;
     }
 
     /**
@@ -226,6 +271,142 @@ public class SessionSerializer
         this.injectableFilter = injectableFilter;
     }
 
+    /**
+     * Sets the receiver of serialization and deserialization measurements.
+     *
+     * @param sessionMetrics
+     *            the session metrics, or {@literal null} to disable them.
+     */
+    public void setSessionMetrics(SessionMetrics sessionMetrics) {
+        this.sessionMetrics = sessionMetrics != null ? sessionMetrics
+                : SessionMetrics.NOOP;
+    }
+
+    /**
+     * Sets the registry of the observations of serialization and
+     * deserialization, named as defined by {@link SessionObservations}.
+     *
+     * @param observationRegistry
+     *            the observation registry, or {@literal null} to disable
+     *            observations.
+     */
+    public void setObservationRegistry(
+            ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry != null
+                ? observationRegistry
+                : ObservationRegistry.NOOP;
+    }
+
+    /**
+     * Gets the registry of the observations of session replication.
+     *
+     * @return the observation registry, never {@literal null}.
+     */
+    public ObservationRegistry getObservationRegistry() {
+        return observationRegistry;
+    }
+
+    /**
+     * Sets the publisher used to switch the application readiness to
+     * {@link ReadinessState#REFUSING_TRAFFIC} when the serializer starts
+     * stopping, so that traffic is drained from the instance while pending
+     * serializations are flushed.
+     *
+     * @param eventPublisher
+     *            the application event publisher, or {@literal null} to not
+     *            publish readiness changes.
+     */
+    public void setApplicationEventPublisher(
+            ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Gets the sampling profiler of serialized session sizes.
+     *
+     * @return the serialization profiler, or {@literal null} if profiling is
+     *         not enabled.
+     */
+    public SerializationProfiler getSerializationProfiler() {
+        return serializationProfiler;
+    }
+
+    /**
+     * Gets the number of serializations waiting for a worker thread.
+     *
+     * @return the number of queued serializations.
+     */
+    public int getQueuedSerializationCount() {
+        return executorService.getQueue().size();
+    }
+
+    /**
+     * Gets the number of sessions currently being serialized.
+     *
+     * @return the number of pending serializations.
+     */
+    public int getPendingSerializationCount() {
+        return pending.size();
+    }
+
+    /**
+     * Gets the time elapsed since the pending serializations have been
+     * requested, the oldest first.
+     *
+     * @return the ages of the pending serializations.
+     */
+    public List<Duration> getPendingSerializationAges() {
+        return ages(pending);
+    }
+
+    /**
+     * Gets the number of serializations started by a worker thread and not
+     * yet completed, including the write to the backend.
+     *
+     * @return the number of in-flight serializations.
+     */
+    public int getInFlightSerializationCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Gets the time elapsed since the in-flight serializations have been
+     * started by a worker thread, the oldest first.
+     *
+     * @return the ages of the in-flight serializations.
+     */
+    public List<Duration> getInFlightSerializationAges() {
+        return ages(inFlight);
+    }
+
+    /**
+     * Gets the average size of the serialized sessions.
+     *
+     * @return the average size in bytes, or {@literal 0} if no session has
+     *         been serialized yet.
+     */
+    public long getAverageSerializedSize() {
+        long count = serializedCount.sum();
+        return count > 0 ? serializedBytes.sum() / count : 0;
+    }
+
+    private static List<Duration> ages(Map<String, Long> startTimes) {
+        long now = System.currentTimeMillis();
+        return startTimes.values().stream()
+                .map(start -> Duration.ofMillis(Math.max(0, now - start)))
+                .sorted(Comparator.reverseOrder()).toList();
+    }
+
+    /**
+     * Gets the backend connector used to store serialized data on the
+     * distributed storage.
+     *
+     * @return the backend connector.
+     */
+    public BackendConnector getBackendConnector() {
+        return backendConnector;
+    }
+
     @Override
     public boolean isRunning() {
         return !stopped.get();
@@ -310,13 +491,21 @@ public class SessionSerializer
         if (currentService == null) {
             VaadinService.setCurrent(vaadinService);
         }
-        try {
+        Observation observation = SessionObservations
+                .create(SessionObservations.DESERIALIZATION,
+                        observationRegistry)
+                .start();
+        try (Observation.Scope scope = observation.openScope()) {
             Map<String, Object> values = doDeserialize(sessionInfo,
                     session.getId());
             for (Entry<String, Object> entry : values.entrySet()) {
                 session.setAttribute(entry.getKey(), entry.getValue());
             }
+        } catch (Exception e) {
+            observation.error(e);
+            throw e;
         } finally {
+            observation.stop();
             if (currentService == null) {
                 VaadinService.setCurrent(null);
             }
@@ -336,6 +525,7 @@ public class SessionSerializer
                         "Pending serializations of session {} completed",
                         sessionId);
             } else {
+                sessionMetrics.recordSkippedSerialization();
                 // This session will be serialized again soon enough
                 getLogger().debug(
                         "Ignoring serialization request for session {} as the session is already being serialized",
@@ -347,46 +537,127 @@ public class SessionSerializer
         getLogger().debug(
                 "Starting asynchronous serialization of session {} with distributed key {}",
                 sessionId, clusterKey);
-        pending.put(sessionId, true);
+        pending.put(sessionId, System.currentTimeMillis());
+        // Started on the request thread to be a child of the request
+        // observation; worker threads open its scope, so that phases and
+        // backend calls are nested in it
+        Observation observation = SessionObservations
+                .create(SessionObservations.SERIALIZATION, observationRegistry)
+                .start();
+        if (backendConnector instanceof AsyncBackendConnector asyncConnector) {
+            queueAsyncSerialization(asyncConnector, sessionId, clusterKey,
+                    timeToLive, attributes, observation);
+            return;
+        }
         // Backend operations are performed asynchronously to prevent the UI to
         // freeze in case of errors, timeouts or slow performance.
         // Current session is immediately marked as 'serialization pending',
         // because if 'markSerializationStarted' is hanging, it does not make
         // sense to retry the operation instantly.
-        CompletableFuture.runAsync(() -> backendConnector
-                .markSerializationStarted(clusterKey, timeToLive),
-                executorService).handle((unused, error) -> {
+        CompletableFuture.runAsync(() -> {
+            inFlight.put(sessionId, System.currentTimeMillis());
+            observation.scoped(() -> backendConnector
+                    .markSerializationStarted(clusterKey, timeToLive));
+        }, executorService).handle((unused, error) -> {
+            if (error != null) {
+                getLogger().debug(
+                        "Failed marking serialization start for of session {} with distributed key {}",
+                        sessionId, clusterKey, error);
+            } else {
+                Consumer<SessionInfo> whenSerialized = sessionInfo -> {
+                    if (sessionInfo != null) {
+                        try {
+                            backendConnector.sendSession(sessionInfo);
+                        } finally {
+                            sessionInfo.release();
+                        }
+                    }
+                    backendConnector.markSerializationComplete(clusterKey);
+                };
+                observation.scoped(() -> handleSessionSerialization(sessionId,
+                        timeToLive, attributes, whenSerialized));
+            }
+            return null;
+        }).whenComplete((unused, error) -> {
+            pending.remove(sessionId);
+            inFlight.remove(sessionId);
+            if (error != null) {
+                if (error instanceof CompletionException
+                        && error.getCause() != null) {
+                    error = error.getCause();
+                }
+                Throwable cause = error;
+                observation.scoped(() -> backendConnector
+                        .markSerializationFailed(clusterKey, cause));
+                observation.error(error);
+                getLogger().error("Serialization of session {} failed",
+                        sessionId, error);
+            }
+            observation.stop();
+        });
+    }
+
+    private void queueAsyncSerialization(AsyncBackendConnector connector,
+            String sessionId, String clusterKey, Duration timeToLive,
+            Map<String, Object> attributes, Observation observation) {
+        // Serialization still runs on the executor, but backend operations do
+        // not block its threads: the session is sent once serialized and the
+        // pending state is cleared when the backend acknowledged the write.
+        observation.scoped(() -> connector
+                .markSerializationStartedAsync(clusterKey, timeToLive))
+                .handleAsync((unused, error) -> {
+                    inFlight.put(sessionId, System.currentTimeMillis());
                     if (error != null) {
                         getLogger().debug(
                                 "Failed marking serialization start for of session {} with distributed key {}",
                                 sessionId, clusterKey, error);
-                    } else {
-                        Consumer<SessionInfo> whenSerialized = sessionInfo -> {
-                            if (sessionInfo != null) {
-                                backendConnector.sendSession(sessionInfo);
-                            }
-                            backendConnector
-                                    .markSerializationComplete(clusterKey);
-                        };
-                        handleSessionSerialization(sessionId, timeToLive,
-                                attributes, whenSerialized);
+                        return CompletableFuture.<Void> completedFuture(null);
                     }
-                    return null;
-                }).whenComplete((unused, error) -> {
+                    AtomicReference<CompletableFuture<Void>> written = new AtomicReference<>();
+                    observation.scoped(() -> handleSessionSerialization(
+                            sessionId, timeToLive, attributes,
+                            sessionInfo -> written.set(sendAsync(connector,
+                                    clusterKey, sessionInfo, observation))));
+                    return written.get();
+                }, executorService).thenCompose(Function.identity())
+                .whenComplete((unused, error) -> {
                     pending.remove(sessionId);
+                    inFlight.remove(sessionId);
                     if (error != null) {
                         if (error instanceof CompletionException
                                 && error.getCause() != null) {
                             error = error.getCause();
                         }
-                        backendConnector.markSerializationFailed(clusterKey,
-                                error);
+                        Throwable cause = error;
+                        observation.scoped(() -> connector
+                                .markSerializationFailedAsync(clusterKey,
+                                        cause));
+                        observation.error(error);
                         getLogger().error("Serialization of session {} failed",
                                 sessionId, error);
                     }
+                    observation.stop();
                 });
     }
 
+    private static CompletableFuture<Void> sendAsync(
+            AsyncBackendConnector connector, String clusterKey,
+            SessionInfo sessionInfo, Observation observation) {
+        CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+        if (sessionInfo != null) {
+            try {
+                sent = connector.sendSessionAsync(sessionInfo)
+                        .whenComplete((unused, error) -> sessionInfo.release());
+            } catch (RuntimeException e) {
+                sessionInfo.release();
+                throw e;
+            }
+        }
+        // completion runs on a backend thread, outside the observation scope
+        return sent.thenCompose(unused -> observation.scoped(
+                () -> connector.markSerializationCompleteAsync(clusterKey)));
+    }
+
     private void handleSessionSerialization(String sessionId,
             Duration timeToLive, Map<String, Object> attributes,
             Consumer<SessionInfo> whenSerialized) {
@@ -403,33 +674,11 @@ public class SessionSerializer
                 getLogger().debug(
                         "Optimistic serialization of session {} with distributed key {} started",
                         sessionId, clusterKey);
-                while (System.currentTimeMillis() < timeout) {
-                    if (stopped.get()) {
-                        throw new PessimisticSerializationRequiredException(
-                                "Forcing Pessimistic serialization (STOP)");
-                    }
-                    SessionInfo info = serializeOptimisticLocking(sessionId,
-                            timeToLive, attributes);
-                    if (info != null) {
-                        pending.remove(sessionId); // Is this a race condition?
-                        getLogger().debug(
-                                "Optimistic serialization of session {} with distributed key {} completed",
-                                sessionId, clusterKey);
-                        whenSerialized.accept(info);
-                        return;
-                    }
-                    if (delay > 0) {
-                        try {
-                            // Introduce a small delay to reduce CPU usage
-                            Thread.sleep(delay);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            getLogger().debug("Optimistic serialization interrupted for session {} with distributed key {}",
-                                    sessionId, clusterKey);
-                            // Exit loop and fall through to pessimistic serialization
-                            break;
-                        }
-                    }
+                SessionInfo serialized = serializeOptimistic(sessionId,
+                        timeToLive, attributes, timeout, delay);
+                if (serialized != null) {
+                    whenSerialized.accept(serialized);
+                    return;
                 }
             }
         } catch (PessimisticSerializationRequiredException e) {
@@ -465,8 +714,12 @@ public class SessionSerializer
                 // Serializing using optimistic locking failed for a long time
                 // so be
                 // pessimistic and get it done
-                sessionInfo = serializePessimisticLocking(sessionId, timeToLive,
-                        attributes);
+                sessionMetrics.recordPessimisticFallback();
+                sessionInfo = SessionObservations
+                        .create(SessionObservations.PESSIMISTIC,
+                                observationRegistry)
+                        .observe(() -> serializePessimisticLocking(sessionId,
+                                timeToLive, attributes));
             }
         } finally {
             if (stopped.get()) {
@@ -477,6 +730,75 @@ public class SessionSerializer
 
     }
 
+    private SessionInfo serializeOptimistic(String sessionId,
+            Duration timeToLive, Map<String, Object> attributes, long timeout,
+            long delay) throws IOException {
+        String clusterKey = getClusterKey(attributes);
+        Observation observation = SessionObservations
+                .create(SessionObservations.OPTIMISTIC, observationRegistry)
+                .start();
+        int attempts = 0;
+        String outcome = "fallback";
+        try {
+            while (System.currentTimeMillis() < timeout) {
+                if (stopped.get()) {
+                    throw new PessimisticSerializationRequiredException(
+                            "Forcing Pessimistic serialization (STOP)");
+                }
+                attempts++;
+                OptimisticAttempt attempt = new OptimisticAttempt();
+                attempt.begin();
+                SessionInfo info;
+                try {
+                    info = serializeOptimisticLocking(sessionId, timeToLive,
+                            attributes);
+                } catch (IOException | RuntimeException e) {
+                    attempt.complete(clusterKey, 0,
+                            SessionReplicationEvents.FAILURE);
+                    throw e;
+                }
+                attempt.complete(clusterKey, info != null ? info.getSize() : 0,
+                        info != null ? SessionReplicationEvents.SUCCESS
+                                : SessionReplicationEvents.RETRY);
+                sessionMetrics.recordOptimisticAttempt(info != null);
+                if (info != null) {
+                    pending.remove(sessionId); // Is this a race condition?
+                    getLogger().debug(
+                            "Optimistic serialization of session {} with distributed key {} completed",
+                            sessionId, clusterKey);
+                    outcome = "success";
+                    return info;
+                }
+                if (delay > 0) {
+                    try {
+                        // Introduce a small delay to reduce CPU usage
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        getLogger().debug(
+                                "Optimistic serialization interrupted for session {} with distributed key {}",
+                                sessionId, clusterKey);
+                        // Exit loop and fall through to pessimistic
+                        // serialization
+                        break;
+                    }
+                }
+            }
+            return null;
+        } catch (PessimisticSerializationRequiredException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            outcome = "failure";
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.lowCardinalityKeyValue("outcome", outcome);
+            observation.highCardinalityKeyValue("attempts",
+                    String.valueOf(attempts));
+            observation.stop();
+        }
+    }
+
     private SessionInfo serializePessimisticLocking(String sessionId,
             Duration timeToLive, Map<String, Object> attributes) {
         String clusterKey = getClusterKey(attributes);
@@ -485,9 +807,7 @@ public class SessionSerializer
                 "Pessimistic serialization of session {} with distributed key {} started",
                 sessionId, clusterKey);
         Set<ReentrantLock> locks = getLocks(attributes);
-        for (ReentrantLock lock : locks) {
-            lock.lock();
-        }
+        lockAll(locks, clusterKey);
         try {
             beforeSerializePessimistic(attributes);
             return doSerialize(sessionId, timeToLive, attributes);
@@ -516,9 +836,7 @@ public class SessionSerializer
                             + " is in the UI tree");
         };
         Set<ReentrantLock> locks = getLocks(attributes);
-        for (ReentrantLock lock : locks) {
-            lock.lock();
-        }
+        lockAll(locks, getClusterKey(attributes));
         try {
             getUIs(attributes).forEach(ui -> UnserializableComponentWrapper
                     .doWithWrapper(ui, action));
@@ -529,6 +847,16 @@ public class SessionSerializer
         }
     }
 
+    private static void lockAll(Set<ReentrantLock> locks, String clusterKey) {
+        LockWait lockWait = new LockWait();
+        lockWait.begin();
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        lockWait.complete(clusterKey, locks.size(),
+                SessionReplicationEvents.SUCCESS);
+    }
+
     private void beforeSerializePessimistic(Map<String, Object> attributes) {
         getUIs(attributes)
                 .forEach(UnserializableComponentWrapper::beforeSerialization);
@@ -584,6 +912,7 @@ public class SessionSerializer
             if (latestUnlockTime != latestUnlockTimeCheck) {
                 // Somebody modified the session during serialization and the
                 // result cannot be used
+                info.release();
                 getLogger().trace(
                         "Optimistic serialization of session {} with distributed key {} failed, "
                                 + "somebody modified the session during serialization ({} != {}). Will retry",
@@ -658,26 +987,59 @@ public class SessionSerializer
     private SessionInfo doSerialize(String sessionId, Duration timeToLive,
             Map<String, Object> attributes) throws Exception {
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         String clusterKey = getClusterKey(attributes);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        TransientHandler transientHandler = handlerProvider.apply(sessionId,
-                clusterKey);
+        ByteBufferOutputStream bufferOut = bufferPool != null
+                ? new ByteBufferOutputStream(bufferPool)
+                : null;
+        OutputStream out = bufferOut != null ? bufferOut
+                : new ByteArrayOutputStream();
+        SerializationProfiler.Sample profilerSample = serializationProfiler != null
+                ? serializationProfiler.sample(attributes)
+                : null;
+        TransientHandler transientHandler = SessionReplicationEvents
+                .instrument(handlerProvider.apply(sessionId, clusterKey),
+                        clusterKey);
+        StreamWrite streamWrite = new StreamWrite();
+        streamWrite.begin();
         try (SerializationOutputStream outStream = serializationStreamFactory
-                .createOutputStream(out, transientHandler, injectableFilter)) {
+                .createOutputStream(profilerSample != null
+                        ? profilerSample.wrap(out)
+                        : out, transientHandler, injectableFilter)) {
+            outStream.setProfilerSample(profilerSample);
             outStream.writeWithTransients(attributes);
             sessionSerializationCallback.onSerializationSuccess();
         } catch (Exception ex) {
+            if (bufferOut != null) {
+                bufferOut.release();
+            }
+            streamWrite.complete(clusterKey, 0,
+                    SessionReplicationEvents.FAILURE);
+            sessionMetrics.recordSerialization(System.nanoTime() - startNanos,
+                    -1);
             sessionSerializationCallback.onSerializationError(ex);
             throw ex;
         }
 
-        SessionInfo info = new SessionInfo(clusterKey, timeToLive,
-                out.toByteArray());
+        if (profilerSample != null) {
+            profilerSample.complete();
+        }
+        SessionInfo info = bufferOut != null
+                ? new SessionInfo(clusterKey, timeToLive,
+                        bufferOut.toByteBuffer(), bufferOut::release)
+                : new SessionInfo(clusterKey, timeToLive,
+                        ((ByteArrayOutputStream) out).toByteArray());
+        streamWrite.complete(clusterKey, info.getSize(),
+                SessionReplicationEvents.SUCCESS);
+        sessionMetrics.recordSerialization(System.nanoTime() - startNanos,
+                info.getSize());
+        serializedBytes.add(info.getSize());
+        serializedCount.increment();
 
         getLogger().debug(
                 "Serialization of attributes {} for session {} with distributed key {} completed in {}ms ({} bytes)",
                 attributes.keySet(), sessionId, info.getClusterKey(),
-                System.currentTimeMillis() - start, info.getData().length);
+                System.currentTimeMillis() - start, info.getSize());
         return info;
     }
 
@@ -687,27 +1049,41 @@ public class SessionSerializer
 
     private Map<String, Object> doDeserialize(SessionInfo sessionInfo,
             String sessionId) throws Exception {
-        byte[] data = sessionInfo.getData();
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
 
         // Is this needed?
         ClassLoader contextLoader = Thread.currentThread()
                 .getContextClassLoader();
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        ByteBufferInputStream in = new ByteBufferInputStream(
+                sessionInfo.getDataBuffer());
         Map<String, Object> attributes;
-        TransientHandler transientHandler = handlerProvider.apply(sessionId,
-                sessionInfo.getClusterKey());
+        TransientHandler transientHandler = SessionReplicationEvents
+                .instrument(handlerProvider.apply(sessionId,
+                        sessionInfo.getClusterKey()),
+                        sessionInfo.getClusterKey());
 
+        Deserialization deserialization = new Deserialization();
+        deserialization.begin();
         try (SerializationInputStream inStream = serializationStreamFactory
                 .createInputStream(in, transientHandler)) {
             attributes = inStream.readWithTransients();
             sessionSerializationCallback.onDeserializationSuccess();
         } catch (Exception ex) {
+            deserialization.complete(sessionInfo.getClusterKey(),
+                    sessionInfo.getSize(), SessionReplicationEvents.FAILURE);
+            sessionMetrics.recordDeserialization(
+                    System.nanoTime() - startNanos, sessionInfo.getSize(),
+                    false);
             sessionSerializationCallback.onDeserializationError(ex);
             throw ex;
         } finally {
             Thread.currentThread().setContextClassLoader(contextLoader);
         }
+        deserialization.complete(sessionInfo.getClusterKey(),
+                sessionInfo.getSize(), SessionReplicationEvents.SUCCESS);
+        sessionMetrics.recordDeserialization(System.nanoTime() - startNanos,
+                sessionInfo.getSize(), true);
         logSessionDebugInfo("Deserialized session", attributes);
 
         getLogger().debug(
@@ -753,7 +1129,16 @@ public class SessionSerializer
     public void stop() {
         if (stopped.compareAndSet(false, true)) {
             getLogger().debug("Shutting down session serializer");
+            if (eventPublisher != null) {
+                AvailabilityChangeEvent.publish(eventPublisher, this,
+                        ReadinessState.REFUSING_TRAFFIC);
+            }
             waitForSerialization();
+            if (!backendConnector.awaitPendingOperations(Duration
+                    .ofMillis(serializationProperties.getTimeout()))) {
+                getLogger().warn(
+                        "Some session data may not have been persisted because pending backend operations did not complete in time");
+            }
             this.vaadinService = null;
             executorService.shutdown();
             getLogger().debug("Session serializer shutdown completed");
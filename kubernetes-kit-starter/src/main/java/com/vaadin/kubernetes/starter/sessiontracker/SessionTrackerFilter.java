@@ -9,6 +9,9 @@
  */
 package com.vaadin.kubernetes.starter.sessiontracker;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
@@ -23,9 +26,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+import io.micrometer.observation.Observation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -50,6 +56,11 @@ import com.vaadin.kubernetes.starter.KubernetesKitProperties;
  * If the HTTP request has not a valid session but the tracking Cookie exists,
  * the filter forces the creation of a new HTTP session, that is then populated
  * with data from the distributed storage by {@link SessionListener}.
+ * Concurrent requests for the same tracking Cookie wait for the session to be
+ * created and are then redirected, to be replayed with the new session. If
+ * enabled by {@link KubernetesKitProperties#isAsyncSessionCreationWait()},
+ * waiting requests are suspended with the Servlet asynchronous API instead of
+ * blocking a container thread.
  * <p>
  * The filter acts only on requests handled by Vaadin Flow.
  */
@@ -63,6 +74,9 @@ public class SessionTrackerFilter extends HttpFilter {
     // Track which clients are currently creating sessions
     private final ConcurrentHashMap<String, CompletableFuture<String>> pendingSessionCreation = new ConcurrentHashMap<>();
 
+    // Number of requests waiting for a concurrent session creation
+    private final AtomicInteger waitingRequests = new AtomicInteger();
+
     // Timeout for waiting threads (in seconds)
     private static final long SESSION_CREATION_TIMEOUT_SECONDS = 30;
 
@@ -106,7 +120,35 @@ public class SessionTrackerFilter extends HttpFilter {
         if (trackerCookie.isPresent() && sessionSerializer.isRunning()) {
             var key = trackerCookie.get();
             if (request.getSession(false) == null) {
-                createOrWaitForSession(request, key, replayRequestRequired);
+                // the restore is a child of the request observation, and the
+                // parent of backend calls and deserialization
+                Observation observation = SessionObservations
+                        .create(SessionObservations.RESTORE,
+                                sessionSerializer.getObservationRegistry())
+                        .start();
+                Runnable awaitSessionCreation = null;
+                try (Observation.Scope scope = observation.openScope()) {
+                    awaitSessionCreation = createOrWaitForSession(request,
+                            response, key, replayRequestRequired,
+                            observation);
+                } catch (RuntimeException e) {
+                    observation.error(e);
+                    throw e;
+                } finally {
+                    observation.lowCardinalityKeyValue("replay",
+                            String.valueOf(replayRequestRequired.get()));
+                    // a suspended request stops the observation when it is
+                    // resumed, so that the wait is part of the restore
+                    if (!request.isAsyncStarted()) {
+                        observation.stop();
+                    }
+                }
+                // the creation may already be complete, and the request then
+                // resumed on this thread, so the restore observation must be
+                // finalized and its scope closed beforehand
+                if (awaitSessionCreation != null) {
+                    awaitSessionCreation.run();
+                }
             } else {
                 getLogger().trace(
                         "Session already exists for cluster key {} on request {}",
@@ -115,6 +157,12 @@ public class SessionTrackerFilter extends HttpFilter {
             }
         }
 
+        // A request suspended while waiting for a concurrent session creation
+        // is answered when the creation completes
+        if (request.isAsyncStarted()) {
+            return;
+        }
+
         // Force redirect if the server is shutting down, to prevent potential
         // modifications to the VaadinSession; the SessionSerializer status
         // is read again because stop happens asynchronously
@@ -190,6 +238,9 @@ public class SessionTrackerFilter extends HttpFilter {
      * @param request
      *            the {@code HttpServletRequest} associated with the incoming
      *            HTTP request
+     * @param response
+     *            the {@code HttpServletResponse} of the request, answered
+     *            asynchronously if the request is suspended while waiting
      * @param clusterKey
      *            the unique identifier associated with a session group or
      *            cluster
@@ -197,9 +248,17 @@ public class SessionTrackerFilter extends HttpFilter {
      *            an {@code AtomicReference} indicating whether the current
      *            request needs to be replayed; this might be needed if the
      *            session ID changes after the response is generated
+     * @param observation
+     *            the restore observation, stopped when the request is resumed
+     *            if it is suspended
+     * @return the action resuming the request when the session creation
+     *         completes, if the request has been suspended, or
+     *         {@literal null} otherwise
      */
-    private void createOrWaitForSession(HttpServletRequest request,
-            String clusterKey, AtomicReference<Boolean> replayRequestRequired) {
+    private Runnable createOrWaitForSession(HttpServletRequest request,
+            HttpServletResponse response, String clusterKey,
+            AtomicReference<Boolean> replayRequestRequired,
+            Observation observation) {
         getLogger().debug(
                 "Request with cluster key {} with requested session id {}: {}",
                 clusterKey, request.getRequestedSessionId(),
@@ -239,11 +298,19 @@ public class SessionTrackerFilter extends HttpFilter {
                 // redirect to the same URL, and try again later
                 replayRequestRequired.set(true);
             }
+        } else if (properties.isAsyncSessionCreationWait()
+                && request.isAsyncSupported() && !existingFuture.isDone()) {
+            // Concurrent request: release the thread until session creation
+            // completes, then replay
+            replayRequestRequired.set(true);
+            return waitForSessionCreationAsync(request, response, clusterKey,
+                    existingFuture, observation);
         } else {
             // Concurrent request: wait for session creation to complete
             replayRequestRequired.set(waitForSessionCreation(request,
                     clusterKey, existingFuture));
         }
+        return null;
     }
 
     /**
@@ -324,6 +391,7 @@ public class SessionTrackerFilter extends HttpFilter {
         getLogger().debug(
                 "Waiting for session creation for cluster key {} on request {} with requested session id {}",
                 key, request.getRequestURI(), request.getRequestedSessionId());
+        waitingRequests.incrementAndGet();
         try {
             String newSessionId = sessionCreationFuture
                     .get(SESSION_CREATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
@@ -353,9 +421,143 @@ public class SessionTrackerFilter extends HttpFilter {
                     e.getCause());
             throw new RuntimeException("Error during session creation",
                     e.getCause());
+        } finally {
+            waitingRequests.decrementAndGet();
         }
     }
 
+    /**
+     * Suspends the request until the creation of a new HTTP session from a
+     * distributed environment completes, releasing the container thread
+     * meanwhile. When the session is created, the request is redirected to be
+     * replayed with the new session cookie; if the creation fails or times
+     * out, an error is sent, as
+     * {@link #waitForSessionCreation(HttpServletRequest, String, CompletableFuture)}
+     * does.
+     * <p>
+     * Unlike a blocked request, a resumed request is always replayed, since
+     * it can no longer proceed through the filter chain.
+     * <p>
+     * The request is suspended immediately, but waiting for the session
+     * creation only starts when the returned action is run. If the creation
+     * is already complete, the request is resumed by the calling thread, so
+     * the action must be run once the scope of the restore observation is
+     * closed.
+     *
+     * @param request
+     *            the HTTP request associated with the session creation
+     * @param response
+     *            the HTTP response of the request
+     * @param key
+     *            the unique cluster key associated with the session
+     * @param sessionCreationFuture
+     *            a {@link CompletableFuture} representing the asynchronous
+     *            operation for session creation
+     * @param observation
+     *            the restore observation, stopped when the request is resumed
+     *            or the client is gone
+     * @return the action waiting for the session creation to resume the
+     *         request
+     */
+    private Runnable waitForSessionCreationAsync(HttpServletRequest request,
+            HttpServletResponse response, String key,
+            CompletableFuture<String> sessionCreationFuture,
+            Observation observation) {
+        getLogger().debug(
+                "Suspending request {} with requested session id {} until session creation for cluster key {}",
+                request.getRequestURI(), request.getRequestedSessionId(), key);
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(
+                TimeUnit.SECONDS.toMillis(SESSION_CREATION_TIMEOUT_SECONDS));
+        AtomicBoolean resumed = new AtomicBoolean();
+        waitingRequests.incrementAndGet();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (resumed.compareAndSet(false, true)) {
+                    waitingRequests.decrementAndGet();
+                    getLogger().error(
+                            "Timeout waiting for session creation for cluster key {}",
+                            key);
+                    pendingSessionCreation.remove(key);
+                    stop(observation, new TimeoutException(
+                            "Timeout waiting for session creation for cluster key: "
+                                    + key));
+                    resume(asyncContext, key, () -> response.sendError(
+                            HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // the client is gone
+                if (resumed.compareAndSet(false, true)) {
+                    waitingRequests.decrementAndGet();
+                    stop(observation, event.getThrowable());
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                // nothing to do
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // nothing to do
+            }
+        });
+        return () -> sessionCreationFuture
+                .whenComplete((newSessionId, error) -> {
+                    if (!resumed.compareAndSet(false, true)) {
+                        return;
+                    }
+                    waitingRequests.decrementAndGet();
+                    stop(observation, error);
+                    if (error != null) {
+                        getLogger().error(
+                                "Error during session creation for cluster key {}",
+                                key, error);
+                        resume(asyncContext, key,
+                                () -> response.sendError(
+                                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
+                    } else {
+                        getLogger().debug(
+                                "Session {} creation completed for cluster key {}, resuming requested session {}",
+                                newSessionId, key,
+                                request.getRequestedSessionId());
+                        resume(asyncContext, key,
+                                () -> forceRequestReply(request, response,
+                                        "Redirecting current request session ID {} to {} to use the new session ID"));
+                    }
+                });
+    }
+
+    private static void stop(Observation observation, Throwable error) {
+        if (error != null) {
+            observation.error(error);
+        }
+        observation.stop();
+    }
+
+    private void resume(AsyncContext asyncContext, String key,
+            ResponseAction action) {
+        try {
+            action.run();
+        } catch (IOException | RuntimeException e) {
+            getLogger().debug(
+                    "Failed to answer request waiting for session creation for cluster key {}",
+                    key, e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResponseAction {
+        void run() throws IOException;
+    }
+
     private HttpSession createOrWaitForSession(HttpServletRequest request,
             String key, CompletableFuture<String> existingFuture) {
         CurrentKey.set(key);
@@ -385,6 +587,35 @@ public class SessionTrackerFilter extends HttpFilter {
         }
     }
 
+    /**
+     * Gets the {@link SessionListener} tracking the HTTP sessions handled by
+     * this filter.
+     *
+     * @return the session listener.
+     */
+    public SessionListener getSessionListener() {
+        return sessionListener;
+    }
+
+    /**
+     * Gets the number of cluster keys for which a session is being created.
+     *
+     * @return the number of pending session creations.
+     */
+    public int getPendingSessionCreationCount() {
+        return pendingSessionCreation.size();
+    }
+
+    /**
+     * Gets the number of requests waiting for a session being created by a
+     * concurrent request, either blocked or suspended.
+     *
+     * @return the number of waiting requests.
+     */
+    public int getWaitingRequestCount() {
+        return waitingRequests.get();
+    }
+
     @Override
     public void destroy() {
         if (destroyCallback != null) {
@@ -0,0 +1,111 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.boot.health.contributor.AbstractHealthIndicator;
+import org.springframework.boot.health.contributor.Health;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+
+/**
+ * Health indicator of the session backend.
+ * <p>
+ * Every check reads a probe key from the backend, that is never written, and
+ * reports the measured round-trip latency. The backend is {@code DOWN} if the
+ * read fails or does not complete within the timeout, for example when a
+ * Hazelcast member has not joined the cluster yet or Redis is unreachable.
+ * Probes run on a separate thread, and a new probe is not started while the
+ * previous one is still blocked on the backend.
+ * <p>
+ * The indicator is not part of the readiness group by default; to keep
+ * traffic away from an instance until its backend is reachable, add it to the
+ * group, for example with
+ * {@code management.endpoint.health.group.readiness.include=readinessState,sessionBackend}.
+ */
+public class SessionBackendHealthIndicator extends AbstractHealthIndicator {
+
+    /**
+     * Default maximum time to wait for the probe read.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(2);
+
+    static final String PROBE_KEY = "vaadin-kubernetes-kit-health-probe";
+
+    private final BackendConnector backendConnector;
+
+    private final Duration timeout;
+
+    private CompletableFuture<Long> probe;
+
+    /**
+     * Creates a new health indicator, waiting for the probe read at most
+     * {@link #DEFAULT_TIMEOUT}.
+     *
+     * @param backendConnector
+     *            the backend to probe, not {@literal null}.
+     */
+    public SessionBackendHealthIndicator(BackendConnector backendConnector) {
+        this(backendConnector, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a new health indicator.
+     *
+     * @param backendConnector
+     *            the backend to probe, not {@literal null}.
+     * @param timeout
+     *            the maximum time to wait for the probe read, not
+     *            {@literal null}.
+     */
+    public SessionBackendHealthIndicator(BackendConnector backendConnector,
+            Duration timeout) {
+        super("Session backend health check failed");
+        this.backendConnector = Objects.requireNonNull(backendConnector,
+                "backendConnector must not be null");
+        this.timeout = Objects.requireNonNull(timeout,
+                "timeout must not be null");
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        builder.withDetail("type", backendConnector.getClass().getName());
+        CompletableFuture<Long> current = startProbe();
+        try {
+            long nanos = current.get(timeout.toMillis(),
+                    TimeUnit.MILLISECONDS);
+            builder.up().withDetail("latency",
+                    Duration.ofNanos(nanos).toString());
+        } catch (TimeoutException e) {
+            builder.down().withDetail("error",
+                    "No response within " + timeout);
+        } catch (ExecutionException e) {
+            builder.down().withException(e.getCause());
+        }
+    }
+
+    private synchronized CompletableFuture<Long> startProbe() {
+        if (probe == null || probe.isDone()) {
+            probe = CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                backendConnector.getSession(PROBE_KEY);
+                return System.nanoTime() - start;
+            }, task -> Thread.ofVirtual().name("vaadin-session-health-probe")
+                    .start(task));
+        }
+        return probe;
+    }
+}
@@ -0,0 +1,79 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationProfiler;
+
+/**
+ * Actuator endpoint exposing the histograms of the
+ * {@link SerializationProfiler}: the bytes of sampled session serializations
+ * attributed to classes and to top-level session attributes and UIs.
+ * <p>
+ * The profiler is enabled by the
+ * {@code vaadin.serialization.profiler.sample-rate} property; when it is
+ * disabled the endpoint responds with not found.
+ */
+@Endpoint(id = SessionProfileEndpoint.ID)
+public class SessionProfileEndpoint {
+
+    /**
+     * The endpoint identifier.
+     */
+    public static final String ID = "sessionprofile";
+
+    /**
+     * Maximum number of classes and attributes reported.
+     */
+    static final int LIMIT = 50;
+
+    private final SessionSerializer sessionSerializer;
+
+    /**
+     * Creates a new endpoint.
+     *
+     * @param sessionSerializer
+     *            the session serializer.
+     */
+    public SessionProfileEndpoint(SessionSerializer sessionSerializer) {
+        this.sessionSerializer = sessionSerializer;
+    }
+
+    /**
+     * Gets the aggregated profiling results, the classes and attributes with
+     * more bytes first.
+     *
+     * @return the profiling report, or {@literal null} if the profiler is
+     *         disabled.
+     */
+    @ReadOperation
+    public SerializationProfiler.Report profile() {
+        SerializationProfiler profiler = sessionSerializer
+                .getSerializationProfiler();
+        return profiler != null ? profiler.getReport(LIMIT) : null;
+    }
+
+    /**
+     * Discards the aggregated profiling results, for example to profile a new
+     * version of the application.
+     */
+    @DeleteOperation
+    public void reset() {
+        SerializationProfiler profiler = sessionSerializer
+                .getSerializationProfiler();
+        if (profiler != null) {
+            profiler.reset();
+        }
+    }
+}
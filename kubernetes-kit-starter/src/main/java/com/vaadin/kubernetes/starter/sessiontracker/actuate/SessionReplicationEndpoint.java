@@ -0,0 +1,260 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import jakarta.servlet.http.HttpSession;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionListener;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.ChunkedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InstrumentedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SpillingBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.TwoTierBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.WriteBehindBackendConnector;
+
+/**
+ * Actuator endpoint exposing the live state of session replication: the
+ * serialization queue, pending and in-flight serializations with their ages,
+ * tracked HTTP sessions, requests waiting for a session restore, the last
+ * backend failure and the average serialized size.
+ * <p>
+ * Reading the state only reads counters and the start times of ongoing
+ * serializations, so it can be scraped frequently. Session identifiers and
+ * cluster keys are not exposed.
+ * <p>
+ * Write operations queue the serialization of all the replicated sessions,
+ * or of the session with the given cluster key, for example to persist them
+ * before a rollout.
+ */
+@Endpoint(id = SessionReplicationEndpoint.ID)
+public class SessionReplicationEndpoint {
+
+    /**
+     * The endpoint identifier.
+     */
+    public static final String ID = "sessionreplication";
+
+    /**
+     * Maximum number of ages reported for pending and in-flight
+     * serializations.
+     */
+    static final int MAX_AGES = 10;
+
+    private final SessionSerializer sessionSerializer;
+
+    private final SessionTrackerFilter sessionTrackerFilter;
+
+    /**
+     * Creates a new endpoint.
+     *
+     * @param sessionSerializer
+     *            the session serializer.
+     * @param sessionTrackerFilter
+     *            the filter tracking the replicated sessions.
+     */
+    public SessionReplicationEndpoint(SessionSerializer sessionSerializer,
+            SessionTrackerFilter sessionTrackerFilter) {
+        this.sessionSerializer = sessionSerializer;
+        this.sessionTrackerFilter = sessionTrackerFilter;
+    }
+
+    /**
+     * Gets the current replication state.
+     *
+     * @return the replication state.
+     */
+    @ReadOperation
+    public ReplicationState state() {
+        SessionListener sessionListener = sessionTrackerFilter
+                .getSessionListener();
+        BackendConnector connector = sessionSerializer.getBackendConnector();
+        InstrumentedBackendConnector instrumented = findInstrumented(
+                connector);
+        BackendConnector backend = instrumented != null
+                ? instrumented.getDelegate()
+                : connector;
+        return new ReplicationState(sessionSerializer.isRunning(),
+                new Serialization(
+                        sessionSerializer.getQueuedSerializationCount(),
+                        sessionSerializer.getPendingSerializationCount(),
+                        sessionSerializer.getInFlightSerializationCount(),
+                        millis(sessionSerializer.getPendingSerializationAges()),
+                        millis(sessionSerializer
+                                .getInFlightSerializationAges()),
+                        sessionSerializer.getAverageSerializedSize()),
+                new Sessions(sessionListener.getActiveSessionCount(),
+                        sessionListener.getClusterKeyMappingCount(),
+                        sessionTrackerFilter.getPendingSessionCreationCount(),
+                        sessionTrackerFilter.getWaitingRequestCount()),
+                new Backend(backend.getClass().getName(),
+                        instrumented != null ? instrumented.getLastFailure()
+                                : null));
+    }
+
+    /**
+     * Queues the serialization of all the replicated sessions.
+     *
+     * @return the number of sessions for which a serialization was requested.
+     */
+    @WriteOperation
+    public FlushResult flushAll() {
+        return serialize(sessionTrackerFilter.getSessionListener()
+                .getReplicatedSessions(null));
+    }
+
+    /**
+     * Queues the serialization of the session with the given cluster key.
+     *
+     * @param clusterKey
+     *            the cluster key of the session.
+     * @return the number of sessions for which a serialization was requested.
+     */
+    @WriteOperation
+    public FlushResult flush(@Selector String clusterKey) {
+        return serialize(sessionTrackerFilter.getSessionListener()
+                .getReplicatedSessions(clusterKey));
+    }
+
+    private FlushResult serialize(List<HttpSession> sessions) {
+        if (!sessionSerializer.isRunning()) {
+            return new FlushResult(0);
+        }
+        int flushed = 0;
+        for (HttpSession session : sessions) {
+            try {
+                sessionSerializer.serialize(session);
+                flushed++;
+            } catch (IllegalStateException e) {
+                getLogger().debug("Session {} invalidated before flush",
+                        session.getId(), e);
+            }
+        }
+        return new FlushResult(flushed);
+    }
+
+    private static List<Long> millis(List<Duration> ages) {
+        return ages.stream().limit(MAX_AGES).map(Duration::toMillis).toList();
+    }
+
+    static InstrumentedBackendConnector findInstrumented(
+            BackendConnector connector) {
+        while (connector != null) {
+            if (connector instanceof InstrumentedBackendConnector instrumented) {
+                return instrumented;
+            } else if (connector instanceof WriteBehindBackendConnector decorator) {
+                connector = decorator.getDelegate();
+            } else if (connector instanceof TwoTierBackendConnector decorator) {
+                connector = decorator.getDelegate();
+            } else if (connector instanceof ChunkedBackendConnector decorator) {
+                connector = decorator.getDelegate();
+            } else if (connector instanceof SpillingBackendConnector decorator) {
+                connector = decorator.getDelegate();
+            } else if (connector instanceof CircuitBreakerBackendConnector decorator) {
+                connector = decorator.getDelegate();
+            } else {
+                connector = null;
+            }
+        }
+        return null;
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(SessionReplicationEndpoint.class);
+    }
+
+    /**
+     * Replication state.
+     *
+     * @param running
+     *            {@literal false} if the serializer is stopping.
+     * @param serialization
+     *            the serialization state.
+     * @param sessions
+     *            the tracked HTTP sessions.
+     * @param backend
+     *            the session backend state.
+     */
+    public record ReplicationState(boolean running,
+            Serialization serialization, Sessions sessions, Backend backend) {
+    }
+
+    /**
+     * Serialization state.
+     *
+     * @param queued
+     *            serializations waiting for a worker thread.
+     * @param pending
+     *            sessions marked as being serialized.
+     * @param inFlight
+     *            serializations started and not yet written.
+     * @param pendingAges
+     *            ages in milliseconds of the oldest pending serializations.
+     * @param inFlightAges
+     *            ages in milliseconds of the oldest in-flight
+     *            serializations.
+     * @param averageSize
+     *            average size of serialized sessions, in bytes.
+     */
+    public record Serialization(int queued, int pending, int inFlight,
+            List<Long> pendingAges, List<Long> inFlightAges,
+            long averageSize) {
+    }
+
+    /**
+     * Tracked HTTP sessions.
+     *
+     * @param active
+     *            active HTTP sessions.
+     * @param clusterKeyMappings
+     *            cluster keys associated with an HTTP session.
+     * @param pendingCreations
+     *            cluster keys for which a session is being restored.
+     * @param waitingRequests
+     *            requests waiting for a concurrent session restore.
+     */
+    public record Sessions(int active, int clusterKeyMappings,
+            int pendingCreations, int waitingRequests) {
+    }
+
+    /**
+     * Session backend state.
+     *
+     * @param type
+     *            the class of the backend connector.
+     * @param lastFailure
+     *            the last failed backend call, or {@literal null}.
+     */
+    public record Backend(String type,
+            InstrumentedBackendConnector.Failure lastFailure) {
+    }
+
+    /**
+     * Result of a flush operation.
+     *
+     * @param flushed
+     *            the number of sessions for which a serialization was
+     *            requested.
+     */
+    public record FlushResult(int flushed) {
+    }
+}
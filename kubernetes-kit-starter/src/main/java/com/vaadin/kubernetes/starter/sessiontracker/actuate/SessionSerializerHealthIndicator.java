@@ -0,0 +1,55 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import org.springframework.boot.health.contributor.AbstractHealthIndicator;
+import org.springframework.boot.health.contributor.Health;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+
+/**
+ * Health indicator of the {@link SessionSerializer}.
+ * <p>
+ * The serializer is {@code UP} while it accepts serializations, and
+ * {@code OUT_OF_SERVICE} as soon as it starts stopping, while pending
+ * serializations are flushed to the backend. Details report the number of
+ * queued, pending and in-flight serializations.
+ */
+public class SessionSerializerHealthIndicator extends AbstractHealthIndicator {
+
+    private final SessionSerializer sessionSerializer;
+
+    /**
+     * Creates a new health indicator.
+     *
+     * @param sessionSerializer
+     *            the session serializer.
+     */
+    public SessionSerializerHealthIndicator(
+            SessionSerializer sessionSerializer) {
+        super("Session serializer health check failed");
+        this.sessionSerializer = sessionSerializer;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        if (sessionSerializer.isRunning()) {
+            builder.up();
+        } else {
+            builder.outOfService();
+        }
+        builder.withDetail("queued",
+                sessionSerializer.getQueuedSerializationCount())
+                .withDetail("pending",
+                        sessionSerializer.getPendingSerializationCount())
+                .withDetail("inFlight",
+                        sessionSerializer.getInFlightSerializationCount());
+    }
+}
@@ -0,0 +1,203 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A {@link BackendConnector} whose operations are non-blocking.
+ * <p>
+ * Each operation returns a {@link CompletableFuture} completed when the
+ * backend acknowledges it, so that callers do not hold a thread while waiting
+ * for the network. The blocking methods of {@link BackendConnector} wait for
+ * the asynchronous ones and rethrow their failure.
+ * <p>
+ * When the connector in use implements this interface, session writes are
+ * chained on the returned futures instead of blocking serialization threads.
+ * Futures may be completed on threads owned by the connector, so dependent
+ * actions must not block.
+ */
+public interface AsyncBackendConnector extends BackendConnector {
+
+    /**
+     * Stores serialized session data in the backend storage.
+     *
+     * @param sessionInfo
+     *            the session information containing the cluster key,
+     *            serialized data, and time-to-live settings.
+     * @return a future completed when the data has been stored.
+     * @see #sendSession(SessionInfo)
+     */
+    CompletableFuture<Void> sendSessionAsync(SessionInfo sessionInfo);
+
+    /**
+     * Retrieves session data from the backend storage by cluster key.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @return a future completed with the session information, or with
+     *         {@literal null} if no session is found for the given key.
+     * @see #getSession(String)
+     */
+    CompletableFuture<SessionInfo> getSessionAsync(String clusterKey);
+
+    /**
+     * Removes session data from the backend storage.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session to delete.
+     * @return a future completed when the data has been removed.
+     * @see #deleteSession(String)
+     */
+    CompletableFuture<Void> deleteSessionAsync(String clusterKey);
+
+    /**
+     * Marks the beginning of the serialization process for a session.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @param timeToLive
+     *            the maximum amount of time the serialization marker should be
+     *            preserved in the backend.
+     * @return a future completed when the marker has been stored.
+     * @see #markSerializationStarted(String, Duration)
+     */
+    CompletableFuture<Void> markSerializationStartedAsync(String clusterKey,
+            Duration timeToLive);
+
+    /**
+     * Marks the successful completion of the serialization process for a
+     * session.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @return a future completed when the marker has been removed.
+     * @see #markSerializationComplete(String)
+     */
+    CompletableFuture<Void> markSerializationCompleteAsync(String clusterKey);
+
+    /**
+     * Marks the serialization process as failed for a session.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @param error
+     *            the error that caused the serialization to fail.
+     * @return a future completed when the marker has been removed.
+     * @see #markSerializationFailed(String, Throwable)
+     */
+    CompletableFuture<Void> markSerializationFailedAsync(String clusterKey,
+            Throwable error);
+
+    /**
+     * Marks the beginning of the deserialization process for a session.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @param timeToLive
+     *            the maximum amount of time the deserialization marker should
+     *            be preserved in the backend.
+     * @return a future completed with {@literal true} if there is no pending
+     *         deserialization process, otherwise with {@literal false}.
+     * @see #markDeserializationStarted(String, Duration)
+     */
+    CompletableFuture<Boolean> markDeserializationStartedAsync(
+            String clusterKey, Duration timeToLive);
+
+    /**
+     * Marks the successful completion of the deserialization process for a
+     * session.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @return a future completed when the marker has been removed.
+     * @see #markDeserializationComplete(String)
+     */
+    CompletableFuture<Void> markDeserializationCompleteAsync(
+            String clusterKey);
+
+    /**
+     * Marks the deserialization process as failed for a session.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @param error
+     *            the error that caused the deserialization to fail.
+     * @return a future completed when the marker has been removed.
+     * @see #markDeserializationFailed(String, Throwable)
+     */
+    CompletableFuture<Void> markDeserializationFailedAsync(String clusterKey,
+            Throwable error);
+
+    @Override
+    default void sendSession(SessionInfo sessionInfo) {
+        await(sendSessionAsync(sessionInfo));
+    }
+
+    @Override
+    default SessionInfo getSession(String clusterKey) {
+        return await(getSessionAsync(clusterKey));
+    }
+
+    @Override
+    default void deleteSession(String clusterKey) {
+        await(deleteSessionAsync(clusterKey));
+    }
+
+    @Override
+    default void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        await(markSerializationStartedAsync(clusterKey, timeToLive));
+    }
+
+    @Override
+    default void markSerializationComplete(String clusterKey) {
+        await(markSerializationCompleteAsync(clusterKey));
+    }
+
+    @Override
+    default void markSerializationFailed(String clusterKey, Throwable error) {
+        await(markSerializationFailedAsync(clusterKey, error));
+    }
+
+    @Override
+    default boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return Boolean.TRUE.equals(
+                await(markDeserializationStartedAsync(clusterKey, timeToLive)));
+    }
+
+    @Override
+    default void markDeserializationComplete(String clusterKey) {
+        await(markDeserializationCompleteAsync(clusterKey));
+    }
+
+    @Override
+    default void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        await(markDeserializationFailedAsync(clusterKey, error));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -30,6 +30,29 @@ public interface BackendConnector {
      */
     void sendSession(SessionInfo sessionInfo);
 
+    /**
+     * Stores serialized session data in the backend storage, unless data is
+     * already stored for the same cluster key.
+     * <p>
+     * The default implementation reads the session and then writes it with
+     * separate calls, so a write performed concurrently by another node can
+     * be overwritten. Connectors should override it with an atomic operation
+     * when the backend supports one.
+     *
+     * @param sessionInfo
+     *            the session information containing the cluster key, serialized
+     *            data, and time-to-live settings.
+     * @return {@literal true} if the data has been stored, {@literal false}
+     *         if data was already stored for the cluster key.
+     */
+    default boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        if (getSession(sessionInfo.getClusterKey()) != null) {
+            return false;
+        }
+        sendSession(sessionInfo);
+        return true;
+    }
+
     /**
      * Retrieves session data from the backend storage by cluster key.
      *
@@ -40,6 +63,32 @@ public interface BackendConnector {
      */
     SessionInfo getSession(String clusterKey);
 
+    /**
+     * Retrieves the first bytes of session data from the backend storage by
+     * cluster key, waiting for pending serializations as
+     * {@link #getSession(String)} does.
+     * <p>
+     * It allows decorators to inspect a header stored at the beginning of the
+     * data without transferring the whole payload. The default implementation
+     * reads the whole session; connectors should override it with a ranged
+     * read when the backend supports one.
+     *
+     * @param clusterKey
+     *            the distributed storage key identifying the session.
+     * @param length
+     *            the maximum number of bytes to read.
+     * @return the first {@code length} bytes of the data, or all of them if
+     *         the data is shorter, or {@code null} if no session is found for
+     *         the given key.
+     */
+    default byte[] getSessionHeader(String clusterKey, int length) {
+        SessionInfo sessionInfo = getSession(clusterKey);
+        if (sessionInfo == null) {
+            return null;
+        }
+        return BackendUtil.header(sessionInfo.getDataBuffer(), length);
+    }
+
     /**
      * Removes session data from the backend storage.
      *
@@ -146,4 +195,24 @@ public interface BackendConnector {
      */
     void markDeserializationFailed(String clusterKey, Throwable error);
 
+    /**
+     * Waits for the completion of backend operations that the connector
+     * performs asynchronously, for example session writes that have been
+     * submitted but not yet acknowledged by the backend.
+     * <p>
+     * This method is called on application shutdown, after all pending session
+     * serializations have been processed, to prevent the backend from being
+     * stopped before the latest session state has been stored. The default
+     * implementation does nothing, since operations are expected to be
+     * synchronous.
+     *
+     * @param timeout
+     *            the maximum amount of time to wait.
+     * @return {@literal true} if all pending operations have been completed,
+     *         {@literal false} if the timeout elapsed before completion.
+     */
+    default boolean awaitPendingOperations(Duration timeout) {
+        return true;
+    }
+
 }
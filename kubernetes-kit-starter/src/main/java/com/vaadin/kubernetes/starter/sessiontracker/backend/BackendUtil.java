@@ -9,6 +9,7 @@
  */
 package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -38,4 +39,10 @@ public class BackendUtil {
         return new String(b, StandardCharsets.UTF_8);
     }
 
+    static byte[] header(ByteBuffer data, int length) {
+        byte[] header = new byte[Math.min(length, data.remaining())];
+        data.get(data.position(), header);
+        return header;
+    }
+
 }
@@ -0,0 +1,525 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} decorator that splits large session payloads into
+ * fixed-size chunks, so that no single entry on the distributed storage holds
+ * the whole session.
+ * <p>
+ * Payloads up to the configured threshold are passed to the delegate
+ * unchanged. Larger payloads are split into chunks that are written in
+ * parallel under versioned keys derived from the cluster key; once all chunks
+ * are written, a small manifest describing them is written under the cluster
+ * key itself, and a copy of it under a small index key, so that sessions can
+ * be deleted without reading the whole payload. Since the manifest is a
+ * single entry, replacing it switches readers to the new version atomically,
+ * and readers never combine chunks of different versions. Chunks of the
+ * previous version are deleted after the new manifest has been written; a
+ * reader that loses this race, or that reads a manifest before all its
+ * chunks are visible on a delegate writing asynchronously, reads the
+ * manifest again.
+ * <p>
+ * Chunks are written with the same time to live as the session, so chunks
+ * orphaned by a crash or by another node taking over the session eventually
+ * expire.
+ * <p>
+ * If any chunk write fails, the manifest is not written, the chunks already
+ * written are deleted and the failure is thrown, so that readers keep the
+ * previous version. The delegate must therefore report failed writes: a
+ * decorator that absorbs them, such as {@link SpillingBackendConnector},
+ * must wrap this connector instead of being wrapped by it, so that it
+ * handles the session as a whole.
+ * <p>
+ * Manifests written or read recently are kept in memory, up to a fixed
+ * number of sessions and until they expire, to delete previous chunks
+ * without reading the manifest again.
+ * <p>
+ * Serialization markers are handled by the delegate for the cluster key only.
+ * <p>
+ * The connector must be closed when no longer used, to release the thread
+ * pool it creates when no executor is provided.
+ */
+public class ChunkedBackendConnector implements BackendConnector, Closeable {
+
+    /**
+     * Header identifying a manifest entry. It cannot be the start of a Java
+     * serialization stream, which always begins with {@code 0xACED}.
+     */
+    static final byte[] MANIFEST_MAGIC = { (byte) 0xCA, 'K', 'C', 'M', 1 };
+
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private static final long READ_RETRY_DELAY_MS = 20;
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    static final int MAX_KNOWN_MANIFESTS = 10_000;
+
+    private final BackendConnector delegate;
+
+    private final int threshold;
+
+    private final int chunkSize;
+
+    private final Executor executor;
+
+    // thread pool created by this connector, shut down on close
+    private final ExecutorService ownedExecutor;
+
+    // clusterKey -> latest manifest written or read by this node, least
+    // recently used first, guarded by itself
+    private final Map<String, KnownManifest> knownManifests =
+            newManifestCache();
+
+    /**
+     * Creates a new connector splitting payloads larger than the given
+     * threshold, using a dedicated thread pool to transfer chunks.
+     *
+     * @param delegate
+     *            the connector storing manifests and chunks, not
+     *            {@literal null}.
+     * @param threshold
+     *            the payload size, in bytes, above which data is split.
+     * @param chunkSize
+     *            the size of the chunks, in bytes.
+     */
+    public ChunkedBackendConnector(BackendConnector delegate, int threshold,
+            int chunkSize) {
+        this(delegate, threshold, chunkSize,
+                createDefaultExecutor(DEFAULT_PARALLELISM), true);
+    }
+
+    /**
+     * Creates a new connector splitting payloads larger than the given
+     * threshold.
+     *
+     * @param delegate
+     *            the connector storing manifests and chunks, not
+     *            {@literal null}.
+     * @param threshold
+     *            the payload size, in bytes, above which data is split.
+     * @param chunkSize
+     *            the size of the chunks, in bytes.
+     * @param executor
+     *            the executor used to transfer chunks in parallel.
+     */
+    public ChunkedBackendConnector(BackendConnector delegate, int threshold,
+            int chunkSize, Executor executor) {
+        this(delegate, threshold, chunkSize, executor, false);
+    }
+
+    private ChunkedBackendConnector(BackendConnector delegate, int threshold,
+            int chunkSize, Executor executor, boolean ownsExecutor) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Chunk size must be greater than zero");
+        }
+        this.delegate = Objects.requireNonNull(delegate,
+                "delegate must not be null");
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor
+                : null;
+    }
+
+    /**
+     * Gets the decorated connector.
+     *
+     * @return the decorated connector.
+     */
+    public BackendConnector getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        send(sessionInfo, false);
+    }
+
+    /**
+     * Writes the manifest of a chunked payload with
+     * {@link BackendConnector#sendSessionIfAbsent(SessionInfo)} of the
+     * decorated connector, and deletes the chunks if it was not stored.
+     */
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        return send(sessionInfo, true);
+    }
+
+    private boolean send(SessionInfo sessionInfo, boolean ifAbsent) {
+        String clusterKey = sessionInfo.getClusterKey();
+        int size = sessionInfo.getSize();
+        if (size <= threshold) {
+            if (ifAbsent) {
+                return delegate.sendSessionIfAbsent(sessionInfo);
+            }
+            delegate.sendSession(sessionInfo);
+            Manifest previous = forgetManifest(clusterKey);
+            if (previous != null) {
+                delegate.deleteSession(indexKey(clusterKey));
+                deleteChunks(previous);
+            }
+            return true;
+        }
+
+        Manifest manifest = new Manifest(clusterKey,
+                UUID.randomUUID().toString().replace("-", ""), size,
+                chunkSize);
+        ByteBuffer data = sessionInfo.getDataBuffer();
+        int start = data.position();
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            int offset = i * chunkSize;
+            ByteBuffer chunk = data.slice(start + offset,
+                    Math.min(chunkSize, size - offset));
+            SessionInfo chunkInfo = new SessionInfo(
+                    manifest.chunkKey(i),
+                    sessionInfo.getTimeToLive(), chunk, null);
+            writes.add(CompletableFuture
+                    .runAsync(() -> delegate.sendSession(chunkInfo), executor));
+        }
+        try {
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+                    .join();
+        } catch (CompletionException e) {
+            // the manifest is not written, readers keep the previous version
+            getLogger().debug("Unable to write all chunks of session {},"
+                    + " deleting version {}", clusterKey, manifest.version(),
+                    e.getCause());
+            deleteChunks(manifest);
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        byte[] manifestBytes = manifest.toBytes();
+        SessionInfo manifestInfo = new SessionInfo(clusterKey,
+                sessionInfo.getTimeToLive(), manifestBytes);
+        if (!ifAbsent) {
+            delegate.sendSession(manifestInfo);
+        } else if (!delegate.sendSessionIfAbsent(manifestInfo)) {
+            getLogger().debug("Session {} already stored, deleting version {}",
+                    clusterKey, manifest.version());
+            deleteChunks(manifest);
+            return false;
+        }
+        delegate.sendSession(new SessionInfo(indexKey(clusterKey),
+                sessionInfo.getTimeToLive(), manifestBytes));
+        getLogger().debug("Session {} sent as {} chunks of version {}",
+                clusterKey, manifest.chunkCount(), manifest.version());
+        deleteChunks(rememberManifest(manifest, sessionInfo.getTimeToLive()));
+        return true;
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        for (int attempt = 1; attempt <= MAX_READ_ATTEMPTS; attempt++) {
+            SessionInfo info = delegate.getSession(clusterKey);
+            Manifest manifest = info != null
+                    ? Manifest.parse(clusterKey, info.getData())
+                    : null;
+            if (manifest == null) {
+                return info;
+            }
+            byte[] data = readChunks(manifest);
+            if (data != null) {
+                rememberManifest(manifest, info.getTimeToLive());
+                return new SessionInfo(clusterKey, data);
+            }
+            // Chunks may have been replaced by a concurrent write, or may
+            // not be visible yet if the delegate writes asynchronously
+            getLogger().debug("Chunks of version {} for session {} not"
+                    + " available, reading manifest again", manifest.version(),
+                    clusterKey);
+            try {
+                Thread.sleep(READ_RETRY_DELAY_MS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        getLogger().warn("Unable to read all chunks of session {} from"
+                + " distributed storage", clusterKey);
+        return null;
+    }
+
+    /**
+     * Reads the manifest, which is small, and the header from the first
+     * chunk, so that the other chunks are not transferred.
+     */
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        SessionInfo info = delegate.getSession(clusterKey);
+        if (info == null) {
+            return null;
+        }
+        Manifest manifest = Manifest.parse(clusterKey, info.getData());
+        if (manifest == null) {
+            return BackendUtil.header(info.getDataBuffer(), length);
+        }
+        // null if the chunk has been replaced meanwhile, as for a missing
+        // session the caller falls back to a full read
+        return delegate.getSessionHeader(manifest.chunkKey(0), length);
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        Manifest manifest = forgetManifest(clusterKey);
+        if (manifest == null) {
+            // the index holds only the manifest, whereas the cluster key may
+            // hold a whole unchunked payload
+            SessionInfo index = delegate.getSession(indexKey(clusterKey));
+            manifest = index != null
+                    ? Manifest.parse(clusterKey, index.getData())
+                    : null;
+        }
+        delegate.deleteSession(clusterKey);
+        if (manifest != null) {
+            delegate.deleteSession(indexKey(clusterKey));
+            deleteChunks(manifest);
+        }
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        delegate.markSerializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        delegate.markSerializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        delegate.markSerializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return delegate.markDeserializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        delegate.markDeserializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        delegate.markDeserializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        return delegate.awaitPendingOperations(timeout);
+    }
+
+    /**
+     * Shuts down the thread pool created by this connector, if any, waiting
+     * for pending chunk transfers to complete.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            try {
+                if (!ownedExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS,
+                        TimeUnit.SECONDS)) {
+                    ownedExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                ownedExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    int getKnownManifestCount() {
+        synchronized (knownManifests) {
+            return knownManifests.size();
+        }
+    }
+
+    /**
+     * Remembers the latest manifest of a session.
+     *
+     * @return the previous manifest of the session, if known and not expired.
+     */
+    private Manifest rememberManifest(Manifest manifest,
+            Duration timeToLive) {
+        long expiresAt = timeToLive.isZero() || timeToLive.isNegative()
+                ? Long.MAX_VALUE
+                : System.currentTimeMillis() + timeToLive.toMillis();
+        KnownManifest previous;
+        synchronized (knownManifests) {
+            previous = knownManifests.put(manifest.clusterKey(),
+                    new KnownManifest(manifest, expiresAt));
+        }
+        return previous != null ? previous.get() : null;
+    }
+
+    /**
+     * Forgets the manifest of a session.
+     *
+     * @return the manifest of the session, if known and not expired.
+     */
+    private Manifest forgetManifest(String clusterKey) {
+        KnownManifest known;
+        synchronized (knownManifests) {
+            known = knownManifests.remove(clusterKey);
+        }
+        return known != null ? known.get() : null;
+    }
+
+    static String indexKey(String clusterKey) {
+        return clusterKey + ":chunks";
+    }
+
+    private byte[] readChunks(Manifest manifest) {
+        List<CompletableFuture<SessionInfo>> reads = new ArrayList<>();
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            String chunkKey = manifest.chunkKey(i);
+            reads.add(CompletableFuture.supplyAsync(
+                    () -> delegate.getSession(chunkKey), executor));
+        }
+        byte[] data = new byte[manifest.size()];
+        for (int i = 0; i < reads.size(); i++) {
+            SessionInfo chunk = reads.get(i).join();
+            int offset = i * manifest.chunkSize();
+            int expectedSize = Math.min(manifest.chunkSize(),
+                    manifest.size() - offset);
+            if (chunk == null || chunk.getSize() != expectedSize) {
+                return null;
+            }
+            chunk.getDataBuffer().get(data, offset, expectedSize);
+        }
+        return data;
+    }
+
+    private void deleteChunks(Manifest manifest) {
+        if (manifest == null) {
+            return;
+        }
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            String chunkKey = manifest.chunkKey(i);
+            CompletableFuture
+                    .runAsync(() -> delegate.deleteSession(chunkKey), executor)
+                    .exceptionally(error -> {
+                        getLogger().debug("Unable to delete chunk {}",
+                                chunkKey, error);
+                        return null;
+                    });
+        }
+    }
+
+    private static Map<String, KnownManifest> newManifestCache() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, KnownManifest> eldest) {
+                return size() > MAX_KNOWN_MANIFESTS;
+            }
+        };
+    }
+
+    private static ExecutorService createDefaultExecutor(int parallelism) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "chunkedBackend-worker-"
+                    + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(ChunkedBackendConnector.class);
+    }
+
+    /**
+     * A manifest known to this node, with the time its chunks expire.
+     */
+    private record KnownManifest(Manifest manifest, long expiresAt) {
+
+        Manifest get() {
+            // chunks of an expired manifest are already gone
+            return System.currentTimeMillis() < expiresAt ? manifest : null;
+        }
+    }
+
+    /**
+     * Description of a chunked payload: the version identifier used to build
+     * chunk keys, the total payload size and the size of each chunk. The
+     * cluster key is not part of the stored representation.
+     */
+    record Manifest(String clusterKey, String version, int size,
+            int chunkSize) {
+
+        int chunkCount() {
+            return (size + chunkSize - 1) / chunkSize;
+        }
+
+        String chunkKey(int index) {
+            return clusterKey + ":chunk:" + version + ":" + index;
+        }
+
+        byte[] toBytes() {
+            byte[] versionBytes = BackendUtil.b(version);
+            return ByteBuffer
+                    .allocate(MANIFEST_MAGIC.length + 8 + versionBytes.length)
+                    .put(MANIFEST_MAGIC).putInt(size).putInt(chunkSize)
+                    .put(versionBytes).array();
+        }
+
+        static Manifest parse(String clusterKey, byte[] data) {
+            if (data == null || data.length <= MANIFEST_MAGIC.length + 8
+                    || !Arrays.equals(data, 0, MANIFEST_MAGIC.length,
+                            MANIFEST_MAGIC, 0, MANIFEST_MAGIC.length)) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data)
+                    .position(MANIFEST_MAGIC.length);
+            int size = buffer.getInt();
+            int chunkSize = buffer.getInt();
+            if (size <= 0 || chunkSize <= 0) {
+                return null;
+            }
+            String version = BackendUtil.s(Arrays.copyOfRange(data,
+                    buffer.position(), data.length));
+            return new Manifest(clusterKey, version, size, chunkSize);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} decorator that stops calling the decorated
+ * connector when it is failing or too slow, so that a backend outage does not
+ * turn into latency for the whole application.
+ * <p>
+ * The outcome of the latest calls is tracked in a sliding window. When the
+ * rate of failed calls or of calls slower than a threshold exceeds the
+ * configured limit, the circuit opens and the connector works in degraded
+ * mode:
+ * <ul>
+ * <li>starting a serialization fails immediately, so that session replication
+ * is skipped;</li>
+ * <li>reading a session returns {@literal null}, so that new HTTP sessions are
+ * created without restoring data;</li>
+ * <li>deserialization is always allowed to start;</li>
+ * <li>deleting a session is skipped, the session data expires according to
+ * its time to live.</li>
+ * </ul>
+ * Releasing serialization and deserialization markers is always attempted,
+ * whatever the state of the circuit, so that markers acquired before the
+ * circuit opened do not keep other nodes waiting. While the circuit is not
+ * closed, releases are best effort: their failures are logged and ignored,
+ * and their outcome does not affect the state of the circuit.
+ * After a wait time the circuit becomes half-open and a limited number of
+ * calls is let through to probe the backend: if all of them succeed the
+ * circuit closes, otherwise it opens again.
+ * <p>
+ * State changes are notified to listeners registered with
+ * {@link #addStateChangeListener(StateChangeListener)}.
+ */
+public class CircuitBreakerBackendConnector implements BackendConnector {
+
+    /**
+     * States of the circuit.
+     */
+    public enum State {
+        /**
+         * Calls are sent to the decorated connector.
+         */
+        CLOSED,
+        /**
+         * Calls are not sent to the decorated connector.
+         */
+        OPEN,
+        /**
+         * A limited number of calls is sent to the decorated connector to
+         * probe for recovery.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Listener notified when the state of the circuit changes.
+     */
+    @FunctionalInterface
+    public interface StateChangeListener {
+
+        /**
+         * Invoked after the state of the circuit has changed.
+         *
+         * @param connector
+         *            the connector whose state has changed.
+         * @param previous
+         *            the previous state.
+         * @param current
+         *            the current state.
+         */
+        void stateChanged(CircuitBreakerBackendConnector connector,
+                State previous, State current);
+    }
+
+    /**
+     * Exception thrown for calls rejected because the circuit is open.
+     */
+    public static class CircuitOpenException extends RuntimeException {
+
+        CircuitOpenException() {
+            super("Session backend circuit breaker is open");
+        }
+    }
+
+    /**
+     * Settings of the circuit breaker.
+     *
+     * @param failureRateThreshold
+     *            the rate of failed calls, between 0 and 1, at which the
+     *            circuit opens.
+     * @param slowCallDuration
+     *            the duration above which a call is considered slow.
+     * @param slowCallRateThreshold
+     *            the rate of slow calls, between 0 and 1, at which the circuit
+     *            opens.
+     * @param slidingWindowSize
+     *            the number of latest calls whose outcome is tracked.
+     * @param minimumCalls
+     *            the number of calls to record before rates are evaluated.
+     * @param waitDurationInOpenState
+     *            the time the circuit stays open before probing the backend.
+     * @param permittedCallsInHalfOpenState
+     *            the number of probe calls that must succeed to close the
+     *            circuit.
+     */
+    public record Settings(double failureRateThreshold,
+            Duration slowCallDuration, double slowCallRateThreshold,
+            int slidingWindowSize, int minimumCalls,
+            Duration waitDurationInOpenState,
+            int permittedCallsInHalfOpenState) {
+
+        public Settings {
+            Objects.requireNonNull(slowCallDuration,
+                    "slowCallDuration must not be null");
+            Objects.requireNonNull(waitDurationInOpenState,
+                    "waitDurationInOpenState must not be null");
+            if (slidingWindowSize <= 0 || minimumCalls <= 0
+                    || permittedCallsInHalfOpenState <= 0) {
+                throw new IllegalArgumentException(
+                        "Window size, minimum calls and permitted calls must be greater than zero");
+            }
+        }
+    }
+
+    private static final byte FAILED = 1;
+
+    private static final byte SLOW = 2;
+
+    private final BackendConnector delegate;
+
+    private final Settings settings;
+
+    private final long slowCallNanos;
+
+    private final List<StateChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    private final LatencyStatistics callLatency = new LatencyStatistics();
+
+    // sliding window of outcomes, guarded by this
+    private final byte[] outcomes;
+    private int position;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenStarted;
+    private int halfOpenSucceeded;
+
+    /**
+     * Creates a new circuit breaker connector.
+     *
+     * @param delegate
+     *            the connector to protect, not {@literal null}.
+     * @param settings
+     *            the circuit breaker settings, not {@literal null}.
+     */
+    public CircuitBreakerBackendConnector(BackendConnector delegate,
+            Settings settings) {
+        this.delegate = Objects.requireNonNull(delegate,
+                "delegate must not be null");
+        this.settings = Objects.requireNonNull(settings,
+                "settings must not be null");
+        this.slowCallNanos = settings.slowCallDuration().toNanos();
+        this.outcomes = new byte[settings.slidingWindowSize()];
+    }
+
+    /**
+     * Gets the decorated connector.
+     *
+     * @return the decorated connector.
+     */
+    public BackendConnector getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the current state of the circuit.
+     *
+     * @return the current state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the rate of failed calls in the sliding window.
+     *
+     * @return the failure rate between 0 and 1, or 0 if the window does not
+     *         contain any call.
+     */
+    public synchronized double getFailureRate() {
+        return recorded == 0 ? 0 : (double) failures / recorded;
+    }
+
+    /**
+     * Gets the rate of slow calls in the sliding window.
+     *
+     * @return the slow call rate between 0 and 1, or 0 if the window does not
+     *         contain any call.
+     */
+    public synchronized double getSlowCallRate() {
+        return recorded == 0 ? 0 : (double) slowCalls / recorded;
+    }
+
+    /**
+     * Gets the number of calls not sent to the decorated connector because
+     * the circuit was open.
+     *
+     * @return the number of rejected calls.
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * Gets statistics about the duration of the calls sent to the decorated
+     * connector.
+     *
+     * @return the call latency statistics.
+     */
+    public LatencyStatistics getCallLatency() {
+        return callLatency;
+    }
+
+    /**
+     * Adds a listener notified when the state of the circuit changes.
+     *
+     * @param listener
+     *            the listener to add, not {@literal null}.
+     * @return a handle that removes the listener when run.
+     */
+    public Runnable addStateChangeListener(StateChangeListener listener) {
+        Objects.requireNonNull(listener, "listener must not be null");
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        call(() -> {
+            delegate.sendSession(sessionInfo);
+            return null;
+        }, () -> {
+            throw new CircuitOpenException();
+        });
+    }
+
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        return call(() -> delegate.sendSessionIfAbsent(sessionInfo), () -> {
+            throw new CircuitOpenException();
+        });
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        return call(() -> delegate.getSession(clusterKey), () -> {
+            getLogger().debug(
+                    "Session backend circuit is open, skipping restore of session {}",
+                    clusterKey);
+            return null;
+        });
+    }
+
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        return call(() -> delegate.getSessionHeader(clusterKey, length),
+                () -> null);
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        run(() -> delegate.deleteSession(clusterKey));
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        call(() -> {
+            delegate.markSerializationStarted(clusterKey, timeToLive);
+            return null;
+        }, () -> {
+            throw new CircuitOpenException();
+        });
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        release(clusterKey,
+                () -> delegate.markSerializationComplete(clusterKey));
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        release(clusterKey,
+                () -> delegate.markSerializationFailed(clusterKey, error));
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return call(() -> delegate.markDeserializationStarted(clusterKey,
+                timeToLive), () -> true);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        release(clusterKey,
+                () -> delegate.markDeserializationComplete(clusterKey));
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        release(clusterKey,
+                () -> delegate.markDeserializationFailed(clusterKey, error));
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        return delegate.awaitPendingOperations(timeout);
+    }
+
+    private void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        }, () -> null);
+    }
+
+    private void release(String clusterKey, Runnable action) {
+        if (state == State.CLOSED) {
+            run(action);
+            return;
+        }
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            getLogger().debug(
+                    "Unable to release marker of session {} while the session backend circuit is not closed",
+                    clusterKey, e);
+        }
+    }
+
+    private <T> T call(Supplier<T> action, Supplier<T> fallback) {
+        if (!acquirePermission()) {
+            rejectedCalls.increment();
+            return fallback.get();
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = action.get();
+            failed = false;
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            callLatency.record(elapsed);
+            onResult(failed, elapsed >= slowCallNanos);
+        }
+    }
+
+    private boolean acquirePermission() {
+        State previous;
+        synchronized (this) {
+            previous = state;
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < settings
+                        .waitDurationInOpenState().toNanos()) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                halfOpenStarted = 0;
+                halfOpenSucceeded = 0;
+            }
+            if (halfOpenStarted >= settings.permittedCallsInHalfOpenState()) {
+                return false;
+            }
+            halfOpenStarted++;
+        }
+        if (previous != State.HALF_OPEN) {
+            fireStateChange(previous, State.HALF_OPEN);
+        }
+        return true;
+    }
+
+    private void onResult(boolean failed, boolean slow) {
+        State previous;
+        State current;
+        synchronized (this) {
+            previous = state;
+            if (state == State.HALF_OPEN) {
+                if (failed || slow) {
+                    open();
+                } else if (++halfOpenSucceeded >= settings
+                        .permittedCallsInHalfOpenState()) {
+                    state = State.CLOSED;
+                    resetWindow();
+                }
+            } else if (state == State.CLOSED) {
+                record((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+                if (recorded >= settings.minimumCalls() && ((double) failures
+                        / recorded >= settings.failureRateThreshold()
+                        || (double) slowCalls / recorded >= settings
+                                .slowCallRateThreshold())) {
+                    open();
+                }
+            }
+            // outcomes of calls started before the circuit opened are ignored
+            current = state;
+        }
+        if (previous != current) {
+            fireStateChange(previous, current);
+        }
+    }
+
+    private void record(byte outcome) {
+        if (recorded == outcomes.length) {
+            byte evicted = outcomes[position];
+            failures -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            recorded++;
+        }
+        outcomes[position] = outcome;
+        failures += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+        position = (position + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        position = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void fireStateChange(State previous, State current) {
+        if (current == State.OPEN) {
+            getLogger().warn(
+                    "Session backend circuit breaker opened, session replication is suspended");
+        } else if (current == State.CLOSED) {
+            getLogger().info(
+                    "Session backend circuit breaker closed, session replication is resumed");
+        } else {
+            getLogger().debug(
+                    "Session backend circuit breaker half-open, probing backend");
+        }
+        for (StateChangeListener listener : listeners) {
+            try {
+                listener.stateChanged(this, previous, current);
+            } catch (Exception e) {
+                getLogger().error(
+                        "Circuit breaker state change listener failed", e);
+            }
+        }
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(CircuitBreakerBackendConnector.class);
+    }
+}
@@ -0,0 +1,67 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Application event published when the state of the session backend circuit
+ * breaker changes.
+ *
+ * @see CircuitBreakerBackendConnector
+ */
+public class CircuitBreakerStateChangedEvent extends ApplicationEvent {
+
+    private final CircuitBreakerBackendConnector.State previousState;
+
+    private final CircuitBreakerBackendConnector.State state;
+
+    /**
+     * Creates a new event.
+     *
+     * @param source
+     *            the circuit breaker connector.
+     * @param previousState
+     *            the previous state of the circuit.
+     * @param state
+     *            the current state of the circuit.
+     */
+    public CircuitBreakerStateChangedEvent(
+            CircuitBreakerBackendConnector source,
+            CircuitBreakerBackendConnector.State previousState,
+            CircuitBreakerBackendConnector.State state) {
+        super(source);
+        this.previousState = previousState;
+        this.state = state;
+    }
+
+    @Override
+    public CircuitBreakerBackendConnector getSource() {
+        return (CircuitBreakerBackendConnector) super.getSource();
+    }
+
+    /**
+     * Gets the state of the circuit before the change.
+     *
+     * @return the previous state.
+     */
+    public CircuitBreakerBackendConnector.State getPreviousState() {
+        return previousState;
+    }
+
+    /**
+     * Gets the state of the circuit after the change.
+     *
+     * @return the current state.
+     */
+    public CircuitBreakerBackendConnector.State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,673 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} that stores sessions on the local file system,
+ * for single node deployments or as a node-local cache on a persistent volume.
+ * <p>
+ * Sessions are appended to segment files as checksummed records; an
+ * in-memory index maps each cluster key to the location of its latest record.
+ * Writes use a gathering {@link FileChannel} write, so off-heap session
+ * buffers go to the file without being copied on the heap, and reads are
+ * served from memory-mapped segments without copying. Deleted sessions are
+ * recorded with a tombstone record.
+ * <p>
+ * When the active segment grows over the configured size, a new segment is
+ * started. Sealed segments are periodically compacted: live records are moved
+ * to the active segment and the segment files are deleted, dropping expired
+ * and superseded records.
+ * <p>
+ * On startup, the index is rebuilt by scanning all segments. A torn or
+ * corrupted record at the end of the last segment, typically the effect of a
+ * crash during a write, is truncated.
+ * <p>
+ * Serialization markers are held in memory, so a directory must not be shared
+ * by multiple running applications.
+ */
+public class FileSystemConnector implements BackendConnector, Closeable {
+
+    /**
+     * Default maximum size of a segment file.
+     */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default interval between compaction runs.
+     */
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration
+            .ofMinutes(1);
+
+    // crc (4), type (1), expiresAt (8), key length (4), value length (4)
+    static final int HEADER_SIZE = 21;
+
+    static final byte PUT = 1;
+
+    static final byte DELETE = 2;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final double COMPACTION_LIVE_RATIO = 0.5;
+
+    private static final long WAIT_TIMEOUT_MS = 5000;
+
+    // size of the regions in which segment files are memory-mapped
+    static final long MAP_WINDOW_SIZE = 8L * 1024 * 1024;
+
+    private final Path directory;
+
+    private final long maxSegmentSize;
+
+    private final Object writeLock = new Object();
+
+    // ordered from oldest to newest, guarded by writeLock
+    private final List<Segment> segments = new ArrayList<>();
+
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+
+    // clusterKey -> marker expiration timestamp
+    private final Map<String, Long> serializationMarkers = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> deserializationMarkers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService compactionScheduler;
+
+    private long nextSegmentId;
+
+    /**
+     * Creates a new connector storing sessions in the given directory, with
+     * default segment size and compaction interval.
+     *
+     * @param directory
+     *            the directory that holds segment files; it is created if it
+     *            does not exist.
+     */
+    public FileSystemConnector(Path directory) {
+        this(directory, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Creates a new connector storing sessions in the given directory.
+     *
+     * @param directory
+     *            the directory that holds segment files; it is created if it
+     *            does not exist.
+     * @param maxSegmentSize
+     *            the size, in bytes, after which a new segment is started.
+     * @param compactionInterval
+     *            the interval between compaction runs. A zero or negative
+     *            value disables automatic compaction.
+     */
+    public FileSystemConnector(Path directory, long maxSegmentSize,
+            Duration compactionInterval) {
+        if (maxSegmentSize <= 0 || maxSegmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Maximum segment size must be between 1 and "
+                            + Integer.MAX_VALUE + " bytes");
+        }
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Unable to open session storage in " + directory, e);
+        }
+        if (compactionInterval != null && !compactionInterval.isZero()
+                && !compactionInterval.isNegative()) {
+            compactionScheduler = Executors
+                    .newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable,
+                                "fileSystemConnector-compaction");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            long millis = compactionInterval.toMillis();
+            compactionScheduler.scheduleWithFixedDelay(this::compactSafely,
+                    millis, millis, TimeUnit.MILLISECONDS);
+        } else {
+            compactionScheduler = null;
+        }
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        getLogger().debug("Writing session {} to {}", clusterKey, directory);
+        long expiresAt = expiresAt(sessionInfo.getTimeToLive());
+        synchronized (writeLock) {
+            IndexEntry entry = append(PUT, clusterKey, expiresAt,
+                    sessionInfo.getDataBuffer());
+            index.put(clusterKey, entry);
+        }
+        getLogger().debug("Session {} written to {}", clusterKey, directory);
+    }
+
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        long expiresAt = expiresAt(sessionInfo.getTimeToLive());
+        synchronized (writeLock) {
+            IndexEntry existing = index.get(clusterKey);
+            if (existing != null
+                    && !existing.isExpired(System.currentTimeMillis())) {
+                return false;
+            }
+            IndexEntry entry = append(PUT, clusterKey, expiresAt,
+                    sessionInfo.getDataBuffer());
+            index.put(clusterKey, entry);
+        }
+        getLogger().debug("Session {} written to {}", clusterKey, directory);
+        return true;
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        getLogger().debug("Requesting session for {}", clusterKey);
+        waitForSerializationCompletion(clusterKey);
+        while (true) {
+            IndexEntry entry = index.get(clusterKey);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.currentTimeMillis())) {
+                index.remove(clusterKey, entry);
+                return null;
+            }
+            try {
+                ByteBuffer data = entry.segment().slice(entry.offset(),
+                        entry.length());
+                return new SessionInfo(clusterKey, entry.timeToLive(), data,
+                        null);
+            } catch (IOException e) {
+                if (index.get(clusterKey) == entry) {
+                    throw new UncheckedIOException(
+                            "Unable to read session " + clusterKey, e);
+                }
+                // the segment has been compacted in the meantime, retry with
+                // the new location
+            }
+        }
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        waitForSerializationCompletion(clusterKey);
+        synchronized (writeLock) {
+            if (index.remove(clusterKey) != null) {
+                append(DELETE, clusterKey, 0, ByteBuffer.allocate(0));
+            }
+        }
+        serializationMarkers.remove(clusterKey);
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        serializationMarkers.put(clusterKey, markerExpiresAt(timeToLive));
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        serializationMarkers.remove(clusterKey);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        serializationMarkers.remove(clusterKey);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        long now = System.currentTimeMillis();
+        long expiresAt = markerExpiresAt(timeToLive);
+        boolean[] acquired = new boolean[1];
+        deserializationMarkers.compute(clusterKey, (key, current) -> {
+            if (current == null || current <= now) {
+                acquired[0] = true;
+                return expiresAt;
+            }
+            return current;
+        });
+        return acquired[0];
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        deserializationMarkers.remove(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        deserializationMarkers.remove(clusterKey);
+    }
+
+    /**
+     * Forces written session data to the storage device.
+     *
+     * @param timeout
+     *            ignored, the operation is synchronous.
+     * @return {@literal true} if data has been flushed successfully.
+     */
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        try {
+            synchronized (writeLock) {
+                if (!segments.isEmpty()) {
+                    activeSegment().channel.force(false);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            getLogger().error("Unable to flush session storage in {}",
+                    directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the cluster keys of the stored sessions, ordered from the least to
+     * the most recently written record.
+     * <p>
+     * Compaction rewrites live records at the end of the log, so relocated
+     * sessions are ordered by the time of their relocation.
+     *
+     * @return the cluster keys of the stored sessions, never {@literal null}.
+     */
+    public List<String> getClusterKeys() {
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            Map<Segment, Integer> positions = new HashMap<>();
+            for (int i = 0; i < segments.size(); i++) {
+                positions.put(segments.get(i), i);
+            }
+            return index.entrySet().stream()
+                    .filter(e -> !e.getValue().isExpired(now))
+                    .sorted(Comparator
+                            .<Map.Entry<String, IndexEntry>> comparingInt(
+                                    e -> positions.getOrDefault(
+                                            e.getValue().segment(), -1))
+                            .thenComparingLong(e -> e.getValue().offset()))
+                    .map(Map.Entry::getKey).toList();
+        }
+    }
+
+    /**
+     * Compacts sealed segments whose live data has fallen below half of their
+     * size, together with all older segments.
+     * <p>
+     * Older segments are always compacted first, so that a tombstone is never
+     * dropped while a segment holding an older record for the same key is
+     * still present.
+     *
+     * @throws IOException
+     *             if moving records or deleting segment files fails.
+     */
+    public void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        index.entrySet().removeIf(e -> e.getValue().isExpired(now));
+
+        List<Segment> sealed;
+        synchronized (writeLock) {
+            sealed = new ArrayList<>(segments.subList(0, segments.size() - 1));
+        }
+        Map<Segment, Long> liveBytes = new HashMap<>();
+        for (IndexEntry entry : index.values()) {
+            liveBytes.merge(entry.segment(), (long) entry.length(), Long::sum);
+        }
+        int last = -1;
+        for (int i = 0; i < sealed.size(); i++) {
+            Segment segment = sealed.get(i);
+            long live = liveBytes.getOrDefault(segment, 0L);
+            if (live < segment.size * COMPACTION_LIVE_RATIO) {
+                last = i;
+            }
+        }
+        for (int i = 0; i <= last; i++) {
+            compact(sealed.get(i));
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        int moved = 0;
+        for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+            IndexEntry entry = e.getValue();
+            if (entry.segment() != segment) {
+                continue;
+            }
+            synchronized (writeLock) {
+                if (index.get(e.getKey()) == entry) {
+                    IndexEntry relocated = append(PUT, e.getKey(),
+                            entry.expiresAt(),
+                            segment.slice(entry.offset(), entry.length()));
+                    index.put(e.getKey(), relocated);
+                    moved++;
+                }
+            }
+        }
+        synchronized (writeLock) {
+            // make relocated records durable before dropping the originals
+            activeSegment().channel.force(false);
+            segments.remove(segment);
+        }
+        segment.close();
+        Files.deleteIfExists(segment.path);
+        getLogger().debug("Compacted segment {}, {} live sessions moved",
+                segment.path.getFileName(), moved);
+    }
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (Exception e) {
+            getLogger().warn("Compaction of session storage in {} failed",
+                    directory, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactionScheduler != null) {
+            compactionScheduler.shutdownNow();
+        }
+        synchronized (writeLock) {
+            for (Segment segment : segments) {
+                if (segment == activeSegment()) {
+                    segment.channel.force(false);
+                }
+                segment.close();
+            }
+        }
+    }
+
+    // must be called holding writeLock
+    private IndexEntry append(byte type, String clusterKey, long expiresAt,
+            ByteBuffer value) {
+        try {
+            Segment segment = activeSegment();
+            if (segment.size >= maxSegmentSize) {
+                segment = newSegment();
+            }
+            byte[] key = BackendUtil.b(clusterKey);
+            ByteBuffer data = value.duplicate();
+            int valueLength = data.remaining();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.position(4);
+            header.put(type).putLong(expiresAt).putInt(key.length)
+                    .putInt(valueLength);
+            CRC32C crc = new CRC32C();
+            crc.update(header.array(), 4, HEADER_SIZE - 4);
+            crc.update(key);
+            crc.update(data.duplicate());
+            header.putInt(0, (int) crc.getValue()).flip();
+
+            long offset = segment.size;
+            long recordLength = (long) HEADER_SIZE + key.length + valueLength;
+            ByteBuffer[] buffers = { header, ByteBuffer.wrap(key), data };
+            segment.channel.position(offset);
+            long written = 0;
+            while (written < recordLength) {
+                written += segment.channel.write(buffers);
+            }
+            segment.size = offset + recordLength;
+            return new IndexEntry(segment, offset + HEADER_SIZE + key.length,
+                    valueLength, expiresAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Unable to write session " + clusterKey, e);
+        }
+    }
+
+    private Segment activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment newSegment() throws IOException {
+        Path path = directory.resolve(
+                String.format("%s%019d%s", SEGMENT_PREFIX, nextSegmentId++,
+                        SEGMENT_SUFFIX));
+        Segment segment = new Segment(path);
+        segments.add(segment);
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(FileSystemConnector::isSegmentFile).sorted()
+                    .toList();
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Path path = files.get(i);
+            Segment segment = new Segment(path);
+            segments.add(segment);
+            long size = segment.channel.size();
+            long validSize = scan(segment, size);
+            if (validSize < size) {
+                if (i == files.size() - 1) {
+                    getLogger().warn(
+                            "Truncating {} invalid trailing bytes from session storage segment {}",
+                            size - validSize, path);
+                    segment.truncate(validSize);
+                } else {
+                    getLogger().warn(
+                            "Ignoring {} invalid bytes in session storage segment {}",
+                            size - validSize, path);
+                }
+            }
+            nextSegmentId = Math.max(nextSegmentId, segmentId(path) + 1);
+        }
+        if (segments.isEmpty()) {
+            newSegment();
+        }
+        getLogger().debug("Recovered {} sessions from {} segments in {}",
+                index.size(), segments.size(), directory);
+    }
+
+    private long scan(Segment segment, long size) throws IOException {
+        segment.size = size;
+        long now = System.currentTimeMillis();
+        long offset = 0;
+        while (offset + HEADER_SIZE <= size) {
+            ByteBuffer header = segment.slice(offset, HEADER_SIZE);
+            int checksum = header.getInt();
+            byte type = header.get();
+            long expiresAt = header.getLong();
+            int keyLength = header.getInt();
+            int valueLength = header.getInt();
+            long end = offset + HEADER_SIZE + (long) keyLength + valueLength;
+            if ((type != PUT && type != DELETE) || keyLength <= 0
+                    || valueLength < 0 || end > size) {
+                break;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(segment.slice(offset + 4,
+                    HEADER_SIZE - 4 + keyLength + valueLength));
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            ByteBuffer keyBuffer = segment.slice(offset + HEADER_SIZE,
+                    keyLength);
+            byte[] key = new byte[keyLength];
+            keyBuffer.get(key);
+            String clusterKey = BackendUtil.s(key);
+            if (type == PUT && (expiresAt == 0 || expiresAt > now)) {
+                index.put(clusterKey, new IndexEntry(segment,
+                        offset + HEADER_SIZE + keyLength, valueLength,
+                        expiresAt));
+            } else {
+                index.remove(clusterKey);
+            }
+            offset = end;
+        }
+        return offset;
+    }
+
+    private void waitForSerializationCompletion(String clusterKey) {
+        long start = System.currentTimeMillis();
+        while (isMarked(serializationMarkers, clusterKey)) {
+            if (System.currentTimeMillis() - start > WAIT_TIMEOUT_MS) {
+                getLogger().warn(
+                        "Waiting for serialization of session {} timed out",
+                        clusterKey);
+                return;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static boolean isMarked(Map<String, Long> markers,
+            String clusterKey) {
+        Long expiresAt = markers.get(clusterKey);
+        return expiresAt != null && expiresAt > System.currentTimeMillis();
+    }
+
+    private static long expiresAt(Duration timeToLive) {
+        if (timeToLive == null || timeToLive.isZero()
+                || timeToLive.isNegative()) {
+            return 0;
+        }
+        return System.currentTimeMillis() + timeToLive.toMillis();
+    }
+
+    private static long markerExpiresAt(Duration timeToLive) {
+        long expiresAt = expiresAt(timeToLive);
+        return expiresAt == 0 ? Long.MAX_VALUE : expiresAt;
+    }
+
+    private static boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                && Files.isRegularFile(path);
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(FileSystemConnector.class);
+    }
+
+    private record IndexEntry(Segment segment, long offset, int length,
+            long expiresAt) {
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && expiresAt <= now;
+        }
+
+        Duration timeToLive() {
+            return expiresAt == 0 ? Duration.ZERO
+                    : Duration.ofMillis(Math.max(1,
+                            expiresAt - System.currentTimeMillis()));
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        // updated holding the connector write lock
+        private volatile long size;
+
+        // window index -> mapping of the window, up to the segment size at
+        // the time the window was mapped
+        private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+
+        private Segment(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Gets a read-only view of a region of the segment.
+         * <p>
+         * The segment is mapped in fixed-size windows, so that a read past
+         * the end of the last mapped window only maps the window again,
+         * instead of the whole segment. Windows of sealed segments are
+         * mapped once. Regions crossing a window boundary are mapped on
+         * their own.
+         */
+        private ByteBuffer slice(long offset, int length) throws IOException {
+            long windowIndex = offset / MAP_WINDOW_SIZE;
+            long windowStart = windowIndex * MAP_WINDOW_SIZE;
+            long end = offset + length;
+            if (end > windowStart + MAP_WINDOW_SIZE) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        length);
+            }
+            MappedByteBuffer window = windows.get(windowIndex);
+            if (window == null || end > windowStart + window.capacity()) {
+                synchronized (this) {
+                    window = windows.get(windowIndex);
+                    if (window == null
+                            || end > windowStart + window.capacity()) {
+                        window = channel.map(FileChannel.MapMode.READ_ONLY,
+                                windowStart, Math.min(MAP_WINDOW_SIZE,
+                                        size - windowStart));
+                        windows.put(windowIndex, window);
+                    }
+                }
+            }
+            return window.slice((int) (offset - windowStart), length);
+        }
+
+        private synchronized void truncate(long newSize) throws IOException {
+            // drop the mappings, they may cover the truncated region
+            windows.clear();
+            channel.truncate(newSize);
+            size = newSize;
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -10,7 +10,15 @@
 package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
 import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.hazelcast.client.impl.clientside.ClientDynamicClusterConfig;
 import com.hazelcast.config.Config;
@@ -23,17 +31,104 @@ import org.slf4j.LoggerFactory;
 
 import com.vaadin.kubernetes.starter.ProductUtils;
 
+/**
+ * A {@link BackendConnector} implementation that stores serialized sessions in
+ * a Hazelcast {@link IMap}.
+ * <p>
+ * Session data is written with {@code setAsync}, without fetching the
+ * previous value from the cluster, and {@link #sendSession(SessionInfo)}
+ * returns without waiting for the write to be acknowledged. Outstanding
+ * writes are tracked per cluster key: the serialization marker is released
+ * only once the pending write has completed, so that readers never get the
+ * previous copy, and outstanding writes are awaited on shutdown by
+ * {@link #awaitPendingOperations(Duration)}.
+ * <p>
+ * A failed write is logged and counted by {@link #getFailedWrites()}, and the
+ * marker is released anyway. Since the failure is not thrown to the caller,
+ * decorators reacting to failed writes, such as
+ * {@link CircuitBreakerBackendConnector} and
+ * {@link SpillingBackendConnector}, do not see it.
+ * <p>
+ * Serialization and deserialization markers are map entries holding a unique
+ * owner token. A marker is acquired with an atomic {@code putIfAbsent} and
+ * released with a conditional {@code remove}, so that only the owner can
+ * release it, from any thread; a writer that waited longer than the configured
+ * timeout takes over the stale marker, and the previous owner cannot release
+ * the new one anymore. Readers only poll for the marker to disappear and never
+ * acquire it. Waiting writers and readers poll the marker with an
+ * exponential backoff, from 5 to 200 milliseconds. Time spent waiting for
+ * markers is collected in {@link LatencyStatistics}.
+ * <p>
+ * Markers are stored under {@code serialization-marker-} and
+ * {@code deserialization-marker-} keys. Versions before 3.1 instead lock
+ * {@code pending-} and {@code pending-deserialization-} keys with
+ * {@link IMap#lock(Object)}. So that pods of both versions see each other's
+ * markers during a rolling upgrade, this connector also locks the legacy key
+ * once it holds a marker, force unlocking it on release, and readers wait
+ * for both the marker and the legacy lock to disappear. A writer waits for a
+ * legacy lock at most as long as for a marker, then goes on without it. This
+ * costs an additional cluster call for every marker operation and read, and
+ * will be removed once upgrades from versions before 3.1 are no longer
+ * supported.
+ */
 public class HazelcastConnector implements BackendConnector {
 
     static {
         ProductUtils.markAsUsed(HazelcastConnector.class.getSimpleName());
     }
 
+    /**
+     * Default maximum amount of time a writer waits for a serialization marker
+     * held by someone else before taking it over.
+     */
+    public static final Duration DEFAULT_MARKER_TIMEOUT = Duration
+            .ofSeconds(30);
+
+    private static final long MARKER_POLL_INTERVAL_MS = 5;
+
+    private static final long MAX_MARKER_POLL_INTERVAL_MS = 200;
+
+    private static final long READER_WAIT_TIMEOUT_MS = 5000;
+
     private final IMap<String, byte[]> sessions;
 
+    private final Duration markerTimeout;
+
+    // clusterKey -> outstanding asynchronous operations
+    private final Map<String, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+
+    // marker key -> owner token of markers acquired by this connector
+    private final Map<String, byte[]> ownedMarkers = new ConcurrentHashMap<>();
+
+    // legacy keys locked by this connector
+    private final Set<String> lockedLegacyMarkers = ConcurrentHashMap
+            .newKeySet();
+
+    private final LongAdder failedWrites = new LongAdder();
+
+    private final LatencyStatistics markerAcquisitionWaits = new LatencyStatistics();
+
+    private final LatencyStatistics serializationCompletionWaits = new LatencyStatistics();
+
     public HazelcastConnector(HazelcastInstance hazelcastInstance) {
+        this(hazelcastInstance, DEFAULT_MARKER_TIMEOUT);
+    }
+
+    /**
+     * Creates a new connector for the given Hazelcast instance.
+     *
+     * @param hazelcastInstance
+     *            the Hazelcast instance.
+     * @param markerTimeout
+     *            maximum amount of time a writer waits for a serialization
+     *            marker held by someone else before considering it stale and
+     *            taking it over.
+     */
+    public HazelcastConnector(HazelcastInstance hazelcastInstance,
+            Duration markerTimeout) {
         shutdownHookWarning(hazelcastInstance);
         sessions = hazelcastInstance.getMap("vaadin:sessions");
+        this.markerTimeout = markerTimeout;
     }
 
     private static void shutdownHookWarning(
@@ -55,19 +150,58 @@ public class HazelcastConnector implements BackendConnector {
 
     @Override
     public void sendSession(SessionInfo sessionInfo) {
-        getLogger().debug("Sending session {} to Hazelcast",
-                sessionInfo.getClusterKey());
-        String mapKey = getKey(sessionInfo.getClusterKey());
+        String clusterKey = sessionInfo.getClusterKey();
+        getLogger().debug("Sending session {} to Hazelcast", clusterKey);
+        String mapKey = getKey(clusterKey);
         Duration timeToLive = sessionInfo.getTimeToLive();
+        CompletableFuture<Void> write;
         if (timeToLive.isZero() || timeToLive.isNegative()) {
-            sessions.put(mapKey, sessionInfo.getData());
+            write = sessions.setAsync(mapKey, sessionInfo.getData())
+                    .toCompletableFuture();
         } else {
-            sessions.put(mapKey, sessionInfo.getData(), timeToLive.toSeconds(),
-                    TimeUnit.SECONDS);
+            write = sessions.setAsync(mapKey, sessionInfo.getData(),
+                    timeToLive.toSeconds(), TimeUnit.SECONDS)
+                    .toCompletableFuture();
         }
+        trackPendingOperation(clusterKey,
+                write.whenComplete((unused, error) -> {
+                    if (error != null) {
+                        failedWrites.increment();
+                        getLogger().error(
+                                "Failed to send session {} to Hazelcast",
+                                clusterKey, error);
+                    } else {
+                        getLogger().debug("Session {} sent to Hazelcast",
+                                clusterKey);
+                    }
+                }));
+    }
 
-        getLogger().debug("Session {} sent to Hazelcast",
-                sessionInfo.getClusterKey());
+    /**
+     * Stores the session with {@link IMap#putIfAbsent(Object, Object)}, so
+     * that data written concurrently by another node is never overwritten.
+     */
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        getLogger().debug("Sending session {} to Hazelcast if absent",
+                clusterKey);
+        String mapKey = getKey(clusterKey);
+        Duration timeToLive = sessionInfo.getTimeToLive();
+        byte[] existing;
+        if (timeToLive.isZero() || timeToLive.isNegative()) {
+            existing = sessions.putIfAbsent(mapKey, sessionInfo.getData());
+        } else {
+            existing = sessions.putIfAbsent(mapKey, sessionInfo.getData(),
+                    timeToLive.toSeconds(), TimeUnit.SECONDS);
+        }
+        if (existing != null) {
+            getLogger().debug("Session {} already stored in Hazelcast",
+                    clusterKey);
+            return false;
+        }
+        getLogger().debug("Session {} sent to Hazelcast", clusterKey);
+        return true;
     }
 
     @Override
@@ -91,94 +225,350 @@ public class HazelcastConnector implements BackendConnector {
     public void markSerializationStarted(String clusterKey,
             Duration timeToLive) {
         getLogger().debug("Marking serialization started for {}", clusterKey);
-        String pendingKey = getPendingKey(clusterKey);
-        lockPendingKey(timeToLive, pendingKey);
+        acquireMarker(getPendingKey(clusterKey),
+                getLegacyPendingKey(clusterKey), timeToLive, true);
     }
 
     @Override
     public void markSerializationComplete(String clusterKey) {
         getLogger().debug("Marking serialization complete for {}", clusterKey);
-        sessions.forceUnlock(getPendingKey(clusterKey));
+        releaseWhenWritten(clusterKey);
     }
 
     @Override
     public void markSerializationFailed(String clusterKey, Throwable error) {
         getLogger().debug("Marking serialization failed for {}", clusterKey,
                 error);
-        sessions.forceUnlock(getPendingKey(clusterKey));
+        releaseWhenWritten(clusterKey);
     }
 
     @Override
     public boolean markDeserializationStarted(String clusterKey,
             Duration timeToLive) {
-        String pendingKey = getDeserializationPendingKey(clusterKey);
-        if (sessions.isLocked(pendingKey)) {
-            return false;
-        }
-        lockPendingKey(timeToLive, pendingKey);
-        return true;
+        getLogger().debug("Marking deserialization started for {}", clusterKey);
+        return acquireMarker(getDeserializationPendingKey(clusterKey),
+                getLegacyDeserializationPendingKey(clusterKey), timeToLive,
+                false);
     }
 
     @Override
     public void markDeserializationComplete(String clusterKey) {
         getLogger().debug("Marking deserialization complete for {}",
                 clusterKey);
-        sessions.forceUnlock(getDeserializationPendingKey(clusterKey));
+        releaseMarker(getDeserializationPendingKey(clusterKey),
+                getLegacyDeserializationPendingKey(clusterKey));
     }
 
     @Override
     public void markDeserializationFailed(String clusterKey, Throwable error) {
         getLogger().debug("Marking deserialization failed for {}", clusterKey,
                 error);
-        sessions.forceUnlock(getDeserializationPendingKey(clusterKey));
+        releaseMarker(getDeserializationPendingKey(clusterKey),
+                getLegacyDeserializationPendingKey(clusterKey));
     }
 
     @Override
     public void deleteSession(String clusterKey) {
         getLogger().debug("Deleting session {}", clusterKey);
         waitForSerializationCompletion(clusterKey, "deleting");
+        String pendingKey = getPendingKey(clusterKey);
+        String legacyKey = getLegacyPendingKey(clusterKey);
         sessions.delete(getKey(clusterKey));
-        sessions.delete(getPendingKey(clusterKey));
+        if (lockedLegacyMarkers.remove(legacyKey)) {
+            sessions.forceUnlock(legacyKey);
+        }
+        sessions.delete(pendingKey);
+        ownedMarkers.remove(pendingKey);
         getLogger().debug("Session {} deleted", clusterKey);
     }
 
-    private void lockPendingKey(Duration timeToLive, String pendingKey) {
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        CompletableFuture<?>[] operations = pendingWrites.values()
+                .toArray(CompletableFuture[]::new);
+        if (operations.length == 0) {
+            return true;
+        }
+        getLogger().debug("Waiting for {} pending Hazelcast operations",
+                operations.length);
+        try {
+            CompletableFuture.allOf(operations).get(timeout.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            // Failures have already been logged by the single operations
+            getLogger().debug("Some pending Hazelcast operation failed", ex);
+        } catch (TimeoutException ex) {
+            getLogger().warn(
+                    "Gave up waiting for {} pending Hazelcast operations after {}",
+                    pendingWrites.size(), timeout);
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of session writes that have not been acknowledged by
+     * the cluster.
+     *
+     * @return the number of failed writes.
+     */
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    /**
+     * Gets statistics about the time spent by writers waiting to acquire
+     * serialization and deserialization markers.
+     *
+     * @return marker acquisition wait statistics.
+     */
+    public LatencyStatistics getMarkerAcquisitionWaits() {
+        return markerAcquisitionWaits;
+    }
+
+    /**
+     * Gets statistics about the time spent by readers waiting for a pending
+     * serialization to complete before getting or deleting a session.
+     *
+     * @return serialization completion wait statistics.
+     */
+    public LatencyStatistics getSerializationCompletionWaits() {
+        return serializationCompletionWaits;
+    }
+
+    /**
+     * Releases the serialization marker for the given cluster key as soon as
+     * the pending session write, if any, has completed.
+     */
+    private void releaseWhenWritten(String clusterKey) {
+        String pendingKey = getPendingKey(clusterKey);
+        String legacyKey = getLegacyPendingKey(clusterKey);
+        CompletableFuture<Void> write = pendingWrites.get(clusterKey);
+        if (write == null || write.isDone()) {
+            releaseMarker(pendingKey, legacyKey);
+            return;
+        }
+        // taken now, so that a marker acquired again by this connector is not
+        // released by the pending callback
+        byte[] token = ownedMarkers.remove(pendingKey);
+        // Callbacks of Hazelcast futures may run on internal threads, so the
+        // blocking release call is moved to a different executor
+        trackPendingOperation(clusterKey, write.handleAsync((unused, error) -> {
+            releaseMarker(pendingKey, legacyKey, token);
+            return null;
+        }));
+    }
+
+    private void trackPendingOperation(String clusterKey,
+            CompletableFuture<Void> operation) {
+        CompletableFuture<Void> tracked = pendingWrites.compute(clusterKey,
+                (key, previous) -> previous == null || previous.isDone()
+                        ? operation
+                        : CompletableFuture.allOf(previous, operation));
+        tracked.whenComplete(
+                (unused, error) -> pendingWrites.remove(clusterKey, tracked));
+    }
+
+    /**
+     * Tries to acquire the marker for the given key, storing a unique owner
+     * token as value.
+     *
+     * @param markerKey
+     *            the marker key.
+     * @param legacyKey
+     *            the key locked as marker by versions before 3.1.
+     * @param timeToLive
+     *            the maximum amount of time the marker should be preserved.
+     * @param wait
+     *            {@literal true} to wait for a marker held by someone else to
+     *            be released, {@literal false} to give up immediately.
+     * @return {@literal true} if the marker has been acquired, otherwise
+     *         {@literal false}.
+     */
+    private boolean acquireMarker(String markerKey, String legacyKey,
+            Duration timeToLive, boolean wait) {
+        byte[] token = BackendUtil
+                .b(UUID.randomUUID() + ":" + System.currentTimeMillis());
+        long start = System.nanoTime();
+        long timeout = start + markerTimeout.toNanos();
+        long pollInterval = MARKER_POLL_INTERVAL_MS;
+        try {
+            while (true) {
+                byte[] owner = putMarkerIfAbsent(markerKey, token, timeToLive);
+                if (owner == null) {
+                    ownedMarkers.put(markerKey, token);
+                    if (lockLegacyMarker(legacyKey, timeToLive, wait)) {
+                        return true;
+                    }
+                    if (!wait) {
+                        releaseMarker(markerKey, legacyKey);
+                        return false;
+                    }
+                    getLogger().warn(
+                            "Legacy marker {} has not been released in {}, ignoring it",
+                            legacyKey, markerTimeout);
+                    return true;
+                }
+                if (!wait) {
+                    return false;
+                }
+                if (System.nanoTime() - timeout > 0) {
+                    getLogger().warn(
+                            "Marker {} held by {} has not been released in {}, taking it over",
+                            markerKey, BackendUtil.s(owner), markerTimeout);
+                    // Only removes the marker if it has not changed in the
+                    // meantime, then competes again for it
+                    sessions.remove(markerKey, owner);
+                    timeout = System.nanoTime() + markerTimeout.toNanos();
+                    pollInterval = MARKER_POLL_INTERVAL_MS;
+                    continue;
+                }
+                pollInterval = backOff(pollInterval);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while waiting for marker " + markerKey, ex);
+        } finally {
+            if (wait) {
+                markerAcquisitionWaits.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private byte[] putMarkerIfAbsent(String markerKey, byte[] token,
+            Duration timeToLive) {
         if (timeToLive.isZero() || timeToLive.isNegative()) {
-            sessions.lock(pendingKey);
-        } else {
-            sessions.lock(pendingKey, timeToLive.toSeconds(), TimeUnit.SECONDS);
+            return sessions.putIfAbsent(markerKey, token);
+        }
+        return sessions.putIfAbsent(markerKey, token, timeToLive.toSeconds(),
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Locks the legacy marker key, so that pods of versions before 3.1 see
+     * the marker.
+     */
+    private boolean lockLegacyMarker(String legacyKey, Duration timeToLive,
+            boolean wait) {
+        long waitMillis = wait ? markerTimeout.toMillis() : 0;
+        boolean locked;
+        try {
+            if (timeToLive.isZero() || timeToLive.isNegative()) {
+                locked = sessions.tryLock(legacyKey, waitMillis,
+                        TimeUnit.MILLISECONDS);
+            } else {
+                locked = sessions.tryLock(legacyKey, waitMillis,
+                        TimeUnit.MILLISECONDS, timeToLive.toSeconds(),
+                        TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            // the marker is held, the caller goes on as if timed out
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        if (locked) {
+            lockedLegacyMarkers.add(legacyKey);
+        }
+        return locked;
+    }
+
+    /**
+     * Releases the marker for the given key, only if it is still owned by this
+     * connector.
+     */
+    private void releaseMarker(String markerKey, String legacyKey) {
+        releaseMarker(markerKey, legacyKey, ownedMarkers.remove(markerKey));
+    }
+
+    private void releaseMarker(String markerKey, String legacyKey,
+            byte[] token) {
+        if (token == null) {
+            getLogger().debug("Marker {} is not owned by this connector",
+                    markerKey);
+            return;
+        }
+        // unlocked first, the marker may be acquired again once removed
+        if (lockedLegacyMarkers.remove(legacyKey)) {
+            sessions.forceUnlock(legacyKey);
+        }
+        if (!sessions.remove(markerKey, token)) {
+            getLogger().debug(
+                    "Marker {} has expired or has been taken over by someone else",
+                    markerKey);
         }
     }
 
     private void waitForSerializationCompletion(String clusterKey,
             String action) {
         String pendingKey = getPendingKey(clusterKey);
-        if (sessions.isLocked(pendingKey)) {
+        String legacyKey = getLegacyPendingKey(clusterKey);
+        if (isSerializationPending(pendingKey, legacyKey)) {
+            long start = System.nanoTime();
+            long timeout = System.currentTimeMillis() + READER_WAIT_TIMEOUT_MS;
             getLogger().debug(
                     "Waiting for session to be serialized before {} {}", action,
                     clusterKey);
+            long pollInterval = MARKER_POLL_INTERVAL_MS;
             try {
-                // Wait for pending serialization operation to complete
-                sessions.tryLock(pendingKey, 5, TimeUnit.SECONDS, 1,
-                        TimeUnit.MILLISECONDS);
+                // Wait for pending serialization operation to complete,
+                // without acquiring the marker
+                while (isSerializationPending(pendingKey, legacyKey)) {
+                    if (System.currentTimeMillis() > timeout) {
+                        getLogger().warn(
+                                "Gave up waiting for the serialization result of {} before {}. The host probably crashed during serialization",
+                                clusterKey, action);
+                        break;
+                    }
+                    pollInterval = backOff(pollInterval);
+                }
             } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
                 getLogger().warn(
-                        "Gave up waiting for the serialization result of {} before {}. The host probably crashed during serialization",
+                        "Interrupted while waiting for the serialization result of {} before {}",
                         clusterKey, action);
+            } finally {
+                serializationCompletionWaits.record(System.nanoTime() - start);
             }
         }
     }
 
+    private boolean isSerializationPending(String pendingKey,
+            String legacyKey) {
+        return sessions.containsKey(pendingKey) || sessions.isLocked(legacyKey);
+    }
+
+    /**
+     * Sleeps for the given interval and returns the next one, doubled up to
+     * the maximum poll interval.
+     */
+    private static long backOff(long pollInterval)
+            throws InterruptedException {
+        Thread.sleep(pollInterval);
+        return Math.min(pollInterval * 2, MAX_MARKER_POLL_INTERVAL_MS);
+    }
+
     static String getKey(String clusterKey) {
         return "session-" + clusterKey;
 
     }
 
     static String getPendingKey(String clusterKey) {
-        return "pending-" + clusterKey;
+        return "serialization-marker-" + clusterKey;
     }
 
     static String getDeserializationPendingKey(String clusterKey) {
+        return "deserialization-marker-" + clusterKey;
+    }
+
+    static String getLegacyPendingKey(String clusterKey) {
+        return "pending-" + clusterKey;
+    }
+
+    static String getLegacyDeserializationPendingKey(String clusterKey) {
         return "pending-deserialization-" + clusterKey;
     }
 
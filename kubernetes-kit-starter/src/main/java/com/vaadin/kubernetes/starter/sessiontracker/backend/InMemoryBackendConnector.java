@@ -0,0 +1,546 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread safe {@link BackendConnector} that keeps sessions in memory, with
+ * optional latency and fault injection.
+ * <p>
+ * The connector behaves like the network based connectors: stored sessions
+ * and serialization markers honor their time to live, and reading a session
+ * waits for a pending serialization to complete. It can be shared by multiple
+ * application contexts in the same JVM to simulate a cluster, without any
+ * external service.
+ * <p>
+ * Each {@link Operation} can be given a {@link FaultProfile} describing the
+ * latency distribution of the operation, the rate of failures where the
+ * operation is not applied, and the rate of partial failures where the
+ * operation is applied but the caller still gets an error, as it happens when
+ * a response is lost. Random values are taken from the generator of the
+ * calling thread, unless the connector is created with a seed: then they are
+ * taken from a generator shared by all threads, so that a single threaded
+ * sequence of operations is reproducible.
+ * Profiles can be changed at any time, for example to simulate a backend that
+ * becomes slow during a test.
+ * <p>
+ * Injected failures are reported with {@link InjectedFailureException}.
+ */
+public class InMemoryBackendConnector implements BackendConnector {
+
+    /**
+     * Operations for which faults can be injected.
+     */
+    public enum Operation {
+        SEND_SESSION, GET_SESSION, DELETE_SESSION, MARK_SERIALIZATION_STARTED,
+        MARK_SERIALIZATION_COMPLETE, MARK_SERIALIZATION_FAILED,
+        MARK_DESERIALIZATION_STARTED, MARK_DESERIALIZATION_COMPLETE,
+        MARK_DESERIALIZATION_FAILED
+    }
+
+    /**
+     * A distribution of operation latencies.
+     */
+    @FunctionalInterface
+    public interface LatencyDistribution {
+
+        /**
+         * Picks a latency.
+         *
+         * @param random
+         *            the random generator to use.
+         * @return the latency, never {@literal null}.
+         */
+        Duration sample(Random random);
+
+        /**
+         * Gets a distribution without latency.
+         *
+         * @return a distribution that always returns zero.
+         */
+        static LatencyDistribution none() {
+            return random -> Duration.ZERO;
+        }
+
+        /**
+         * Gets a distribution with constant latency.
+         *
+         * @param latency
+         *            the latency.
+         * @return a distribution that always returns the given latency.
+         */
+        static LatencyDistribution fixed(Duration latency) {
+            return random -> latency;
+        }
+
+        /**
+         * Gets a distribution with latencies uniformly distributed in the
+         * given range.
+         *
+         * @param min
+         *            the minimum latency.
+         * @param max
+         *            the maximum latency.
+         * @return a uniform latency distribution.
+         */
+        static LatencyDistribution uniform(Duration min, Duration max) {
+            long minNanos = min.toNanos();
+            long range = max.toNanos() - minNanos;
+            return random -> Duration.ofNanos(minNanos
+                    + (range > 0 ? (long) (random.nextDouble() * range) : 0));
+        }
+
+        /**
+         * Gets a log-normal distribution, with a long tail of slow operations
+         * typical of network services.
+         *
+         * @param median
+         *            the median latency.
+         * @param sigma
+         *            the standard deviation of the underlying normal
+         *            distribution; higher values give a longer tail.
+         * @return a log-normal latency distribution.
+         */
+        static LatencyDistribution logNormal(Duration median, double sigma) {
+            double mu = Math.log(Math.max(1, median.toNanos()));
+            return random -> Duration.ofNanos(
+                    (long) Math.exp(mu + sigma * random.nextGaussian()));
+        }
+
+        /**
+         * Gets a distribution that occasionally returns a spike latency
+         * instead of sampling this distribution.
+         *
+         * @param probability
+         *            the probability of a spike, between 0 and 1.
+         * @param spike
+         *            the latency of a spike.
+         * @return a distribution with latency spikes.
+         */
+        default LatencyDistribution withSpikes(double probability,
+                Duration spike) {
+            return random -> random.nextDouble() < probability ? spike
+                    : sample(random);
+        }
+    }
+
+    /**
+     * Description of the faults injected for an operation.
+     *
+     * @param latency
+     *            the latency added to the operation.
+     * @param errorRate
+     *            the probability, between 0 and 1, that the operation fails
+     *            without being applied.
+     * @param partialFailureRate
+     *            the probability, between 0 and 1, that the operation is
+     *            applied but the caller gets an error.
+     */
+    public record FaultProfile(LatencyDistribution latency, double errorRate,
+            double partialFailureRate) {
+
+        /**
+         * A profile without faults.
+         */
+        public static final FaultProfile NONE = new FaultProfile(
+                LatencyDistribution.none(), 0, 0);
+
+        public FaultProfile {
+            Objects.requireNonNull(latency, "latency must not be null");
+        }
+
+        /**
+         * Gets a profile with the given latency and no failures.
+         *
+         * @param latency
+         *            the latency distribution.
+         * @return a profile with latency only.
+         */
+        public static FaultProfile latency(LatencyDistribution latency) {
+            return new FaultProfile(latency, 0, 0);
+        }
+
+        /**
+         * Gets a profile with the given error rate and no latency.
+         *
+         * @param errorRate
+         *            the probability of failures.
+         * @return a profile with failures only.
+         */
+        public static FaultProfile errors(double errorRate) {
+            return new FaultProfile(LatencyDistribution.none(), errorRate, 0);
+        }
+    }
+
+    /**
+     * Exception thrown for injected failures.
+     */
+    public static class InjectedFailureException extends RuntimeException {
+
+        private final boolean applied;
+
+        /**
+         * Creates a new exception.
+         *
+         * @param operation
+         *            the failed operation.
+         * @param applied
+         *            whether the operation has been applied.
+         */
+        public InjectedFailureException(Operation operation,
+                boolean applied) {
+            super("Injected " + (applied ? "partial " : "") + "failure of "
+                    + operation);
+            this.applied = applied;
+        }
+
+        /**
+         * Gets if the operation has been applied despite the failure.
+         *
+         * @return {@literal true} for partial failures.
+         */
+        public boolean isApplied() {
+            return applied;
+        }
+    }
+
+    private static final long WAIT_TIMEOUT_MS = 5000;
+
+    private final Map<String, Stored> sessions = new ConcurrentHashMap<>();
+
+    // clusterKey -> marker expiration timestamp
+    private final Map<String, Long> serializationMarkers = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> deserializationMarkers = new ConcurrentHashMap<>();
+
+    private final Map<Operation, FaultProfile> profiles = new ConcurrentHashMap<>();
+
+    private final Map<Operation, LongAdder> invocations = new EnumMap<>(
+            Operation.class);
+
+    private final Map<Operation, LongAdder> injectedFailures = new EnumMap<>(
+            Operation.class);
+
+    private final Random random;
+
+    /**
+     * Creates a new connector without injected faults.
+     */
+    public InMemoryBackendConnector() {
+        this(null);
+    }
+
+    /**
+     * Creates a new connector whose injected faults are driven by a random
+     * generator with the given seed.
+     *
+     * @param seed
+     *            the random generator seed.
+     */
+    public InMemoryBackendConnector(long seed) {
+        this(new Random(seed));
+    }
+
+    private InMemoryBackendConnector(Random random) {
+        this.random = random;
+        for (Operation operation : Operation.values()) {
+            invocations.put(operation, new LongAdder());
+            injectedFailures.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Sets the faults injected for the given operation.
+     *
+     * @param operation
+     *            the operation.
+     * @param profile
+     *            the faults to inject, or {@literal null} to remove them.
+     * @return this connector, for chaining.
+     */
+    public InMemoryBackendConnector setFaultProfile(Operation operation,
+            FaultProfile profile) {
+        if (profile == null) {
+            profiles.remove(operation);
+        } else {
+            profiles.put(operation, profile);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the faults injected for all operations.
+     *
+     * @param profile
+     *            the faults to inject, or {@literal null} to remove them.
+     * @return this connector, for chaining.
+     */
+    public InMemoryBackendConnector setFaultProfile(FaultProfile profile) {
+        for (Operation operation : Operation.values()) {
+            setFaultProfile(operation, profile);
+        }
+        return this;
+    }
+
+    /**
+     * Gets the number of invocations of the given operation.
+     *
+     * @param operation
+     *            the operation.
+     * @return the number of invocations.
+     */
+    public long getInvocations(Operation operation) {
+        return invocations.get(operation).sum();
+    }
+
+    /**
+     * Gets the number of failures injected for the given operation, including
+     * partial failures.
+     *
+     * @param operation
+     *            the operation.
+     * @return the number of injected failures.
+     */
+    public long getInjectedFailures(Operation operation) {
+        return injectedFailures.get(operation).sum();
+    }
+
+    /**
+     * Gets the number of stored sessions, including expired sessions not yet
+     * purged.
+     *
+     * @return the number of stored sessions.
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Removes all sessions and markers.
+     */
+    public void clear() {
+        sessions.clear();
+        serializationMarkers.clear();
+        deserializationMarkers.clear();
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        Stored stored = new Stored(copyData(sessionInfo),
+                expiresAt(sessionInfo.getTimeToLive()));
+        invoke(Operation.SEND_SESSION,
+                () -> sessions.put(clusterKey, stored));
+    }
+
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        Stored stored = new Stored(copyData(sessionInfo),
+                expiresAt(sessionInfo.getTimeToLive()));
+        boolean[] result = new boolean[1];
+        invoke(Operation.SEND_SESSION,
+                () -> sessions.compute(clusterKey, (key, existing) -> {
+                    result[0] = existing == null || existing.isExpired();
+                    return result[0] ? stored : existing;
+                }));
+        return result[0];
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        Stored[] result = new Stored[1];
+        invoke(Operation.GET_SESSION, () -> {
+            waitForSerializationCompletion(clusterKey);
+            Stored stored = sessions.get(clusterKey);
+            if (stored != null && stored.isExpired()) {
+                sessions.remove(clusterKey, stored);
+                stored = null;
+            }
+            result[0] = stored;
+        });
+        Stored stored = result[0];
+        // read-only view, stored data is copied only if the caller asks for
+        // an array
+        return stored != null
+                ? new SessionInfo(clusterKey, stored.timeToLive(),
+                        ByteBuffer.wrap(stored.data()).asReadOnlyBuffer(),
+                        null)
+                : null;
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        invoke(Operation.DELETE_SESSION, () -> {
+            waitForSerializationCompletion(clusterKey);
+            sessions.remove(clusterKey);
+            serializationMarkers.remove(clusterKey);
+        });
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        invoke(Operation.MARK_SERIALIZATION_STARTED,
+                () -> serializationMarkers.put(clusterKey,
+                        markerExpiresAt(timeToLive)));
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        invoke(Operation.MARK_SERIALIZATION_COMPLETE,
+                () -> serializationMarkers.remove(clusterKey));
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        invoke(Operation.MARK_SERIALIZATION_FAILED,
+                () -> serializationMarkers.remove(clusterKey));
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        boolean[] acquired = new boolean[1];
+        invoke(Operation.MARK_DESERIALIZATION_STARTED, () -> {
+            long now = System.currentTimeMillis();
+            long expiresAt = markerExpiresAt(timeToLive);
+            deserializationMarkers.compute(clusterKey, (key, current) -> {
+                if (current == null || current <= now) {
+                    acquired[0] = true;
+                    return expiresAt;
+                }
+                return current;
+            });
+        });
+        return acquired[0];
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        invoke(Operation.MARK_DESERIALIZATION_COMPLETE,
+                () -> deserializationMarkers.remove(clusterKey));
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        invoke(Operation.MARK_DESERIALIZATION_FAILED,
+                () -> deserializationMarkers.remove(clusterKey));
+    }
+
+    private void invoke(Operation operation, Runnable action) {
+        invocations.get(operation).increment();
+        FaultProfile profile = profiles.getOrDefault(operation,
+                FaultProfile.NONE);
+        Random generator = random != null ? random
+                : ThreadLocalRandom.current();
+        Duration latency = profile.latency().sample(generator);
+        double failure = generator.nextDouble();
+        sleep(latency);
+        if (failure < profile.errorRate()) {
+            injectedFailures.get(operation).increment();
+            throw new InjectedFailureException(operation, false);
+        }
+        action.run();
+        if (failure < profile.errorRate() + profile.partialFailureRate()) {
+            injectedFailures.get(operation).increment();
+            throw new InjectedFailureException(operation, true);
+        }
+    }
+
+    /**
+     * Copies the data of the given session once, the caller may reuse or
+     * release it after the call.
+     */
+    private static byte[] copyData(SessionInfo sessionInfo) {
+        ByteBuffer buffer = sessionInfo.getDataBuffer();
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        return copy;
+    }
+
+    private void waitForSerializationCompletion(String clusterKey) {
+        long start = System.currentTimeMillis();
+        while (isMarked(clusterKey)) {
+            if (System.currentTimeMillis() - start > WAIT_TIMEOUT_MS) {
+                getLogger().warn(
+                        "Waiting for serialization of session {} timed out",
+                        clusterKey);
+                return;
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean isMarked(String clusterKey) {
+        Long expiresAt = serializationMarkers.get(clusterKey);
+        return expiresAt != null && expiresAt > System.currentTimeMillis();
+    }
+
+    private static void sleep(Duration latency) {
+        if (latency.isZero() || latency.isNegative()) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(latency.toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long expiresAt(Duration timeToLive) {
+        if (timeToLive == null || timeToLive.isZero()
+                || timeToLive.isNegative()) {
+            return 0;
+        }
+        return System.currentTimeMillis() + timeToLive.toMillis();
+    }
+
+    private static long markerExpiresAt(Duration timeToLive) {
+        long expiresAt = expiresAt(timeToLive);
+        return expiresAt == 0 ? Long.MAX_VALUE : expiresAt;
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(InMemoryBackendConnector.class);
+    }
+
+    private record Stored(byte[] data, long expiresAt) {
+
+        boolean isExpired() {
+            return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+        }
+
+        Duration timeToLive() {
+            return expiresAt == 0 ? Duration.ZERO
+                    : Duration.ofMillis(Math.max(1,
+                            expiresAt - System.currentTimeMillis()));
+        }
+    }
+}
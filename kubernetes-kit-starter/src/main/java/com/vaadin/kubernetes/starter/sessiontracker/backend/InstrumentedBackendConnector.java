@@ -0,0 +1,397 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionObservations;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.BackendOperation;
+
+/**
+ * A {@link BackendConnector} decorator that reports the duration and outcome
+ * of every call to the decorated connector to a {@link SessionMetrics},
+ * records them as {@link BackendOperation} flight recorder events and, when an
+ * {@link ObservationRegistry} is given, observes them as
+ * {@link SessionObservations#BACKEND} observations.
+ * <p>
+ * Use {@link #of(BackendConnector, SessionMetrics, ObservationRegistry)} to
+ * also measure the asynchronous operations of an
+ * {@link AsyncBackendConnector}, keeping it usable without blocking.
+ */
+public class InstrumentedBackendConnector implements BackendConnector {
+
+    private final BackendConnector delegate;
+
+    private final SessionMetrics metrics;
+
+    private final ObservationRegistry observationRegistry;
+
+    private volatile Failure lastFailure;
+
+    /**
+     * Creates a new instrumented connector.
+     *
+     * @param delegate
+     *            the connector to measure, not {@literal null}.
+     * @param metrics
+     *            the receiver of the measurements, not {@literal null}.
+     */
+    public InstrumentedBackendConnector(BackendConnector delegate,
+            SessionMetrics metrics) {
+        this(delegate, metrics, ObservationRegistry.NOOP);
+    }
+
+    /**
+     * Creates a new instrumented connector, that also observes the calls.
+     *
+     * @param delegate
+     *            the connector to measure, not {@literal null}.
+     * @param metrics
+     *            the receiver of the measurements, not {@literal null}.
+     * @param observationRegistry
+     *            the registry of the observations, not {@literal null}.
+     */
+    public InstrumentedBackendConnector(BackendConnector delegate,
+            SessionMetrics metrics, ObservationRegistry observationRegistry) {
+        this.delegate = Objects.requireNonNull(delegate,
+                "delegate must not be null");
+        this.metrics = Objects.requireNonNull(metrics,
+                "metrics must not be null");
+        this.observationRegistry = Objects.requireNonNull(observationRegistry,
+                "observationRegistry must not be null");
+    }
+
+    /**
+     * Creates an instrumented connector for the given one, implementing
+     * {@link AsyncBackendConnector} if the given connector does.
+     *
+     * @param delegate
+     *            the connector to measure, not {@literal null}.
+     * @param metrics
+     *            the receiver of the measurements, not {@literal null}.
+     * @return the instrumented connector.
+     */
+    public static InstrumentedBackendConnector of(BackendConnector delegate,
+            SessionMetrics metrics) {
+        return of(delegate, metrics, ObservationRegistry.NOOP);
+    }
+
+    /**
+     * Creates an instrumented connector for the given one, that also observes
+     * the calls, implementing {@link AsyncBackendConnector} if the given
+     * connector does.
+     *
+     * @param delegate
+     *            the connector to measure, not {@literal null}.
+     * @param metrics
+     *            the receiver of the measurements, not {@literal null}.
+     * @param observationRegistry
+     *            the registry of the observations, not {@literal null}.
+     * @return the instrumented connector.
+     */
+    public static InstrumentedBackendConnector of(BackendConnector delegate,
+            SessionMetrics metrics, ObservationRegistry observationRegistry) {
+        if (delegate instanceof AsyncBackendConnector async) {
+            return new Async(async, metrics, observationRegistry);
+        }
+        return new InstrumentedBackendConnector(delegate, metrics,
+                observationRegistry);
+    }
+
+    /**
+     * Gets the decorated connector.
+     *
+     * @return the decorated connector.
+     */
+    public BackendConnector getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the last failed call to the decorated connector.
+     *
+     * @return the last failure, or {@literal null} if no call failed.
+     */
+    public Failure getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        measure("sendSession", sessionInfo.getClusterKey(),
+                sessionInfo.getSize(), () -> {
+            delegate.sendSession(sessionInfo);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        return measure("sendSessionIfAbsent", sessionInfo.getClusterKey(),
+                sessionInfo.getSize(),
+                () -> delegate.sendSessionIfAbsent(sessionInfo));
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        return measure("getSession", clusterKey, -1,
+                () -> delegate.getSession(clusterKey));
+    }
+
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        return measure("getSessionHeader", clusterKey, -1,
+                () -> delegate.getSessionHeader(clusterKey, length));
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        measure("deleteSession", clusterKey, 0, () -> {
+            delegate.deleteSession(clusterKey);
+            return null;
+        });
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        measure("markSerializationStarted", clusterKey, 0, () -> {
+            delegate.markSerializationStarted(clusterKey, timeToLive);
+            return null;
+        });
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        measure("markSerializationComplete", clusterKey, 0, () -> {
+            delegate.markSerializationComplete(clusterKey);
+            return null;
+        });
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        measure("markSerializationFailed", clusterKey, 0, () -> {
+            delegate.markSerializationFailed(clusterKey, error);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return measure("markDeserializationStarted", clusterKey, 0,
+                () -> delegate.markDeserializationStarted(clusterKey,
+                        timeToLive));
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        measure("markDeserializationComplete", clusterKey, 0, () -> {
+            delegate.markDeserializationComplete(clusterKey);
+            return null;
+        });
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        measure("markDeserializationFailed", clusterKey, 0, () -> {
+            delegate.markDeserializationFailed(clusterKey, error);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        return delegate.awaitPendingOperations(timeout);
+    }
+
+    private <T> T measure(String operation, String clusterKey, int bytes,
+            Supplier<T> call) {
+        BackendOperation event = new BackendOperation();
+        event.begin();
+        Observation observation = observe(operation);
+        long start = System.nanoTime();
+        T result = null;
+        Throwable error = null;
+        try (Observation.Scope scope = observation.openScope()) {
+            result = call.get();
+            return result;
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            completed(operation, clusterKey, bytes, result, error, start,
+                    event, observation);
+        }
+    }
+
+    <T> CompletableFuture<T> measureAsync(String operation, String clusterKey,
+            int bytes, Supplier<CompletableFuture<T>> call) {
+        BackendOperation event = new BackendOperation();
+        event.begin();
+        Observation observation = observe(operation);
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try (Observation.Scope scope = observation.openScope()) {
+            future = call.get();
+        } catch (RuntimeException e) {
+            completed(operation, clusterKey, bytes, null, e, start, event,
+                    observation);
+            throw e;
+        }
+        return future.whenComplete((result, error) -> completed(operation,
+                clusterKey, bytes, result, error, start, event,
+                observation));
+    }
+
+    private Observation observe(String operation) {
+        return SessionObservations
+                .create(SessionObservations.BACKEND, observationRegistry)
+                .contextualName("session backend " + operation)
+                .lowCardinalityKeyValue("operation", operation).start();
+    }
+
+    private void completed(String operation, String clusterKey, int bytes,
+            Object result, Throwable error, long start,
+            BackendOperation event, Observation observation) {
+        boolean success = error == null;
+        metrics.recordBackendCall(operation, System.nanoTime() - start,
+                success);
+        if (error != null) {
+            if (error instanceof CompletionException
+                    && error.getCause() != null) {
+                error = error.getCause();
+            }
+            lastFailure = new Failure(Instant.now(), operation,
+                    error.getClass().getName() + ": " + error.getMessage());
+            observation.error(error);
+        }
+        observation.stop();
+        if (bytes < 0) {
+            // read operations, the amount is the size of the result
+            if (result instanceof SessionInfo info) {
+                bytes = info.getSize();
+            } else if (result instanceof byte[] header) {
+                bytes = header.length;
+            } else {
+                bytes = 0;
+            }
+        }
+        event.setOperation(operation);
+        event.complete(clusterKey, bytes,
+                success ? SessionReplicationEvents.SUCCESS
+                        : SessionReplicationEvents.FAILURE);
+    }
+
+    /**
+     * A failed call to the decorated connector.
+     *
+     * @param time
+     *            the time the call failed.
+     * @param operation
+     *            the name of the called method.
+     * @param error
+     *            the type and message of the error.
+     */
+    public record Failure(Instant time, String operation, String error) {
+    }
+
+    private static final class Async extends InstrumentedBackendConnector
+            implements AsyncBackendConnector {
+
+        private final AsyncBackendConnector delegate;
+
+        private Async(AsyncBackendConnector delegate, SessionMetrics metrics,
+                ObservationRegistry observationRegistry) {
+            super(delegate, metrics, observationRegistry);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Void> sendSessionAsync(
+                SessionInfo sessionInfo) {
+            return measureAsync("sendSession", sessionInfo.getClusterKey(),
+                    sessionInfo.getSize(),
+                    () -> delegate.sendSessionAsync(sessionInfo));
+        }
+
+        @Override
+        public CompletableFuture<SessionInfo> getSessionAsync(
+                String clusterKey) {
+            return measureAsync("getSession", clusterKey, -1,
+                    () -> delegate.getSessionAsync(clusterKey));
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteSessionAsync(String clusterKey) {
+            return measureAsync("deleteSession", clusterKey, 0,
+                    () -> delegate.deleteSessionAsync(clusterKey));
+        }
+
+        @Override
+        public CompletableFuture<Void> markSerializationStartedAsync(
+                String clusterKey, Duration timeToLive) {
+            return measureAsync("markSerializationStarted", clusterKey, 0,
+                    () -> delegate.markSerializationStartedAsync(clusterKey,
+                            timeToLive));
+        }
+
+        @Override
+        public CompletableFuture<Void> markSerializationCompleteAsync(
+                String clusterKey) {
+            return measureAsync("markSerializationComplete", clusterKey, 0,
+                    () -> delegate.markSerializationCompleteAsync(clusterKey));
+        }
+
+        @Override
+        public CompletableFuture<Void> markSerializationFailedAsync(
+                String clusterKey, Throwable error) {
+            return measureAsync("markSerializationFailed", clusterKey, 0,
+                    () -> delegate.markSerializationFailedAsync(clusterKey,
+                            error));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> markDeserializationStartedAsync(
+                String clusterKey, Duration timeToLive) {
+            return measureAsync("markDeserializationStarted", clusterKey, 0,
+                    () -> delegate.markDeserializationStartedAsync(clusterKey,
+                            timeToLive));
+        }
+
+        @Override
+        public CompletableFuture<Void> markDeserializationCompleteAsync(
+                String clusterKey) {
+            return measureAsync("markDeserializationComplete", clusterKey, 0,
+                    () -> delegate
+                            .markDeserializationCompleteAsync(clusterKey));
+        }
+
+        @Override
+        public CompletableFuture<Void> markDeserializationFailedAsync(
+                String clusterKey, Throwable error) {
+            return measureAsync("markDeserializationFailed", clusterKey, 0,
+                    () -> delegate.markDeserializationFailedAsync(clusterKey,
+                            error));
+        }
+    }
+}
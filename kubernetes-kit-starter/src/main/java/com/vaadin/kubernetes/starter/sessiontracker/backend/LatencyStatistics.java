@@ -0,0 +1,72 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects durations of {@link BackendConnector} operations, such as the time
+ * spent waiting for serialization markers to be acquired or released.
+ * <p>
+ * Recording is lock-free and cheap enough to be done for every operation.
+ */
+public final class LatencyStatistics {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos
+     *            the duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return the number of recorded durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of the recorded durations.
+     *
+     * @return the total time.
+     */
+    public Duration getTotalTime() {
+        return Duration.ofNanos(totalNanos.sum());
+    }
+
+    /**
+     * Gets the longest recorded duration.
+     *
+     * @return the longest recorded duration.
+     */
+    public Duration getMaxTime() {
+        return Duration.ofNanos(maxNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStatistics{count=" + getCount() + ", total="
+                + getTotalTime() + ", max=" + getMaxTime() + "}";
+    }
+}
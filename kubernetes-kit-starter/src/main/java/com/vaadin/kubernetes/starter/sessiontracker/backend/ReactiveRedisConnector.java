@@ -0,0 +1,364 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.types.Expiration;
+import reactor.core.publisher.Mono;
+
+import com.vaadin.kubernetes.starter.ProductUtils;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.RedisConnector.KeyLayout;
+
+/**
+ * A non-blocking Redis {@link BackendConnector}, built on a
+ * {@link ReactiveRedisConnectionFactory}.
+ * <p>
+ * Keys and markers are the same as the ones of {@link RedisConnector}, so the
+ * two connectors can be used on the same data. With Lettuce, commands are sent
+ * on the shared multiplexed connection and concurrent operations are pipelined
+ * without holding a thread each; waits for a pending serialization poll the
+ * marker on a timer instead of sleeping the calling thread.
+ * <p>
+ * Reads from replicas are not supported; use {@link RedisConnector} for
+ * them.
+ */
+public class ReactiveRedisConnector implements AsyncBackendConnector {
+
+    static {
+        ProductUtils.markAsUsed(ReactiveRedisConnector.class.getSimpleName());
+    }
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(5);
+
+    private static final Duration SERIALIZATION_WAIT_TIMEOUT = Duration
+            .ofSeconds(5);
+
+    private final ReactiveRedisConnectionFactory connectionFactory;
+
+    private final KeyLayout keyLayout;
+
+    private final boolean legacyFallback;
+
+    /**
+     * Creates a new connector using the legacy key layout.
+     *
+     * @param connectionFactory
+     *            the reactive Redis connection factory.
+     */
+    public ReactiveRedisConnector(
+            ReactiveRedisConnectionFactory connectionFactory) {
+        this(connectionFactory, KeyLayout.LEGACY, false);
+    }
+
+    /**
+     * Creates a new connector using the given key layout.
+     *
+     * @param connectionFactory
+     *            the reactive Redis connection factory.
+     * @param keyLayout
+     *            the naming scheme of the Redis keys, not {@literal null}.
+     * @param legacyFallback
+     *            {@literal true} to also look up keys in the legacy layout,
+     *            as done by {@link RedisConnector}.
+     */
+    public ReactiveRedisConnector(
+            ReactiveRedisConnectionFactory connectionFactory,
+            KeyLayout keyLayout, boolean legacyFallback) {
+        this.connectionFactory = Objects.requireNonNull(connectionFactory,
+                "connectionFactory must not be null");
+        this.keyLayout = Objects.requireNonNull(keyLayout,
+                "keyLayout must not be null");
+        this.legacyFallback = legacyFallback && keyLayout != KeyLayout.LEGACY;
+    }
+
+    /**
+     * Gets the naming scheme of the Redis keys.
+     *
+     * @return the key layout.
+     */
+    public KeyLayout getKeyLayout() {
+        return keyLayout;
+    }
+
+    @Override
+    public CompletableFuture<Void> sendSessionAsync(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        getLogger().debug("Sending session {} to Redis", clusterKey);
+        return execute(connection -> set(connection,
+                keyLayout.sessionKey(clusterKey), sessionInfo.getDataBuffer(),
+                sessionInfo.getTimeToLive()))
+                .doOnSuccess(unused -> getLogger()
+                        .debug("Session {} sent to Redis", clusterKey))
+                .then().toFuture();
+    }
+
+    /**
+     * Stores the session with a {@code SET NX} command, so that data written
+     * concurrently by another node is never overwritten.
+     */
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        getLogger().debug("Sending session {} to Redis if absent", clusterKey);
+        Duration timeToLive = sessionInfo.getTimeToLive();
+        Boolean stored = execute(connection -> connection.stringCommands()
+                .set(wrap(keyLayout.sessionKey(clusterKey)),
+                        sessionInfo.getDataBuffer(),
+                        timeToLive.isZero() || timeToLive.isNegative()
+                                ? Expiration.persistent()
+                                : Expiration.from(timeToLive),
+                        RedisStringCommands.SetOption.SET_IF_ABSENT))
+                .block();
+        if (!Boolean.TRUE.equals(stored)) {
+            getLogger().debug("Session {} already stored in Redis",
+                    clusterKey);
+            return false;
+        }
+        getLogger().debug("Session {} sent to Redis", clusterKey);
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<SessionInfo> getSessionAsync(String clusterKey) {
+        getLogger().debug("Requesting session for {}", clusterKey);
+        return execute(connection -> awaitSerialization(connection,
+                clusterKey, "getting session")
+                .then(Mono.defer(() -> get(connection,
+                        keyLayout.sessionKey(clusterKey))))
+                .switchIfEmpty(Mono.defer(
+                        () -> getLegacy(connection, clusterKey))))
+                .map(data -> {
+                    SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                            Duration.ZERO, data, null);
+                    getLogger().debug("Received {}", sessionInfo);
+                    return sessionInfo;
+                }).toFuture();
+    }
+
+    /**
+     * Reads the header with a {@code GETRANGE} command, so that the rest of
+     * the payload is not transferred.
+     */
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        getLogger().debug("Requesting session header for {}", clusterKey);
+        ByteBuffer header = execute(connection -> awaitSerialization(
+                connection, clusterKey, "getting session")
+                .then(Mono.defer(() -> getRange(connection,
+                        keyLayout.sessionKey(clusterKey), length)))
+                .switchIfEmpty(Mono.defer(() -> legacyFallback
+                        ? getRange(connection,
+                                KeyLayout.LEGACY.sessionKey(clusterKey),
+                                length)
+                        : Mono.empty())))
+                .block();
+        if (header == null) {
+            return null;
+        }
+        return BackendUtil.header(header, header.remaining());
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteSessionAsync(String clusterKey) {
+        getLogger().debug("Deleting session for {}", clusterKey);
+        return execute(connection -> awaitSerialization(connection,
+                clusterKey, "deleting session").then(Mono.defer(() -> {
+                    if (keyLayout == KeyLayout.LEGACY) {
+                        return Mono.when(
+                                del(connection, keyLayout.sessionKey(clusterKey)),
+                                del(connection,
+                                        keyLayout.pendingKey(clusterKey)));
+                    }
+                    // keys share the hash slot, a single command is enough
+                    Mono<Long> deleted = connection.keyCommands()
+                            .mDel(List.of(
+                                    wrap(keyLayout.sessionKey(clusterKey)),
+                                    wrap(keyLayout.pendingKey(clusterKey))));
+                    if (legacyFallback) {
+                        return Mono.when(deleted,
+                                del(connection,
+                                        KeyLayout.LEGACY.sessionKey(clusterKey)),
+                                del(connection, KeyLayout.LEGACY
+                                        .pendingKey(clusterKey)));
+                    }
+                    return deleted.then();
+                }))).toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> markSerializationStartedAsync(
+            String clusterKey, Duration timeToLive) {
+        getLogger().debug("Marking serialization started for {}", clusterKey);
+        return execute(connection -> markOperationPending(connection,
+                keyLayout.pendingKey(clusterKey), timeToLive)).then()
+                .toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> markSerializationCompleteAsync(
+            String clusterKey) {
+        getLogger().debug("Marking serialization complete for {}", clusterKey);
+        return execute(
+                connection -> del(connection, keyLayout.pendingKey(clusterKey)))
+                .then().toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> markSerializationFailedAsync(
+            String clusterKey, Throwable error) {
+        getLogger().debug("Marking serialization failed for {}", clusterKey,
+                error);
+        return execute(
+                connection -> del(connection, keyLayout.pendingKey(clusterKey)))
+                .then().toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> markDeserializationStartedAsync(
+            String clusterKey, Duration timeToLive) {
+        getLogger().debug("Marking deserialization started for {}", clusterKey);
+        byte[] pendingKey = keyLayout.deserializationPendingKey(clusterKey);
+        return execute(connection -> connection.keyCommands()
+                .exists(wrap(pendingKey)).flatMap(exists -> {
+                    if (Boolean.TRUE.equals(exists)) {
+                        return Mono.just(false);
+                    }
+                    return markOperationPending(connection, pendingKey,
+                            timeToLive).thenReturn(true);
+                })).toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> markDeserializationCompleteAsync(
+            String clusterKey) {
+        getLogger().debug("Marking deserialization complete for {}",
+                clusterKey);
+        return execute(connection -> del(connection,
+                keyLayout.deserializationPendingKey(clusterKey))).then()
+                .toFuture();
+    }
+
+    @Override
+    public CompletableFuture<Void> markDeserializationFailedAsync(
+            String clusterKey, Throwable error) {
+        getLogger().debug("Marking deserialization failed for {}", clusterKey,
+                error);
+        return execute(connection -> del(connection,
+                keyLayout.deserializationPendingKey(clusterKey))).then()
+                .toFuture();
+    }
+
+    private <T> Mono<T> execute(
+            Function<ReactiveRedisConnection, Mono<T>> action) {
+        return Mono.usingWhen(
+                Mono.fromSupplier(connectionFactory::getReactiveConnection),
+                action, ReactiveRedisConnection::closeLater);
+    }
+
+    private Mono<ByteBuffer> getLegacy(ReactiveRedisConnection connection,
+            String clusterKey) {
+        if (!legacyFallback) {
+            return Mono.empty();
+        }
+        return get(connection, KeyLayout.LEGACY.sessionKey(clusterKey))
+                .doOnNext(data -> getLogger().debug(
+                        "Session {} found with legacy key layout",
+                        clusterKey));
+    }
+
+    private Mono<Void> awaitSerialization(ReactiveRedisConnection connection,
+            String clusterKey, String action) {
+        Mono<Void> wait = awaitSerialization(connection, clusterKey, action,
+                keyLayout.pendingKey(clusterKey));
+        if (legacyFallback) {
+            wait = wait.then(awaitSerialization(connection, clusterKey,
+                    action, KeyLayout.LEGACY.pendingKey(clusterKey)));
+        }
+        return wait;
+    }
+
+    private Mono<Void> awaitSerialization(ReactiveRedisConnection connection,
+            String clusterKey, String action, byte[] pendingKey) {
+        Mono<Boolean> completed = Mono
+                .defer(() -> connection.keyCommands().exists(wrap(pendingKey)))
+                .map(exists -> !exists);
+        return completed.flatMap(done -> {
+            if (done) {
+                return Mono.empty();
+            }
+            getLogger().debug(
+                    "Waiting for session to be serialized before {} {}",
+                    action, clusterKey);
+            return completed.filter(Boolean::booleanValue)
+                    .repeatWhenEmpty(
+                            attempts -> attempts.delayElements(POLL_INTERVAL))
+                    .timeout(SERIALIZATION_WAIT_TIMEOUT,
+                            Mono.fromRunnable(() -> getLogger().warn(
+                                    "Gave up waiting for the serialization result of {} before {}. The host probably crashed during serialization",
+                                    clusterKey, action)))
+                    .then();
+        });
+    }
+
+    private static Mono<ByteBuffer> get(ReactiveRedisConnection connection,
+            byte[] key) {
+        return connection.stringCommands().get(wrap(key));
+    }
+
+    private static Mono<ByteBuffer> getRange(
+            ReactiveRedisConnection connection, byte[] key, int length) {
+        // GETRANGE returns an empty value for a missing key
+        return connection.stringCommands().getRange(wrap(key), 0, length - 1)
+                .filter(ByteBuffer::hasRemaining);
+    }
+
+    private static Mono<Void> del(ReactiveRedisConnection connection,
+            byte[] key) {
+        return connection.keyCommands().del(wrap(key)).then();
+    }
+
+    private static Mono<Boolean> markOperationPending(
+            ReactiveRedisConnection connection, byte[] pendingKey,
+            Duration timeToLive) {
+        return set(connection, pendingKey,
+                ByteBuffer.wrap(
+                        BackendUtil.b("" + System.currentTimeMillis())),
+                timeToLive);
+    }
+
+    private static Mono<Boolean> set(ReactiveRedisConnection connection,
+            byte[] key, ByteBuffer value, Duration timeToLive) {
+        if (timeToLive.isZero() || timeToLive.isNegative()) {
+            return connection.stringCommands().set(wrap(key), value);
+        }
+        return connection.stringCommands().set(wrap(key), value,
+                Expiration.from(timeToLive),
+                RedisStringCommands.SetOption.UPSERT);
+    }
+
+    private static ByteBuffer wrap(byte[] key) {
+        return ByteBuffer.wrap(key);
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(ReactiveRedisConnector.class);
+    }
+}
@@ -10,6 +10,11 @@
 package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,14 +27,189 @@ import com.vaadin.kubernetes.starter.ProductUtils;
 
 public class RedisConnector implements BackendConnector {
 
+    /**
+     * Naming schemes of the Redis keys holding a session and its markers.
+     */
+    public enum KeyLayout {
+        /**
+         * Keys are {@code session-<key>}, {@code pending-<key>} and
+         * {@code pending-deserialization-<key>}. On Redis Cluster the keys of
+         * a session are usually stored in different hash slots.
+         */
+        LEGACY("", ""),
+        /**
+         * Keys are {@code session-{<key>}}, {@code pending-{<key>}} and
+         * {@code pending-deserialization-{<key>}}. The hash tag makes Redis
+         * Cluster store all the keys of a session in the same hash slot, so
+         * they can be used together in multi-key commands, transactions and
+         * scripts.
+         */
+        HASH_TAGGED("{", "}");
+
+        private final String open;
+        private final String close;
+
+        KeyLayout(String open, String close) {
+            this.open = open;
+            this.close = close;
+        }
+
+        /**
+         * Gets the key holding the session data.
+         *
+         * @param clusterKey
+         *            the cluster key of the session.
+         * @return the Redis key.
+         */
+        public byte[] sessionKey(String clusterKey) {
+            return key("session-", clusterKey);
+        }
+
+        /**
+         * Gets the key holding the serialization marker.
+         *
+         * @param clusterKey
+         *            the cluster key of the session.
+         * @return the Redis key.
+         */
+        public byte[] pendingKey(String clusterKey) {
+            return key("pending-", clusterKey);
+        }
+
+        /**
+         * Gets the key holding the deserialization marker.
+         *
+         * @param clusterKey
+         *            the cluster key of the session.
+         * @return the Redis key.
+         */
+        public byte[] deserializationPendingKey(String clusterKey) {
+            return key("pending-deserialization-", clusterKey);
+        }
+
+        /**
+         * Gets the key holding the version of the stored session data, used
+         * to verify that a replica is up to date.
+         *
+         * @param clusterKey
+         *            the cluster key of the session.
+         * @return the Redis key.
+         */
+        public byte[] versionKey(String clusterKey) {
+            return key("session-version-", clusterKey);
+        }
+
+        private byte[] key(String prefix, String clusterKey) {
+            return BackendUtil.b(prefix + open + clusterKey + close);
+        }
+    }
+
     static {
         ProductUtils.markAsUsed(RedisConnector.class.getSimpleName());
     }
 
     private final RedisConnectionFactory redisConnectionFactory;
 
+    private final RedisConnectionFactory replicaConnectionFactory;
+
+    private final KeyLayout keyLayout;
+
+    private final boolean legacyFallback;
+
+    private final LongAdder replicaReads = new LongAdder();
+
+    private final LongAdder staleReplicaReads = new LongAdder();
+
     public RedisConnector(RedisConnectionFactory redisConnectionFactory) {
+        this(redisConnectionFactory, KeyLayout.LEGACY, false);
+    }
+
+    /**
+     * Creates a new connector using the given key layout.
+     * <p>
+     * When migrating from the legacy layout, sessions and serialization
+     * markers stored with the legacy keys can still be found by enabling
+     * {@code legacyFallback}: reads not finding the session with the new key
+     * fall back to the legacy key, waits for serialization completion check
+     * both markers, and sessions are deleted under both keys. The fallback has
+     * no effect with the legacy layout.
+     *
+     * @param redisConnectionFactory
+     *            the Redis connection factory.
+     * @param keyLayout
+     *            the naming scheme of the Redis keys, not {@literal null}.
+     * @param legacyFallback
+     *            {@literal true} to also look up keys in the legacy layout.
+     */
+    public RedisConnector(RedisConnectionFactory redisConnectionFactory,
+            KeyLayout keyLayout, boolean legacyFallback) {
+        this(redisConnectionFactory, null, keyLayout, legacyFallback);
+    }
+
+    /**
+     * Creates a new connector that reads sessions from replicas when they are
+     * up to date.
+     * <p>
+     * Each write also stores a version key for the session. When restoring a
+     * session, the serialization marker and the version are checked on the
+     * primary, then version and data are read from the replica connection
+     * with a single {@code MGET}: if the replica version differs from the
+     * primary one, the replica is behind and the data is read from the
+     * primary. Only the small version key is read from the primary for
+     * sessions served by replicas.
+     * <p>
+     * Data and version are written in one round trip: in a {@code MULTI}
+     * transaction with the {@link KeyLayout#HASH_TAGGED} layout, pipelined
+     * otherwise. With Redis Cluster, use the {@link KeyLayout#HASH_TAGGED}
+     * layout, so that both keys are in the same slot and the {@code MGET} is
+     * served by a single replica.
+     *
+     * @param redisConnectionFactory
+     *            the connection factory of the Redis primary.
+     * @param replicaConnectionFactory
+     *            the connection factory of the Redis replicas, or
+     *            {@literal null} to read only from the primary.
+     * @param keyLayout
+     *            the naming scheme of the Redis keys, not {@literal null}.
+     * @param legacyFallback
+     *            {@literal true} to also look up keys in the legacy layout.
+     */
+    public RedisConnector(RedisConnectionFactory redisConnectionFactory,
+            RedisConnectionFactory replicaConnectionFactory,
+            KeyLayout keyLayout, boolean legacyFallback) {
         this.redisConnectionFactory = redisConnectionFactory;
+        this.replicaConnectionFactory = replicaConnectionFactory;
+        this.keyLayout = Objects.requireNonNull(keyLayout,
+                "keyLayout must not be null");
+        this.legacyFallback = legacyFallback && keyLayout != KeyLayout.LEGACY;
+    }
+
+    /**
+     * Gets the naming scheme of the Redis keys.
+     *
+     * @return the key layout.
+     */
+    public KeyLayout getKeyLayout() {
+        return keyLayout;
+    }
+
+    /**
+     * Gets the number of sessions read from a replica.
+     *
+     * @return the number of replica reads.
+     */
+    public long getReplicaReads() {
+        return replicaReads.sum();
+    }
+
+    /**
+     * Gets the number of session reads that found the replica behind the
+     * primary and were served by the primary.
+     *
+     * @return the number of stale replica reads.
+     */
+    public long getStaleReplicaReads() {
+        return staleReplicaReads.sum();
     }
 
     @Override
@@ -38,22 +218,52 @@ public class RedisConnector implements BackendConnector {
                 sessionInfo.getClusterKey());
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
-            byte[] key = getKey(sessionInfo.getClusterKey());
+            byte[] key = keyLayout.sessionKey(sessionInfo.getClusterKey());
             Duration timeToLive = sessionInfo.getTimeToLive();
-            if (timeToLive.isZero() || timeToLive.isNegative()) {
-                connection.stringCommands().set(key, sessionInfo.getData());
+            if (replicaConnectionFactory == null) {
+                set(connection, key, sessionInfo.getData(), timeToLive);
             } else {
-                connection.stringCommands().set(key, sessionInfo.getData(),
-                        Expiration.from(timeToLive),
-                        RedisStringCommands.SetOption.UPSERT);
+                setWithVersion(connection, sessionInfo.getClusterKey(),
+                        sessionInfo.getData(), timeToLive);
             }
             getLogger().debug("Session {} sent to Redis",
                     sessionInfo.getClusterKey());
         }
     }
 
+    /**
+     * Stores the session with a {@code SET NX} command, so that data written
+     * concurrently by another node is never overwritten.
+     */
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        getLogger().debug("Sending session {} to Redis if absent", clusterKey);
+        try (RedisConnection connection = redisConnectionFactory
+                .getConnection()) {
+            Duration timeToLive = sessionInfo.getTimeToLive();
+            Boolean stored = connection.stringCommands().set(
+                    keyLayout.sessionKey(clusterKey), sessionInfo.getData(),
+                    timeToLive.isZero() || timeToLive.isNegative()
+                            ? Expiration.persistent()
+                            : Expiration.from(timeToLive),
+                    RedisStringCommands.SetOption.SET_IF_ABSENT);
+            if (!Boolean.TRUE.equals(stored)) {
+                getLogger().debug("Session {} already stored in Redis",
+                        clusterKey);
+                return false;
+            }
+            if (replicaConnectionFactory != null) {
+                set(connection, keyLayout.versionKey(clusterKey),
+                        newVersion(), timeToLive);
+            }
+            getLogger().debug("Session {} sent to Redis", clusterKey);
+            return true;
+        }
+    }
+
     static byte[] getKey(String clusterKey) {
-        return BackendUtil.b("session-" + clusterKey);
+        return KeyLayout.LEGACY.sessionKey(clusterKey);
     }
 
     @Override
@@ -64,7 +274,22 @@ public class RedisConnector implements BackendConnector {
             waitForSerializationCompletion(clusterKey, "getting session",
                     connection);
 
-            byte[] data = connection.stringCommands().get(getKey(clusterKey));
+            byte[] data = null;
+            if (replicaConnectionFactory != null) {
+                data = getFromReplica(clusterKey, connection);
+            }
+            if (data == null) {
+                data = connection.stringCommands()
+                        .get(keyLayout.sessionKey(clusterKey));
+            }
+            if (data == null && legacyFallback) {
+                data = connection.stringCommands().get(getKey(clusterKey));
+                if (data != null) {
+                    getLogger().debug(
+                            "Session {} found with legacy key layout",
+                            clusterKey);
+                }
+            }
             if (data == null) {
                 return null;
             }
@@ -75,6 +300,109 @@ public class RedisConnector implements BackendConnector {
         }
     }
 
+    /**
+     * Reads the header with a {@code GETRANGE} command on the primary, so
+     * that the rest of the payload is not transferred.
+     */
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        getLogger().debug("Requesting session header for {}", clusterKey);
+        try (RedisConnection connection = redisConnectionFactory
+                .getConnection()) {
+            waitForSerializationCompletion(clusterKey, "getting session",
+                    connection);
+
+            // GETRANGE returns an empty value for a missing key
+            byte[] header = connection.stringCommands()
+                    .getRange(keyLayout.sessionKey(clusterKey), 0, length - 1);
+            if ((header == null || header.length == 0) && legacyFallback) {
+                header = connection.stringCommands()
+                        .getRange(getKey(clusterKey), 0, length - 1);
+            }
+            return header == null || header.length == 0 ? null : header;
+        }
+    }
+
+    private byte[] getFromReplica(String clusterKey,
+            RedisConnection primary) {
+        byte[] versionKey = keyLayout.versionKey(clusterKey);
+        byte[] version = primary.stringCommands().get(versionKey);
+        if (version == null) {
+            // not written with a version, only the primary is reliable
+            return null;
+        }
+        try (RedisConnection replica = replicaConnectionFactory
+                .getConnection()) {
+            // a single command, so version and data come from the same
+            // replica at the same point of its replication stream
+            List<byte[]> values = replica.stringCommands().mGet(versionKey,
+                    keyLayout.sessionKey(clusterKey));
+            if (values != null && values.size() == 2
+                    && Arrays.equals(version, values.get(0))) {
+                byte[] data = values.get(1);
+                if (data != null) {
+                    replicaReads.increment();
+                    getLogger().debug("Session {} read from replica",
+                            clusterKey);
+                    return data;
+                }
+            }
+            staleReplicaReads.increment();
+            getLogger().debug(
+                    "Replica is behind primary for session {}, reading from primary",
+                    clusterKey);
+        } catch (RuntimeException e) {
+            getLogger().debug(
+                    "Unable to read session {} from replica, reading from primary",
+                    clusterKey, e);
+        }
+        return null;
+    }
+
+    private void setWithVersion(RedisConnection connection,
+            String clusterKey, byte[] data, Duration timeToLive) {
+        byte[] sessionKey = keyLayout.sessionKey(clusterKey);
+        byte[] versionKey = keyLayout.versionKey(clusterKey);
+        // the version is written after the data, so a replica having the
+        // version also has the data
+        if (keyLayout == KeyLayout.HASH_TAGGED) {
+            // same slot, both keys are updated atomically
+            connection.multi();
+            try {
+                set(connection, sessionKey, data, timeToLive);
+                set(connection, versionKey, newVersion(), timeToLive);
+            } catch (RuntimeException e) {
+                connection.discard();
+                throw e;
+            }
+            connection.exec();
+        } else {
+            connection.openPipeline();
+            try {
+                set(connection, sessionKey, data, timeToLive);
+                set(connection, versionKey, newVersion(), timeToLive);
+            } finally {
+                connection.closePipeline();
+            }
+        }
+    }
+
+    private static byte[] newVersion() {
+        return BackendUtil.b(Long.toHexString(System.currentTimeMillis())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+    }
+
+    private static void set(RedisConnection connection, byte[] key,
+            byte[] value, Duration timeToLive) {
+        if (timeToLive.isZero() || timeToLive.isNegative()) {
+            connection.stringCommands().set(key, value);
+        } else {
+            connection.stringCommands().set(key, value,
+                    Expiration.from(timeToLive),
+                    RedisStringCommands.SetOption.UPSERT);
+        }
+    }
+
     private static Logger getLogger() {
         return LoggerFactory.getLogger(RedisConnector.class);
     }
@@ -86,7 +414,7 @@ public class RedisConnector implements BackendConnector {
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
             markOperationPending(connection, timeToLive,
-                    getPendingKey(clusterKey));
+                    keyLayout.pendingKey(clusterKey));
         }
     }
 
@@ -95,7 +423,7 @@ public class RedisConnector implements BackendConnector {
         getLogger().debug("Marking serialization complete for {}", clusterKey);
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
-            connection.keyCommands().del(getPendingKey(clusterKey));
+            connection.keyCommands().del(keyLayout.pendingKey(clusterKey));
         }
     }
 
@@ -105,7 +433,7 @@ public class RedisConnector implements BackendConnector {
                 error);
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
-            connection.keyCommands().del(getPendingKey(clusterKey));
+            connection.keyCommands().del(keyLayout.pendingKey(clusterKey));
         }
     }
 
@@ -116,7 +444,8 @@ public class RedisConnector implements BackendConnector {
 
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
-            byte[] pendingKey = getDeserializationPendingKey(clusterKey);
+            byte[] pendingKey = keyLayout
+                    .deserializationPendingKey(clusterKey);
             if (Boolean.TRUE
                     .equals(connection.keyCommands().exists(pendingKey))) {
                 return false;
@@ -133,7 +462,7 @@ public class RedisConnector implements BackendConnector {
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
             connection.keyCommands()
-                    .del(getDeserializationPendingKey(clusterKey));
+                    .del(keyLayout.deserializationPendingKey(clusterKey));
         }
     }
 
@@ -144,7 +473,7 @@ public class RedisConnector implements BackendConnector {
         try (RedisConnection connection = redisConnectionFactory
                 .getConnection()) {
             connection.keyCommands()
-                    .del(getDeserializationPendingKey(clusterKey));
+                    .del(keyLayout.deserializationPendingKey(clusterKey));
         }
     }
 
@@ -155,19 +484,34 @@ public class RedisConnector implements BackendConnector {
                 .getConnection()) {
             waitForSerializationCompletion(clusterKey, "deleting session",
                     connection);
-            connection.keyCommands().del(getKey(clusterKey));
-            connection.keyCommands().del(getPendingKey(clusterKey));
+            if (keyLayout == KeyLayout.LEGACY) {
+                connection.keyCommands().del(getKey(clusterKey));
+                connection.keyCommands().del(getPendingKey(clusterKey));
+                if (replicaConnectionFactory != null) {
+                    connection.keyCommands()
+                            .del(keyLayout.versionKey(clusterKey));
+                }
+            } else {
+                // keys share the hash slot, a single command is enough
+                connection.keyCommands().del(keyLayout.sessionKey(clusterKey),
+                        keyLayout.pendingKey(clusterKey),
+                        keyLayout.versionKey(clusterKey));
+                if (legacyFallback) {
+                    connection.keyCommands().del(getKey(clusterKey));
+                    connection.keyCommands().del(getPendingKey(clusterKey));
+                }
+            }
         }
     }
 
     // For backward compatibility use empty operation to identify serialization
 
     static byte[] getPendingKey(String clusterKey) {
-        return BackendUtil.b("pending-" + clusterKey);
+        return KeyLayout.LEGACY.pendingKey(clusterKey);
     }
 
     static byte[] getDeserializationPendingKey(String clusterKey) {
-        return BackendUtil.b("pending-deserialization-" + clusterKey);
+        return KeyLayout.LEGACY.deserializationPendingKey(clusterKey);
     }
 
     private void markOperationPending(RedisConnection connection,
@@ -185,7 +529,16 @@ public class RedisConnector implements BackendConnector {
 
     private void waitForSerializationCompletion(String clusterKey,
             String action, RedisConnection connection) {
-        byte[] pendingKey = getPendingKey(clusterKey);
+        waitForSerializationCompletion(clusterKey, action, connection,
+                keyLayout.pendingKey(clusterKey));
+        if (legacyFallback) {
+            waitForSerializationCompletion(clusterKey, action, connection,
+                    getPendingKey(clusterKey));
+        }
+    }
+
+    private void waitForSerializationCompletion(String clusterKey,
+            String action, RedisConnection connection, byte[] pendingKey) {
         if (Boolean.TRUE.equals(connection.keyCommands().exists(pendingKey))) {
             long timeout = System.currentTimeMillis() + 5000;
             getLogger().debug(
@@ -9,14 +9,25 @@
  */
 package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Holder for serialized session attributes.
+ * <p>
+ * Data can be held either in a heap {@code byte[]} or in a {@link ByteBuffer},
+ * possibly direct and taken from a pool. Buffer backed instances may have a
+ * release action that gives the buffer back to its owner; it is executed at
+ * most once by {@link #release()}, after which the data must not be accessed
+ * anymore.
  */
 public class SessionInfo {
     private final String clusterKey;
     private final byte[] data;
+    private final ByteBuffer buffer;
+    private final Runnable releaseAction;
+    private final AtomicBoolean released = new AtomicBoolean();
     private final Duration timeToLive;
 
     /**
@@ -28,9 +39,7 @@ public class SessionInfo {
      *            serialized session attributes in binary format.
      */
     public SessionInfo(String clusterKey, byte[] data) {
-        this.clusterKey = clusterKey;
-        this.data = data;
-        this.timeToLive = Duration.ZERO;
+        this(clusterKey, Duration.ZERO, data);
     }
 
     /**
@@ -48,6 +57,36 @@ public class SessionInfo {
     public SessionInfo(String clusterKey, Duration timeToLive, byte[] data) {
         this.clusterKey = clusterKey;
         this.data = data;
+        this.buffer = null;
+        this.releaseAction = null;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Creates a new {@link SessionInfo} for the given distributed storage key,
+     * backed by a {@link ByteBuffer}.
+     * <p>
+     * The remaining content of the buffer is the serialized data. The buffer
+     * must not be modified while this instance is in use.
+     *
+     * @param clusterKey
+     *            the distributed storage key.
+     * @param timeToLive
+     *            the maximum amount of time an inactive session should be
+     *            preserved in the backed. A zero or negative value means the
+     *            session should not be evicted.
+     * @param data
+     *            serialized session attributes in binary format.
+     * @param releaseAction
+     *            action to execute when the data is no longer needed, can be
+     *            {@literal null}.
+     */
+    public SessionInfo(String clusterKey, Duration timeToLive, ByteBuffer data,
+            Runnable releaseAction) {
+        this.clusterKey = clusterKey;
+        this.data = null;
+        this.buffer = data;
+        this.releaseAction = releaseAction;
         this.timeToLive = timeToLive;
     }
 
@@ -62,11 +101,63 @@ public class SessionInfo {
 
     /**
      * Gets serialized session attributes in binary format.
+     * <p>
+     * For buffer backed instances, a new array with a copy of the data is
+     * returned on every call; use {@link #getDataBuffer()} to access the data
+     * without copying it.
      *
      * @return the serialized session attributes in binary format
      */
     public byte[] getData() {
-        return data;
+        if (buffer == null) {
+            return data;
+        }
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Gets serialized session attributes in binary format as a
+     * {@link ByteBuffer}, without copying them.
+     * <p>
+     * The returned buffer has an independent position and limit, and its
+     * remaining content is the serialized data. It may be direct or read-only
+     * and must not be used after {@link #release()} has been called.
+     *
+     * @return the serialized session attributes, or {@literal null} if the
+     *         instance holds no data.
+     */
+    public ByteBuffer getDataBuffer() {
+        if (buffer != null) {
+            return buffer.duplicate();
+        }
+        return data != null ? ByteBuffer.wrap(data) : null;
+    }
+
+    /**
+     * Gets the size of the serialized session attributes.
+     *
+     * @return the size of the serialized data, in bytes.
+     */
+    public int getSize() {
+        if (buffer != null) {
+            return buffer.remaining();
+        }
+        return data != null ? data.length : 0;
+    }
+
+    /**
+     * Releases resources held by this instance, for example giving a pooled
+     * buffer back to its pool.
+     * <p>
+     * Only the first call has effect. Instances backed by a {@code byte[]}
+     * have nothing to release.
+     */
+    public void release() {
+        if (releaseAction != null && released.compareAndSet(false, true)) {
+            releaseAction.run();
+        }
     }
 
     /**
@@ -0,0 +1,356 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} that spreads sessions across multiple
+ * connectors, using consistent hashing on the cluster key.
+ * <p>
+ * Each shard is placed on a hash ring at a number of virtual node positions;
+ * a cluster key belongs to the shard of the first virtual node following the
+ * hash of the key. All operations for a cluster key, including serialization
+ * and deserialization markers, are routed to the same shard. Shards can be
+ * any mix of connectors.
+ * <p>
+ * When a shard is added with {@link #addShard(BackendConnector)}, only the
+ * keys whose position now falls on the new shard change owner. Sessions are
+ * moved gradually: new writes go to the new owner, and reads not found on the
+ * new owner fall back to the previous one, moving the session to the new
+ * owner when found. The copy is written with
+ * {@link BackendConnector#sendSessionIfAbsent(SessionInfo)}, so it never
+ * overwrites a newer snapshot written to the new owner in the meantime;
+ * shards should therefore implement it atomically, as the built-in
+ * connectors and decorators do. Once all moved sessions have been written
+ * again or have expired, {@link #completeRebalancing()} discards the
+ * previous layout.
+ * <p>
+ * The layout must be the same on all the nodes of the cluster: shards must
+ * be added on all nodes together, in the same order, and before any node
+ * writes sessions with the new layout. A node still using the previous
+ * layout would write and read sessions on the previous owner, where the
+ * other nodes no longer look for them once rebalancing is complete.
+ */
+public class ShardedBackendConnector implements BackendConnector {
+
+    /**
+     * Default number of virtual nodes per shard.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+
+    private volatile Ring ring;
+
+    // layout before the latest shard addition, null when not rebalancing
+    private volatile Ring previousRing;
+
+    private final LongAdder fallbackReads = new LongAdder();
+
+    private final LongAdder migrations = new LongAdder();
+
+    /**
+     * Creates a new sharded connector with the default number of virtual
+     * nodes.
+     *
+     * @param shards
+     *            the connectors to spread sessions on, not empty.
+     */
+    public ShardedBackendConnector(List<? extends BackendConnector> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates a new sharded connector.
+     *
+     * @param shards
+     *            the connectors to spread sessions on, not empty.
+     * @param virtualNodes
+     *            the number of positions of each shard on the hash ring;
+     *            more positions give a more even distribution.
+     */
+    public ShardedBackendConnector(List<? extends BackendConnector> shards,
+            int virtualNodes) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "At least one shard is required");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException(
+                    "Virtual nodes must be greater than zero");
+        }
+        this.virtualNodes = virtualNodes;
+        this.ring = Ring.of(List.copyOf(shards), virtualNodes);
+    }
+
+    /**
+     * Gets the shards, in the order they have been added.
+     *
+     * @return the shards, never {@literal null}.
+     */
+    public List<BackendConnector> getShards() {
+        return ring.shards();
+    }
+
+    /**
+     * Gets the shard that owns the given cluster key.
+     *
+     * @param clusterKey
+     *            the cluster key.
+     * @return the owning shard.
+     */
+    public BackendConnector getShard(String clusterKey) {
+        return ring.shardFor(clusterKey);
+    }
+
+    /**
+     * Gets if sessions are being moved after a shard addition.
+     *
+     * @return {@literal true} if reads may fall back to the previous layout.
+     */
+    public boolean isRebalancing() {
+        return previousRing != null;
+    }
+
+    /**
+     * Gets the number of sessions read from their previous owner during
+     * rebalancing.
+     *
+     * @return the number of fallback reads.
+     */
+    public long getFallbackReads() {
+        return fallbackReads.sum();
+    }
+
+    /**
+     * Gets the number of sessions moved to their new owner on read.
+     *
+     * @return the number of moved sessions.
+     */
+    public long getMigrations() {
+        return migrations.sum();
+    }
+
+    /**
+     * Adds a shard. The keys that now belong to the new shard are moved
+     * gradually, see {@link ShardedBackendConnector}.
+     * <p>
+     * The same shards must be added, in the same order, on all the nodes of
+     * the cluster together.
+     *
+     * @param shard
+     *            the connector to add, not {@literal null}.
+     */
+    public synchronized void addShard(BackendConnector shard) {
+        Objects.requireNonNull(shard, "shard must not be null");
+        Ring current = ring;
+        List<BackendConnector> shards = new ArrayList<>(current.shards());
+        shards.add(shard);
+        if (previousRing == null) {
+            previousRing = current;
+        }
+        // with multiple additions the oldest layout is kept as fallback
+        ring = Ring.of(List.copyOf(shards), virtualNodes);
+        getLogger().info("Added session backend shard, {} shards in total",
+                shards.size());
+    }
+
+    /**
+     * Stops falling back to the layout in use before the latest shard
+     * additions. Sessions not moved yet are no longer found.
+     */
+    public synchronized void completeRebalancing() {
+        previousRing = null;
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        ring.shardFor(sessionInfo.getClusterKey()).sendSession(sessionInfo);
+    }
+
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        return ring.shardFor(sessionInfo.getClusterKey())
+                .sendSessionIfAbsent(sessionInfo);
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        BackendConnector owner = ring.shardFor(clusterKey);
+        SessionInfo sessionInfo = owner.getSession(clusterKey);
+        Ring previous = previousRing;
+        if (sessionInfo != null || previous == null) {
+            return sessionInfo;
+        }
+        BackendConnector previousOwner = previous.shardFor(clusterKey);
+        if (previousOwner == owner) {
+            return null;
+        }
+        sessionInfo = previousOwner.getSession(clusterKey);
+        if (sessionInfo == null) {
+            return null;
+        }
+        fallbackReads.increment();
+        try {
+            if (owner.sendSessionIfAbsent(sessionInfo)) {
+                migrations.increment();
+            } else {
+                // written by a node using the new layout since the read,
+                // the previous copy is stale
+                getLogger().debug(
+                        "Session {} written to its new shard while moving it, using the newer copy",
+                        clusterKey);
+                SessionInfo newer = owner.getSession(clusterKey);
+                if (newer != null) {
+                    sessionInfo = newer;
+                }
+            }
+            previousOwner.deleteSession(clusterKey);
+        } catch (RuntimeException e) {
+            getLogger().warn(
+                    "Unable to move session {} to its new shard, it will be moved on next write",
+                    clusterKey, e);
+        }
+        return sessionInfo;
+    }
+
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        BackendConnector owner = ring.shardFor(clusterKey);
+        byte[] header = owner.getSessionHeader(clusterKey, length);
+        Ring previous = previousRing;
+        if (header != null || previous == null) {
+            return header;
+        }
+        // not moved yet, it is moved by the next full read
+        BackendConnector previousOwner = previous.shardFor(clusterKey);
+        return previousOwner != owner
+                ? previousOwner.getSessionHeader(clusterKey, length)
+                : null;
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        BackendConnector owner = ring.shardFor(clusterKey);
+        owner.deleteSession(clusterKey);
+        Ring previous = previousRing;
+        if (previous != null) {
+            BackendConnector previousOwner = previous.shardFor(clusterKey);
+            if (previousOwner != owner) {
+                previousOwner.deleteSession(clusterKey);
+            }
+        }
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        ring.shardFor(clusterKey).markSerializationStarted(clusterKey,
+                timeToLive);
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        ring.shardFor(clusterKey).markSerializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        ring.shardFor(clusterKey).markSerializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return ring.shardFor(clusterKey).markDeserializationStarted(clusterKey,
+                timeToLive);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        ring.shardFor(clusterKey).markDeserializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        ring.shardFor(clusterKey).markDeserializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean completed = true;
+        for (BackendConnector shard : ring.shards()) {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            completed &= shard
+                    .awaitPendingOperations(Duration.ofNanos(remaining));
+        }
+        return completed;
+    }
+
+    /**
+     * Computes the 64-bit hash of a string: FNV-1a over the UTF-8 bytes,
+     * followed by the MurmurHash3 finalizer to spread nearby values.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(ShardedBackendConnector.class);
+    }
+
+    private record Ring(List<BackendConnector> shards,
+            NavigableMap<Long, BackendConnector> nodes) {
+
+        static Ring of(List<BackendConnector> shards, int virtualNodes) {
+            NavigableMap<Long, BackendConnector> nodes = new TreeMap<>();
+            for (int shard = 0; shard < shards.size(); shard++) {
+                for (int node = 0; node < virtualNodes; node++) {
+                    // positions depend only on the shard index, so existing
+                    // shards keep their positions when a shard is added
+                    nodes.putIfAbsent(hash("shard-" + shard + "#" + node),
+                            shards.get(shard));
+                }
+            }
+            return new Ring(shards, nodes);
+        }
+
+        BackendConnector shardFor(String clusterKey) {
+            Map.Entry<Long, BackendConnector> entry = nodes
+                    .ceilingEntry(hash(clusterKey));
+            return entry != null ? entry.getValue()
+                    : nodes.firstEntry().getValue();
+        }
+    }
+}
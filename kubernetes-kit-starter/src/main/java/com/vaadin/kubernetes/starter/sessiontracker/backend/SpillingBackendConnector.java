@@ -0,0 +1,576 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} decorator that persists session writes failed
+ * by the decorated connector to a local spill log, and replays them once the
+ * decorated connector accepts writes again.
+ * <p>
+ * The spill log is a {@link FileSystemConnector}: an append-only log with an
+ * index of the latest record of each cluster key, so only the newest
+ * snapshot of a session is kept and replayed. Spilled sessions are replayed
+ * periodically, in the order they have been spilled, and when pending
+ * operations are awaited on shutdown; whatever can not be replayed is forced
+ * to disk and replayed by the next connector opened on the same directory. A
+ * successful write of a newer snapshot to the decorated connector discards
+ * the spilled one.
+ * <p>
+ * Failed writes are not reported to the caller once spilled. When the spilled
+ * data exceeds the configured size, further failed writes are dropped and
+ * their error is propagated.
+ * <p>
+ * Until it has been replayed, a spilled session is newer than the copy held
+ * by the decorated connector, so reads of spilled sessions are served from
+ * the spill log.
+ * <p>
+ * Spilled sessions are replayed holding the serialization marker of the
+ * session on the decorated connector, like regular writes. Since another
+ * node may take over the session and write a newer snapshot while the
+ * session is spilled, the connector keeps a checksum of the copy last known
+ * to be held by the decorated connector, that is the latest one written or
+ * read through this connector, and stores it with each spilled session. A
+ * spilled session is only replayed if the decorated connector still holds
+ * that copy, or no copy at all; otherwise the spilled session is discarded.
+ * A write of another node starting between this check and the acquisition
+ * of the marker is still overwritten.
+ * <p>
+ * A replay acquires the serialization marker before the lock guarding the
+ * spilled session, in the same order as a serializer writing the session,
+ * and waits for the marker of another writer without holding that lock.
+ */
+public class SpillingBackendConnector implements BackendConnector, Closeable {
+
+    private static final int LOCK_STRIPES = 64;
+
+    // spill log entry holding the checksum of the copy known to be held by
+    // the decorated connector when the session was spilled
+    private static final String BASE_SUFFIX = ":spill-base";
+
+    private static final Duration REPLAY_MARKER_TIME_TO_LIVE = Duration
+            .ofSeconds(30);
+
+    private enum ReplayOutcome {
+        REPLAYED, DISCARDED, SKIPPED
+    }
+
+    private final BackendConnector delegate;
+
+    private final FileSystemConnector spill;
+
+    private final long maxSpillBytes;
+
+    private final ScheduledExecutorService scheduler;
+
+    // clusterKey -> spilled size, in spill order, guarded by itself
+    private final Map<String, Integer> spilled = new LinkedHashMap<>();
+
+    // guarded by spilled
+    private long spilledBytes;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // clusterKey -> checksum of the copy held by the decorated connector
+    private final Map<String, Long> delegateChecksums = new ConcurrentHashMap<>();
+
+    private final LongAdder spills = new LongAdder();
+
+    private final LongAdder replays = new LongAdder();
+
+    private final LongAdder drops = new LongAdder();
+
+    private final LongAdder discards = new LongAdder();
+
+    /**
+     * Creates a new spilling connector.
+     *
+     * @param delegate
+     *            the connector that stores sessions, not {@literal null}.
+     * @param spill
+     *            the log that holds failed writes, not {@literal null}. It is
+     *            closed together with this connector.
+     * @param maxSpillBytes
+     *            the maximum amount of spilled session data.
+     * @param replayInterval
+     *            the interval between attempts to replay spilled sessions. A
+     *            zero or negative value disables periodic replay.
+     */
+    public SpillingBackendConnector(BackendConnector delegate,
+            FileSystemConnector spill, long maxSpillBytes,
+            Duration replayInterval) {
+        this.delegate = Objects.requireNonNull(delegate,
+                "delegate must not be null");
+        this.spill = Objects.requireNonNull(spill, "spill must not be null");
+        this.maxSpillBytes = maxSpillBytes;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        List<String> spillKeys = spill.getClusterKeys();
+        Set<String> spillKeySet = Set.copyOf(spillKeys);
+        for (String clusterKey : spillKeys) {
+            if (clusterKey.endsWith(BASE_SUFFIX)) {
+                if (!spillKeySet.contains(clusterKey.substring(0,
+                        clusterKey.length() - BASE_SUFFIX.length()))) {
+                    // left behind by a crash while spilling
+                    spill.deleteSession(clusterKey);
+                }
+                continue;
+            }
+            SessionInfo info = spill.getSession(clusterKey);
+            if (info != null) {
+                spilled.put(clusterKey, info.getSize());
+                spilledBytes += info.getSize();
+            }
+        }
+        if (!spilled.isEmpty()) {
+            getLogger().info("Found {} spilled sessions to replay",
+                    spilled.size());
+        }
+        if (replayInterval != null && !replayInterval.isZero()
+                && !replayInterval.isNegative()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "spillingBackend-replay");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long millis = replayInterval.toMillis();
+            scheduler.scheduleWithFixedDelay(this::replaySafely, millis,
+                    millis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the decorated connector.
+     *
+     * @return the decorated connector.
+     */
+    public BackendConnector getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the number of sessions waiting in the spill log.
+     *
+     * @return the number of spilled sessions.
+     */
+    public int getSpilledCount() {
+        synchronized (spilled) {
+            return spilled.size();
+        }
+    }
+
+    /**
+     * Gets the amount of session data waiting in the spill log.
+     *
+     * @return the spilled bytes.
+     */
+    public long getSpilledBytes() {
+        synchronized (spilled) {
+            return spilledBytes;
+        }
+    }
+
+    /**
+     * Gets the number of failed writes persisted to the spill log.
+     *
+     * @return the number of spilled writes.
+     */
+    public long getSpills() {
+        return spills.sum();
+    }
+
+    /**
+     * Gets the number of spilled sessions written to the decorated connector.
+     *
+     * @return the number of replayed sessions.
+     */
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    /**
+     * Gets the number of spilled sessions discarded instead of being
+     * replayed, because the decorated connector held a newer copy.
+     *
+     * @return the number of discarded sessions.
+     */
+    public long getDiscards() {
+        return discards.sum();
+    }
+
+    /**
+     * Gets the number of failed writes not spilled because the spill log was
+     * full.
+     *
+     * @return the number of dropped writes.
+     */
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        if (!isSpilled(clusterKey)) {
+            try {
+                delegate.sendSession(sessionInfo);
+                delegateChecksums.put(clusterKey, checksum(sessionInfo));
+                return;
+            } catch (RuntimeException e) {
+                spillOrThrow(sessionInfo, e);
+                return;
+            }
+        }
+        // serialize with the replay of the same session
+        synchronized (lockFor(clusterKey)) {
+            try {
+                delegate.sendSession(sessionInfo);
+                delegateChecksums.put(clusterKey, checksum(sessionInfo));
+                unspill(clusterKey);
+            } catch (RuntimeException e) {
+                spillOrThrow(sessionInfo, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the session only if neither the spill log nor the decorated
+     * connector hold it. Failed conditional writes are not spilled, since
+     * their replay would not be conditional, but propagated to the caller.
+     */
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        String clusterKey = sessionInfo.getClusterKey();
+        if (isSpilled(clusterKey)) {
+            return false;
+        }
+        if (!delegate.sendSessionIfAbsent(sessionInfo)) {
+            return false;
+        }
+        delegateChecksums.put(clusterKey, checksum(sessionInfo));
+        return true;
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        if (isSpilled(clusterKey)) {
+            synchronized (lockFor(clusterKey)) {
+                if (isSpilled(clusterKey)) {
+                    SessionInfo info = spill.getSession(clusterKey);
+                    if (info != null) {
+                        return info;
+                    }
+                }
+            }
+        }
+        SessionInfo info = delegate.getSession(clusterKey);
+        if (info != null) {
+            delegateChecksums.put(clusterKey, checksum(info));
+        } else {
+            delegateChecksums.remove(clusterKey);
+        }
+        return info;
+    }
+
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        if (isSpilled(clusterKey)) {
+            SessionInfo info = getSession(clusterKey);
+            return info != null
+                    ? BackendUtil.header(info.getDataBuffer(), length)
+                    : null;
+        }
+        return delegate.getSessionHeader(clusterKey, length);
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        if (isSpilled(clusterKey)) {
+            synchronized (lockFor(clusterKey)) {
+                unspill(clusterKey);
+            }
+        }
+        delegateChecksums.remove(clusterKey);
+        delegate.deleteSession(clusterKey);
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        delegate.markSerializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        delegate.markSerializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        delegate.markSerializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return delegate.markDeserializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        delegate.markDeserializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        delegate.markDeserializationFailed(clusterKey, error);
+    }
+
+    /**
+     * Replays spilled sessions and forces the remaining ones to disk.
+     *
+     * @param timeout
+     *            the maximum amount of time to wait for the decorated
+     *            connector.
+     * @return {@literal true} if all spilled sessions have been replayed and
+     *         pending operations of the decorated connector have completed.
+     */
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        replay();
+        boolean spillFlushed = spill.awaitPendingOperations(timeout);
+        int remaining = getSpilledCount();
+        if (remaining > 0) {
+            getLogger().warn(
+                    "{} spilled sessions could not be replayed and are kept for the next start",
+                    remaining);
+        }
+        long left = Math.max(0, deadline - System.nanoTime());
+        return delegate.awaitPendingOperations(Duration.ofNanos(left))
+                && spillFlushed && remaining == 0;
+    }
+
+    /**
+     * Writes spilled sessions to the decorated connector, in the order they
+     * have been spilled, stopping at the first failure. Spilled sessions
+     * superseded by a newer copy on the decorated connector are discarded.
+     *
+     * @return the number of replayed sessions.
+     */
+    public int replay() {
+        List<String> keys;
+        synchronized (spilled) {
+            keys = List.copyOf(spilled.keySet());
+        }
+        int replayed = 0;
+        for (String clusterKey : keys) {
+            if (!isSpilled(clusterKey)) {
+                continue;
+            }
+            ReplayOutcome outcome;
+            try {
+                outcome = replay(clusterKey);
+            } catch (RuntimeException e) {
+                getLogger().debug(
+                        "Replay of spilled sessions interrupted, {} sessions left",
+                        keys.size() - replayed, e);
+                break;
+            }
+            if (outcome == ReplayOutcome.REPLAYED) {
+                replays.increment();
+                replayed++;
+            } else if (outcome == ReplayOutcome.DISCARDED) {
+                discards.increment();
+            }
+        }
+        if (replayed > 0) {
+            getLogger().info("Replayed {} spilled sessions", replayed);
+        }
+        return replayed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        spill.close();
+    }
+
+    /**
+     * Writes a spilled session holding its serialization marker, unless the
+     * decorated connector holds a copy newer than the one known when the
+     * session was spilled. Remote calls that wait for the marker of another
+     * writer are made before taking the lock of the session.
+     */
+    private ReplayOutcome replay(String clusterKey) {
+        // read before taking the marker, reads wait for marker release
+        SessionInfo current = delegate.getSession(clusterKey);
+        delegate.markSerializationStarted(clusterKey,
+                REPLAY_MARKER_TIME_TO_LIVE);
+        ReplayOutcome outcome;
+        try {
+            synchronized (lockFor(clusterKey)) {
+                outcome = replayLocked(clusterKey, current);
+            }
+        } catch (RuntimeException e) {
+            try {
+                delegate.markSerializationFailed(clusterKey, e);
+            } catch (RuntimeException releaseError) {
+                e.addSuppressed(releaseError);
+            }
+            throw e;
+        }
+        try {
+            delegate.markSerializationComplete(clusterKey);
+        } catch (RuntimeException e) {
+            getLogger().debug(
+                    "Unable to release serialization marker of replayed session {}",
+                    clusterKey, e);
+        }
+        return outcome;
+    }
+
+    private ReplayOutcome replayLocked(String clusterKey,
+            SessionInfo current) {
+        // a live write may have replaced the spilled session meanwhile
+        SessionInfo info = isSpilled(clusterKey) ? spill.getSession(clusterKey)
+                : null;
+        if (info == null) {
+            unspill(clusterKey);
+            return ReplayOutcome.SKIPPED;
+        }
+        if (current != null && !Objects.equals(readBase(clusterKey),
+                checksum(current))) {
+            getLogger().debug(
+                    "Session {} has been written by another node since it was spilled, discarding spilled copy",
+                    clusterKey);
+            delegateChecksums.put(clusterKey, checksum(current));
+            unspill(clusterKey);
+            return ReplayOutcome.DISCARDED;
+        }
+        delegate.sendSession(info);
+        delegateChecksums.put(clusterKey, checksum(info));
+        unspill(clusterKey);
+        return ReplayOutcome.REPLAYED;
+    }
+
+    private Long readBase(String clusterKey) {
+        SessionInfo base = spill.getSession(clusterKey + BASE_SUFFIX);
+        if (base == null || base.getSize() != Long.BYTES) {
+            return null;
+        }
+        return base.getDataBuffer().getLong(base.getDataBuffer().position());
+    }
+
+    private static long checksum(SessionInfo info) {
+        CRC32C crc = new CRC32C();
+        crc.update(info.getDataBuffer());
+        return ((long) info.getSize() << 32) | crc.getValue();
+    }
+
+    private void spillOrThrow(SessionInfo sessionInfo, RuntimeException error) {
+        String clusterKey = sessionInfo.getClusterKey();
+        int size = sessionInfo.getSize();
+        synchronized (spilled) {
+            Integer previous = spilled.get(clusterKey);
+            long newSize = spilledBytes - (previous != null ? previous : 0)
+                    + size;
+            if (newSize > maxSpillBytes) {
+                drops.increment();
+                getLogger().warn(
+                        "Spill log is full, session {} can not be persisted",
+                        clusterKey);
+                throw error;
+            }
+            if (previous == null) {
+                // written before the session, so that a spilled session
+                // always has its base; kept by later spills of the session,
+                // since the decorated connector has not been written since
+                Long base = delegateChecksums.get(clusterKey);
+                spill.sendSession(new SessionInfo(clusterKey + BASE_SUFFIX,
+                        base != null
+                                ? ByteBuffer.allocate(Long.BYTES)
+                                        .putLong(base).array()
+                                : new byte[0]));
+            }
+            // the spill log write is synchronized on the same monitor, so
+            // that the order of spilled keys matches the log order
+            spill.sendSession(sessionInfo);
+            // move the key to the end, it is now the latest spilled record
+            spilled.remove(clusterKey);
+            spilled.put(clusterKey, size);
+            spilledBytes = newSize;
+        }
+        spills.increment();
+        getLogger().debug("Session {} spilled after failed write",
+                clusterKey, error);
+    }
+
+    private void unspill(String clusterKey) {
+        synchronized (spilled) {
+            Integer size = spilled.remove(clusterKey);
+            if (size == null) {
+                return;
+            }
+            spilledBytes -= size;
+            spill.deleteSession(clusterKey);
+            spill.deleteSession(clusterKey + BASE_SUFFIX);
+        }
+    }
+
+    private boolean isSpilled(String clusterKey) {
+        synchronized (spilled) {
+            return spilled.containsKey(clusterKey);
+        }
+    }
+
+    private Object lockFor(String clusterKey) {
+        return locks[Math.floorMod(clusterKey.hashCode(), locks.length)];
+    }
+
+    private void replaySafely() {
+        try {
+            if (getSpilledCount() > 0) {
+                replay();
+            }
+        } catch (Exception e) {
+            getLogger().error("Unexpected error replaying spilled sessions",
+                    e);
+        }
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(SpillingBackendConnector.class);
+    }
+}
@@ -0,0 +1,364 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} decorator that keeps recently written and read
+ * sessions in a bounded local tier, in front of the decorated remote
+ * connector that remains the authoritative store.
+ * <p>
+ * Writes go through to the remote connector. Every write gets a random
+ * version that is stored in a header prepended to the payload. A read first
+ * fetches only the header of the remote payload, through
+ * {@link BackendConnector#getSessionHeader(String, int)}: if its version
+ * matches the version of the locally held payload, the local copy is
+ * returned, otherwise the payload is fetched from the remote connector and
+ * cached with the version found in its header, so the local tier never
+ * associates a payload with the wrong version even if the remote connector
+ * applies writes out of order.
+ * <p>
+ * Header reads wait for a pending serialization like full reads do, so
+ * readers do not use a local copy while another node is writing a newer
+ * version.
+ * <p>
+ * The local tier holds payloads either on the heap or in direct buffers, and
+ * evicts the least recently used sessions when the configured size is
+ * exceeded.
+ * <p>
+ * <b>Storage format.</b> This connector changes what is stored on the remote
+ * backend: payloads are prefixed with the version header. It is therefore an
+ * opt-in format that all the nodes of a cluster must use together; a node
+ * without this decorator cannot deserialize a versioned payload. Payloads
+ * written without the header, for example before the decorator was enabled,
+ * are still read and returned unchanged, but disabling the decorator
+ * requires that sessions stored with the header are discarded, so it cannot
+ * be done with a rolling update.
+ * <p>
+ * <b>Cost.</b> Compared to the decorated connector, every read performs an
+ * additional remote read of the header, which replaces the payload transfer
+ * when the local copy is current. Connectors reading the header with a
+ * ranged read, such as the Redis ones, only transfer the header bytes, while
+ * the others read the whole payload, so that the local tier saves nothing
+ * with them. The local tier thus pays off only when payloads are large
+ * compared to the latency of a remote round trip.
+ * <p>
+ * <b>Restarts.</b> The local tier is held in memory and is empty after a
+ * restart, so sessions restored by a restarted or newly started node are
+ * always read from the remote connector. The local tier only serves repeated
+ * reads of the same session on a running node, for example when a session
+ * is restored again on the node that last wrote it.
+ */
+public class TwoTierBackendConnector implements BackendConnector {
+
+    /**
+     * Header identifying a versioned payload. It cannot be the start of a Java
+     * serialization stream, which always begins with {@code 0xACED}.
+     */
+    static final byte[] VERSION_MAGIC = { (byte) 0xCA, 'K', 'T', 'T', 1 };
+
+    static final int HEADER_SIZE = VERSION_MAGIC.length + Long.BYTES;
+
+    private final BackendConnector delegate;
+
+    private final boolean offHeap;
+
+    private final LocalTier localTier;
+
+    private final LongAdder localHits = new LongAdder();
+
+    private final LongAdder localMisses = new LongAdder();
+
+    /**
+     * Creates a new connector with a local tier of the given size.
+     *
+     * @param delegate
+     *            the authoritative remote connector, not {@literal null}.
+     * @param maxLocalBytes
+     *            the maximum amount of payload bytes held by the local tier.
+     * @param offHeap
+     *            {@literal true} to hold local payloads in direct buffers,
+     *            {@literal false} to hold them on the heap.
+     */
+    public TwoTierBackendConnector(BackendConnector delegate,
+            long maxLocalBytes, boolean offHeap) {
+        this.delegate = Objects.requireNonNull(delegate,
+                "delegate must not be null");
+        this.offHeap = offHeap;
+        this.localTier = new LocalTier(maxLocalBytes);
+    }
+
+    /**
+     * Gets the decorated connector.
+     *
+     * @return the decorated connector.
+     */
+    public BackendConnector getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the number of reads served by the local tier.
+     *
+     * @return the number of local hits.
+     */
+    public long getLocalHits() {
+        return localHits.sum();
+    }
+
+    /**
+     * Gets the number of reads that required fetching the payload from the
+     * remote connector.
+     *
+     * @return the number of local misses.
+     */
+    public long getLocalMisses() {
+        return localMisses.sum();
+    }
+
+    /**
+     * Gets the amount of payload bytes currently held by the local tier.
+     *
+     * @return the local tier size, in bytes.
+     */
+    public long getLocalSize() {
+        return localTier.size();
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        long version = nextVersion();
+        byte[] framed = frame(sessionInfo, version);
+        delegate.sendSession(new SessionInfo(sessionInfo.getClusterKey(),
+                sessionInfo.getTimeToLive(), framed));
+        cache(sessionInfo.getClusterKey(), version, framed);
+    }
+
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        long version = nextVersion();
+        byte[] framed = frame(sessionInfo, version);
+        if (!delegate.sendSessionIfAbsent(new SessionInfo(
+                sessionInfo.getClusterKey(), sessionInfo.getTimeToLive(),
+                framed))) {
+            return false;
+        }
+        cache(sessionInfo.getClusterKey(), version, framed);
+        return true;
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        LocalEntry local = localTier.get(clusterKey);
+        if (local != null) {
+            Long remoteVersion = readRemoteVersion(clusterKey);
+            if (remoteVersion != null && remoteVersion == local.version()) {
+                localHits.increment();
+                getLogger().debug("Session {} served from local tier",
+                        clusterKey);
+                return new SessionInfo(clusterKey, Duration.ZERO,
+                        local.data().duplicate(), null);
+            }
+            localTier.remove(clusterKey, local);
+        }
+        localMisses.increment();
+
+        SessionInfo remote = delegate.getSession(clusterKey);
+        if (remote == null) {
+            return null;
+        }
+        ByteBuffer buffer = remote.getDataBuffer();
+        if (!isVersioned(buffer)) {
+            return remote;
+        }
+        long version = buffer.getLong(buffer.position() + VERSION_MAGIC.length);
+        ByteBuffer payload = buffer.position(buffer.position() + HEADER_SIZE)
+                .slice();
+        localTier.put(clusterKey,
+                new LocalEntry(version, toLocal(payload.duplicate())));
+        return new SessionInfo(clusterKey, remote.getTimeToLive(), payload,
+                null);
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        localTier.remove(clusterKey);
+        delegate.deleteSession(clusterKey);
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        delegate.markSerializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        delegate.markSerializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        delegate.markSerializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return delegate.markDeserializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        delegate.markDeserializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        delegate.markDeserializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        return delegate.awaitPendingOperations(timeout);
+    }
+
+    private static byte[] frame(SessionInfo sessionInfo, long version) {
+        byte[] framed = new byte[HEADER_SIZE + sessionInfo.getSize()];
+        ByteBuffer.wrap(framed).put(VERSION_MAGIC).putLong(version)
+                .put(sessionInfo.getDataBuffer());
+        return framed;
+    }
+
+    private void cache(String clusterKey, long version, byte[] framed) {
+        localTier.put(clusterKey, new LocalEntry(version, toLocal(ByteBuffer
+                .wrap(framed, HEADER_SIZE, framed.length - HEADER_SIZE))));
+    }
+
+    private Long readRemoteVersion(String clusterKey) {
+        byte[] header = delegate.getSessionHeader(clusterKey, HEADER_SIZE);
+        if (header == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (!isVersioned(buffer)) {
+            return null;
+        }
+        return buffer.getLong(VERSION_MAGIC.length);
+    }
+
+    private ByteBuffer toLocal(ByteBuffer payload) {
+        if (!offHeap) {
+            return payload.slice();
+        }
+        ByteBuffer copy = ByteBuffer.allocateDirect(payload.remaining());
+        copy.put(payload).flip();
+        return copy;
+    }
+
+    private static boolean isVersioned(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        int start = buffer.position();
+        for (int i = 0; i < VERSION_MAGIC.length; i++) {
+            if (buffer.get(start + i) != VERSION_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long nextVersion() {
+        long version;
+        do {
+            version = ThreadLocalRandom.current().nextLong();
+        } while (version == 0);
+        return version;
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(TwoTierBackendConnector.class);
+    }
+
+    private record LocalEntry(long version, ByteBuffer data) {
+
+        int size() {
+            return data.remaining();
+        }
+    }
+
+    /**
+     * Least recently used map of local payloads, bounded by the total size of
+     * the payloads.
+     */
+    private static final class LocalTier {
+
+        private final long maxBytes;
+
+        private final LinkedHashMap<String, LocalEntry> entries = new LinkedHashMap<>(
+                16, 0.75f, true);
+
+        private long size;
+
+        private LocalTier(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized LocalEntry get(String clusterKey) {
+            return entries.get(clusterKey);
+        }
+
+        synchronized void put(String clusterKey, LocalEntry entry) {
+            if (entry.size() > maxBytes) {
+                remove(clusterKey);
+                return;
+            }
+            LocalEntry previous = entries.put(clusterKey, entry);
+            size += entry.size() - (previous != null ? previous.size() : 0);
+            Iterator<Map.Entry<String, LocalEntry>> iterator = entries
+                    .entrySet().iterator();
+            while (size > maxBytes && iterator.hasNext()) {
+                LocalEntry eldest = iterator.next().getValue();
+                iterator.remove();
+                size -= eldest.size();
+            }
+        }
+
+        synchronized void remove(String clusterKey) {
+            LocalEntry removed = entries.remove(clusterKey);
+            if (removed != null) {
+                size -= removed.size();
+            }
+        }
+
+        synchronized void remove(String clusterKey, LocalEntry entry) {
+            if (entries.get(clusterKey) == entry) {
+                remove(clusterKey);
+            }
+        }
+
+        synchronized long size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BackendConnector} decorator that coalesces bursts of writes for
+ * the same session, keeping only the latest payload per cluster key for a
+ * configurable window before writing it to the decorated connector.
+ * <p>
+ * Buffered payloads are flushed when they are older than the window, when
+ * the number of buffered sessions exceeds the configured limit, before the
+ * session is read or deleted, and when pending operations are awaited on
+ * shutdown. At most the writes of one window can be lost if the application
+ * terminates abruptly.
+ * <p>
+ * The serialization marker of a session is acquired on the decorated
+ * connector with the first serialization of a burst and released only after
+ * the latest buffered payload has been written, so other nodes reading the
+ * session keep waiting for the write-behind data to be stored.
+ * <p>
+ * A payload whose write fails is buffered again and retried with the next
+ * flush, unless a newer payload replaces it. After
+ * {@value #MAX_FLUSH_ATTEMPTS} failed attempts it is dropped and the
+ * serialization marker is released with
+ * {@link BackendConnector#markSerializationFailed(String, Throwable)}.
+ * <p>
+ * The connector must be closed when no longer used: closing stops the flush
+ * scheduler and writes the buffered payloads; payloads received afterwards
+ * are written immediately.
+ */
+public class WriteBehindBackendConnector
+        implements BackendConnector, Closeable {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    static final int MAX_FLUSH_ATTEMPTS = 3;
+
+    private final BackendConnector delegate;
+
+    private final long windowNanos;
+
+    private final int maxPending;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final LongAdder writes = new LongAdder();
+
+    private final LongAdder overwrites = new LongAdder();
+
+    private final LongAdder flushFailures = new LongAdder();
+
+    private final LatencyStatistics flushLatency = new LatencyStatistics();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a new write-behind connector.
+     *
+     * @param delegate
+     *            the connector that stores the flushed payloads, not
+     *            {@literal null}.
+     * @param window
+     *            the maximum amount of time a payload is buffered before
+     *            being flushed.
+     * @param maxPending
+     *            the number of buffered sessions above which payloads are
+     *            flushed immediately.
+     */
+    public WriteBehindBackendConnector(BackendConnector delegate,
+            Duration window, int maxPending) {
+        if (window.isZero() || window.isNegative()) {
+            throw new IllegalArgumentException(
+                    "Write-behind window must be greater than zero");
+        }
+        this.delegate = Objects.requireNonNull(delegate,
+                "delegate must not be null");
+        this.windowNanos = window.toNanos();
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "writeBehindBackend-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, window.toMillis() / 4);
+        scheduler.scheduleAtFixedRate(this::flushExpired, period, period,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the decorated connector.
+     *
+     * @return the decorated connector.
+     */
+    public BackendConnector getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the number of payloads received for writing.
+     *
+     * @return the number of buffered writes.
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * Gets the number of payloads replaced by a newer one before being
+     * flushed, that is the number of writes saved on the decorated connector.
+     *
+     * @return the number of coalesced writes.
+     */
+    public long getOverwrites() {
+        return overwrites.sum();
+    }
+
+    /**
+     * Gets the number of flushes that failed to write the payload, including
+     * the ones retried afterwards.
+     *
+     * @return the number of failed flushes.
+     */
+    public long getFlushFailures() {
+        return flushFailures.sum();
+    }
+
+    /**
+     * Gets statistics about the time elapsed between the buffering of a
+     * payload and the completion of its write to the decorated connector.
+     *
+     * @return the flush latency statistics.
+     */
+    public LatencyStatistics getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * Gets the number of sessions with a buffered payload.
+     *
+     * @return the number of buffered sessions.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+        boolean[] acquire = new boolean[1];
+        entries.compute(clusterKey, (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry();
+            }
+            entry.serializationEnded = false;
+            if (!entry.markerHeld) {
+                entry.markerHeld = true;
+                acquire[0] = true;
+            }
+            return entry;
+        });
+        if (acquire[0]) {
+            try {
+                delegate.markSerializationStarted(clusterKey, timeToLive);
+            } catch (RuntimeException e) {
+                entries.computeIfPresent(clusterKey, (key, entry) -> {
+                    entry.markerHeld = false;
+                    return entry.isIdle() ? null : entry;
+                });
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        if (closed) {
+            // nothing would flush the payload anymore
+            writes.increment();
+            delegate.sendSession(sessionInfo);
+            return;
+        }
+        // The caller may release the session data as soon as this method
+        // returns, so keep a heap copy of buffer backed instances
+        SessionInfo copy = new SessionInfo(sessionInfo.getClusterKey(),
+                sessionInfo.getTimeToLive(), sessionInfo.getData());
+        String clusterKey = copy.getClusterKey();
+        writes.increment();
+        entries.compute(clusterKey, (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry();
+            }
+            if (entry.pending != null) {
+                overwrites.increment();
+            } else {
+                entry.bufferedAt = System.nanoTime();
+                pendingCount.incrementAndGet();
+            }
+            entry.pending = copy;
+            entry.failedFlushes = 0;
+            return entry;
+        });
+        if (pendingCount.get() > maxPending) {
+            // apply back pressure on the serializing thread
+            flush(clusterKey);
+        }
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+        releaseIfIdle(clusterKey, null);
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+        releaseIfIdle(clusterKey, error);
+    }
+
+    /**
+     * Conditional writes are not buffered: the buffered payload, if any, is
+     * flushed first and the write is then performed on the decorated
+     * connector.
+     */
+    @Override
+    public boolean sendSessionIfAbsent(SessionInfo sessionInfo) {
+        flush(sessionInfo.getClusterKey());
+        writes.increment();
+        return delegate.sendSessionIfAbsent(sessionInfo);
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        flush(clusterKey);
+        return delegate.getSession(clusterKey);
+    }
+
+    @Override
+    public byte[] getSessionHeader(String clusterKey, int length) {
+        flush(clusterKey);
+        return delegate.getSessionHeader(clusterKey, length);
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        boolean[] release = new boolean[1];
+        entries.computeIfPresent(clusterKey, (key, entry) -> {
+            if (entry.pending != null) {
+                entry.pending = null;
+                pendingCount.decrementAndGet();
+            }
+            if (entry.flushing) {
+                return entry;
+            }
+            release[0] = entry.markerHeld;
+            return null;
+        });
+        if (release[0]) {
+            delegate.markSerializationComplete(clusterKey);
+        }
+        delegate.deleteSession(clusterKey);
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return delegate.markDeserializationStarted(clusterKey, timeToLive);
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+        delegate.markDeserializationComplete(clusterKey);
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+        delegate.markDeserializationFailed(clusterKey, error);
+    }
+
+    @Override
+    public boolean awaitPendingOperations(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        flushAll();
+        while (pendingCount.get() > 0 && System.nanoTime() < deadline) {
+            // a concurrent flush of the scheduler may still be running
+            flushAll();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        long remaining = deadline - System.nanoTime();
+        return pendingCount.get() == 0 && delegate
+                .awaitPendingOperations(Duration.ofNanos(Math.max(0, remaining)));
+    }
+
+    /**
+     * Writes all buffered payloads to the decorated connector.
+     */
+    public void flushAll() {
+        for (String clusterKey : List.copyOf(entries.keySet())) {
+            flush(clusterKey);
+        }
+    }
+
+    /**
+     * Stops the flush scheduler and writes all buffered payloads to the
+     * decorated connector. Payloads received after closing are written
+     * immediately.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (int i = 0; i < MAX_FLUSH_ATTEMPTS && pendingCount.get() > 0; i++) {
+            flushAll();
+        }
+    }
+
+    private void flushExpired() {
+        try {
+            long now = System.nanoTime();
+            List<String> expired = new ArrayList<>();
+            entries.forEach((clusterKey, entry) -> {
+                if (entry.pending != null
+                        && now - entry.bufferedAt >= windowNanos) {
+                    expired.add(clusterKey);
+                }
+            });
+            expired.forEach(this::flush);
+        } catch (Exception e) {
+            getLogger().error("Unexpected error flushing buffered sessions",
+                    e);
+        }
+    }
+
+    private void flush(String clusterKey) {
+        SessionInfo[] toFlush = new SessionInfo[1];
+        long[] bufferedAt = new long[1];
+        entries.computeIfPresent(clusterKey, (key, entry) -> {
+            if (!entry.flushing && entry.pending != null) {
+                toFlush[0] = entry.pending;
+                bufferedAt[0] = entry.bufferedAt;
+                entry.pending = null;
+                entry.flushing = true;
+                pendingCount.decrementAndGet();
+            }
+            return entry;
+        });
+        if (toFlush[0] == null) {
+            return;
+        }
+        Exception error = null;
+        try {
+            delegate.sendSession(toFlush[0]);
+            flushLatency.record(System.nanoTime() - bufferedAt[0]);
+        } catch (Exception e) {
+            error = e;
+            flushFailures.increment();
+        }
+        Exception flushError = error;
+        boolean[] retry = new boolean[1];
+        boolean[] release = new boolean[1];
+        entries.computeIfPresent(clusterKey, (key, entry) -> {
+            entry.flushing = false;
+            if (flushError != null && entry.pending == null
+                    && ++entry.failedFlushes < MAX_FLUSH_ATTEMPTS) {
+                // buffer the payload again, keeping its age so that it is
+                // retried by the next scheduled flush
+                entry.pending = toFlush[0];
+                entry.bufferedAt = bufferedAt[0];
+                pendingCount.incrementAndGet();
+                retry[0] = true;
+                return entry;
+            }
+            if (entry.pending != null || entry.serializing()) {
+                // keep the marker, a newer payload is on its way
+                return entry;
+            }
+            release[0] = entry.markerHeld;
+            return null;
+        });
+        if (retry[0]) {
+            getLogger().warn("Unable to write buffered session {}, retrying",
+                    clusterKey, error);
+        } else if (error != null) {
+            getLogger().error("Unable to write buffered session {}, dropping"
+                    + " it", clusterKey, error);
+        }
+        if (release[0]) {
+            if (error == null) {
+                delegate.markSerializationComplete(clusterKey);
+            } else {
+                delegate.markSerializationFailed(clusterKey, error);
+            }
+        }
+    }
+
+    private void releaseIfIdle(String clusterKey, Throwable error) {
+        boolean[] release = new boolean[1];
+        entries.computeIfPresent(clusterKey, (key, entry) -> {
+            entry.serializationEnded = true;
+            if (entry.pending != null || entry.flushing) {
+                // released once the buffered payload has been written
+                return entry;
+            }
+            release[0] = entry.markerHeld;
+            return null;
+        });
+        if (release[0]) {
+            if (error == null) {
+                delegate.markSerializationComplete(clusterKey);
+            } else {
+                delegate.markSerializationFailed(clusterKey, error);
+            }
+        }
+    }
+
+    private static Logger getLogger() {
+        return LoggerFactory.getLogger(WriteBehindBackendConnector.class);
+    }
+
+    /**
+     * Write-behind state of a session, always accessed within a map compute
+     * function.
+     */
+    private static final class Entry {
+        private SessionInfo pending;
+        private long bufferedAt;
+        private boolean flushing;
+        private boolean markerHeld;
+        private boolean serializationEnded;
+        private int failedFlushes;
+
+        private boolean serializing() {
+            return markerHeld && !serializationEnded;
+        }
+
+        private boolean isIdle() {
+            return pending == null && !flushing && !markerHeld;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.jfr;
+
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientDescriptor;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientHandler;
+
+/**
+ * Java Flight Recorder events emitted by session replication.
+ * <p>
+ * Events are disabled by default and are enabled per type in the recording
+ * settings, for example in a custom {@code .jfc} file setting
+ * {@code com.vaadin.kubernetes.SessionStreamWrite#enabled} to {@literal true}.
+ * Disabled events cost a few instructions. Each event carries the hash of the
+ * cluster key, so that events of the same session can be correlated without
+ * exposing the key, the amount of data and the outcome of the operation.
+ */
+public final class SessionReplicationEvents {
+
+    /**
+     * Outcome of a successful operation.
+     */
+    public static final String SUCCESS = "success";
+
+    /**
+     * Outcome of a failed operation.
+     */
+    public static final String FAILURE = "failure";
+
+    /**
+     * Outcome of an optimistic serialization attempt to be retried.
+     */
+    public static final String RETRY = "retry";
+
+    private SessionReplicationEvents() {
+    }
+
+    /**
+     * Wraps the given transient handler to emit {@link TransientInspection}
+     * and {@link TransientInjection} events, if at least one of them is
+     * enabled.
+     *
+     * @param handler
+     *            the transient handler.
+     * @param clusterKey
+     *            the cluster key of the session being processed.
+     * @return the wrapped handler, or the given one if the events are
+     *         disabled.
+     */
+    public static TransientHandler instrument(TransientHandler handler,
+            String clusterKey) {
+        if (handler == null || !(new TransientInspection().isEnabled()
+                || new TransientInjection().isEnabled())) {
+            return handler;
+        }
+        return new TransientHandler() {
+            @Override
+            public List<TransientDescriptor> inspect(Object object) {
+                TransientInspection event = new TransientInspection();
+                event.begin();
+                List<TransientDescriptor> result = null;
+                try {
+                    result = handler.inspect(object);
+                    return result;
+                } finally {
+                    event.type = object.getClass().getName();
+                    event.complete(clusterKey,
+                            result != null ? result.size() : 0,
+                            result != null ? SUCCESS : FAILURE);
+                }
+            }
+
+            @Override
+            public void inject(Object object,
+                    List<TransientDescriptor> transients) {
+                TransientInjection event = new TransientInjection();
+                event.begin();
+                boolean success = false;
+                try {
+                    handler.inject(object, transients);
+                    success = true;
+                } finally {
+                    event.type = object.getClass().getName();
+                    event.complete(clusterKey, transients.size(),
+                            success ? SUCCESS : FAILURE);
+                }
+            }
+        };
+    }
+
+    /**
+     * Base class of session replication events.
+     */
+    @Category({ "Vaadin", "Kubernetes Kit" })
+    @Enabled(false)
+    @StackTrace(false)
+    public abstract static class SessionReplicationEvent extends Event {
+
+        @Label("Cluster Key Hash")
+        @Description("Hash code of the cluster key of the session")
+        int clusterKeyHash;
+
+        @Label("Amount")
+        @Description("Amount of data processed; bytes for stream and backend events, fields for transient events")
+        long amount;
+
+        @Label("Outcome")
+        String outcome;
+
+        /**
+         * Ends the event and commits it, if the event is enabled and its
+         * duration exceeds the configured threshold.
+         *
+         * @param clusterKey
+         *            the cluster key of the session, can be {@literal null}.
+         * @param amount
+         *            the amount of processed data.
+         * @param outcome
+         *            the outcome of the operation.
+         */
+        public void complete(String clusterKey, long amount, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.clusterKeyHash = clusterKey != null
+                        ? clusterKey.hashCode()
+                        : 0;
+                this.amount = amount;
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Time spent waiting for the {@code VaadinSession} locks before a
+     * pessimistic serialization or a check of the UI tree.
+     */
+    @Name("com.vaadin.kubernetes.SessionLockWait")
+    @Label("Session Lock Wait")
+    public static final class LockWait extends SessionReplicationEvent {
+    }
+
+    /**
+     * An optimistic serialization attempt, that either produced the data or
+     * has to be retried.
+     */
+    @Name("com.vaadin.kubernetes.SessionOptimisticAttempt")
+    @Label("Optimistic Serialization Attempt")
+    public static final class OptimisticAttempt
+            extends SessionReplicationEvent {
+    }
+
+    /**
+     * Writing of session attributes to the serialization stream.
+     */
+    @Name("com.vaadin.kubernetes.SessionStreamWrite")
+    @Label("Session Stream Write")
+    public static final class StreamWrite extends SessionReplicationEvent {
+    }
+
+    /**
+     * Reading of session attributes from the serialization stream, including
+     * the injection of transient fields.
+     */
+    @Name("com.vaadin.kubernetes.SessionDeserialization")
+    @Label("Session Deserialization")
+    public static final class Deserialization
+            extends SessionReplicationEvent {
+    }
+
+    /**
+     * Inspection of an object for injectable transient fields.
+     */
+    @Name("com.vaadin.kubernetes.SessionTransientInspection")
+    @Label("Transient Fields Inspection")
+    public static final class TransientInspection
+            extends SessionReplicationEvent {
+
+        @Label("Type")
+        String type;
+    }
+
+    /**
+     * Injection of transient fields into a deserialized object.
+     */
+    @Name("com.vaadin.kubernetes.SessionTransientInjection")
+    @Label("Transient Fields Injection")
+    public static final class TransientInjection
+            extends SessionReplicationEvent {
+
+        @Label("Type")
+        String type;
+    }
+
+    /**
+     * A call to the session backend.
+     */
+    @Name("com.vaadin.kubernetes.SessionBackendOperation")
+    @Label("Session Backend Operation")
+    public static final class BackendOperation
+            extends SessionReplicationEvent {
+
+        @Label("Operation")
+        String operation;
+
+        /**
+         * Sets the name of the called backend method.
+         *
+         * @param operation
+         *            the operation name.
+         */
+        public void setOperation(String operation) {
+            this.operation = operation;
+        }
+    }
+}
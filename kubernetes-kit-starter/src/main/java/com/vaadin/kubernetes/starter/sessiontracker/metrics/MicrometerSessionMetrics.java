@@ -0,0 +1,365 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.ChunkedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.HazelcastConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InstrumentedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.LatencyStatistics;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SpillingBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.TwoTierBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.WriteBehindBackendConnector;
+
+/**
+ * {@link SessionMetrics} implementation publishing Micrometer meters.
+ * <p>
+ * Meters are created once, on an internal composite registry, and start
+ * publishing when the instance is bound to a {@link MeterRegistry}; until
+ * then recording is a no-op. All meters are tagged with the type of the
+ * session backend:
+ * <ul>
+ * <li>{@code vaadin.session.serialization} and
+ * {@code vaadin.session.deserialization}: timers with an {@code outcome}
+ * tag</li>
+ * <li>{@code vaadin.session.serialization.size} and
+ * {@code vaadin.session.deserialization.size}: size of the serialized data,
+ * in bytes</li>
+ * <li>{@code vaadin.session.serialization.optimistic}: optimistic attempts,
+ * with an {@code outcome} tag, either {@code success} or {@code retry}</li>
+ * <li>{@code vaadin.session.serialization.pessimistic}: fallbacks to
+ * pessimistic serialization</li>
+ * <li>{@code vaadin.session.serialization.skipped}: requests ignored because
+ * the session was already being serialized</li>
+ * <li>{@code vaadin.session.backend.calls}: timers of backend calls, with
+ * {@code operation} and {@code outcome} tags</li>
+ * </ul>
+ * Gauges of the serialization queue are registered by
+ * {@link #serializerMeters(SessionSerializer, String)}.
+ */
+public class MicrometerSessionMetrics implements SessionMetrics, MeterBinder {
+
+    private static final String PREFIX = "vaadin.session.";
+
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+
+    private final Tags tags;
+
+    private final Timer serializationSuccess;
+
+    private final Timer serializationFailure;
+
+    private final DistributionSummary serializationSize;
+
+    private final Timer deserializationSuccess;
+
+    private final Timer deserializationFailure;
+
+    private final DistributionSummary deserializationSize;
+
+    private final Counter optimisticSuccess;
+
+    private final Counter optimisticRetry;
+
+    private final Counter pessimistic;
+
+    private final Counter skipped;
+
+    private final Map<String, Timer> backendSuccess = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> backendFailure = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new metrics instance.
+     *
+     * @param backend
+     *            the type of the session backend, used as the value of the
+     *            {@code backend} tag.
+     */
+    public MicrometerSessionMetrics(String backend) {
+        this.tags = Tags.of("backend", backend);
+        serializationSuccess = timer("serialization", "success");
+        serializationFailure = timer("serialization", "failure");
+        serializationSize = size("serialization.size");
+        deserializationSuccess = timer("deserialization", "success");
+        deserializationFailure = timer("deserialization", "failure");
+        deserializationSize = size("deserialization.size");
+        optimisticSuccess = counter("serialization.optimistic",
+                "Optimistic serialization attempts", "outcome", "success");
+        optimisticRetry = counter("serialization.optimistic",
+                "Optimistic serialization attempts", "outcome", "retry");
+        pessimistic = counter("serialization.pessimistic",
+                "Fallbacks to pessimistic serialization");
+        skipped = counter("serialization.skipped",
+                "Serialization requests ignored while the session was being serialized");
+    }
+
+    /**
+     * Gets the type of a session backend, used to tag meters: the lower case
+     * class name without the {@code Connector} suffix, for example
+     * {@code redis} for {@code RedisConnector}.
+     *
+     * @param backendConnector
+     *            the session backend.
+     * @return the backend type.
+     */
+    public static String backendType(BackendConnector backendConnector) {
+        String name = backendConnector.getClass().getSimpleName();
+        if (name.isEmpty()) {
+            name = backendConnector.getClass().getName();
+        }
+        name = name.replaceFirst("(Backend)?Connector$", "");
+        return name.isEmpty() ? "custom" : name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Creates a binder for the gauges of the serialization queue of the given
+     * serializer: {@code vaadin.session.serialization.queued}, serializations
+     * waiting for a worker thread, {@code vaadin.session.serialization.pending},
+     * sessions being serialized, and for the decorators of its backend
+     * connector:
+     * <ul>
+     * <li>when writes are coalesced, {@code vaadin.session.writes.buffered}
+     * and {@code vaadin.session.writes.coalesced}, whose ratio is the share of
+     * writes saved on the backend, {@code vaadin.session.writes.flush}, the
+     * time between the buffering of a payload and the completion of its
+     * write, and {@code vaadin.session.writes.flush.failures}</li>
+     * <li>when a circuit breaker is enabled,
+     * {@code vaadin.session.backend.circuit.state}, 1 for the current state of
+     * the circuit and 0 for the others, with a {@code state} tag, and
+     * {@code vaadin.session.backend.circuit.rejected}, the backend calls not
+     * sent because the circuit was open</li>
+     * </ul>
+     *
+     * @param serializer
+     *            the session serializer.
+     * @param backend
+     *            the type of the session backend.
+     * @return the meter binder.
+     */
+    public static MeterBinder serializerMeters(SessionSerializer serializer,
+            String backend) {
+        return registry -> {
+            Tags tags = Tags.of("backend", backend);
+            Gauge.builder(PREFIX + "serialization.queued", serializer,
+                    SessionSerializer::getQueuedSerializationCount)
+                    .description(
+                            "Serializations waiting for a worker thread")
+                    .tags(tags).register(registry);
+            Gauge.builder(PREFIX + "serialization.pending", serializer,
+                    SessionSerializer::getPendingSerializationCount)
+                    .description("Sessions being serialized").tags(tags)
+                    .register(registry);
+            for (BackendConnector connector : connectors(
+                    serializer.getBackendConnector())) {
+                if (connector instanceof WriteBehindBackendConnector writeBehind) {
+                    writeBehindMeters(writeBehind, tags, registry);
+                } else if (connector instanceof CircuitBreakerBackendConnector breaker) {
+                    circuitBreakerMeters(breaker, tags, registry);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a binder for the statistics of the given Hazelcast connector:
+     * {@code vaadin.session.backend.marker.acquisition}, the time writers
+     * wait to acquire serialization markers,
+     * {@code vaadin.session.backend.serialization.wait}, the time readers wait
+     * for pending serializations, and
+     * {@code vaadin.session.backend.writes.failed}, the session writes not
+     * acknowledged by the cluster.
+     *
+     * @param hazelcast
+     *            the Hazelcast connector.
+     * @param backend
+     *            the type of the session backend.
+     * @return the meter binder.
+     */
+    public static MeterBinder hazelcastMeters(HazelcastConnector hazelcast,
+            String backend) {
+        return registry -> {
+            Tags tags = Tags.of("backend", backend);
+            latency(PREFIX + "backend.marker.acquisition",
+                    hazelcast.getMarkerAcquisitionWaits(),
+                    "Time spent waiting to acquire session serialization markers",
+                    tags, registry);
+            latency(PREFIX + "backend.serialization.wait",
+                    hazelcast.getSerializationCompletionWaits(),
+                    "Time spent waiting for pending session serializations before reading",
+                    tags, registry);
+            FunctionCounter.builder(PREFIX + "backend.writes.failed",
+                    hazelcast, HazelcastConnector::getFailedWrites)
+                    .description(
+                            "Session writes not acknowledged by the backend")
+                    .tags(tags).register(registry);
+        };
+    }
+
+    private static void writeBehindMeters(
+            WriteBehindBackendConnector writeBehind, Tags tags,
+            MeterRegistry registry) {
+        FunctionCounter.builder(PREFIX + "writes.buffered", writeBehind,
+                WriteBehindBackendConnector::getWrites)
+                .description("Session writes received for buffering")
+                .tags(tags).register(registry);
+        FunctionCounter.builder(PREFIX + "writes.coalesced", writeBehind,
+                WriteBehindBackendConnector::getOverwrites)
+                .description(
+                        "Session writes replaced by a newer one before being stored")
+                .tags(tags).register(registry);
+        latency(PREFIX + "writes.flush", writeBehind.getFlushLatency(),
+                "Time between the buffering of a session write and its completion",
+                tags, registry);
+        FunctionCounter.builder(PREFIX + "writes.flush.failures",
+                writeBehind, WriteBehindBackendConnector::getFlushFailures)
+                .description("Failed writes of buffered sessions")
+                .tags(tags).register(registry);
+    }
+
+    private static void circuitBreakerMeters(
+            CircuitBreakerBackendConnector breaker, Tags tags,
+            MeterRegistry registry) {
+        for (CircuitBreakerBackendConnector.State state : CircuitBreakerBackendConnector.State
+                .values()) {
+            Gauge.builder(PREFIX + "backend.circuit.state", breaker,
+                    b -> b.getState() == state ? 1 : 0)
+                    .description(
+                            "Whether the circuit of the session backend is in the given state")
+                    .tags(tags.and("state",
+                            state.name().toLowerCase(Locale.ROOT)))
+                    .register(registry);
+        }
+        FunctionCounter.builder(PREFIX + "backend.circuit.rejected", breaker,
+                CircuitBreakerBackendConnector::getRejectedCalls)
+                .description(
+                        "Backend calls not sent because the circuit was open")
+                .tags(tags).register(registry);
+    }
+
+    private static void latency(String name, LatencyStatistics statistics,
+            String description, Tags tags, MeterRegistry registry) {
+        FunctionTimer.builder(name, statistics, LatencyStatistics::getCount,
+                latency -> latency.getTotalTime().toNanos(),
+                TimeUnit.NANOSECONDS).description(description).tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * Gets the given connector and the connectors it decorates, outermost
+     * first.
+     */
+    private static List<BackendConnector> connectors(
+            BackendConnector connector) {
+        List<BackendConnector> connectors = new ArrayList<>();
+        while (connector != null) {
+            connectors.add(connector);
+            connector = switch (connector) {
+            case WriteBehindBackendConnector c -> c.getDelegate();
+            case TwoTierBackendConnector c -> c.getDelegate();
+            case SpillingBackendConnector c -> c.getDelegate();
+            case ChunkedBackendConnector c -> c.getDelegate();
+            case CircuitBreakerBackendConnector c -> c.getDelegate();
+            case InstrumentedBackendConnector c -> c.getDelegate();
+            default -> null;
+            };
+        }
+        return connectors;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        registry.add(meterRegistry);
+    }
+
+    @Override
+    public void recordSerialization(long nanos, int bytes) {
+        if (bytes < 0) {
+            serializationFailure.record(nanos, TimeUnit.NANOSECONDS);
+        } else {
+            serializationSuccess.record(nanos, TimeUnit.NANOSECONDS);
+            serializationSize.record(bytes);
+        }
+    }
+
+    @Override
+    public void recordDeserialization(long nanos, int bytes,
+            boolean success) {
+        (success ? deserializationSuccess : deserializationFailure)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        deserializationSize.record(bytes);
+    }
+
+    @Override
+    public void recordOptimisticAttempt(boolean success) {
+        (success ? optimisticSuccess : optimisticRetry).increment();
+    }
+
+    @Override
+    public void recordPessimisticFallback() {
+        pessimistic.increment();
+    }
+
+    @Override
+    public void recordSkippedSerialization() {
+        skipped.increment();
+    }
+
+    @Override
+    public void recordBackendCall(String operation, long nanos,
+            boolean success) {
+        Map<String, Timer> timers = success ? backendSuccess : backendFailure;
+        timers.computeIfAbsent(operation, op -> Timer
+                .builder(PREFIX + "backend.calls")
+                .description("Calls to the session backend").tags(tags)
+                .tag("operation", op)
+                .tag("outcome", success ? "success" : "failure")
+                .publishPercentileHistogram().register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String name, String outcome) {
+        return Timer.builder(PREFIX + name).tags(tags)
+                .tag("outcome", outcome).publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private DistributionSummary size(String name) {
+        return DistributionSummary.builder(PREFIX + name).baseUnit("bytes")
+                .tags(tags).publishPercentileHistogram().register(registry);
+    }
+
+    private Counter counter(String name, String description,
+            String... extraTags) {
+        return Counter.builder(PREFIX + name).description(description)
+                .tags(tags).tags(extraTags).register(registry);
+    }
+}
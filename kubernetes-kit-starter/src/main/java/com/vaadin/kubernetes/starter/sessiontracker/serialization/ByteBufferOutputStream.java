@@ -0,0 +1,121 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.serialization;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An {@link OutputStream} that writes data into direct {@link ByteBuffer}s
+ * obtained from a {@link DirectBufferPool}, growing the buffer as needed.
+ * <p>
+ * Closing the stream has no effect, so that the written data survives the
+ * closing of wrapping streams. The underlying buffer must instead be given
+ * back to the pool by calling {@link #release()} once the data returned by
+ * {@link #toByteBuffer()} is no longer in use.
+ * <p>
+ * The class is not thread safe.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+    private final DirectBufferPool pool;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Creates a new stream backed by buffers from the given pool.
+     *
+     * @param pool
+     *            the buffer pool, not {@literal null}.
+     */
+    public ByteBufferOutputStream(DirectBufferPool pool) {
+        this(pool, DirectBufferPool.MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a new stream backed by buffers from the given pool.
+     *
+     * @param pool
+     *            the buffer pool, not {@literal null}.
+     * @param initialCapacity
+     *            the initial buffer capacity.
+     */
+    public ByteBufferOutputStream(DirectBufferPool pool, int initialCapacity) {
+        this.pool = Objects.requireNonNull(pool, "pool must not be null");
+        this.buffer = pool.acquire(initialCapacity);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureCapacity(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return the number of bytes written.
+     */
+    public int size() {
+        ensureNotReleased();
+        return buffer.position();
+    }
+
+    /**
+     * Gets a read-only view of the written data, positioned at the first
+     * written byte.
+     * <p>
+     * The view shares content with the pooled buffer and must not be used
+     * after {@link #release()} has been called.
+     *
+     * @return a read-only view of the written data.
+     */
+    public ByteBuffer toByteBuffer() {
+        ensureNotReleased();
+        return buffer.duplicate().flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Gives the underlying buffer back to the pool. Subsequent calls have no
+     * effect.
+     */
+    public void release() {
+        ByteBuffer current = buffer;
+        buffer = null;
+        pool.release(current);
+    }
+
+    private void ensureCapacity(int additional) {
+        ensureNotReleased();
+        if (buffer.remaining() >= additional) {
+            return;
+        }
+        int required = Math.addExact(buffer.position(), additional);
+        ByteBuffer grown = pool
+                .acquire(Math.max(required, buffer.capacity() * 2));
+        grown.put(buffer.flip());
+        pool.release(buffer);
+        buffer = grown;
+    }
+
+    private void ensureNotReleased() {
+        if (buffer == null) {
+            throw new IllegalStateException("Buffer already released");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct {@link ByteBuffer}s used to hold serialized session data
+ * outside the Java heap.
+ * <p>
+ * Buffers are grouped in power-of-two size classes, so that a released buffer
+ * can be reused by any later request of the same size class. The pool retains
+ * at most {@code maxPooledBytes} of released buffers; buffers released when
+ * the pool is full are dropped and their memory is reclaimed by the garbage
+ * collector together with the buffer instance.
+ * <p>
+ * The class is thread safe.
+ */
+public class DirectBufferPool {
+
+    /**
+     * Smallest buffer capacity handed out by the pool.
+     */
+    public static final int MIN_CAPACITY = 4 * 1024;
+
+    private static final int MIN_SIZE_CLASS = Integer
+            .numberOfTrailingZeros(MIN_CAPACITY);
+
+    private static final int MAX_SIZE_CLASS = 30;
+
+    private final long maxPooledBytes;
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final Queue<ByteBuffer>[] pools;
+
+    /**
+     * Creates a new pool that retains at most the given amount of released
+     * buffer memory.
+     *
+     * @param maxPooledBytes
+     *            the maximum amount of memory, in bytes, held by released
+     *            buffers. A zero or negative value disables pooling.
+     */
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.pools = new Queue[MAX_SIZE_CLASS + 1];
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Gets a cleared direct buffer with at least the given capacity.
+     *
+     * @param minCapacity
+     *            the minimum required capacity.
+     * @return a direct buffer, never {@literal null}.
+     * @throws IllegalArgumentException
+     *             if the requested capacity exceeds the maximum supported
+     *             buffer size.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClass(minCapacity);
+        ByteBuffer buffer = pools[sizeClass].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            return buffer.clear();
+        }
+        return ByteBuffer.allocateDirect(1 << sizeClass);
+    }
+
+    /**
+     * Gives back a buffer obtained by {@link #acquire(int)}.
+     * <p>
+     * The caller must not use the buffer, nor any view derived from it, after
+     * this method is called.
+     *
+     * @param buffer
+     *            the buffer to release, can be {@literal null}.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_CAPACITY) {
+            // not allocated by this pool
+            return;
+        }
+        long current;
+        do {
+            current = pooledBytes.get();
+            if (current + capacity > maxPooledBytes) {
+                return;
+            }
+        } while (!pooledBytes.compareAndSet(current, current + capacity));
+        pools[Integer.numberOfTrailingZeros(capacity)].offer(buffer);
+    }
+
+    /**
+     * Gets the amount of memory currently held by released buffers.
+     *
+     * @return the pooled memory size, in bytes.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private static int sizeClass(int minCapacity) {
+        if (minCapacity <= MIN_CAPACITY) {
+            return MIN_SIZE_CLASS;
+        }
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(minCapacity - 1);
+        if (sizeClass > MAX_SIZE_CLASS) {
+            throw new IllegalArgumentException("Requested buffer capacity "
+                    + minCapacity + " exceeds the maximum supported size");
+        }
+        return sizeClass;
+    }
+}
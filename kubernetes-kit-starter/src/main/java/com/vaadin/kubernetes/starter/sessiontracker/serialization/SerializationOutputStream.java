@@ -14,9 +14,45 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 public abstract class SerializationOutputStream extends ObjectOutputStream {
+
+    private SerializationProfiler.Sample profilerSample;
+
     public SerializationOutputStream(OutputStream out) throws IOException {
         super(out);
     }
 
     public abstract void writeWithTransients(Object object) throws IOException;
+
+    /**
+     * Sets the profiler sample that attributes the bytes written by this
+     * stream. The underlying output stream must be the one wrapped by the
+     * sample.
+     *
+     * @param profilerSample
+     *            the profiler sample, or {@literal null} to disable
+     *            profiling.
+     */
+    public void setProfilerSample(
+            SerializationProfiler.Sample profilerSample) {
+        this.profilerSample = profilerSample;
+    }
+
+    /**
+     * Notifies the profiler sample, if any, that the given object is about to
+     * be written. Implementations call this method from
+     * {@link #replaceObject(Object)}.
+     *
+     * @param object
+     *            the object to be written.
+     * @throws IOException
+     *             if flushing the buffered data fails.
+     */
+    protected void profile(Object object) throws IOException {
+        if (profilerSample != null) {
+            // drain buffered data, so that the position is exact; outside of
+            // block data mode this does not change the stream content
+            flush();
+            profilerSample.beforeObject(object);
+        }
+    }
 }
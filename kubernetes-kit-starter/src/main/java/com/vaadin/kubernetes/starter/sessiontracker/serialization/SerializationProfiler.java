@@ -0,0 +1,340 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.serialization;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vaadin.flow.component.HasElement;
+import com.vaadin.flow.component.UI;
+
+/**
+ * Sampling profiler that attributes the bytes of serialized sessions to the
+ * classes of the written objects and to the top-level session attributes and
+ * UIs they belong to.
+ * <p>
+ * One serialization in {@code sampleRate} is profiled, the others are not
+ * affected. In a profiled serialization, the stream position is read every
+ * time an object is about to be written, and the bytes written since the
+ * previous object are attributed to the class of the previous object. The
+ * attribution is therefore by stream order: the bytes of an object include
+ * its class descriptor, its primitive fields and references to already
+ * written objects, but not the nested objects written for the first time.
+ * Bytes written after the objects of a UI are attributed to the UI until
+ * another attribute or UI starts. The results of all samples are aggregated
+ * in histograms, bounded to a maximum number of entries.
+ *
+ * @see SerializationOutputStream#setProfilerSample(Sample)
+ */
+public class SerializationProfiler {
+
+    /**
+     * Default maximum number of distinct classes or attributes tracked.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    static final String OTHER = "[other]";
+
+    static final String STREAM = "[stream]";
+
+    static final String TRANSIENTS = "[transient fields metadata]";
+
+    private final int sampleRate;
+
+    private final int maxEntries;
+
+    private final AtomicLong serializations = new AtomicLong();
+
+    private final LongAdder samples = new LongAdder();
+
+    private final LongAdder sampledBytes = new LongAdder();
+
+    private final Map<String, Counters> classes = new ConcurrentHashMap<>();
+
+    private final Map<String, Counters> roots = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param sampleRate
+     *            profile one serialization every {@code sampleRate}, must be
+     *            positive.
+     */
+    public SerializationProfiler(int sampleRate) {
+        this(sampleRate, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param sampleRate
+     *            profile one serialization every {@code sampleRate}, must be
+     *            positive.
+     * @param maxEntries
+     *            maximum number of distinct classes, and of distinct
+     *            attributes, tracked; further ones are aggregated in a single
+     *            entry.
+     */
+    public SerializationProfiler(int sampleRate, int maxEntries) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException(
+                    "sampleRate must be positive: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the sample rate.
+     *
+     * @return the number of serializations per profiled one.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Starts profiling the serialization of the given attributes, if it is
+     * sampled.
+     *
+     * @param attributes
+     *            the session attributes to serialize.
+     * @return the sample to be filled by the serialization, or
+     *         {@literal null} if this serialization is not profiled.
+     */
+    public Sample sample(Map<String, Object> attributes) {
+        if (serializations.incrementAndGet() % sampleRate != 0) {
+            return null;
+        }
+        return new Sample(attributes);
+    }
+
+    /**
+     * Gets the aggregated results.
+     *
+     * @param limit
+     *            the maximum number of classes and attributes to report, the
+     *            ones with more bytes first.
+     * @return the profiling report.
+     */
+    public Report getReport(int limit) {
+        return new Report(sampleRate, samples.sum(), sampledBytes.sum(),
+                entries(classes, limit), entries(roots, limit));
+    }
+
+    /**
+     * Discards the aggregated results.
+     */
+    public void reset() {
+        classes.clear();
+        roots.clear();
+        samples.reset();
+        sampledBytes.reset();
+    }
+
+    private static List<Entry> entries(Map<String, Counters> histogram,
+            int limit) {
+        return histogram.entrySet().stream()
+                .map(e -> new Entry(e.getKey(), e.getValue().bytes.sum(),
+                        e.getValue().count.sum()))
+                .sorted(Comparator.comparingLong(Entry::bytes).reversed())
+                .limit(limit).toList();
+    }
+
+    private void merge(Map<String, Counters> histogram,
+            Map<String, long[]> values) {
+        values.forEach((name, counts) -> {
+            Counters counters = histogram.get(name);
+            if (counters == null) {
+                String key = histogram.size() < maxEntries ? name : OTHER;
+                counters = histogram.computeIfAbsent(key, k -> new Counters());
+            }
+            counters.bytes.add(counts[0]);
+            counters.count.add(counts[1]);
+        });
+    }
+
+    private static final class Counters {
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder count = new LongAdder();
+    }
+
+    /**
+     * Aggregated profiling results.
+     *
+     * @param sampleRate
+     *            the number of serializations per profiled one.
+     * @param samples
+     *            the number of profiled serializations.
+     * @param bytes
+     *            the total size of the profiled serializations.
+     * @param classes
+     *            bytes and number of written instances per class.
+     * @param attributes
+     *            bytes and number of occurrences per top-level session
+     *            attribute or UI.
+     */
+    public record Report(int sampleRate, long samples, long bytes,
+            List<Entry> classes, List<Entry> attributes) {
+    }
+
+    /**
+     * An entry of a profiling histogram.
+     *
+     * @param name
+     *            the class or attribute name.
+     * @param bytes
+     *            the attributed bytes, over all samples.
+     * @param count
+     *            the number of instances or occurrences, over all samples.
+     */
+    public record Entry(String name, long bytes, long count) {
+    }
+
+    /**
+     * Byte attribution of a single profiled serialization. Not thread safe.
+     */
+    public final class Sample {
+
+        private final IdentityHashMap<Object, String> attributes = new IdentityHashMap<>();
+
+        private final Map<String, long[]> classBytes = new HashMap<>();
+
+        private final Map<String, long[]> rootBytes = new HashMap<>();
+
+        private CountingOutputStream counter;
+
+        private long position;
+
+        private String currentClass = STREAM;
+
+        private String currentRoot = STREAM;
+
+        private Sample(Map<String, Object> attributes) {
+            attributes.forEach((name, value) -> {
+                if (value != null) {
+                    this.attributes.putIfAbsent(value, name);
+                }
+            });
+        }
+
+        /**
+         * Wraps the stream the serialized data is written to, to track the
+         * write position.
+         *
+         * @param out
+         *            the output stream of the serialization.
+         * @return the wrapped stream.
+         */
+        public OutputStream wrap(OutputStream out) {
+            counter = new CountingOutputStream(out);
+            return counter;
+        }
+
+        /**
+         * Notifies that the given object is about to be written. The object
+         * stream must be flushed before calling this method, so that the
+         * position of the wrapped stream is exact.
+         *
+         * @param object
+         *            the object to be written.
+         */
+        public void beforeObject(Object object) {
+            attribute();
+            if (object == null) {
+                return;
+            }
+            currentClass = object.getClass().getName();
+            classBytes.computeIfAbsent(currentClass, k -> new long[2])[1]++;
+            String root = attributes.get(object);
+            if (root == null) {
+                if (object instanceof UI ui) {
+                    root = uiName(ui);
+                } else if (object instanceof TransientAwareHolder) {
+                    root = TRANSIENTS;
+                }
+            }
+            if (root != null && !root.equals(currentRoot)) {
+                currentRoot = root;
+                rootBytes.computeIfAbsent(currentRoot, k -> new long[2])[1]++;
+            }
+        }
+
+        /**
+         * Completes the sample and adds its results to the profiler
+         * histograms. The object stream must be flushed before calling this
+         * method.
+         */
+        public void complete() {
+            attribute();
+            samples.increment();
+            sampledBytes.add(position);
+            merge(classes, classBytes);
+            merge(roots, rootBytes);
+        }
+
+        private void attribute() {
+            long current = counter != null ? counter.count : 0;
+            long written = current - position;
+            if (written > 0) {
+                classBytes.computeIfAbsent(currentClass,
+                        k -> new long[2])[0] += written;
+                rootBytes.computeIfAbsent(currentRoot,
+                        k -> new long[2])[0] += written;
+            }
+            position = current;
+        }
+
+        private String uiName(UI ui) {
+            String view;
+            try {
+                List<HasElement> chain = ui.getInternals()
+                        .getActiveRouterTargetsChain();
+                view = chain.isEmpty() ? null
+                        : chain.get(0).getClass().getName();
+            } catch (RuntimeException e) {
+                // the UI is not locked, the chain may be changing
+                view = null;
+            }
+            return "UI " + (view != null ? view : ui.getClass().getName());
+        }
+    }
+
+    private static final class CountingOutputStream
+            extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -249,7 +249,8 @@ public class TransientInjectableObjectOutputStream
     }
 
     @Override
-    protected Object replaceObject(Object obj) {
+    protected Object replaceObject(Object obj) throws IOException {
+        profile(obj);
         obj = trackObject(obj);
         if (obj instanceof Element element && element.getComponent().orElse(
                 null) instanceof UnserializableComponentWrapper<?, ?> wrapper) {
@@ -38,7 +38,12 @@ class DebugBackendConnector implements BackendConnector,
     @Override
     public void sendSession(SessionInfo sessionInfo) {
         if (sessionInfo != null) {
-            serializedSessions.put(sessionInfo.getClusterKey(), sessionInfo);
+            // sessionInfo may be backed by a pooled buffer released as soon
+            // as this method returns, so keep a copy of the data
+            serializedSessions.put(sessionInfo.getClusterKey(),
+                    new SessionInfo(sessionInfo.getClusterKey(),
+                            sessionInfo.getTimeToLive(),
+                            sessionInfo.getData()));
         }
     }
 
@@ -9,19 +9,36 @@
  */
 package com.vaadin.kubernetes.starter;
 
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.hazelcast.config.Config;
 import com.hazelcast.core.HazelcastInstance;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.util.unit.DataSize;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.ChunkedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerStateChangedEvent;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionExpirationPolicy;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SpillingBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.WriteBehindBackendConnector;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class KubernetesKitConfigurationTest {
@@ -48,6 +65,134 @@ class KubernetesKitConfigurationTest {
 
     }
 
+    @Test
+    public void decorateBackendConnector_chunkingDisabled_connectorNotWrapped() {
+        var connector = mock(BackendConnector.class);
+        var decorated = KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                .decorateBackendConnector(connector, new BackendProperties(),
+                        null, null);
+        Assertions.assertSame(connector, decorated.getConnector());
+    }
+
+    @Test
+    public void decorateBackendConnector_chunkingEnabled_connectorWrapped() {
+        var connector = mock(BackendConnector.class);
+        var props = new BackendProperties();
+        props.getChunking().setEnabled(true);
+        var decorated = KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                .decorateBackendConnector(connector, props, null, null);
+        var chunked = Assertions.assertInstanceOf(
+                ChunkedBackendConnector.class, decorated.getConnector());
+        Assertions.assertSame(connector, chunked.getDelegate());
+    }
+
+    @Test
+    public void decorateBackendConnector_chunkingAndSpillEnabled_sessionsSpilledWhole(
+            @TempDir Path spillDirectory) {
+        var connector = mock(BackendConnector.class);
+        var props = new BackendProperties();
+        props.getChunking().setEnabled(true);
+        props.getSpill().setEnabled(true);
+        props.getSpill().setDirectory(spillDirectory.toString());
+        var decorated = KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                .decorateBackendConnector(connector, props, null, null);
+        try {
+            var spilling = Assertions.assertInstanceOf(
+                    SpillingBackendConnector.class, decorated.getConnector());
+            var chunked = Assertions.assertInstanceOf(
+                    ChunkedBackendConnector.class, spilling.getDelegate());
+            Assertions.assertSame(connector, chunked.getDelegate());
+        } finally {
+            decorated.close();
+        }
+    }
+
+    @Test
+    public void decorateBackendConnector_chunkingEnabled_chunkTransfersStoppedOnClose() {
+        var connector = mock(BackendConnector.class);
+        var props = new BackendProperties();
+        props.getChunking().setEnabled(true);
+        props.getChunking().setThreshold(DataSize.ofBytes(10));
+        props.getChunking().setChunkSize(DataSize.ofBytes(10));
+        var decorated = KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                .decorateBackendConnector(connector, props, null, null);
+
+        decorated.close();
+
+        Assertions.assertThrows(RejectedExecutionException.class,
+                () -> decorated.getConnector().sendSession(
+                        new SessionInfo("key", new byte[100])));
+    }
+
+    @Test
+    public void decorateBackendConnector_writeBehindEnabled_bufferedWritesFlushedOnClose() {
+        var connector = mock(BackendConnector.class);
+        var props = new BackendProperties();
+        props.getWriteBehind().setEnabled(true);
+        props.getWriteBehind().setWindow(Duration.ofMinutes(1));
+        var decorated = KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                .decorateBackendConnector(connector, props, null, null);
+        Assertions.assertInstanceOf(WriteBehindBackendConnector.class,
+                decorated.getConnector());
+        decorated.getConnector()
+                .sendSession(new SessionInfo("key", new byte[] { 1 }));
+        verify(connector, never()).sendSession(any());
+
+        decorated.close();
+
+        verify(connector).sendSession(any());
+    }
+
+    @Test
+    public void decorateBackendConnector_circuitBreakerEnabled_stateChangesPublished() {
+        var connector = mock(BackendConnector.class);
+        doThrow(new RuntimeException("down")).when(connector)
+                .deleteSession(any());
+        var props = new BackendProperties();
+        props.getCircuitBreaker().setEnabled(true);
+        props.getCircuitBreaker().setMinimumCalls(1);
+        var publisher = mock(ApplicationEventPublisher.class);
+        var decorated = KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                .decorateBackendConnector(connector, props, publisher,
+                        null);
+        var breaker = Assertions.assertInstanceOf(
+                CircuitBreakerBackendConnector.class,
+                decorated.getConnector());
+        Assertions.assertSame(connector, breaker.getDelegate());
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> breaker.deleteSession("key"));
+
+        var captor = ArgumentCaptor
+                .forClass(CircuitBreakerStateChangedEvent.class);
+        verify(publisher).publishEvent(captor.capture());
+        assertEquals(CircuitBreakerBackendConnector.State.OPEN,
+                captor.getValue().getState());
+    }
+
+    @Test
+    public void spillDirectory_notConfigured_applicationSubdirectory() {
+        var spill = new BackendProperties().getSpill();
+        var tmp = Path.of(System.getProperty("java.io.tmpdir"));
+
+        assertEquals(tmp.resolve("vaadin-session-spill").resolve("my-app"),
+                KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                        .spillDirectory(spill, "my-app"));
+        assertEquals(
+                tmp.resolve("vaadin-session-spill").resolve("shop_eu"),
+                KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                        .spillDirectory(spill, "shop/eu"));
+        assertEquals(
+                tmp.resolve("vaadin-session-spill").resolve("application"),
+                KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                        .spillDirectory(spill, null));
+
+        spill.setDirectory("/var/spill");
+        assertEquals(Path.of("/var/spill"),
+                KubernetesKitConfiguration.VaadinReplicatedSessionConfiguration
+                        .spillDirectory(spill, "my-app"));
+    }
+
     @Test
     public void hazelcastInstance_serviceNameSet_kubernetesConfigured() {
         var prop = new HazelcastProperties();
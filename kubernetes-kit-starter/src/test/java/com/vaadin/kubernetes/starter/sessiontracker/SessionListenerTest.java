@@ -3,6 +3,7 @@ package com.vaadin.kubernetes.starter.sessiontracker;
 import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpSessionEvent;
 
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -151,6 +152,36 @@ public class SessionListenerTest {
 
     }
 
+    @Test
+    void replicatedSessions_trackSessionLifecycle() {
+        BackendConnector backendConnector = mock(BackendConnector.class);
+        SessionSerializer sessionSerializer = mock(SessionSerializer.class);
+        SessionListener listener = new SessionListener(backendConnector,
+                sessionSerializer);
+
+        HttpSessionEvent replicated = createSessionEvent(
+                session -> when(session.getAttribute(CurrentKey.COOKIE_NAME))
+                        .thenReturn("clusterKey"));
+        HttpSessionEvent other = createSessionEvent(
+                session -> when(session.getAttribute(CurrentKey.COOKIE_NAME))
+                        .thenReturn("otherKey"));
+        HttpSessionEvent notReplicated = createSessionEvent();
+        listener.sessionCreated(replicated);
+        listener.sessionCreated(other);
+        listener.sessionCreated(notReplicated);
+
+        Assertions.assertEquals(3, listener.getActiveSessionCount());
+        Assertions.assertEquals(2,
+                listener.getReplicatedSessions(null).size());
+        Assertions.assertEquals(List.of(replicated.getSession()),
+                listener.getReplicatedSessions("clusterKey"));
+
+        listener.sessionDestroyed(replicated);
+        Assertions.assertTrue(
+                listener.getReplicatedSessions("clusterKey").isEmpty());
+        Assertions.assertEquals(2, listener.getActiveSessionCount());
+    }
+
     @Test
     void sessionListenerStopped_sessionNotCreatedOrDestroyed() {
         BackendConnector backendConnector = mock(BackendConnector.class);
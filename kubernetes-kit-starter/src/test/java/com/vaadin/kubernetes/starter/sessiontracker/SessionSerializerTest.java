@@ -14,6 +14,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -21,13 +22,23 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
+import com.hazelcast.config.Config;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.spi.properties.ClusterProperty;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
 import org.awaitility.Awaitility;
 import org.awaitility.core.ConditionFactory;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.mock.web.MockHttpSession;
 
@@ -45,7 +56,9 @@ import com.vaadin.flow.server.VaadinSession;
 import com.vaadin.flow.server.WrappedHttpSession;
 import com.vaadin.flow.server.startup.ApplicationConfiguration;
 import com.vaadin.kubernetes.starter.SerializationProperties;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.AsyncBackendConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.HazelcastConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientHandler;
 import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientInjectableObjectStreamFactory;
@@ -59,7 +72,10 @@ import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.intThat;
 import static org.mockito.ArgumentMatchers.isNotNull;
+import static org.mockito.ArgumentMatchers.longThat;
 import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.doAnswer;
@@ -141,6 +157,93 @@ class SessionSerializerTest {
                 sessionInfo.getTimeToLive());
     }
 
+    @Test
+    void serialize_sessionMetrics_recorded() {
+        SessionMetrics metrics = mock(SessionMetrics.class);
+        serializer.setSessionMetrics(metrics);
+        AtomicBoolean serializationCompleted = new AtomicBoolean();
+        doAnswer(i -> serializationCompleted.getAndSet(true)).when(connector)
+                .markSerializationComplete(clusterSID);
+        vaadinSession.setLockTimestamps(10, 20);
+
+        serializer.serialize(httpSession);
+        await().atMost(1000, MILLISECONDS).untilTrue(serializationCompleted);
+
+        verify(metrics).recordOptimisticAttempt(true);
+        verify(metrics).recordSerialization(longThat(nanos -> nanos > 0),
+                intThat(bytes -> bytes > 0));
+        verify(metrics, never()).recordPessimisticFallback();
+    }
+
+    @Test
+    void serialize_replicationState_tracked() {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch writeAllowed = new CountDownLatch(1);
+        doAnswer(i -> {
+            writeStarted.countDown();
+            writeAllowed.await();
+            return null;
+        }).when(connector).sendSession(any());
+        vaadinSession.setLockTimestamps(10, 20);
+
+        serializer.serialize(httpSession);
+        await().atMost(1000, MILLISECONDS)
+                .until(() -> writeStarted.getCount() == 0);
+
+        assertThat(serializer.getInFlightSerializationCount()).isEqualTo(1);
+        assertThat(serializer.getInFlightSerializationAges()).hasSize(1);
+        assertThat(serializer.getAverageSerializedSize()).isPositive();
+
+        writeAllowed.countDown();
+        await().atMost(1000, MILLISECONDS)
+                .until(() -> serializer.getInFlightSerializationCount() == 0);
+        assertThat(serializer.getPendingSerializationAges()).isEmpty();
+    }
+
+    @Test
+    void serialize_observationRegistry_observedInRequestObservation() {
+        List<Observation.Context> stopped = new CopyOnWriteArrayList<>();
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig()
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public boolean supportsContext(
+                            Observation.Context context) {
+                        return true;
+                    }
+
+                    @Override
+                    public void onStop(Observation.Context context) {
+                        stopped.add(context);
+                    }
+                });
+        serializer.setObservationRegistry(registry);
+        vaadinSession.setLockTimestamps(10, 20);
+
+        Observation request = Observation.start("request", registry);
+        request.scoped(() -> serializer.serialize(httpSession));
+        request.stop();
+        await().atMost(1000, MILLISECONDS).until(() -> stopped.stream()
+                .anyMatch(context -> SessionObservations.SERIALIZATION
+                        .equals(context.getName())));
+
+        Observation.Context serialization = stopped.stream()
+                .filter(context -> SessionObservations.SERIALIZATION
+                        .equals(context.getName()))
+                .findFirst().orElseThrow();
+        Observation.Context optimistic = stopped.stream()
+                .filter(context -> SessionObservations.OPTIMISTIC
+                        .equals(context.getName()))
+                .findFirst().orElseThrow();
+        assertThat(serialization.getParentObservation()).isSameAs(request);
+        assertThat(optimistic.getParentObservation().getContextView())
+                .isSameAs(serialization);
+        assertThat(optimistic.getLowCardinalityKeyValue("outcome").getValue())
+                .isEqualTo("success");
+        assertThat(stopped).noneMatch(context -> SessionObservations.PESSIMISTIC
+                .equals(context.getName()));
+    }
+
     @Test
     void serialize_optimisticLocking_sessionLocked() {
         AtomicBoolean serializationStarted = new AtomicBoolean();
@@ -374,6 +477,23 @@ class SessionSerializerTest {
         verify(connector).sendSession(notNull());
     }
 
+    @Test
+    void stop_readinessRefusingTraffic() {
+        ApplicationEventPublisher eventPublisher = mock(
+                ApplicationEventPublisher.class);
+        serializer.setApplicationEventPublisher(eventPublisher);
+
+        serializer.stop();
+        serializer.stop();
+
+        ArgumentCaptor<AvailabilityChangeEvent<?>> event = ArgumentCaptor
+                .captor();
+        verify(eventPublisher).publishEvent(event.capture());
+        assertThat(event.getValue().getState())
+                .isEqualTo(ReadinessState.REFUSING_TRAFFIC);
+        assertThat(event.getValue().getSource()).isSameAs(serializer);
+    }
+
     @Test
     void serialize_applicationAlreadyStopped_forcePessimisticLocking() {
         AtomicBoolean serializationStarted = new AtomicBoolean();
@@ -624,6 +744,44 @@ class SessionSerializerTest {
                 same(throwable));
     }
 
+    @Test
+    void serialize_hazelcastWriteFails_failureCountedAndMarkerReleased() {
+        Config hazelcastConfig = new Config();
+        hazelcastConfig.getProperties().setProperty(
+                ClusterProperty.SHUTDOWNHOOK_ENABLED.getName(), "false");
+        HazelcastInstance hazelcastInstance = mock(HazelcastInstance.class);
+        when(hazelcastInstance.getConfig()).thenReturn(hazelcastConfig);
+        IMap<String, byte[]> sessionMap = mock(IMap.class);
+        when(hazelcastInstance.<String, byte[]> getMap(anyString()))
+                .thenReturn(sessionMap);
+        RuntimeException writeFailure = new RuntimeException("write failed");
+        when(sessionMap.setAsync(anyString(), any(), anyLong(), any()))
+                .thenReturn(CompletableFuture.failedFuture(writeFailure));
+        HazelcastConnector hazelcastConnector = spy(
+                new HazelcastConnector(hazelcastInstance));
+        serializer = new SessionSerializer(hazelcastConnector,
+                transientHandler,
+                sessionTimeout -> Duration.ofSeconds(sessionTimeout).plus(5,
+                        ChronoUnit.MINUTES),
+                serializationCallback,
+                new TransientInjectableObjectStreamFactory(),
+                serializationProperties);
+        serializer.serviceInit(new ServiceInitEvent(vaadinService));
+        vaadinSession.setLockTimestamps(10, 20);
+
+        serializer.serialize(httpSession);
+
+        // the write is not awaited, its failure is reported by the connector
+        await().atMost(1000, MILLISECONDS)
+                .untilAsserted(() -> verify(hazelcastConnector)
+                        .markSerializationComplete(clusterSID));
+        assertThat(hazelcastConnector.getFailedWrites()).isEqualTo(1);
+        // the marker is released anyway
+        await().atMost(1000, MILLISECONDS)
+                .untilAsserted(() -> verify(sessionMap).remove(
+                        eq("serialization-marker-" + clusterSID), any()));
+    }
+
     @Test
     void serialize_slowBackendConnector_shouldNotBlockExecution()
             throws InterruptedException {
@@ -701,6 +859,46 @@ class SessionSerializerTest {
         verify(connector, times(2)).markSerializationComplete(anyString());
     }
 
+    @Test
+    void serialize_asyncBackendConnector_pendingUntilWriteAcknowledged() {
+        AsyncBackendConnector asyncConnector = mock(
+                AsyncBackendConnector.class);
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        when(asyncConnector.markSerializationStartedAsync(clusterSID,
+                timeToLive)).thenReturn(CompletableFuture.completedFuture(null));
+        when(asyncConnector.sendSessionAsync(notNull())).thenReturn(sent);
+        when(asyncConnector.markSerializationCompleteAsync(clusterSID))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        serializer = new SessionSerializer(asyncConnector, transientHandler,
+                sessionTimeout -> Duration.ofSeconds(sessionTimeout).plus(5,
+                        ChronoUnit.MINUTES),
+                serializationCallback,
+                new TransientInjectableObjectStreamFactory(),
+                serializationProperties);
+        serializer.serviceInit(new ServiceInitEvent(vaadinService));
+        vaadinSession.setLockTimestamps(10, 20);
+
+        serializer.serialize(httpSession);
+        Awaitility.await().atMost(1000, MILLISECONDS)
+                .untilAsserted(() -> verify(asyncConnector)
+                        .sendSessionAsync(notNull()));
+
+        // write not acknowledged yet, serialization still pending
+        serializer.serialize(httpSession);
+        verify(asyncConnector, times(1))
+                .markSerializationStartedAsync(clusterSID, timeToLive);
+        verify(asyncConnector, never())
+                .markSerializationCompleteAsync(clusterSID);
+
+        sent.complete(null);
+        Awaitility.await().atMost(1000, MILLISECONDS)
+                .untilAsserted(() -> verify(asyncConnector)
+                        .markSerializationCompleteAsync(clusterSID));
+        verify(asyncConnector, never()).sendSession(any());
+        verify(asyncConnector, never()).markSerializationStarted(anyString(),
+                any());
+    }
+
     @Test
     void serialize_backendConnectorFailureOnStart_shouldNotFail()
             throws InterruptedException {
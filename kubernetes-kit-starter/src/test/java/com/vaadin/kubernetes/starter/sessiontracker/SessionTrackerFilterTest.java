@@ -1,5 +1,8 @@
 package com.vaadin.kubernetes.starter.sessiontracker;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -10,13 +13,19 @@ import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpSessionEvent;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -35,6 +44,7 @@ import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
 import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -292,6 +302,227 @@ class SessionTrackerFilterTest {
 
     }
 
+    @Test
+    void concurrentRequest_asyncSupported_suspendedUntilSessionCreated()
+            throws Exception {
+        String invalidSessionId = UUID.randomUUID().toString();
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        var creation = createTestRequest(cookie, invalidSessionId);
+        doAnswer(i -> {
+            processing.countDown();
+            release.await();
+            return null;
+        }).when(creation.chain()).doFilter(any(), any());
+        CompletableFuture<Void> creationDone = CompletableFuture
+                .runAsync(() -> creation.execute(filter));
+        processing.await();
+
+        var waiting = createTestRequest(cookie, invalidSessionId);
+        AsyncContext asyncContext = setupAsync(waiting);
+        waiting.execute(filter);
+
+        verify(waiting.request()).startAsync(waiting.request(),
+                waiting.response());
+        verify(waiting.chain(), never()).doFilter(any(), any());
+        verify(waiting.response(), never()).sendRedirect(anyString(),
+                anyInt());
+        assertEquals(1, filter.getWaitingRequestCount());
+
+        release.countDown();
+        creationDone.join();
+
+        await().untilAsserted(() -> verify(asyncContext).complete());
+        verify(waiting.response()).sendRedirect(anyString(), eq(307));
+        verify(waiting.chain(), never()).doFilter(any(), any());
+        assertEquals(0, filter.getWaitingRequestCount());
+    }
+
+    @Test
+    void concurrentRequest_asyncSupported_restoreObservedUntilResumed()
+            throws Exception {
+        List<Observation.Context> restores = new CopyOnWriteArrayList<>();
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig()
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public boolean supportsContext(
+                            Observation.Context context) {
+                        return SessionObservations.RESTORE
+                                .equals(context.getName());
+                    }
+
+                    @Override
+                    public void onStop(Observation.Context context) {
+                        restores.add(context);
+                    }
+                });
+        when(serializer.getObservationRegistry()).thenReturn(registry);
+        String invalidSessionId = UUID.randomUUID().toString();
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        var creation = createTestRequest(cookie, invalidSessionId);
+        doAnswer(i -> {
+            processing.countDown();
+            release.await();
+            return null;
+        }).when(creation.chain()).doFilter(any(), any());
+        CompletableFuture<Void> creationDone = CompletableFuture
+                .runAsync(() -> creation.execute(filter));
+        processing.await();
+        assertEquals(1, restores.size());
+
+        var waiting = createTestRequest(cookie, invalidSessionId);
+        AsyncContext asyncContext = setupAsync(waiting);
+        waiting.execute(filter);
+
+        // the suspended request is still restoring its session
+        assertEquals(1, restores.size());
+
+        release.countDown();
+        creationDone.join();
+
+        await().untilAsserted(() -> verify(asyncContext).complete());
+        assertEquals(2, restores.size());
+        assertThat(restores.get(1).getLowCardinalityKeyValue("replay")
+                .getValue()).isEqualTo("true");
+        assertThat(restores.get(1).getError()).isNull();
+    }
+
+    @Test
+    void concurrentRequest_creationCompletedWhileSuspending_resumedAfterRestoreScope()
+            throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        List<Observation.Context> restores = new CopyOnWriteArrayList<>();
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig()
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public boolean supportsContext(
+                            Observation.Context context) {
+                        return SessionObservations.RESTORE
+                                .equals(context.getName());
+                    }
+
+                    @Override
+                    public void onScopeClosed(Observation.Context context) {
+                        events.add("scopeClosed");
+                    }
+
+                    @Override
+                    public void onStop(Observation.Context context) {
+                        events.add("stop");
+                        restores.add(context);
+                    }
+                });
+        when(serializer.getObservationRegistry()).thenReturn(registry);
+        String invalidSessionId = UUID.randomUUID().toString();
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        var creation = createTestRequest(cookie, invalidSessionId);
+        doAnswer(i -> {
+            processing.countDown();
+            release.await();
+            return null;
+        }).when(creation.chain()).doFilter(any(), any());
+        CompletableFuture<Void> creationDone = CompletableFuture
+                .runAsync(() -> creation.execute(filter));
+        processing.await();
+
+        var waiting = createTestRequest(cookie, invalidSessionId);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        AtomicBoolean asyncStarted = new AtomicBoolean();
+        when(waiting.request().isAsyncSupported()).thenReturn(true);
+        when(waiting.request().startAsync(any(), any())).then(i -> {
+            // the creation completes while the request is being suspended
+            release.countDown();
+            creationDone.join();
+            Thread.sleep(1000);
+            asyncStarted.set(true);
+            return asyncContext;
+        });
+        when(waiting.request().isAsyncStarted())
+                .then(i -> asyncStarted.get());
+        events.clear();
+        waiting.execute(filter);
+
+        verify(asyncContext).complete();
+        verify(waiting.response()).sendRedirect(anyString(), eq(307));
+        assertEquals(List.of("scopeClosed", "stop"), events);
+        assertThat(restores.get(1).getLowCardinalityKeyValue("replay")
+                .getValue()).isEqualTo("true");
+        assertEquals(0, filter.getWaitingRequestCount());
+    }
+
+    @Test
+    void concurrentRequest_asyncWaitTimeout_errorSent() throws Exception {
+        String invalidSessionId = UUID.randomUUID().toString();
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        var creation = createTestRequest(cookie, invalidSessionId);
+        doAnswer(i -> {
+            processing.countDown();
+            release.await();
+            return null;
+        }).when(creation.chain()).doFilter(any(), any());
+        CompletableFuture<Void> creationDone = CompletableFuture
+                .runAsync(() -> creation.execute(filter));
+        processing.await();
+
+        var waiting = createTestRequest(cookie, invalidSessionId);
+        AsyncContext asyncContext = setupAsync(waiting);
+        waiting.execute(filter);
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor
+                .forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+
+        listener.getValue().onTimeout(new AsyncEvent(asyncContext));
+
+        verify(waiting.response())
+                .sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        verify(asyncContext).complete();
+        assertEquals(0, filter.getWaitingRequestCount());
+
+        release.countDown();
+        creationDone.join();
+        verify(waiting.response(), never()).sendRedirect(anyString(),
+                anyInt());
+    }
+
+    @Test
+    void concurrentRequest_asyncWaitDisabled_threadBlocked()
+            throws Exception {
+        KubernetesKitProperties properties = new KubernetesKitProperties();
+        properties.setAsyncSessionCreationWait(false);
+        filter = new SessionTrackerFilter(serializer, properties,
+                sessionListener);
+        String invalidSessionId = UUID.randomUUID().toString();
+        CountDownLatch processing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        var creation = createTestRequest(cookie, invalidSessionId);
+        doAnswer(i -> {
+            processing.countDown();
+            release.await();
+            return null;
+        }).when(creation.chain()).doFilter(any(), any());
+        CompletableFuture<Void> creationDone = CompletableFuture
+                .runAsync(() -> creation.execute(filter));
+        processing.await();
+
+        var waiting = createTestRequest(cookie, invalidSessionId);
+        setupAsync(waiting);
+        CompletableFuture<Void> waitingDone = CompletableFuture
+                .runAsync(() -> waiting.execute(filter));
+        await().until(() -> filter.getWaitingRequestCount() == 1);
+        release.countDown();
+        creationDone.join();
+        waitingDone.join();
+
+        verify(waiting.request(), never()).startAsync(any(), any());
+        verify(waiting.response()).sendRedirect(anyString(), eq(307));
+        verify(waiting.chain(), never()).doFilter(any(), any());
+    }
+
     @Test
     void doFilter_sessionSerializerStopped_rejectIncomingRequests()
             throws Exception {
@@ -321,6 +552,19 @@ class SessionTrackerFilterTest {
         return httpSession;
     }
 
+    private AsyncContext setupAsync(TestRequest testRequest) {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        AtomicBoolean asyncStarted = new AtomicBoolean();
+        when(testRequest.request().isAsyncSupported()).thenReturn(true);
+        when(testRequest.request().startAsync(any(), any())).then(i -> {
+            asyncStarted.set(true);
+            return asyncContext;
+        });
+        when(testRequest.request().isAsyncStarted())
+                .then(i -> asyncStarted.get());
+        return asyncContext;
+    }
+
     private void setupCookie() {
         when(request.getCookies()).thenReturn(new Cookie[] { cookie });
     }
@@ -0,0 +1,82 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.Status;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionBackendHealthIndicatorTest {
+
+    @Test
+    void backendReachable_upWithLatency() {
+        SessionBackendHealthIndicator indicator = new SessionBackendHealthIndicator(
+                new InMemoryBackendConnector());
+
+        Health health = indicator.health();
+
+        assertEquals(Status.UP, health.getStatus());
+        assertNotNull(Duration
+                .parse((String) health.getDetails().get("latency")));
+        assertEquals(InMemoryBackendConnector.class.getName(),
+                health.getDetails().get("type"));
+    }
+
+    @Test
+    void backendFailing_down() {
+        BackendConnector connector = mock(BackendConnector.class);
+        when(connector.getSession(SessionBackendHealthIndicator.PROBE_KEY))
+                .thenThrow(new IllegalStateException("not connected"));
+        SessionBackendHealthIndicator indicator = new SessionBackendHealthIndicator(
+                connector);
+
+        Health health = indicator.health();
+
+        assertEquals(Status.DOWN, health.getStatus());
+        assertTrue(String.valueOf(health.getDetails().get("error"))
+                .contains("not connected"));
+    }
+
+    @Test
+    void backendBlocked_downWithoutStackingProbes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BackendConnector connector = mock(BackendConnector.class);
+        doAnswer(i -> {
+            release.await();
+            return null;
+        }).when(connector).getSession(SessionBackendHealthIndicator.PROBE_KEY);
+        SessionBackendHealthIndicator indicator = new SessionBackendHealthIndicator(
+                connector, Duration.ofMillis(50));
+
+        try {
+            assertEquals(Status.DOWN, indicator.health().getStatus());
+            assertEquals(Status.DOWN, indicator.health().getStatus());
+            verify(connector, times(1))
+                    .getSession(SessionBackendHealthIndicator.PROBE_KEY);
+        } finally {
+            release.countDown();
+        }
+    }
+}
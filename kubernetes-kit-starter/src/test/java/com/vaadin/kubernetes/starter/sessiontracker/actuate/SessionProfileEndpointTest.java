@@ -0,0 +1,48 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationProfiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionProfileEndpointTest {
+
+    private final SessionSerializer serializer = mock(SessionSerializer.class);
+
+    private final SessionProfileEndpoint endpoint = new SessionProfileEndpoint(
+            serializer);
+
+    @Test
+    void profilerDisabled_noReport() {
+        assertNull(endpoint.profile());
+        endpoint.reset();
+    }
+
+    @Test
+    void profilerEnabled_reportAndReset() {
+        SerializationProfiler profiler = spy(new SerializationProfiler(10));
+        when(serializer.getSerializationProfiler()).thenReturn(profiler);
+
+        assertEquals(10, endpoint.profile().sampleRate());
+        verify(profiler).getReport(SessionProfileEndpoint.LIMIT);
+
+        endpoint.reset();
+        verify(profiler).reset();
+    }
+}
@@ -0,0 +1,149 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import jakarta.servlet.http.HttpSession;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionListener;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionTrackerFilter;
+import com.vaadin.kubernetes.starter.sessiontracker.actuate.SessionReplicationEndpoint.ReplicationState;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.BackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.FaultProfile;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InstrumentedBackendConnector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionReplicationEndpointTest {
+
+    private final SessionSerializer serializer = mock(SessionSerializer.class);
+
+    private final SessionTrackerFilter filter = mock(
+            SessionTrackerFilter.class);
+
+    private final SessionListener listener = mock(SessionListener.class);
+
+    private final SessionReplicationEndpoint endpoint = new SessionReplicationEndpoint(
+            serializer, filter);
+
+    @BeforeEach
+    void setUp() {
+        when(filter.getSessionListener()).thenReturn(listener);
+        when(serializer.isRunning()).thenReturn(true);
+    }
+
+    @Test
+    void state_countersAndAgesReported() {
+        InMemoryBackendConnector backend = new InMemoryBackendConnector();
+        when(serializer.getBackendConnector()).thenReturn(backend);
+        when(serializer.getQueuedSerializationCount()).thenReturn(3);
+        when(serializer.getPendingSerializationCount()).thenReturn(12);
+        when(serializer.getPendingSerializationAges())
+                .thenReturn(IntStream.range(0, 12).map(i -> 12 - i)
+                        .mapToObj(Duration::ofSeconds).toList());
+        when(serializer.getInFlightSerializationCount()).thenReturn(1);
+        when(serializer.getInFlightSerializationAges())
+                .thenReturn(List.of(Duration.ofMillis(250)));
+        when(serializer.getAverageSerializedSize()).thenReturn(2048L);
+        when(listener.getActiveSessionCount()).thenReturn(5);
+        when(listener.getClusterKeyMappingCount()).thenReturn(4);
+        when(filter.getPendingSessionCreationCount()).thenReturn(2);
+        when(filter.getWaitingRequestCount()).thenReturn(6);
+
+        ReplicationState state = endpoint.state();
+
+        assertTrue(state.running());
+        assertEquals(3, state.serialization().queued());
+        assertEquals(12, state.serialization().pending());
+        assertEquals(SessionReplicationEndpoint.MAX_AGES,
+                state.serialization().pendingAges().size());
+        assertEquals(12_000L, state.serialization().pendingAges().get(0));
+        assertEquals(List.of(250L), state.serialization().inFlightAges());
+        assertEquals(2048L, state.serialization().averageSize());
+        assertEquals(5, state.sessions().active());
+        assertEquals(4, state.sessions().clusterKeyMappings());
+        assertEquals(2, state.sessions().pendingCreations());
+        assertEquals(6, state.sessions().waitingRequests());
+        assertEquals(InMemoryBackendConnector.class.getName(),
+                state.backend().type());
+        assertNull(state.backend().lastFailure());
+    }
+
+    @Test
+    void state_decoratedBackend_lastFailureReported() {
+        InMemoryBackendConnector backend = new InMemoryBackendConnector();
+        InstrumentedBackendConnector instrumented = InstrumentedBackendConnector
+                .of(backend, SessionMetrics.NOOP);
+        BackendConnector connector = new CircuitBreakerBackendConnector(
+                instrumented, new CircuitBreakerBackendConnector.Settings(50,
+                        Duration.ofSeconds(1), 100, 10, 10,
+                        Duration.ofSeconds(1), 1));
+        when(serializer.getBackendConnector()).thenReturn(connector);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        assertThrows(RuntimeException.class,
+                () -> instrumented.deleteSession("key"));
+
+        ReplicationState state = endpoint.state();
+
+        assertSame(instrumented,
+                SessionReplicationEndpoint.findInstrumented(connector));
+        assertEquals(InMemoryBackendConnector.class.getName(),
+                state.backend().type());
+        assertEquals("deleteSession",
+                state.backend().lastFailure().operation());
+    }
+
+    @Test
+    void flush_matchingSessionsSerialized() {
+        HttpSession session = mock(HttpSession.class);
+        HttpSession invalidated = mock(HttpSession.class);
+        doThrow(IllegalStateException.class).when(serializer)
+                .serialize(invalidated);
+        when(listener.getReplicatedSessions(null))
+                .thenReturn(List.of(session, invalidated));
+        when(listener.getReplicatedSessions("key"))
+                .thenReturn(List.of(session));
+
+        assertEquals(1, endpoint.flush("key").flushed());
+        assertEquals(1, endpoint.flushAll().flushed());
+        verify(serializer, times(2)).serialize(session);
+    }
+
+    @Test
+    void flush_serializerStopped_nothingSerialized() {
+        when(serializer.isRunning()).thenReturn(false);
+        HttpSession session = mock(HttpSession.class);
+        when(listener.getReplicatedSessions(null))
+                .thenReturn(List.of(session));
+
+        assertEquals(0, endpoint.flushAll().flushed());
+        verify(serializer, never()).serialize(session);
+    }
+}
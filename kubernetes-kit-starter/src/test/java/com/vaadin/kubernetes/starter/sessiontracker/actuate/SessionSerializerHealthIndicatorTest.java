@@ -0,0 +1,54 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.actuate;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.Status;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SessionSerializerHealthIndicatorTest {
+
+    private final SessionSerializer serializer = mock(SessionSerializer.class);
+
+    private final SessionSerializerHealthIndicator indicator = new SessionSerializerHealthIndicator(
+            serializer);
+
+    @Test
+    void running_up() {
+        when(serializer.isRunning()).thenReturn(true);
+        when(serializer.getQueuedSerializationCount()).thenReturn(2);
+        when(serializer.getPendingSerializationCount()).thenReturn(3);
+        when(serializer.getInFlightSerializationCount()).thenReturn(1);
+
+        Health health = indicator.health();
+
+        assertEquals(Status.UP, health.getStatus());
+        assertEquals(2, health.getDetails().get("queued"));
+        assertEquals(3, health.getDetails().get("pending"));
+        assertEquals(1, health.getDetails().get("inFlight"));
+    }
+
+    @Test
+    void stopping_outOfService() {
+        when(serializer.isRunning()).thenReturn(false);
+        when(serializer.getPendingSerializationCount()).thenReturn(4);
+
+        Health health = indicator.health();
+
+        assertEquals(Status.OUT_OF_SERVICE, health.getStatus());
+        assertEquals(4, health.getDetails().get("pending"));
+    }
+}
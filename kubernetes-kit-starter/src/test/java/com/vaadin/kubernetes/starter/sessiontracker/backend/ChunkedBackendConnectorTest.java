@@ -0,0 +1,280 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedBackendConnectorTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private MapBackendConnector backend;
+    private ChunkedBackendConnector connector;
+
+    @BeforeEach
+    void setUp() {
+        backend = new MapBackendConnector();
+        connector = new ChunkedBackendConnector(backend, 100, 40, DIRECT);
+    }
+
+    @Test
+    void sendSession_belowThreshold_storedUnchanged() {
+        byte[] data = randomBytes(100);
+        connector.sendSession(new SessionInfo("key", data));
+
+        assertEquals(1, backend.entries.size());
+        assertArrayEquals(data, backend.entries.get("key"));
+        assertArrayEquals(data, connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_aboveThreshold_storedAsChunksAndManifest() {
+        byte[] data = randomBytes(101);
+        connector.sendSession(new SessionInfo("key", data));
+
+        // manifest + index + 3 chunks
+        assertEquals(5, backend.entries.size());
+        assertNotNull(ChunkedBackendConnector.Manifest.parse("key",
+                backend.entries.get("key")));
+        assertArrayEquals(backend.entries.get("key"), backend.entries
+                .get(ChunkedBackendConnector.indexKey("key")));
+        assertArrayEquals(data, connector.getSession("key").getData());
+    }
+
+    @Test
+    void getSessionHeader_chunkedPayload_readFromFirstChunk() {
+        byte[] data = randomBytes(101);
+        connector.sendSession(new SessionInfo("key", data));
+
+        assertArrayEquals(Arrays.copyOf(data, 13),
+                connector.getSessionHeader("key", 13));
+        connector.sendSession(new SessionInfo("key", randomBytes(10)));
+        assertEquals(10, connector.getSessionHeader("key", 13).length);
+        connector.deleteSession("key");
+        assertNull(connector.getSessionHeader("key", 13));
+    }
+
+    @Test
+    void sendSessionIfAbsent_manifestAlreadyStored_chunksDeleted() {
+        byte[] data = randomBytes(200);
+        assertTrue(connector.sendSessionIfAbsent(new SessionInfo("key", data)));
+        Set<String> keys = Set.copyOf(backend.entries.keySet());
+
+        assertFalse(connector
+                .sendSessionIfAbsent(new SessionInfo("key", randomBytes(150))));
+        assertEquals(keys, backend.entries.keySet());
+        assertArrayEquals(data, connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_directBuffer_chunksWrittenFromBuffer() {
+        byte[] data = randomBytes(250);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(300);
+        buffer.put(data).flip();
+        connector.sendSession(
+                new SessionInfo("key", Duration.ZERO, buffer, null));
+
+        assertArrayEquals(data, connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_newVersion_previousChunksDeleted() {
+        connector.sendSession(new SessionInfo("key", randomBytes(200)));
+        byte[] data = randomBytes(150);
+        connector.sendSession(new SessionInfo("key", data));
+
+        // manifest + index + 4 chunks
+        assertEquals(6, backend.entries.size());
+        assertArrayEquals(data, connector.getSession("key").getData());
+
+        connector.sendSession(new SessionInfo("key", randomBytes(10)));
+        assertEquals(1, backend.entries.size());
+    }
+
+    @Test
+    void sendSession_chunkWriteFails_previousVersionKept() {
+        byte[] previous = randomBytes(200);
+        connector.sendSession(new SessionInfo("key", previous));
+        Set<String> previousKeys = Set.copyOf(backend.entries.keySet());
+        RuntimeException failure = new RuntimeException("write failed");
+        MapBackendConnector failing = new MapBackendConnector() {
+            @Override
+            public void sendSession(SessionInfo sessionInfo) {
+                if (sessionInfo.getClusterKey().endsWith(":1")) {
+                    throw failure;
+                }
+                backend.sendSession(sessionInfo);
+            }
+
+            @Override
+            public void deleteSession(String clusterKey) {
+                backend.deleteSession(clusterKey);
+            }
+        };
+        ChunkedBackendConnector writer = new ChunkedBackendConnector(failing,
+                100, 40, DIRECT);
+
+        assertSame(failure, assertThrows(RuntimeException.class,
+                () -> writer.sendSession(
+                        new SessionInfo("key", randomBytes(180)))));
+
+        assertEquals(previousKeys, backend.entries.keySet());
+        assertArrayEquals(previous, connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_manySessions_knownManifestsBounded() {
+        int sessions = ChunkedBackendConnector.MAX_KNOWN_MANIFESTS + 10;
+        for (int i = 0; i < sessions; i++) {
+            connector.sendSession(
+                    new SessionInfo("key" + i, randomBytes(101)));
+        }
+
+        assertEquals(ChunkedBackendConnector.MAX_KNOWN_MANIFESTS,
+                connector.getKnownManifestCount());
+        // evicted sessions are still deleted through their index key
+        connector.deleteSession("key0");
+        assertNull(backend.entries
+                .get(ChunkedBackendConnector.indexKey("key0")));
+        assertTrue(backend.entries.keySet().stream()
+                .noneMatch(key -> key.startsWith("key0:chunk:")));
+    }
+
+    @Test
+    void getSession_chunkMissing_returnsNull() {
+        connector.sendSession(new SessionInfo("key", randomBytes(200)));
+        backend.entries.keySet().stream().filter(k -> k.contains(":chunk:"))
+                .findFirst().ifPresent(backend.entries::remove);
+
+        assertNull(connector.getSession("key"));
+    }
+
+    @Test
+    void getSession_manifestReplacedWhileReading_readsNewVersion() {
+        ChunkedBackendConnector writer = new ChunkedBackendConnector(backend,
+                100, 40, DIRECT);
+        writer.sendSession(new SessionInfo("key", randomBytes(200)));
+        byte[] oldManifest = backend.entries.get("key");
+        byte[] data = randomBytes(180);
+        writer.sendSession(new SessionInfo("key", data));
+        byte[] newManifest = backend.entries.get("key");
+
+        // first read sees the stale manifest whose chunks are gone
+        MapBackendConnector racing = new MapBackendConnector() {
+            private boolean first = true;
+
+            @Override
+            public SessionInfo getSession(String clusterKey) {
+                if ("key".equals(clusterKey)) {
+                    byte[] manifest = first ? oldManifest : newManifest;
+                    first = false;
+                    return new SessionInfo(clusterKey, manifest);
+                }
+                return backend.getSession(clusterKey);
+            }
+        };
+        ChunkedBackendConnector reader = new ChunkedBackendConnector(racing,
+                100, 40, DIRECT);
+
+        assertArrayEquals(data, reader.getSession("key").getData());
+    }
+
+    @Test
+    void deleteSession_manifestAndChunksDeleted() {
+        connector.sendSession(new SessionInfo("key", randomBytes(200)));
+        new ChunkedBackendConnector(backend, 100, 40, DIRECT)
+                .deleteSession("key");
+
+        assertTrue(backend.entries.isEmpty());
+    }
+
+    @Test
+    void deleteSession_manifestNotCached_sessionDataNotRead() {
+        connector.sendSession(new SessionInfo("key", randomBytes(200)));
+        List<String> reads = new ArrayList<>();
+        MapBackendConnector tracking = new MapBackendConnector() {
+            @Override
+            public SessionInfo getSession(String clusterKey) {
+                reads.add(clusterKey);
+                return backend.getSession(clusterKey);
+            }
+
+            @Override
+            public void deleteSession(String clusterKey) {
+                backend.deleteSession(clusterKey);
+            }
+        };
+        new ChunkedBackendConnector(tracking, 100, 40, DIRECT)
+                .deleteSession("key");
+
+        assertEquals(List.of(ChunkedBackendConnector.indexKey("key")), reads);
+        assertTrue(backend.entries.isEmpty());
+    }
+
+    @Test
+    void deleteSession_unchunkedSession_onlySessionDeleted() {
+        byte[] data = randomBytes(50);
+        connector.sendSession(new SessionInfo("key", data));
+        backend.entries.put("other", data);
+        new ChunkedBackendConnector(backend, 100, 40, DIRECT)
+                .deleteSession("key");
+
+        assertEquals(Set.of("other"), backend.entries.keySet());
+    }
+
+    @Test
+    void close_defaultExecutor_chunkTransfersRejected() {
+        ChunkedBackendConnector pooled = new ChunkedBackendConnector(backend,
+                100, 40);
+        byte[] data = randomBytes(200);
+        pooled.sendSession(new SessionInfo("key", data));
+        assertArrayEquals(data, pooled.getSession("key").getData());
+
+        pooled.close();
+
+        assertThrows(RejectedExecutionException.class, () -> pooled
+                .sendSession(new SessionInfo("key", randomBytes(200))));
+    }
+
+    @Test
+    void markers_delegated() {
+        assertSame(backend, connector.getDelegate());
+        assertTrue(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(1)));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        // make sure the payload does not start like a manifest
+        data[0] = (byte) 0xAC;
+        return data;
+    }
+}
@@ -0,0 +1,181 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector.CircuitOpenException;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector.Settings;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector.State;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.FaultProfile;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.LatencyDistribution;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.Operation;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerBackendConnectorTest {
+
+    private static final Duration WAIT = Duration.ofMillis(100);
+
+    private final InMemoryBackendConnector backend = new InMemoryBackendConnector();
+
+    @Test
+    void failures_belowMinimumCalls_circuitClosed() {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, settings(5));
+        backend.setFaultProfile(FaultProfile.errors(1));
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(RuntimeException.class,
+                    () -> connector.deleteSession("key"));
+        }
+        assertEquals(State.CLOSED, connector.getState());
+        assertEquals(1, connector.getFailureRate());
+    }
+
+    @Test
+    void failures_thresholdReached_circuitOpenAndDegraded() {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, new Settings(0.5, Duration.ofSeconds(10), 1, 10, 2,
+                        Duration.ofMinutes(1), 1));
+        backend.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(FaultProfile.errors(1));
+        openCircuit(connector);
+        backend.setFaultProfile(null);
+        long calls = backend.getInvocations(Operation.GET_SESSION);
+
+        assertNull(connector.getSession("key"));
+        assertThrows(CircuitOpenException.class, () -> connector
+                .markSerializationStarted("key", Duration.ofSeconds(1)));
+        assertTrue(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(1)));
+        connector.markSerializationComplete("key");
+
+        assertEquals(calls, backend.getInvocations(Operation.GET_SESSION));
+        assertEquals(0, backend
+                .getInvocations(Operation.MARK_SERIALIZATION_STARTED));
+        assertEquals(1, backend
+                .getInvocations(Operation.MARK_SERIALIZATION_COMPLETE));
+        assertEquals(3, connector.getRejectedCalls());
+    }
+
+    @Test
+    void circuitOpen_markerReleases_sentToBackendAndFailuresIgnored() {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, new Settings(0.5, Duration.ofSeconds(10), 1, 10, 2,
+                        Duration.ofMinutes(1), 1));
+        backend.setFaultProfile(FaultProfile.errors(1));
+        openCircuit(connector);
+        long rejected = connector.getRejectedCalls();
+
+        connector.markSerializationComplete("key");
+        connector.markSerializationFailed("key", new RuntimeException());
+        connector.markDeserializationComplete("key");
+        connector.markDeserializationFailed("key", new RuntimeException());
+
+        assertEquals(1, backend
+                .getInvocations(Operation.MARK_SERIALIZATION_COMPLETE));
+        assertEquals(1,
+                backend.getInvocations(Operation.MARK_SERIALIZATION_FAILED));
+        assertEquals(1, backend
+                .getInvocations(Operation.MARK_DESERIALIZATION_COMPLETE));
+        assertEquals(1, backend
+                .getInvocations(Operation.MARK_DESERIALIZATION_FAILED));
+        assertEquals(rejected, connector.getRejectedCalls());
+        assertEquals(State.OPEN, connector.getState());
+    }
+
+    @Test
+    void slowCalls_thresholdReached_circuitOpen() {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, new Settings(1, Duration.ofMillis(10), 0.5, 10, 2,
+                        WAIT, 1));
+        backend.setFaultProfile(Operation.GET_SESSION, FaultProfile
+                .latency(LatencyDistribution.fixed(Duration.ofMillis(20))));
+
+        connector.getSession("key");
+        connector.getSession("key");
+
+        assertEquals(State.OPEN, connector.getState());
+        assertEquals(2, connector.getCallLatency().getCount());
+    }
+
+    @Test
+    void waitElapsed_probeSucceeds_circuitClosed() {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, settings(2));
+        List<State> transitions = new ArrayList<>();
+        connector.addStateChangeListener(
+                (source, previous, current) -> transitions.add(current));
+        backend.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(FaultProfile.errors(1));
+        openCircuit(connector);
+        backend.setFaultProfile(null);
+
+        await().pollDelay(WAIT).atMost(Duration.ofSeconds(2))
+                .until(() -> connector.getSession("key") != null);
+
+        assertEquals(State.CLOSED, connector.getState());
+        assertEquals(List.of(State.OPEN, State.HALF_OPEN, State.CLOSED),
+                transitions);
+        assertArrayEquals(new byte[] { 1 },
+                connector.getSession("key").getData());
+    }
+
+    @Test
+    void waitElapsed_probeFails_circuitOpenAgain() throws Exception {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, settings(2));
+        backend.setFaultProfile(FaultProfile.errors(1));
+        openCircuit(connector);
+
+        Thread.sleep(WAIT.toMillis() + 20);
+        assertThrows(InMemoryBackendConnector.InjectedFailureException.class,
+                () -> connector.deleteSession("key"));
+
+        assertEquals(State.OPEN, connector.getState());
+        connector.deleteSession("key");
+        assertEquals(1, connector.getRejectedCalls());
+    }
+
+    @Test
+    void listenerRemoved_notNotified() {
+        CircuitBreakerBackendConnector connector = new CircuitBreakerBackendConnector(
+                backend, settings(2));
+        List<State> transitions = new ArrayList<>();
+        connector.addStateChangeListener(
+                (source, previous, current) -> transitions.add(current)).run();
+        backend.setFaultProfile(FaultProfile.errors(1));
+        openCircuit(connector);
+
+        assertTrue(transitions.isEmpty());
+    }
+
+    private static Settings settings(int minimumCalls) {
+        return new Settings(0.5, Duration.ofSeconds(10), 1, 10, minimumCalls,
+                WAIT, 1);
+    }
+
+    private static void openCircuit(CircuitBreakerBackendConnector connector) {
+        while (connector.getState() != State.OPEN) {
+            assertThrows(RuntimeException.class,
+                    () -> connector.deleteSession("key"));
+        }
+    }
+}
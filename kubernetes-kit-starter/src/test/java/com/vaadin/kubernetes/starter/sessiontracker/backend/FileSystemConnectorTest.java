@@ -0,0 +1,272 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSystemConnectorTest {
+
+    @TempDir
+    Path directory;
+
+    private FileSystemConnector connector;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (connector != null) {
+            connector.close();
+        }
+    }
+
+    @Test
+    void sendSession_getSession_dataRoundTrip() {
+        connector = open();
+        byte[] data = bytes(100, 1);
+        connector.sendSession(new SessionInfo("key", data));
+
+        assertArrayEquals(data, connector.getSession("key").getData());
+        assertNull(connector.getSession("other"));
+    }
+
+    @Test
+    void sendSession_directBuffer_dataWritten() {
+        connector = open();
+        byte[] data = bytes(1000, 2);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        buffer.put(data).flip();
+        connector.sendSession(
+                new SessionInfo("key", Duration.ZERO, buffer, null));
+
+        assertArrayEquals(data, connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_overwrite_latestDataReturned() {
+        connector = open();
+        connector.sendSession(new SessionInfo("key", bytes(100, 1)));
+        byte[] data = bytes(50, 2);
+        connector.sendSession(new SessionInfo("key", data));
+
+        assertArrayEquals(data, connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSessionIfAbsent_existingSessionKept() {
+        connector = open();
+        assertTrue(connector
+                .sendSessionIfAbsent(new SessionInfo("key", bytes(10, 1))));
+
+        assertFalse(connector
+                .sendSessionIfAbsent(new SessionInfo("key", bytes(10, 2))));
+        assertArrayEquals(bytes(10, 1), connector.getSession("key").getData());
+
+        connector.deleteSession("key");
+        assertTrue(connector
+                .sendSessionIfAbsent(new SessionInfo("key", bytes(10, 3))));
+        assertArrayEquals(bytes(10, 3), connector.getSession("key").getData());
+    }
+
+    @Test
+    void getClusterKeys_orderedByLatestWrite() {
+        connector = open();
+        connector.sendSession(new SessionInfo("a", bytes(10, 1)));
+        connector.sendSession(new SessionInfo("b", bytes(10, 2)));
+        connector.sendSession(new SessionInfo("c", bytes(10, 3)));
+        connector.sendSession(new SessionInfo("a", bytes(10, 4)));
+        connector.deleteSession("b");
+
+        assertEquals(List.of("c", "a"), connector.getClusterKeys());
+    }
+
+    @Test
+    void restart_sessionsAndDeletionsRecovered() throws IOException {
+        connector = open();
+        byte[] data = bytes(100, 1);
+        connector.sendSession(new SessionInfo("key", data));
+        connector.sendSession(new SessionInfo("deleted", bytes(10, 2)));
+        connector.deleteSession("deleted");
+        connector.close();
+
+        connector = open();
+        assertArrayEquals(data, connector.getSession("key").getData());
+        assertNull(connector.getSession("deleted"));
+    }
+
+    @Test
+    void restart_tornWrite_tailTruncated() throws IOException {
+        connector = open();
+        byte[] data = bytes(100, 1);
+        connector.sendSession(new SessionInfo("key", data));
+        connector.sendSession(new SessionInfo("torn", bytes(100, 2)));
+        connector.close();
+
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        connector = open();
+        assertArrayEquals(data, connector.getSession("key").getData());
+        assertNull(connector.getSession("torn"));
+        assertTrue(Files.size(segment) < size - 10);
+
+        // new writes after recovery are readable after another restart
+        byte[] other = bytes(20, 3);
+        connector.sendSession(new SessionInfo("other", other));
+        connector.close();
+        connector = open();
+        assertArrayEquals(other, connector.getSession("other").getData());
+    }
+
+    @Test
+    void restart_corruptedRecord_recordIgnored() throws IOException {
+        connector = open();
+        connector.sendSession(new SessionInfo("key", bytes(100, 1)));
+        connector.close();
+
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0 }),
+                    Files.size(segment) - 1);
+        }
+
+        connector = open();
+        assertNull(connector.getSession("key"));
+    }
+
+    @Test
+    void getSession_expired_returnsNull() throws Exception {
+        connector = open();
+        connector.sendSession(
+                new SessionInfo("key", Duration.ofMillis(50), bytes(10, 1)));
+        assertEquals(10, connector.getSession("key").getSize());
+
+        Thread.sleep(100);
+        assertNull(connector.getSession("key"));
+    }
+
+    @Test
+    void compact_sealedSegmentsRemovedAndLiveSessionsKept()
+            throws IOException {
+        connector = new FileSystemConnector(directory, 200, Duration.ZERO);
+        byte[] live = bytes(150, 1);
+        connector.sendSession(new SessionInfo("live", live));
+        for (int i = 0; i < 5; i++) {
+            connector.sendSession(new SessionInfo("garbage", bytes(150, i)));
+        }
+        connector.deleteSession("garbage");
+        assertTrue(segments().size() > 2);
+
+        connector.compact();
+
+        assertEquals(1, segments().size());
+        assertArrayEquals(live, connector.getSession("live").getData());
+        assertNull(connector.getSession("garbage"));
+
+        connector.close();
+        connector = open();
+        assertArrayEquals(live, connector.getSession("live").getData());
+        assertNull(connector.getSession("garbage"));
+    }
+
+    @Test
+    void markDeserializationStarted_onlyOneCallerAcquires() {
+        connector = open();
+        assertTrue(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(10)));
+        assertFalse(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(10)));
+        connector.markDeserializationComplete("key");
+        assertTrue(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void getSession_serializationPending_waitsForCompletion()
+            throws Exception {
+        connector = open();
+        connector.markSerializationStarted("key", Duration.ofSeconds(10));
+        byte[] data = bytes(10, 1);
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            connector.sendSession(new SessionInfo("key", data));
+            connector.markSerializationComplete("key");
+        });
+        writer.start();
+
+        assertArrayEquals(data, connector.getSession("key").getData());
+        writer.join();
+    }
+
+    @Test
+    void getSession_recordsAcrossMappingWindows_dataReturned() {
+        connector = open();
+        int windowSize = (int) FileSystemConnector.MAP_WINDOW_SIZE;
+        byte[] first = bytes(windowSize / 2, 1);
+        byte[] crossing = bytes(windowSize / 2 + 100, 2);
+        byte[] large = bytes(windowSize + 100, 3);
+        connector.sendSession(new SessionInfo("first", first));
+        // maps the first window up to the current end of the segment
+        assertArrayEquals(first, connector.getSession("first").getData());
+
+        connector.sendSession(new SessionInfo("crossing", crossing));
+        connector.sendSession(new SessionInfo("large", large));
+        byte[] tail = bytes(100, 4);
+        connector.sendSession(new SessionInfo("tail", tail));
+
+        assertArrayEquals(crossing, connector.getSession("crossing").getData());
+        assertArrayEquals(large, connector.getSession("large").getData());
+        assertArrayEquals(tail, connector.getSession("tail").getData());
+        assertArrayEquals(first, connector.getSession("first").getData());
+    }
+
+    private FileSystemConnector open() {
+        return new FileSystemConnector(directory);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+}
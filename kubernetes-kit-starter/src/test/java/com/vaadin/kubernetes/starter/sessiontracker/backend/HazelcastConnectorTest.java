@@ -2,7 +2,9 @@ package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
 import java.time.Duration;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.hazelcast.client.HazelcastClient;
 import com.hazelcast.client.config.ClientConfig;
@@ -13,17 +15,23 @@ import com.hazelcast.spi.properties.ClusterProperty;
 import org.junit.Assert;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
-import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -49,6 +57,14 @@ public class HazelcastConnectorTest {
         when(hazelcastInstance.getConfig()).thenReturn(hazelcastConfig);
         when(hazelcastInstance.<String, byte[]> getMap(anyString()))
                 .thenReturn(sessionMap);
+        try {
+            when(sessionMap.tryLock(anyString(), anyLong(), any()))
+                    .thenReturn(true);
+            when(sessionMap.tryLock(anyString(), anyLong(), any(), anyLong(),
+                    any())).thenReturn(true);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
 
         connector = new HazelcastConnector(hazelcastInstance);
     }
@@ -69,128 +85,291 @@ public class HazelcastConnectorTest {
 
     @Test
     void sendSession_sessionIsAdded() {
+        when(sessionMap.setAsync(anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
         SessionInfo sessionInfo = new SessionInfo(clusterKey,
                 new byte[] { 'f', 'o', 'o' });
 
         connector.sendSession(sessionInfo);
 
-        verify(sessionMap).put(eq(HazelcastConnector.getKey(clusterKey)),
+        verify(sessionMap).setAsync(eq(HazelcastConnector.getKey(clusterKey)),
                 aryEq(sessionInfo.getData()));
+        verify(sessionMap, never()).put(anyString(), any());
     }
 
     @Test
     void sendSession_expiration_sessionIsAddedWithTimeToLive() {
+        when(sessionMap.setAsync(anyString(), any(), anyLong(), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
         SessionInfo sessionInfo = new SessionInfo(clusterKey,
                 Duration.ofMinutes(30), new byte[] { 'f', 'o', 'o' });
 
         connector.sendSession(sessionInfo);
 
-        verify(sessionMap).put(eq(HazelcastConnector.getKey(clusterKey)),
+        verify(sessionMap).setAsync(eq(HazelcastConnector.getKey(clusterKey)),
                 aryEq(sessionInfo.getData()), eq(30L * 60),
                 eq(TimeUnit.SECONDS));
     }
 
+    @Test
+    void sendSession_writeFails_failureCountedAndNotThrown() {
+        when(sessionMap.setAsync(anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(
+                        new RuntimeException("write failed")));
+
+        connector.sendSession(
+                new SessionInfo(clusterKey, new byte[] { 'f', 'o', 'o' }));
+
+        assertEquals(1, connector.getFailedWrites());
+    }
+
+    @Test
+    void markSerializationComplete_pendingWrite_releasedWhenWriteAcknowledged() {
+        CompletableFuture<Void> write = new CompletableFuture<>();
+        when(sessionMap.setAsync(anyString(), any())).thenReturn(write);
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+        connector.sendSession(
+                new SessionInfo(clusterKey, new byte[] { 'f', 'o', 'o' }));
+
+        connector.markSerializationComplete(clusterKey);
+        verify(sessionMap, never()).remove(anyString(), any());
+        assertFalse(connector.awaitPendingOperations(Duration.ofMillis(10)));
+
+        write.complete(null);
+
+        assertTrue(connector.awaitPendingOperations(Duration.ofSeconds(5)));
+        verify(sessionMap).remove(
+                eq(HazelcastConnector.getPendingKey(clusterKey)), notNull());
+        assertEquals(0, connector.getFailedWrites());
+    }
+
+    @Test
+    void markSerializationComplete_pendingWriteFails_released() {
+        CompletableFuture<Void> write = new CompletableFuture<>();
+        when(sessionMap.setAsync(anyString(), any())).thenReturn(write);
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+        connector.sendSession(
+                new SessionInfo(clusterKey, new byte[] { 'f', 'o', 'o' }));
+
+        connector.markSerializationComplete(clusterKey);
+        write.completeExceptionally(new RuntimeException("write failed"));
+
+        assertTrue(connector.awaitPendingOperations(Duration.ofSeconds(5)));
+        verify(sessionMap).remove(
+                eq(HazelcastConnector.getPendingKey(clusterKey)), notNull());
+        assertEquals(1, connector.getFailedWrites());
+    }
+
+    @Test
+    void awaitPendingOperations_noPendingWrites_returnsImmediately() {
+        assertTrue(connector.awaitPendingOperations(Duration.ZERO));
+    }
+
     @Test
     void getSession_sessionIsRetrieved() {
-        when(sessionMap.isLocked(any())).thenReturn(false);
+        when(sessionMap.containsKey(any())).thenReturn(false);
 
         connector.getSession(clusterKey);
 
-        try {
-            verify(sessionMap, never()).tryLock(any(), anyLong(), any(),
-                    anyLong(), any());
-        } catch (Exception e) {
-            fail();
-        }
-
+        verify(sessionMap)
+                .containsKey(eq(HazelcastConnector.getPendingKey(clusterKey)));
         verify(sessionMap).get(eq(HazelcastConnector.getKey(clusterKey)));
+        assertEquals(0,
+                connector.getSerializationCompletionWaits().getCount());
     }
 
     @Test
-    void getSession_sessionLocked_waitsForSessionLock() {
-        when(sessionMap.isLocked(any())).thenReturn(true);
-        try {
-            when(sessionMap.tryLock(any(), anyLong(), any(), anyLong(), any()))
-                    .thenReturn(true);
-        } catch (Exception e) {
-            fail();
-        }
+    void getSession_serializationPending_waitsWithoutAcquiringMarker() {
+        when(sessionMap.containsKey(any())).thenReturn(true, true, false);
 
         connector.getSession(clusterKey);
 
-        try {
-            verify(sessionMap).tryLock(any(), anyLong(), any(), anyLong(),
-                    any());
-        } catch (Exception e) {
-            fail();
-        }
-
+        verify(sessionMap, times(3))
+                .containsKey(eq(HazelcastConnector.getPendingKey(clusterKey)));
+        verify(sessionMap, never()).putIfAbsent(anyString(), any());
+        verify(sessionMap, never()).putIfAbsent(anyString(), any(), anyLong(),
+                any());
         verify(sessionMap).get(eq(HazelcastConnector.getKey(clusterKey)));
+        assertEquals(1,
+                connector.getSerializationCompletionWaits().getCount());
     }
 
     @Test
-    void markSerializationStarted_zeroExpiration_sessionLockedWithoutTimeToLive() {
+    void markSerializationStarted_zeroExpiration_markerAddedWithoutTimeToLive() {
         connector.markSerializationStarted(clusterKey, Duration.ofMinutes(0));
 
-        verify(sessionMap)
-                .lock(eq(HazelcastConnector.getPendingKey(clusterKey)));
+        verify(sessionMap).putIfAbsent(
+                eq(HazelcastConnector.getPendingKey(clusterKey)), notNull());
+        assertEquals(1, connector.getMarkerAcquisitionWaits().getCount());
     }
 
     @Test
-    void markSerializationStarted_validExpiration_sessionLockedWithTimeToLive() {
+    void markSerializationStarted_validExpiration_markerAddedWithTimeToLive() {
         connector.markSerializationStarted(clusterKey, Duration.ofMinutes(30));
 
-        verify(sessionMap).lock(
-                eq(HazelcastConnector.getPendingKey(clusterKey)), eq(30L * 60),
+        verify(sessionMap).putIfAbsent(
+                eq(HazelcastConnector.getPendingKey(clusterKey)), notNull(),
+                eq(30L * 60), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    void markSerializationStarted_markerHeldByOtherOwner_waitsForRelease() {
+        String pendingKey = HazelcastConnector.getPendingKey(clusterKey);
+        when(sessionMap.putIfAbsent(eq(pendingKey), any()))
+                .thenReturn(BackendUtil.b("other"), BackendUtil.b("other"),
+                        null);
+
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+
+        verify(sessionMap, times(3)).putIfAbsent(eq(pendingKey), any());
+        verify(sessionMap, never()).remove(anyString(), any());
+    }
+
+    @Test
+    void markerKeys_differFromLegacyLockKeys() {
+        // keys locked with IMap.lock by previous versions
+        assertEquals("pending-" + clusterKey,
+                HazelcastConnector.getLegacyPendingKey(clusterKey));
+        assertEquals("pending-deserialization-" + clusterKey,
+                HazelcastConnector
+                        .getLegacyDeserializationPendingKey(clusterKey));
+        assertNotEquals(HazelcastConnector.getLegacyPendingKey(clusterKey),
+                HazelcastConnector.getPendingKey(clusterKey));
+        assertNotEquals(
+                HazelcastConnector
+                        .getLegacyDeserializationPendingKey(clusterKey),
+                HazelcastConnector.getDeserializationPendingKey(clusterKey));
+    }
+
+    @Test
+    void markSerializationStarted_legacyKeyLockedUntilRelease()
+            throws InterruptedException {
+        String legacyKey = HazelcastConnector.getLegacyPendingKey(clusterKey);
+        connector.markSerializationStarted(clusterKey, Duration.ofMinutes(1));
+
+        verify(sessionMap).tryLock(eq(legacyKey), anyLong(), any(), eq(60L),
                 eq(TimeUnit.SECONDS));
+        verify(sessionMap, never()).forceUnlock(anyString());
+
+        connector.markSerializationComplete(clusterKey);
+
+        verify(sessionMap).forceUnlock(legacyKey);
     }
 
     @Test
-    void markSerializationComplete_sessionNotLocked() {
+    void markSerializationStarted_legacyLockNotAcquired_notUnlocked()
+            throws InterruptedException {
+        when(sessionMap.tryLock(anyString(), anyLong(), any()))
+                .thenReturn(false);
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+
         connector.markSerializationComplete(clusterKey);
 
-        verify(sessionMap)
-                .forceUnlock(eq(HazelcastConnector.getPendingKey(clusterKey)));
+        verify(sessionMap).remove(
+                eq(HazelcastConnector.getPendingKey(clusterKey)), any());
+        verify(sessionMap, never()).forceUnlock(anyString());
     }
 
     @Test
-    void markSerializationFailed_sessionNotLocked() {
-        Throwable error = new RuntimeException("error");
-        connector.markSerializationFailed(clusterKey, error);
+    void getSession_legacyLockHeld_waitsForUnlock() {
+        String legacyKey = HazelcastConnector.getLegacyPendingKey(clusterKey);
+        when(sessionMap.isLocked(legacyKey)).thenReturn(true, false);
 
-        verify(sessionMap)
-                .forceUnlock(eq(HazelcastConnector.getPendingKey(clusterKey)));
+        connector.getSession(clusterKey);
+
+        verify(sessionMap, times(2)).isLocked(legacyKey);
+        verify(sessionMap).get(eq(HazelcastConnector.getKey(clusterKey)));
+        assertEquals(1,
+                connector.getSerializationCompletionWaits().getCount());
     }
 
     @Test
-    void deleteSession_sessionNotLocked_sessionIsDeleted()
+    void markDeserializationStarted_legacyLockHeld_returnFalse()
             throws InterruptedException {
-        when(sessionMap.tryLock(
-                eq(HazelcastConnector.getPendingKey(clusterKey)), anyLong(),
-                any(), anyLong(), any())).thenReturn(true);
+        String legacyKey = HazelcastConnector
+                .getLegacyDeserializationPendingKey(clusterKey);
+        when(sessionMap.tryLock(eq(legacyKey), eq(0L), any(), anyLong(),
+                any())).thenReturn(false);
+
+        assertFalse(connector.markDeserializationStarted(clusterKey,
+                Duration.ofSeconds(60)));
+
+        verify(sessionMap).remove(
+                eq(HazelcastConnector.getDeserializationPendingKey(clusterKey)),
+                any());
+        verify(sessionMap, never()).forceUnlock(anyString());
+    }
+
+    @Test
+    void markSerializationStarted_staleMarker_takenOver() {
+        connector = new HazelcastConnector(hazelcastInstance,
+                Duration.ofMillis(20));
+        String pendingKey = HazelcastConnector.getPendingKey(clusterKey);
+        byte[] staleToken = BackendUtil.b("stale");
+        AtomicBoolean removed = new AtomicBoolean();
+        when(sessionMap.putIfAbsent(eq(pendingKey), any()))
+                .thenAnswer(i -> removed.get() ? null : staleToken);
+        when(sessionMap.remove(pendingKey, staleToken)).thenAnswer(i -> {
+            removed.set(true);
+            return true;
+        });
+
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+
+        verify(sessionMap).remove(eq(pendingKey), aryEq(staleToken));
+    }
+
+    @Test
+    void markSerializationComplete_ownedMarker_releasedWithOwnerToken() {
+        String pendingKey = HazelcastConnector.getPendingKey(clusterKey);
+        ArgumentCaptor<byte[]> token = ArgumentCaptor.forClass(byte[].class);
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+        verify(sessionMap).putIfAbsent(eq(pendingKey), token.capture());
+
+        connector.markSerializationComplete(clusterKey);
+
+        verify(sessionMap).remove(eq(pendingKey), aryEq(token.getValue()));
+    }
+
+    @Test
+    void markSerializationComplete_markerNotOwned_markerNotRemoved() {
+        connector.markSerializationComplete(clusterKey);
+
+        verify(sessionMap, never()).remove(anyString(), any());
+        verify(sessionMap, never()).delete(anyString());
+    }
+
+    @Test
+    void markSerializationFailed_ownedMarker_released() {
+        String pendingKey = HazelcastConnector.getPendingKey(clusterKey);
+        connector.markSerializationStarted(clusterKey, Duration.ZERO);
+
+        connector.markSerializationFailed(clusterKey,
+                new RuntimeException("error"));
+
+        verify(sessionMap).remove(eq(pendingKey), any());
+    }
+
+    @Test
+    void deleteSession_sessionNotLocked_sessionIsDeleted() {
+        when(sessionMap.containsKey(any())).thenReturn(false);
 
         connector.deleteSession(clusterKey);
 
         verify(sessionMap).delete(HazelcastConnector.getKey(clusterKey));
         verify(sessionMap).delete(HazelcastConnector.getPendingKey(clusterKey));
-        verify(sessionMap, never()).tryLock(
-                eq(HazelcastConnector.getPendingKey(clusterKey)), anyLong(),
-                any(), anyLong(), any());
+        verify(sessionMap, times(1))
+                .containsKey(eq(HazelcastConnector.getPendingKey(clusterKey)));
     }
 
     @Test
-    void deleteSession_sessionLocked_waitsForSessionLock()
-            throws InterruptedException {
-        when(sessionMap.isLocked(any())).thenReturn(true);
-        when(sessionMap.tryLock(
-                eq(HazelcastConnector.getPendingKey(clusterKey)), anyLong(),
-                any(), anyLong(), any())).thenReturn(true);
+    void deleteSession_sessionLocked_waitsForSerialization() {
+        when(sessionMap.containsKey(any())).thenReturn(true, false);
 
         connector.deleteSession(clusterKey);
 
-        verify(sessionMap).tryLock(
-                eq(HazelcastConnector.getPendingKey(clusterKey)), anyLong(),
-                any(), anyLong(), any());
+        verify(sessionMap, times(2))
+                .containsKey(eq(HazelcastConnector.getPendingKey(clusterKey)));
         verify(sessionMap).delete(HazelcastConnector.getKey(clusterKey));
         verify(sessionMap).delete(HazelcastConnector.getPendingKey(clusterKey));
     }
@@ -199,55 +378,63 @@ public class HazelcastConnectorTest {
     void markDeserializationStarted_notPending_returnTrue() {
         String pendingKey = HazelcastConnector
                 .getDeserializationPendingKey(clusterKey);
-        when(sessionMap.isLocked(pendingKey)).thenReturn(false);
 
         Duration timeToLive = Duration.ofSeconds(60);
         Assert.assertTrue(
                 connector.markDeserializationStarted(clusterKey, timeToLive));
 
-        verify(sessionMap).lock(eq(pendingKey), eq(60L), eq(TimeUnit.SECONDS));
+        verify(sessionMap).putIfAbsent(eq(pendingKey), notNull(), eq(60L),
+                eq(TimeUnit.SECONDS));
     }
 
     @Test
-    void markDeserializationStarted_zeroExpiration_deserializationLockedWithoutTimeToLive() {
+    void markDeserializationStarted_zeroExpiration_deserializationMarkerWithoutTimeToLive() {
         String pendingKey = HazelcastConnector
                 .getDeserializationPendingKey(clusterKey);
-        when(sessionMap.isLocked(pendingKey)).thenReturn(false);
 
         Duration timeToLive = Duration.ofMinutes(0);
         connector.markDeserializationStarted(clusterKey, timeToLive);
 
-        verify(sessionMap).lock(eq(pendingKey));
+        verify(sessionMap).putIfAbsent(eq(pendingKey), notNull());
     }
 
     @Test
     void markDeserializationStarted_pending_returnFalse() {
         String pendingKey = HazelcastConnector
                 .getDeserializationPendingKey(clusterKey);
-        when(sessionMap.isLocked(pendingKey)).thenReturn(true);
+        when(sessionMap.putIfAbsent(eq(pendingKey), any(), anyLong(), any()))
+                .thenReturn(BackendUtil.b("other"));
 
         Duration timeToLive = Duration.ofSeconds(60);
         Assert.assertFalse(
                 connector.markDeserializationStarted(clusterKey, timeToLive));
 
-        verify(sessionMap, never()).lock(eq(pendingKey), anyLong(), any());
+        verify(sessionMap, times(1)).putIfAbsent(eq(pendingKey), any(),
+                anyLong(), any());
+        assertEquals(0, connector.getMarkerAcquisitionWaits().getCount());
     }
 
     @Test
-    void markDeserializationComplete_removePendingKey() {
+    void markDeserializationComplete_removeOwnedMarker() {
+        String pendingKey = HazelcastConnector
+                .getDeserializationPendingKey(clusterKey);
+        connector.markDeserializationStarted(clusterKey, Duration.ZERO);
+
         connector.markDeserializationComplete(clusterKey);
 
-        verify(sessionMap).forceUnlock(eq(
-                HazelcastConnector.getDeserializationPendingKey(clusterKey)));
+        verify(sessionMap).remove(eq(pendingKey), any());
     }
 
     @Test
-    void markDeserializationFailed_removePendingKey() {
+    void markDeserializationFailed_removeOwnedMarker() {
+        String pendingKey = HazelcastConnector
+                .getDeserializationPendingKey(clusterKey);
+        connector.markDeserializationStarted(clusterKey, Duration.ZERO);
+
         Throwable error = new RuntimeException("error");
         connector.markDeserializationFailed(clusterKey, error);
 
-        verify(sessionMap).forceUnlock(eq(
-                HazelcastConnector.getDeserializationPendingKey(clusterKey)));
+        verify(sessionMap).remove(eq(pendingKey), any());
     }
 
 }
@@ -0,0 +1,194 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.FaultProfile;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.InjectedFailureException;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.LatencyDistribution;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.Operation;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryBackendConnectorTest {
+
+    @Test
+    void sendSession_getSession_dataReturned() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+        connector.sendSession(new SessionInfo("key", new byte[] { 1, 2 }));
+
+        assertArrayEquals(new byte[] { 1, 2 },
+                connector.getSession("key").getData());
+        assertNull(connector.getSession("other"));
+    }
+
+    @Test
+    void sendSession_callerDataModified_storedSessionUnchanged() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+        byte[] data = new byte[] { 1, 2 };
+        connector.sendSession(new SessionInfo("key", data));
+        data[0] = 9;
+        connector.getSession("key").getData()[1] = 9;
+
+        assertArrayEquals(new byte[] { 1, 2 },
+                connector.getSession("key").getData());
+    }
+
+    @Test
+    void getSession_timeToLiveElapsed_sessionExpired() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+        connector.sendSession(new SessionInfo("key", Duration.ofMillis(20),
+                new byte[] { 1 }));
+
+        await().atMost(Duration.ofSeconds(1))
+                .until(() -> connector.getSession("key") == null);
+        assertEquals(0, connector.size());
+    }
+
+    @Test
+    void deleteSession_sessionRemoved() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.deleteSession("key");
+
+        assertNull(connector.getSession("key"));
+    }
+
+    @Test
+    void getSession_serializationInProgress_waitsForCompletion()
+            throws Exception {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+        connector.markSerializationStarted("key", Duration.ofSeconds(10));
+
+        CompletableFuture<SessionInfo> read = CompletableFuture
+                .supplyAsync(() -> connector.getSession("key"));
+        Thread.sleep(50);
+        assertFalse(read.isDone());
+
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.markSerializationComplete("key");
+        assertArrayEquals(new byte[] { 1 },
+                read.get(1, TimeUnit.SECONDS).getData());
+    }
+
+    @Test
+    void markDeserializationStarted_acquiredOnceUntilReleased() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+
+        assertTrue(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(10)));
+        assertFalse(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(10)));
+        connector.markDeserializationComplete("key");
+        assertTrue(connector.markDeserializationStarted("key",
+                Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void markDeserializationStarted_markerExpired_acquired() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector();
+        connector.markDeserializationStarted("key", Duration.ofMillis(10));
+
+        await().atMost(Duration.ofSeconds(1)).until(() -> connector
+                .markDeserializationStarted("key", Duration.ofMillis(10)));
+    }
+
+    @Test
+    void errorRate_operationFailsWithoutBeingApplied() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector()
+                .setFaultProfile(Operation.SEND_SESSION,
+                        FaultProfile.errors(1));
+
+        InjectedFailureException error = assertThrows(
+                InjectedFailureException.class, () -> connector
+                        .sendSession(new SessionInfo("key", new byte[] { 1 })));
+        assertFalse(error.isApplied());
+        assertEquals(0, connector.size());
+        assertEquals(1, connector.getInjectedFailures(Operation.SEND_SESSION));
+    }
+
+    @Test
+    void partialFailureRate_operationAppliedButFails() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector()
+                .setFaultProfile(Operation.SEND_SESSION, new FaultProfile(
+                        LatencyDistribution.none(), 0, 1));
+
+        InjectedFailureException error = assertThrows(
+                InjectedFailureException.class, () -> connector
+                        .sendSession(new SessionInfo("key", new byte[] { 1 })));
+        assertTrue(error.isApplied());
+        assertArrayEquals(new byte[] { 1 },
+                connector.getSession("key").getData());
+    }
+
+    @Test
+    void latency_operationDelayed() {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector()
+                .setFaultProfile(Operation.GET_SESSION, FaultProfile.latency(
+                        LatencyDistribution.fixed(Duration.ofMillis(50))));
+
+        long start = System.nanoTime();
+        connector.getSession("key");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+                .toNanos(50));
+    }
+
+    @Test
+    void faults_sameSeed_sameOutcomes() {
+        assertEquals(outcomes(42), outcomes(42));
+    }
+
+    @Test
+    void latencyDistributions_valuesInExpectedRange() {
+        Random random = new Random(1);
+        LatencyDistribution uniform = LatencyDistribution
+                .uniform(Duration.ofMillis(10), Duration.ofMillis(20));
+        LatencyDistribution spikes = LatencyDistribution.none()
+                .withSpikes(1, Duration.ofSeconds(1));
+        for (int i = 0; i < 100; i++) {
+            Duration latency = uniform.sample(random);
+            assertTrue(latency.compareTo(Duration.ofMillis(10)) >= 0);
+            assertTrue(latency.compareTo(Duration.ofMillis(20)) <= 0);
+            assertEquals(Duration.ofSeconds(1), spikes.sample(random));
+            assertFalse(LatencyDistribution
+                    .logNormal(Duration.ofMillis(5), 0.5).sample(random)
+                    .isNegative());
+        }
+    }
+
+    private static List<Boolean> outcomes(long seed) {
+        InMemoryBackendConnector connector = new InMemoryBackendConnector(
+                seed).setFaultProfile(FaultProfile.errors(0.5));
+        List<Boolean> outcomes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            try {
+                connector.deleteSession("key");
+                outcomes.add(true);
+            } catch (InjectedFailureException e) {
+                outcomes.add(false);
+            }
+        }
+        return outcomes;
+    }
+}
@@ -0,0 +1,133 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionObservations;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.FaultProfile;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.LatencyDistribution;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InstrumentedBackendConnectorTest {
+
+    private final List<Call> calls = new ArrayList<>();
+
+    private final SessionMetrics metrics = new SessionMetrics() {
+        @Override
+        public synchronized void recordBackendCall(String operation,
+                long nanos, boolean success) {
+            calls.add(new Call(operation, nanos, success));
+        }
+    };
+
+    @Test
+    void calls_measuredWithOutcome() {
+        InMemoryBackendConnector backend = new InMemoryBackendConnector();
+        InstrumentedBackendConnector connector = InstrumentedBackendConnector
+                .of(backend, metrics);
+        backend.setFaultProfile(InMemoryBackendConnector.Operation.SEND_SESSION,
+                FaultProfile.latency(
+                        LatencyDistribution.fixed(Duration.ofMillis(20))));
+
+        connector.markSerializationStarted("key", Duration.ofSeconds(10));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.markSerializationComplete("key");
+        backend.setFaultProfile(FaultProfile.errors(1));
+        assertThrows(RuntimeException.class,
+                () -> connector.getSession("key"));
+
+        assertEquals(List.of("markSerializationStarted", "sendSession",
+                "markSerializationComplete", "getSession"),
+                calls.stream().map(Call::operation).toList());
+        assertTrue(calls.get(1).nanos() >= Duration.ofMillis(20).toNanos());
+        assertTrue(calls.get(2).success());
+        assertFalse(calls.get(3).success());
+        assertFalse(connector instanceof AsyncBackendConnector);
+    }
+
+    @Test
+    void asyncConnector_measuredOnCompletion() {
+        AsyncBackendConnector backend = mock(AsyncBackendConnector.class);
+        CompletableFuture<SessionInfo> read = new CompletableFuture<>();
+        when(backend.getSessionAsync("key")).thenReturn(read);
+
+        AsyncBackendConnector connector = assertInstanceOf(
+                AsyncBackendConnector.class,
+                InstrumentedBackendConnector.of(backend, metrics));
+        CompletableFuture<SessionInfo> result = connector
+                .getSessionAsync("key");
+
+        assertTrue(calls.isEmpty());
+        read.complete(new SessionInfo("key", new byte[] { 1 }));
+        assertArrayEquals(new byte[] { 1 }, result.join().getData());
+        assertEquals(1, calls.size());
+        assertEquals("getSession", calls.get(0).operation());
+        assertTrue(calls.get(0).success());
+    }
+
+    @Test
+    void observationRegistry_callsObservedInCurrentObservation() {
+        List<Observation.Context> stopped = new CopyOnWriteArrayList<>();
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig()
+                .observationHandler(new ObservationHandler<>() {
+                    @Override
+                    public boolean supportsContext(
+                            Observation.Context context) {
+                        return true;
+                    }
+
+                    @Override
+                    public void onStop(Observation.Context context) {
+                        stopped.add(context);
+                    }
+                });
+        InMemoryBackendConnector backend = new InMemoryBackendConnector();
+        InstrumentedBackendConnector connector = InstrumentedBackendConnector
+                .of(backend, metrics, registry);
+        backend.setFaultProfile(FaultProfile.errors(1));
+
+        Observation request = Observation.start("request", registry);
+        request.scoped(() -> assertThrows(RuntimeException.class,
+                () -> connector.getSession("key")));
+        request.stop();
+
+        Observation.Context backendCall = stopped.get(0);
+        assertEquals(SessionObservations.BACKEND, backendCall.getName());
+        assertEquals("getSession", backendCall
+                .getLowCardinalityKeyValue("operation").getValue());
+        assertNotNull(backendCall.getError());
+        assertSame(request, backendCall.getParentObservation());
+    }
+
+    private record Call(String operation, long nanos, boolean success) {
+    }
+}
@@ -0,0 +1,66 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Simple map based connector used to test connector decorators.
+ */
+class MapBackendConnector implements BackendConnector {
+
+    final Map<String, byte[]> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public void sendSession(SessionInfo sessionInfo) {
+        entries.put(sessionInfo.getClusterKey(), sessionInfo.getData());
+    }
+
+    @Override
+    public SessionInfo getSession(String clusterKey) {
+        byte[] data = entries.get(clusterKey);
+        return data != null ? new SessionInfo(clusterKey, data) : null;
+    }
+
+    @Override
+    public void deleteSession(String clusterKey) {
+        entries.remove(clusterKey);
+    }
+
+    @Override
+    public void markSerializationStarted(String clusterKey,
+            Duration timeToLive) {
+    }
+
+    @Override
+    public void markSerializationComplete(String clusterKey) {
+    }
+
+    @Override
+    public void markSerializationFailed(String clusterKey, Throwable error) {
+    }
+
+    @Override
+    public boolean markDeserializationStarted(String clusterKey,
+            Duration timeToLive) {
+        return true;
+    }
+
+    @Override
+    public void markDeserializationComplete(String clusterKey) {
+    }
+
+    @Override
+    public void markDeserializationFailed(String clusterKey,
+            Throwable error) {
+    }
+}
@@ -0,0 +1,243 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.ReactiveKeyCommands;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.ReactiveStringCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.types.Expiration;
+import reactor.core.publisher.Mono;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.RedisConnector.KeyLayout;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReactiveRedisConnectorTest {
+
+    String clusterKey;
+    ReactiveRedisConnectionFactory factory;
+    ReactiveRedisConnection connection;
+    ReactiveStringCommands stringCommands;
+    ReactiveKeyCommands keyCommands;
+    ReactiveRedisConnector connector;
+
+    @BeforeEach
+    void setUp() {
+        clusterKey = UUID.randomUUID().toString();
+
+        factory = mock(ReactiveRedisConnectionFactory.class);
+        connection = mock(ReactiveRedisConnection.class);
+        stringCommands = mock(ReactiveStringCommands.class);
+        keyCommands = mock(ReactiveKeyCommands.class);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(connection.keyCommands()).thenReturn(keyCommands);
+        when(connection.closeLater()).thenReturn(Mono.empty());
+        when(factory.getReactiveConnection()).thenReturn(connection);
+        when(stringCommands.set(any(ByteBuffer.class), any(ByteBuffer.class)))
+                .thenReturn(Mono.just(true));
+        when(stringCommands.set(any(ByteBuffer.class), any(ByteBuffer.class),
+                any(Expiration.class), any(RedisStringCommands.SetOption.class)))
+                .thenReturn(Mono.just(true));
+        when(keyCommands.exists(any(ByteBuffer.class)))
+                .thenReturn(Mono.just(false));
+        when(keyCommands.del(any(ByteBuffer.class))).thenReturn(Mono.just(1L));
+
+        connector = new ReactiveRedisConnector(factory);
+    }
+
+    @Test
+    void sendSessionAsync_completedWhenWritten() {
+        Mono<Boolean> written = Mono.just(true)
+                .delayElement(Duration.ofMillis(50));
+        when(stringCommands.set(buffer(RedisConnector.getKey(clusterKey)),
+                ByteBuffer.wrap(new byte[] { 'f', 'o', 'o' })))
+                .thenReturn(written);
+
+        CompletableFuture<Void> result = connector.sendSessionAsync(
+                new SessionInfo(clusterKey, new byte[] { 'f', 'o', 'o' }));
+
+        assertFalse(result.isDone());
+        result.join();
+        verify(connection).closeLater();
+    }
+
+    @Test
+    void sendSession_expiration_sessionIsAddedWithTimeToLive() {
+        SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                Duration.ofMinutes(30), new byte[] { 'f', 'o', 'o' });
+
+        connector.sendSession(sessionInfo);
+
+        verify(stringCommands).set(buffer(RedisConnector.getKey(clusterKey)),
+                ByteBuffer.wrap(sessionInfo.getData()),
+                Expiration.from(sessionInfo.getTimeToLive()),
+                RedisStringCommands.SetOption.UPSERT);
+    }
+
+    @Test
+    void sendSessionIfAbsent_usesSetIfAbsent() {
+        SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                Duration.ofMinutes(30), new byte[] { 'f', 'o', 'o' });
+        when(stringCommands.set(any(ByteBuffer.class), any(ByteBuffer.class),
+                any(Expiration.class),
+                eq(RedisStringCommands.SetOption.SET_IF_ABSENT)))
+                .thenReturn(Mono.just(true)).thenReturn(Mono.just(false));
+
+        assertTrue(connector.sendSessionIfAbsent(sessionInfo));
+        assertFalse(connector.sendSessionIfAbsent(sessionInfo));
+
+        verify(stringCommands, times(2)).set(
+                buffer(RedisConnector.getKey(clusterKey)),
+                ByteBuffer.wrap(sessionInfo.getData()),
+                Expiration.from(sessionInfo.getTimeToLive()),
+                RedisStringCommands.SetOption.SET_IF_ABSENT);
+        verify(stringCommands, never()).get(any(ByteBuffer.class));
+    }
+
+    @Test
+    void getSession_sessionIsRetrieved() {
+        when(stringCommands.get(buffer(RedisConnector.getKey(clusterKey))))
+                .thenReturn(Mono.just(ByteBuffer.wrap(new byte[] { 1, 2 })));
+
+        SessionInfo sessionInfo = connector.getSession(clusterKey);
+
+        assertEquals(clusterKey, sessionInfo.getClusterKey());
+        assertArrayEquals(new byte[] { 1, 2 }, sessionInfo.getData());
+    }
+
+    @Test
+    void getSession_notFound_returnsNull() {
+        when(stringCommands.get(any(ByteBuffer.class)))
+                .thenReturn(Mono.empty());
+
+        assertNull(connector.getSession(clusterKey));
+    }
+
+    @Test
+    void getSession_serializationPending_pollsUntilCompleted() {
+        AtomicInteger checks = new AtomicInteger();
+        when(keyCommands.exists(buffer(RedisConnector.getPendingKey(clusterKey))))
+                .thenReturn(Mono.fromSupplier(() -> checks.incrementAndGet() < 4));
+        when(stringCommands.get(buffer(RedisConnector.getKey(clusterKey))))
+                .thenReturn(Mono.just(ByteBuffer.wrap(new byte[] { 1 })));
+
+        CompletableFuture<SessionInfo> result = connector
+                .getSessionAsync(clusterKey);
+
+        assertArrayEquals(new byte[] { 1 }, result.join().getData());
+        assertEquals(4, checks.get());
+    }
+
+    @Test
+    void getSession_legacyFallback_readsLegacyKey() {
+        connector = new ReactiveRedisConnector(factory, KeyLayout.HASH_TAGGED,
+                true);
+        when(stringCommands
+                .get(buffer(KeyLayout.HASH_TAGGED.sessionKey(clusterKey))))
+                .thenReturn(Mono.empty());
+        when(stringCommands.get(buffer(RedisConnector.getKey(clusterKey))))
+                .thenReturn(Mono.just(ByteBuffer.wrap(new byte[] { 1 })));
+
+        assertArrayEquals(new byte[] { 1 },
+                connector.getSession(clusterKey).getData());
+        verify(keyCommands)
+                .exists(buffer(KeyLayout.HASH_TAGGED.pendingKey(clusterKey)));
+        verify(keyCommands)
+                .exists(buffer(RedisConnector.getPendingKey(clusterKey)));
+    }
+
+    @Test
+    void deleteSession_hashTagged_singleCommand() {
+        connector = new ReactiveRedisConnector(factory, KeyLayout.HASH_TAGGED,
+                false);
+        when(keyCommands.mDel(any())).thenReturn(Mono.just(2L));
+
+        connector.deleteSession(clusterKey);
+
+        verify(keyCommands).mDel(List.of(
+                buffer(KeyLayout.HASH_TAGGED.sessionKey(clusterKey)),
+                buffer(KeyLayout.HASH_TAGGED.pendingKey(clusterKey))));
+        verify(keyCommands, never()).del(any(ByteBuffer.class));
+    }
+
+    @Test
+    void markDeserializationStarted_pending_returnsFalse() {
+        when(keyCommands.exists(
+                buffer(RedisConnector.getDeserializationPendingKey(clusterKey))))
+                .thenReturn(Mono.just(true));
+
+        assertFalse(connector.markDeserializationStarted(clusterKey,
+                Duration.ofSeconds(10)));
+        verify(stringCommands, never()).set(any(ByteBuffer.class),
+                any(ByteBuffer.class), any(Expiration.class),
+                any(RedisStringCommands.SetOption.class));
+    }
+
+    @Test
+    void markDeserializationStarted_notPending_markerSet() {
+        assertTrue(connector.markDeserializationStarted(clusterKey,
+                Duration.ofSeconds(10)));
+        verify(stringCommands).set(
+                eq(buffer(RedisConnector
+                        .getDeserializationPendingKey(clusterKey))),
+                any(ByteBuffer.class), eq(Expiration.from(Duration.ofSeconds(10))),
+                eq(RedisStringCommands.SetOption.UPSERT));
+    }
+
+    @Test
+    void markSerializationComplete_markerRemoved() {
+        connector.markSerializationComplete(clusterKey);
+        connector.markSerializationFailed(clusterKey, new Exception());
+
+        verify(keyCommands, times(2))
+                .del(buffer(RedisConnector.getPendingKey(clusterKey)));
+    }
+
+    @Test
+    void sendSession_commandFails_errorPropagated() {
+        IllegalStateException error = new IllegalStateException("down");
+        when(stringCommands.set(any(ByteBuffer.class), any(ByteBuffer.class)))
+                .thenReturn(Mono.error(error));
+
+        IllegalStateException thrown = assertThrows(
+                IllegalStateException.class,
+                () -> connector.sendSession(
+                        new SessionInfo(clusterKey, new byte[] { 1 })));
+        assertEquals(error, thrown);
+        verify(connection).closeLater();
+    }
+
+    private static ByteBuffer buffer(byte[] key) {
+        return ByteBuffer.wrap(key);
+    }
+}
@@ -1,11 +1,14 @@
 package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.UUID;
 
 import org.junit.Assert;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisKeyCommands;
@@ -15,6 +18,7 @@ import org.springframework.data.redis.core.types.Expiration;
 import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -70,6 +74,25 @@ public class RedisConnectorTest {
                 eq(RedisStringCommands.SetOption.UPSERT));
     }
 
+    @Test
+    void sendSessionIfAbsent_usesSetIfAbsent() {
+        SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                Duration.ofMinutes(30), new byte[] { 'f', 'o', 'o' });
+        when(stringCommands.set(any(byte[].class), any(byte[].class),
+                any(Expiration.class),
+                eq(RedisStringCommands.SetOption.SET_IF_ABSENT)))
+                .thenReturn(true).thenReturn(false);
+
+        Assertions.assertTrue(connector.sendSessionIfAbsent(sessionInfo));
+        Assertions.assertFalse(connector.sendSessionIfAbsent(sessionInfo));
+
+        verify(connection.stringCommands(), times(2)).set(
+                aryEq(RedisConnector.getKey(clusterKey)),
+                aryEq(sessionInfo.getData()),
+                eq(Expiration.from(sessionInfo.getTimeToLive())),
+                eq(RedisStringCommands.SetOption.SET_IF_ABSENT));
+    }
+
     @Test
     void getSession_sessionIsRetrieved() {
         when(connection.keyCommands().exists(any(byte[].class)))
@@ -91,6 +114,28 @@ public class RedisConnectorTest {
         verify(connection.keyCommands(), times(2)).exists(any(byte[].class));
     }
 
+    @Test
+    void getSessionHeader_onlyRequestedRangeRead() {
+        when(connection.keyCommands().exists(any(byte[].class)))
+                .thenReturn(true).thenReturn(false);
+        when(stringCommands.getRange(any(byte[].class), eq(0L), eq(12L)))
+                .thenReturn(new byte[] { 1, 2 });
+
+        Assertions.assertArrayEquals(new byte[] { 1, 2 },
+                connector.getSessionHeader(clusterKey, 13));
+
+        verify(connection.keyCommands(), times(2)).exists(any(byte[].class));
+        verify(stringCommands, never()).get(any(byte[].class));
+    }
+
+    @Test
+    void getSessionHeader_missingSession_returnsNull() {
+        when(stringCommands.getRange(any(byte[].class), eq(0L), eq(12L)))
+                .thenReturn(new byte[0]);
+
+        Assertions.assertNull(connector.getSessionHeader(clusterKey, 13));
+    }
+
     @Test
     void markSerializationStarted_zeroExpiration_sessionLockedWithoutTimeToLive() {
         Duration timeToLive = Duration.ofMinutes(0);
@@ -216,4 +261,192 @@ public class RedisConnectorTest {
                 aryEq(RedisConnector.getDeserializationPendingKey(clusterKey)));
     }
 
+    @Test
+    void hashTaggedLayout_keysShareHashTag() {
+        RedisConnector.KeyLayout layout = RedisConnector.KeyLayout.HASH_TAGGED;
+
+        Assertions.assertEquals("session-{" + clusterKey + "}",
+                BackendUtil.s(layout.sessionKey(clusterKey)));
+        Assertions.assertEquals("pending-{" + clusterKey + "}",
+                BackendUtil.s(layout.pendingKey(clusterKey)));
+        Assertions.assertEquals("pending-deserialization-{" + clusterKey + "}",
+                BackendUtil.s(layout.deserializationPendingKey(clusterKey)));
+    }
+
+    @Test
+    void hashTaggedLayout_sendSession_taggedKeyUsed() {
+        connector = new RedisConnector(factory,
+                RedisConnector.KeyLayout.HASH_TAGGED, true);
+        SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                new byte[] { 'f', 'o', 'o' });
+
+        connector.sendSession(sessionInfo);
+
+        verify(connection.stringCommands()).set(
+                aryEq(RedisConnector.KeyLayout.HASH_TAGGED
+                        .sessionKey(clusterKey)),
+                aryEq(sessionInfo.getData()));
+    }
+
+    @Test
+    void hashTaggedLayout_sessionOnlyWithLegacyKey_fallbackRead() {
+        connector = new RedisConnector(factory,
+                RedisConnector.KeyLayout.HASH_TAGGED, true);
+        byte[] data = { 'f', 'o', 'o' };
+        when(connection.keyCommands().exists(any(byte[].class)))
+                .thenReturn(false);
+        when(connection.stringCommands()
+                .get(aryEq(RedisConnector.getKey(clusterKey))))
+                .thenReturn(data);
+
+        Assertions.assertArrayEquals(data,
+                connector.getSession(clusterKey).getData());
+        verify(connection.keyCommands())
+                .exists(aryEq(RedisConnector.getPendingKey(clusterKey)));
+    }
+
+    @Test
+    void hashTaggedLayout_fallbackDisabled_legacyKeyIgnored() {
+        connector = new RedisConnector(factory,
+                RedisConnector.KeyLayout.HASH_TAGGED, false);
+        when(connection.keyCommands().exists(any(byte[].class)))
+                .thenReturn(false);
+
+        Assertions.assertNull(connector.getSession(clusterKey));
+        verify(connection.stringCommands(), never())
+                .get(aryEq(RedisConnector.getKey(clusterKey)));
+    }
+
+    @Test
+    void hashTaggedLayout_deleteSession_singleCommandAndLegacyKeysDeleted() {
+        connector = new RedisConnector(factory,
+                RedisConnector.KeyLayout.HASH_TAGGED, true);
+        when(connection.keyCommands().exists(any(byte[].class)))
+                .thenReturn(false);
+
+        connector.deleteSession(clusterKey);
+
+        RedisConnector.KeyLayout layout = RedisConnector.KeyLayout.HASH_TAGGED;
+        verify(connection.keyCommands()).del(
+                aryEq(layout.sessionKey(clusterKey)),
+                aryEq(layout.pendingKey(clusterKey)),
+                aryEq(layout.versionKey(clusterKey)));
+        verify(connection.keyCommands())
+                .del(aryEq(RedisConnector.getKey(clusterKey)));
+        verify(connection.keyCommands())
+                .del(aryEq(RedisConnector.getPendingKey(clusterKey)));
+    }
+
+    @Test
+    void replicaReads_sendSession_versionPipelinedAfterData() {
+        connector = replicaConnector(mock(RedisConnectionFactory.class));
+        SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                new byte[] { 'f', 'o', 'o' });
+
+        connector.sendSession(sessionInfo);
+
+        InOrder order = inOrder(connection, stringCommands);
+        order.verify(connection).openPipeline();
+        order.verify(stringCommands).set(
+                aryEq(RedisConnector.getKey(clusterKey)),
+                aryEq(sessionInfo.getData()));
+        order.verify(stringCommands).set(aryEq(RedisConnector.KeyLayout.LEGACY
+                .versionKey(clusterKey)), any());
+        order.verify(connection).closePipeline();
+        verify(connection, never()).multi();
+    }
+
+    @Test
+    void replicaReads_hashTaggedLayout_dataAndVersionWrittenInTransaction() {
+        RedisConnector.KeyLayout layout = RedisConnector.KeyLayout.HASH_TAGGED;
+        connector = new RedisConnector(factory,
+                mock(RedisConnectionFactory.class), layout, false);
+        SessionInfo sessionInfo = new SessionInfo(clusterKey,
+                new byte[] { 'f', 'o', 'o' });
+
+        connector.sendSession(sessionInfo);
+
+        InOrder order = inOrder(connection, stringCommands);
+        order.verify(connection).multi();
+        order.verify(stringCommands).set(aryEq(layout.sessionKey(clusterKey)),
+                aryEq(sessionInfo.getData()));
+        order.verify(stringCommands).set(aryEq(layout.versionKey(clusterKey)),
+                any());
+        order.verify(connection).exec();
+        verify(connection, never()).openPipeline();
+    }
+
+    @Test
+    void replicaReads_replicaUpToDate_sessionReadFromReplica() {
+        RedisStringCommands replicaCommands = mock(RedisStringCommands.class);
+        connector = replicaConnector(replicaFactory(replicaCommands));
+        byte[] versionKey = RedisConnector.KeyLayout.LEGACY
+                .versionKey(clusterKey);
+        byte[] data = { 'f', 'o', 'o' };
+        when(keyCommands.exists(any(byte[].class))).thenReturn(false);
+        when(stringCommands.get(aryEq(versionKey)))
+                .thenReturn(new byte[] { 1 });
+        when(replicaCommands.mGet(aryEq(versionKey),
+                aryEq(RedisConnector.getKey(clusterKey))))
+                .thenReturn(Arrays.asList(new byte[] { 1 }, data));
+
+        Assertions.assertArrayEquals(data,
+                connector.getSession(clusterKey).getData());
+        verify(stringCommands, never())
+                .get(aryEq(RedisConnector.getKey(clusterKey)));
+        verify(replicaCommands, never()).get(any());
+        Assertions.assertEquals(1, connector.getReplicaReads());
+    }
+
+    @Test
+    void replicaReads_replicaBehind_sessionReadFromPrimary() {
+        RedisStringCommands replicaCommands = mock(RedisStringCommands.class);
+        connector = replicaConnector(replicaFactory(replicaCommands));
+        byte[] versionKey = RedisConnector.KeyLayout.LEGACY
+                .versionKey(clusterKey);
+        byte[] data = { 'f', 'o', 'o' };
+        when(keyCommands.exists(any(byte[].class))).thenReturn(false);
+        when(stringCommands.get(aryEq(versionKey)))
+                .thenReturn(new byte[] { 2 });
+        when(replicaCommands.mGet(aryEq(versionKey),
+                aryEq(RedisConnector.getKey(clusterKey))))
+                .thenReturn(Arrays.asList(new byte[] { 1 },
+                        new byte[] { 'o', 'l', 'd' }));
+        when(stringCommands.get(aryEq(RedisConnector.getKey(clusterKey))))
+                .thenReturn(data);
+
+        Assertions.assertArrayEquals(data,
+                connector.getSession(clusterKey).getData());
+        verify(replicaCommands, never()).get(any());
+        Assertions.assertEquals(1, connector.getStaleReplicaReads());
+    }
+
+    @Test
+    void replicaReads_noVersionOnPrimary_replicaNotQueried() {
+        RedisConnectionFactory replicaFactory = mock(
+                RedisConnectionFactory.class);
+        connector = replicaConnector(replicaFactory);
+        when(keyCommands.exists(any(byte[].class))).thenReturn(false);
+
+        connector.getSession(clusterKey);
+
+        verify(replicaFactory, never()).getConnection();
+        verify(stringCommands).get(aryEq(RedisConnector.getKey(clusterKey)));
+    }
+
+    private RedisConnector replicaConnector(
+            RedisConnectionFactory replicaFactory) {
+        return new RedisConnector(factory, replicaFactory,
+                RedisConnector.KeyLayout.LEGACY, false);
+    }
+
+    private static RedisConnectionFactory replicaFactory(
+            RedisStringCommands replicaCommands) {
+        RedisConnectionFactory replicaFactory = mock(
+                RedisConnectionFactory.class);
+        RedisConnection replicaConnection = mock(RedisConnection.class);
+        when(replicaConnection.stringCommands()).thenReturn(replicaCommands);
+        when(replicaFactory.getConnection()).thenReturn(replicaConnection);
+        return replicaFactory;
+    }
 }
@@ -1,11 +1,16 @@
 package com.vaadin.kubernetes.starter.sessiontracker.backend;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SessionInfoTest {
     @Test
@@ -21,4 +26,44 @@ public class SessionInfoTest {
         assertEquals(data, sessionInfo.getData());
         assertEquals(Duration.ofSeconds(timeout), sessionInfo.getTimeToLive());
     }
+
+    @Test
+    void construct_byteBuffer_dataIsExposedWithoutAffectingBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+        buffer.put(new byte[] { 'f', 'o', 'o' }).flip();
+
+        SessionInfo sessionInfo = new SessionInfo("key", Duration.ZERO,
+                buffer, null);
+
+        assertEquals(3, sessionInfo.getSize());
+        assertArrayEquals(new byte[] { 'f', 'o', 'o' }, sessionInfo.getData());
+        ByteBuffer view = sessionInfo.getDataBuffer();
+        view.get();
+        assertEquals(3, sessionInfo.getDataBuffer().remaining());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void getDataBuffer_byteArray_wrapsArray() {
+        byte[] data = new byte[] { 'f', 'o', 'o' };
+        SessionInfo sessionInfo = new SessionInfo("key", data);
+
+        ByteBuffer buffer = sessionInfo.getDataBuffer();
+
+        assertTrue(buffer.hasArray());
+        assertSame(data, buffer.array());
+        assertEquals(3, sessionInfo.getSize());
+    }
+
+    @Test
+    void release_actionRunOnlyOnce() {
+        AtomicInteger releases = new AtomicInteger();
+        SessionInfo sessionInfo = new SessionInfo("key", Duration.ZERO,
+                ByteBuffer.allocate(1), releases::incrementAndGet);
+
+        sessionInfo.release();
+        sessionInfo.release();
+
+        assertEquals(1, releases.get());
+    }
 }
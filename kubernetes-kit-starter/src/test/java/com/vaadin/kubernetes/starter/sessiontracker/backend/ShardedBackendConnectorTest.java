@@ -0,0 +1,186 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedBackendConnectorTest {
+
+    private static final int KEYS = 10_000;
+
+    @Test
+    void sendSession_keysSpreadEvenly() {
+        List<InMemoryBackendConnector> shards = shards(4);
+        ShardedBackendConnector connector = new ShardedBackendConnector(
+                shards);
+
+        for (int i = 0; i < KEYS; i++) {
+            connector.sendSession(new SessionInfo(key(i), new byte[] { 1 }));
+        }
+
+        for (InMemoryBackendConnector shard : shards) {
+            // ideal share is 2500 keys
+            assertTrue(shard.size() > 1800 && shard.size() < 3200,
+                    "Unbalanced shard size " + shard.size());
+        }
+    }
+
+    @Test
+    void operations_sameKey_routedToSameShard() {
+        List<InMemoryBackendConnector> shards = shards(3);
+        ShardedBackendConnector connector = new ShardedBackendConnector(
+                shards);
+        String key = key(42);
+        InMemoryBackendConnector owner = (InMemoryBackendConnector) connector
+                .getShard(key);
+
+        connector.markSerializationStarted(key, Duration.ofSeconds(10));
+        connector.sendSession(new SessionInfo(key, new byte[] { 1 }));
+        connector.markSerializationComplete(key);
+        assertTrue(connector.markDeserializationStarted(key,
+                Duration.ofSeconds(10)));
+        assertFalse(owner.markDeserializationStarted(key,
+                Duration.ofSeconds(10)));
+
+        for (InMemoryBackendConnector shard : shards) {
+            long expected = shard == owner ? 1 : 0;
+            assertEquals(expected, shard.getInvocations(
+                    InMemoryBackendConnector.Operation.MARK_SERIALIZATION_STARTED));
+            assertEquals(expected, shard.size());
+        }
+    }
+
+    @Test
+    void addShard_onlyKeysOfNewShardMoved() {
+        ShardedBackendConnector connector = new ShardedBackendConnector(
+                shards(3));
+        BackendConnector[] owners = new BackendConnector[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            owners[i] = connector.getShard(key(i));
+        }
+        InMemoryBackendConnector added = new InMemoryBackendConnector();
+        connector.addShard(added);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            BackendConnector owner = connector.getShard(key(i));
+            if (owner != owners[i]) {
+                assertSame(added, owner);
+                moved++;
+            }
+        }
+        // ideal share is a quarter of the keys
+        assertTrue(moved > 1800 && moved < 3200, "Moved " + moved + " keys");
+    }
+
+    @Test
+    void addShard_movedSessionReadFromPreviousOwnerAndMigrated() {
+        ShardedBackendConnector connector = new ShardedBackendConnector(
+                shards(2));
+        for (int i = 0; i < 100; i++) {
+            connector.sendSession(
+                    new SessionInfo(key(i), new byte[] { (byte) i }));
+        }
+        InMemoryBackendConnector added = new InMemoryBackendConnector();
+        connector.addShard(added);
+        assertTrue(connector.isRebalancing());
+
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(new byte[] { (byte) i },
+                    connector.getSession(key(i)).getData());
+        }
+        assertEquals(added.size(), connector.getMigrations());
+        assertTrue(added.size() > 0);
+
+        connector.completeRebalancing();
+        assertFalse(connector.isRebalancing());
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(connector.getSession(key(i)));
+        }
+    }
+
+    @Test
+    void addShard_newOwnerWrittenWhileMigrating_newerCopyKept() {
+        List<InMemoryBackendConnector> shards = shards(1);
+        ShardedBackendConnector connector = new ShardedBackendConnector(
+                shards);
+        for (int i = 0; i < 100; i++) {
+            connector.sendSession(new SessionInfo(key(i), new byte[] { 1 }));
+        }
+        InMemoryBackendConnector added = new InMemoryBackendConnector() {
+            @Override
+            public SessionInfo getSession(String clusterKey) {
+                SessionInfo info = super.getSession(clusterKey);
+                if (info == null) {
+                    // another node writes the session after this read
+                    super.sendSession(
+                            new SessionInfo(clusterKey, new byte[] { 2 }));
+                }
+                return info;
+            }
+        };
+        connector.addShard(added);
+        String moved = Stream.iterate(0, i -> i + 1).limit(100)
+                .map(ShardedBackendConnectorTest::key)
+                .filter(key -> connector.getShard(key) == added).findFirst()
+                .orElseThrow();
+
+        assertArrayEquals(new byte[] { 2 },
+                connector.getSession(moved).getData());
+        assertEquals(0, connector.getMigrations());
+        assertEquals(1, connector.getFallbackReads());
+        assertNull(shards.get(0).getSession(moved));
+    }
+
+    @Test
+    void deleteSession_rebalancing_removedFromBothOwners() {
+        List<InMemoryBackendConnector> shards = shards(1);
+        ShardedBackendConnector connector = new ShardedBackendConnector(
+                shards);
+        for (int i = 0; i < 100; i++) {
+            connector.sendSession(new SessionInfo(key(i), new byte[] { 1 }));
+        }
+        connector.addShard(new InMemoryBackendConnector());
+
+        for (int i = 0; i < 100; i++) {
+            connector.deleteSession(key(i));
+            assertNull(connector.getSession(key(i)));
+        }
+        assertEquals(0, shards.get(0).size());
+    }
+
+    @Test
+    void constructor_noShards_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedBackendConnector(List.of()));
+    }
+
+    private static List<InMemoryBackendConnector> shards(int count) {
+        return Stream.generate(InMemoryBackendConnector::new).limit(count)
+                .toList();
+    }
+
+    private static String key(int i) {
+        return "cluster-key-" + i;
+    }
+}
@@ -0,0 +1,274 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.FaultProfile;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector.InjectedFailureException;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillingBackendConnectorTest {
+
+    @TempDir
+    Path directory;
+
+    private final InMemoryBackendConnector backend = new InMemoryBackendConnector();
+
+    private SpillingBackendConnector connector;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (connector != null) {
+            connector.close();
+        }
+    }
+
+    @Test
+    void sendSession_backendAvailable_notSpilled() {
+        connector = open(1024, Duration.ZERO);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+
+        assertEquals(0, connector.getSpilledCount());
+        assertArrayEquals(new byte[] { 1 },
+                backend.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_backendFails_spilledAndServedLocally() {
+        connector = open(1024, Duration.ZERO);
+        backend.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(FaultProfile.errors(1));
+
+        connector.sendSession(new SessionInfo("key", new byte[] { 2 }));
+
+        assertEquals(1, connector.getSpilledCount());
+        assertEquals(1, connector.getSpilledBytes());
+        assertArrayEquals(new byte[] { 2 },
+                connector.getSession("key").getData());
+    }
+
+    @Test
+    void replay_backendRecovered_spilledSessionsWrittenInOrder() {
+        List<String> written = new ArrayList<>();
+        BackendConnector recording = new MapBackendConnector() {
+            @Override
+            public void sendSession(SessionInfo sessionInfo) {
+                backend.sendSession(sessionInfo);
+                written.add(sessionInfo.getClusterKey());
+            }
+        };
+        connector = new SpillingBackendConnector(recording,
+                new FileSystemConnector(directory), 1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("b", new byte[] { 1 }));
+        connector.sendSession(new SessionInfo("a", new byte[] { 2 }));
+        connector.sendSession(new SessionInfo("b", new byte[] { 3 }));
+        assertEquals(0, connector.replay());
+
+        backend.setFaultProfile(null);
+        assertEquals(2, connector.replay());
+
+        assertEquals(List.of("a", "b"), written);
+        assertArrayEquals(new byte[] { 3 },
+                backend.getSession("b").getData());
+        assertEquals(0, connector.getSpilledCount());
+        assertEquals(0, connector.getSpilledBytes());
+    }
+
+    @Test
+    void replay_serializationMarkerHeldAroundWrite() {
+        List<String> calls = new ArrayList<>();
+        BackendConnector recording = new MapBackendConnector() {
+            @Override
+            public void sendSession(SessionInfo sessionInfo) {
+                backend.sendSession(sessionInfo);
+                calls.add("send " + sessionInfo.getClusterKey());
+            }
+
+            @Override
+            public void markSerializationStarted(String clusterKey,
+                    Duration timeToLive) {
+                calls.add("started " + clusterKey);
+            }
+
+            @Override
+            public void markSerializationComplete(String clusterKey) {
+                calls.add("complete " + clusterKey);
+            }
+        };
+        connector = new SpillingBackendConnector(recording,
+                new FileSystemConnector(directory), 1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(null);
+        calls.clear();
+
+        assertEquals(1, connector.replay());
+
+        assertEquals(List.of("started key", "send key", "complete key"),
+                calls);
+    }
+
+    @Test
+    void replay_serializerHoldsMarker_liveWriteNotBlocked() throws Exception {
+        connector = open(1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(null);
+
+        // a serializer owns the marker while the replay waits for it
+        backend.markSerializationStarted("key", Duration.ofSeconds(10));
+        CompletableFuture<Integer> replay = CompletableFuture
+                .supplyAsync(connector::replay);
+        Thread.sleep(100);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(2),
+                () -> connector.sendSession(
+                        new SessionInfo("key", new byte[] { 2 })));
+        backend.markSerializationComplete("key");
+
+        assertEquals(0, replay.get(2, TimeUnit.SECONDS));
+        assertEquals(0, connector.getSpilledCount());
+        assertArrayEquals(new byte[] { 2 },
+                backend.getSession("key").getData());
+    }
+
+    @Test
+    void replay_newerCopyWrittenByOtherNode_spilledCopyDiscarded() {
+        connector = open(1024, Duration.ZERO);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 2 }));
+        backend.setFaultProfile(null);
+        // another node took over the session
+        backend.sendSession(new SessionInfo("key", new byte[] { 3 }));
+
+        assertEquals(0, connector.replay());
+
+        assertEquals(1, connector.getDiscards());
+        assertEquals(0, connector.getSpilledCount());
+        assertArrayEquals(new byte[] { 3 },
+                backend.getSession("key").getData());
+    }
+
+    @Test
+    void replay_afterRestart_backendUnchanged_spilledCopyWritten()
+            throws IOException {
+        connector = open(1024, Duration.ZERO);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 2 }));
+        connector.sendSession(new SessionInfo("key", new byte[] { 3 }));
+        connector.close();
+        backend.setFaultProfile(null);
+
+        connector = open(1024, Duration.ZERO);
+
+        assertEquals(1, connector.getSpilledCount());
+        assertEquals(1, connector.replay());
+        assertEquals(0, connector.getDiscards());
+        assertArrayEquals(new byte[] { 3 },
+                backend.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_liveWriteSucceeds_spilledCopyDiscarded() {
+        connector = open(1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(null);
+
+        connector.sendSession(new SessionInfo("key", new byte[] { 2 }));
+
+        assertEquals(0, connector.getSpilledCount());
+        assertEquals(0, connector.replay());
+        assertArrayEquals(new byte[] { 2 },
+                connector.getSession("key").getData());
+    }
+
+    @Test
+    void sendSession_spillFull_errorPropagated() {
+        connector = open(2, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("a", new byte[] { 1, 2 }));
+
+        assertThrows(InjectedFailureException.class, () -> connector
+                .sendSession(new SessionInfo("b", new byte[] { 1 })));
+        assertEquals(1, connector.getDrops());
+        assertEquals(1, connector.getSpilledCount());
+    }
+
+    @Test
+    void deleteSession_spilledCopyRemoved() {
+        connector = open(1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(null);
+
+        connector.deleteSession("key");
+
+        assertEquals(0, connector.getSpilledCount());
+        assertNull(connector.getSession("key"));
+    }
+
+    @Test
+    void restart_spilledSessionsReplayed() throws IOException {
+        connector = open(1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        assertFalse(connector.awaitPendingOperations(Duration.ofSeconds(1)));
+        connector.close();
+        backend.setFaultProfile(null);
+
+        connector = open(1024, Duration.ofMillis(20));
+
+        assertEquals(1, connector.getSpilledCount());
+        await().atMost(Duration.ofSeconds(2))
+                .until(() -> connector.getSpilledCount() == 0);
+        assertArrayEquals(new byte[] { 1 },
+                backend.getSession("key").getData());
+    }
+
+    @Test
+    void awaitPendingOperations_backendRecovered_spillEmptied() {
+        connector = open(1024, Duration.ZERO);
+        backend.setFaultProfile(FaultProfile.errors(1));
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        backend.setFaultProfile(null);
+
+        assertTrue(connector.awaitPendingOperations(Duration.ofSeconds(1)));
+        assertEquals(1, connector.getReplays());
+    }
+
+    private SpillingBackendConnector open(long maxBytes,
+            Duration replayInterval) {
+        return new SpillingBackendConnector(backend,
+                new FileSystemConnector(directory), maxBytes, replayInterval);
+    }
+}
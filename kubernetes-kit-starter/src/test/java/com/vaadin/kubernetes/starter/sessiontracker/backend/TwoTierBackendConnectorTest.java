@@ -0,0 +1,149 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class TwoTierBackendConnectorTest {
+
+    private MapBackendConnector remote;
+
+    @BeforeEach
+    void setUp() {
+        remote = new MapBackendConnector();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void getSession_versionMatches_servedLocally(boolean offHeap) {
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                1024, offHeap);
+        byte[] data = { 1, 2, 3 };
+        connector.sendSession(new SessionInfo("key", data));
+
+        assertArrayEquals(data, connector.getSession("key").getData());
+        assertEquals(1, connector.getLocalHits());
+        assertEquals(0, connector.getLocalMisses());
+    }
+
+    @Test
+    void getSession_notInLocalTier_readFromRemoteAndCached() {
+        new TwoTierBackendConnector(remote, 1024, false)
+                .sendSession(new SessionInfo("key", new byte[] { 1, 2, 3 }));
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                1024, false);
+
+        assertArrayEquals(new byte[] { 1, 2, 3 },
+                connector.getSession("key").getData());
+        assertEquals(1, connector.getLocalMisses());
+        assertEquals(3, connector.getLocalSize());
+
+        assertArrayEquals(new byte[] { 1, 2, 3 },
+                connector.getSession("key").getData());
+        assertEquals(1, connector.getLocalHits());
+    }
+
+    @Test
+    void getSession_remoteUpdatedByOtherNode_localCopyNotUsed() {
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                1024, false);
+        TwoTierBackendConnector other = new TwoTierBackendConnector(remote,
+                1024, false);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        other.sendSession(new SessionInfo("key", new byte[] { 2 }));
+
+        assertArrayEquals(new byte[] { 2 },
+                connector.getSession("key").getData());
+        assertEquals(0, connector.getLocalHits());
+    }
+
+    @Test
+    void getSession_localCopyCurrent_onlyRemoteHeaderRead() {
+        BackendConnector spy = spy(remote);
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(spy,
+                1024, false);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+
+        connector.getSession("key");
+
+        assertEquals(1, connector.getLocalHits());
+        verify(spy).getSessionHeader("key",
+                TwoTierBackendConnector.HEADER_SIZE);
+        verify(spy, never()).getSession(any());
+        // the version is part of the payload, no other entry is stored
+        assertEquals(Set.of("key"), remote.entries.keySet());
+    }
+
+    @Test
+    void getSession_legacyPayload_returnedUnchanged() {
+        remote.sendSession(new SessionInfo("key", new byte[] { 1, 2 }));
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                1024, false);
+
+        assertArrayEquals(new byte[] { 1, 2 },
+                connector.getSession("key").getData());
+        assertEquals(0, connector.getLocalSize());
+    }
+
+    @Test
+    void sendSessionIfAbsent_alreadyStored_localTierNotUpdated() {
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                1024, false);
+        assertTrue(connector
+                .sendSessionIfAbsent(new SessionInfo("key", new byte[] { 1 })));
+        assertFalse(connector
+                .sendSessionIfAbsent(new SessionInfo("key", new byte[] { 2 })));
+
+        assertArrayEquals(new byte[] { 1 },
+                connector.getSession("key").getData());
+        assertEquals(1, connector.getLocalHits());
+    }
+
+    @Test
+    void sendSession_localTierFull_leastRecentlyUsedEvicted() {
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                10, false);
+        connector.sendSession(new SessionInfo("a", new byte[4]));
+        connector.sendSession(new SessionInfo("b", new byte[4]));
+        connector.getSession("a");
+        connector.sendSession(new SessionInfo("c", new byte[4]));
+
+        assertEquals(8, connector.getLocalSize());
+        connector.getSession("b");
+        assertEquals(1, connector.getLocalMisses());
+    }
+
+    @Test
+    void deleteSession_localAndRemoteRemoved() {
+        TwoTierBackendConnector connector = new TwoTierBackendConnector(remote,
+                1024, false);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.deleteSession("key");
+
+        assertNull(connector.getSession("key"));
+        assertEquals(0, connector.getLocalSize());
+        assertEquals(0, remote.entries.size());
+    }
+}
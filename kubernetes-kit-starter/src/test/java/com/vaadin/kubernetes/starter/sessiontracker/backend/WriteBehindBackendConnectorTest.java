@@ -0,0 +1,237 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.backend;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class WriteBehindBackendConnectorTest {
+
+    private static final Duration LONG_WINDOW = Duration.ofMinutes(1);
+
+    @Test
+    void sendSession_burst_onlyLatestPayloadWritten() {
+        BackendConnector delegate = mock(BackendConnector.class);
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+
+        for (int i = 0; i < 5; i++) {
+            connector.markSerializationStarted("key", Duration.ZERO);
+            connector.sendSession(
+                    new SessionInfo("key", new byte[] { (byte) i }));
+            connector.markSerializationComplete("key");
+        }
+        verify(delegate, never()).sendSession(any());
+        assertEquals(1, connector.getPendingCount());
+
+        connector.flushAll();
+
+        ArgumentCaptor<SessionInfo> captor = ArgumentCaptor
+                .forClass(SessionInfo.class);
+        verify(delegate).sendSession(captor.capture());
+        assertArrayEquals(new byte[] { 4 }, captor.getValue().getData());
+        assertEquals(5, connector.getWrites());
+        assertEquals(4, connector.getOverwrites());
+        assertEquals(1, connector.getFlushLatency().getCount());
+        assertEquals(0, connector.getPendingCount());
+    }
+
+    @Test
+    void markers_acquiredOncePerBurstAndReleasedAfterWrite() {
+        BackendConnector delegate = mock(BackendConnector.class);
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+
+        for (int i = 0; i < 3; i++) {
+            connector.markSerializationStarted("key", Duration.ZERO);
+            connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+            connector.markSerializationComplete("key");
+        }
+        verify(delegate, times(1)).markSerializationStarted("key",
+                Duration.ZERO);
+        verify(delegate, never()).markSerializationComplete("key");
+
+        connector.flushAll();
+
+        InOrder order = inOrder(delegate);
+        order.verify(delegate).sendSession(any());
+        order.verify(delegate).markSerializationComplete("key");
+    }
+
+    @Test
+    void flush_serializationInProgress_markerKept() {
+        BackendConnector delegate = mock(BackendConnector.class);
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+
+        connector.markSerializationStarted("key", Duration.ZERO);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.markSerializationComplete("key");
+        connector.markSerializationStarted("key", Duration.ZERO);
+        connector.flushAll();
+        verify(delegate, never()).markSerializationComplete("key");
+
+        connector.sendSession(new SessionInfo("key", new byte[] { 2 }));
+        connector.markSerializationComplete("key");
+        connector.flushAll();
+        verify(delegate, times(2)).sendSession(any());
+        verify(delegate).markSerializationComplete("key");
+    }
+
+    @Test
+    void markSerializationComplete_nothingBuffered_markerReleased() {
+        BackendConnector delegate = mock(BackendConnector.class);
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+
+        connector.markSerializationStarted("key", Duration.ZERO);
+        connector.markSerializationComplete("key");
+
+        verify(delegate).markSerializationComplete("key");
+    }
+
+    @Test
+    void sendSession_windowElapsed_flushedBySchedule() {
+        MapBackendConnector delegate = new MapBackendConnector();
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, Duration.ofMillis(20), 100);
+
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+
+        await().atMost(Duration.ofSeconds(2))
+                .until(() -> delegate.entries.containsKey("key"));
+        assertEquals(0, connector.getPendingCount());
+    }
+
+    @Test
+    void sendSession_tooManyPending_flushedImmediately() {
+        MapBackendConnector delegate = new MapBackendConnector();
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 1);
+
+        connector.sendSession(new SessionInfo("a", new byte[] { 1 }));
+        assertTrue(delegate.entries.isEmpty());
+        connector.sendSession(new SessionInfo("b", new byte[] { 2 }));
+
+        assertTrue(delegate.entries.containsKey("b"));
+    }
+
+    @Test
+    void sendSession_bufferReleasedByCaller_copyWritten() {
+        MapBackendConnector delegate = new MapBackendConnector();
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2);
+        buffer.put(new byte[] { 1, 2 }).flip();
+
+        connector.sendSession(
+                new SessionInfo("key", Duration.ZERO, buffer, null));
+        buffer.clear().put(new byte[] { 9, 9 });
+
+        assertArrayEquals(new byte[] { 1, 2 },
+                connector.getSession("key").getData());
+    }
+
+    @Test
+    void awaitPendingOperations_allBufferedWritten() {
+        MapBackendConnector delegate = new MapBackendConnector();
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+        connector.sendSession(new SessionInfo("a", new byte[] { 1 }));
+        connector.sendSession(new SessionInfo("b", new byte[] { 2 }));
+
+        assertTrue(connector.awaitPendingOperations(Duration.ofSeconds(1)));
+        assertEquals(2, delegate.entries.size());
+    }
+
+    @Test
+    void close_bufferedPayloadsWrittenAndLaterWritesNotBuffered() {
+        MapBackendConnector delegate = new MapBackendConnector();
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+        connector.sendSession(new SessionInfo("a", new byte[] { 1 }));
+
+        connector.close();
+
+        assertArrayEquals(new byte[] { 1 }, delegate.entries.get("a"));
+        connector.sendSession(new SessionInfo("b", new byte[] { 2 }));
+        assertArrayEquals(new byte[] { 2 }, delegate.entries.get("b"));
+        assertEquals(0, connector.getPendingCount());
+    }
+
+    @Test
+    void flush_writeFails_payloadRetried() {
+        BackendConnector delegate = mock(BackendConnector.class);
+        doThrow(new RuntimeException("boom")).doNothing().when(delegate)
+                .sendSession(any());
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+
+        connector.markSerializationStarted("key", Duration.ZERO);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.markSerializationComplete("key");
+        connector.flushAll();
+
+        assertEquals(1, connector.getPendingCount());
+        verify(delegate, never()).markSerializationComplete("key");
+        verify(delegate, never()).markSerializationFailed(any(), any());
+
+        connector.flushAll();
+
+        ArgumentCaptor<SessionInfo> captor = ArgumentCaptor
+                .forClass(SessionInfo.class);
+        verify(delegate, times(2)).sendSession(captor.capture());
+        assertArrayEquals(new byte[] { 1 }, captor.getValue().getData());
+        verify(delegate).markSerializationComplete("key");
+        assertEquals(1, connector.getFlushFailures());
+        assertEquals(0, connector.getPendingCount());
+    }
+
+    @Test
+    void flush_writeKeepsFailing_markerReleasedWithFailure() {
+        BackendConnector delegate = mock(BackendConnector.class);
+        RuntimeException error = new RuntimeException("boom");
+        doThrow(error).when(delegate).sendSession(any());
+        WriteBehindBackendConnector connector = new WriteBehindBackendConnector(
+                delegate, LONG_WINDOW, 100);
+
+        connector.markSerializationStarted("key", Duration.ZERO);
+        connector.sendSession(new SessionInfo("key", new byte[] { 1 }));
+        connector.markSerializationComplete("key");
+        for (int i = 0; i < WriteBehindBackendConnector.MAX_FLUSH_ATTEMPTS
+                + 1; i++) {
+            connector.flushAll();
+        }
+
+        verify(delegate, times(WriteBehindBackendConnector.MAX_FLUSH_ATTEMPTS))
+                .sendSession(any());
+        verify(delegate).markSerializationFailed(eq("key"), eq(error));
+        assertEquals(WriteBehindBackendConnector.MAX_FLUSH_ATTEMPTS,
+                connector.getFlushFailures());
+        assertEquals(0, connector.getPendingCount());
+    }
+}
@@ -0,0 +1,112 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.jfr;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InstrumentedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.BackendOperation;
+import com.vaadin.kubernetes.starter.sessiontracker.jfr.SessionReplicationEvents.TransientInspection;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.TransientHandler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SessionReplicationEventsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void instrument_eventsDisabled_handlerNotWrapped() {
+        TransientHandler handler = mock(TransientHandler.class);
+
+        assertSame(handler, SessionReplicationEvents.instrument(handler, "key"));
+    }
+
+    @Test
+    void instrument_inspectionEnabled_eventRecorded() throws Exception {
+        TransientHandler handler = mock(TransientHandler.class);
+        when(handler.inspect("value")).thenReturn(List.of());
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(TransientInspection.class).withoutThreshold();
+            recording.start();
+
+            TransientHandler instrumented = SessionReplicationEvents
+                    .instrument(handler, "key");
+            assertNotSame(handler, instrumented);
+            instrumented.inspect("value");
+
+            recording.stop();
+            events = dump(recording);
+        }
+
+        verify(handler).inspect("value");
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals(String.class.getName(), event.getString("type"));
+        assertEquals("key".hashCode(), event.getInt("clusterKeyHash"));
+        assertEquals(SessionReplicationEvents.SUCCESS,
+                event.getString("outcome"));
+    }
+
+    @Test
+    void backendOperation_enabled_eventRecordedWithSize() throws Exception {
+        InstrumentedBackendConnector connector = InstrumentedBackendConnector
+                .of(new InMemoryBackendConnector(), SessionMetrics.NOOP);
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(BackendOperation.class).withoutThreshold();
+            recording.start();
+
+            connector.sendSession(new SessionInfo("key", new byte[10]));
+            connector.getSession("key");
+            connector.markSerializationComplete("key");
+
+            recording.stop();
+            events = dump(recording);
+        }
+
+        assertEquals(List.of("sendSession", "getSession",
+                "markSerializationComplete"),
+                events.stream().map(e -> e.getString("operation")).toList());
+        assertEquals(10, events.get(0).getLong("amount"));
+        assertEquals(10, events.get(1).getLong("amount"));
+        assertTrue(events.get(0).getDuration().compareTo(Duration.ZERO) >= 0);
+    }
+
+    private List<RecordedEvent> dump(Recording recording) throws Exception {
+        Path file = tempDir.resolve("recording.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName()
+                        .startsWith("com.vaadin.kubernetes."))
+                .sorted(Comparator.comparing(RecordedEvent::getStartTime))
+                .toList();
+    }
+}
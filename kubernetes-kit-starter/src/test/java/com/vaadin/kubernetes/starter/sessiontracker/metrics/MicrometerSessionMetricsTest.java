@@ -0,0 +1,216 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.SessionMetrics;
+import com.vaadin.kubernetes.starter.sessiontracker.SessionSerializer;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.CircuitBreakerBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.HazelcastConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InMemoryBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.InstrumentedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.LatencyStatistics;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.SessionInfo;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.ShardedBackendConnector;
+import com.vaadin.kubernetes.starter.sessiontracker.backend.WriteBehindBackendConnector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MicrometerSessionMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final MicrometerSessionMetrics metrics = new MicrometerSessionMetrics(
+            "redis");
+
+    @Test
+    void notBound_recordingIgnored() {
+        metrics.recordSerialization(1000, 10);
+
+        assertNull(registry.find("vaadin.session.serialization").timer());
+    }
+
+    @Test
+    void recordSerialization_timerAndSizeRecorded() {
+        metrics.bindTo(registry);
+
+        metrics.recordSerialization(TimeUnit.MILLISECONDS.toNanos(5), 100);
+        metrics.recordSerialization(TimeUnit.MILLISECONDS.toNanos(7), 300);
+        metrics.recordSerialization(TimeUnit.MILLISECONDS.toNanos(1), -1);
+
+        assertEquals(2, registry.get("vaadin.session.serialization")
+                .tag("backend", "redis").tag("outcome", "success").timer()
+                .count());
+        assertEquals(1, registry.get("vaadin.session.serialization")
+                .tag("outcome", "failure").timer().count());
+        assertEquals(400, registry.get("vaadin.session.serialization.size")
+                .summary().totalAmount());
+    }
+
+    @Test
+    void recordPhases_countersIncremented() {
+        metrics.bindTo(registry);
+
+        metrics.recordOptimisticAttempt(false);
+        metrics.recordOptimisticAttempt(false);
+        metrics.recordOptimisticAttempt(true);
+        metrics.recordPessimisticFallback();
+        metrics.recordSkippedSerialization();
+
+        assertEquals(2, registry.get("vaadin.session.serialization.optimistic")
+                .tag("outcome", "retry").counter().count());
+        assertEquals(1, registry.get("vaadin.session.serialization.optimistic")
+                .tag("outcome", "success").counter().count());
+        assertEquals(1, registry.get("vaadin.session.serialization.pessimistic")
+                .counter().count());
+        assertEquals(1, registry.get("vaadin.session.serialization.skipped")
+                .counter().count());
+    }
+
+    @Test
+    void recordBackendCall_taggedByOperationAndOutcome() {
+        metrics.bindTo(registry);
+
+        metrics.recordBackendCall("sendSession", 1000, true);
+        metrics.recordBackendCall("sendSession", 1000, true);
+        metrics.recordBackendCall("sendSession", 1000, false);
+        metrics.recordBackendCall("getSession", 1000, true);
+
+        assertEquals(2, registry.get("vaadin.session.backend.calls")
+                .tag("operation", "sendSession").tag("outcome", "success")
+                .timer().count());
+        assertEquals(1, registry.get("vaadin.session.backend.calls")
+                .tag("operation", "sendSession").tag("outcome", "failure")
+                .timer().count());
+        assertEquals(1, registry.get("vaadin.session.backend.calls")
+                .tag("operation", "getSession").timer().count());
+    }
+
+    @Test
+    void serializerMeters_gaugesRegistered() {
+        SessionSerializer serializer = mock(SessionSerializer.class);
+        when(serializer.getQueuedSerializationCount()).thenReturn(3);
+        when(serializer.getPendingSerializationCount()).thenReturn(5);
+
+        MicrometerSessionMetrics.serializerMeters(serializer, "redis")
+                .bindTo(registry);
+
+        assertEquals(3, registry.get("vaadin.session.serialization.queued")
+                .tag("backend", "redis").gauge().value());
+        assertEquals(5, registry.get("vaadin.session.serialization.pending")
+                .gauge().value());
+        assertNull(registry.find("vaadin.session.writes.coalesced")
+                .functionCounter());
+    }
+
+    @Test
+    void serializerMeters_writeBehindDecorator_writeMetersRegistered() {
+        WriteBehindBackendConnector writeBehind = new WriteBehindBackendConnector(
+                new InMemoryBackendConnector(), Duration.ofMinutes(1), 100);
+        SessionSerializer serializer = mock(SessionSerializer.class);
+        // decorators between the serializer and write-behind are traversed
+        when(serializer.getBackendConnector()).thenReturn(
+                InstrumentedBackendConnector.of(writeBehind,
+                        SessionMetrics.NOOP));
+        try (writeBehind) {
+            writeBehind.sendSession(new SessionInfo("key", new byte[] { 1 }));
+            writeBehind.sendSession(new SessionInfo("key", new byte[] { 2 }));
+            writeBehind.flushAll();
+
+            MicrometerSessionMetrics.serializerMeters(serializer, "redis")
+                    .bindTo(registry);
+
+            assertEquals(2, registry.get("vaadin.session.writes.buffered")
+                    .functionCounter().count());
+            assertEquals(1, registry.get("vaadin.session.writes.coalesced")
+                    .functionCounter().count());
+            assertEquals(1, registry.get("vaadin.session.writes.flush")
+                    .functionTimer().count());
+            assertEquals(0, registry
+                    .get("vaadin.session.writes.flush.failures")
+                    .functionCounter().count());
+        }
+    }
+
+    @Test
+    void serializerMeters_circuitBreakerDecorator_stateAndRejectedCallsRegistered() {
+        CircuitBreakerBackendConnector breaker = mock(
+                CircuitBreakerBackendConnector.class);
+        when(breaker.getState())
+                .thenReturn(CircuitBreakerBackendConnector.State.OPEN);
+        when(breaker.getRejectedCalls()).thenReturn(4L);
+        SessionSerializer serializer = mock(SessionSerializer.class);
+        when(serializer.getBackendConnector()).thenReturn(breaker);
+
+        MicrometerSessionMetrics.serializerMeters(serializer, "redis")
+                .bindTo(registry);
+
+        assertEquals(1, registry.get("vaadin.session.backend.circuit.state")
+                .tag("state", "open").gauge().value());
+        assertEquals(0, registry.get("vaadin.session.backend.circuit.state")
+                .tag("state", "closed").gauge().value());
+        assertEquals(0, registry.get("vaadin.session.backend.circuit.state")
+                .tag("state", "half_open").gauge().value());
+        assertEquals(4, registry.get("vaadin.session.backend.circuit.rejected")
+                .functionCounter().count());
+
+        when(breaker.getState())
+                .thenReturn(CircuitBreakerBackendConnector.State.CLOSED);
+        assertEquals(0, registry.get("vaadin.session.backend.circuit.state")
+                .tag("state", "open").gauge().value());
+        assertEquals(1, registry.get("vaadin.session.backend.circuit.state")
+                .tag("state", "closed").gauge().value());
+    }
+
+    @Test
+    void hazelcastMeters_waitStatisticsAndFailedWritesRegistered() {
+        HazelcastConnector hazelcast = mock(HazelcastConnector.class);
+        LatencyStatistics markerWaits = new LatencyStatistics();
+        markerWaits.record(TimeUnit.MILLISECONDS.toNanos(5));
+        markerWaits.record(TimeUnit.MILLISECONDS.toNanos(15));
+        when(hazelcast.getMarkerAcquisitionWaits()).thenReturn(markerWaits);
+        when(hazelcast.getSerializationCompletionWaits())
+                .thenReturn(new LatencyStatistics());
+        when(hazelcast.getFailedWrites()).thenReturn(3L);
+
+        MicrometerSessionMetrics.hazelcastMeters(hazelcast, "hazelcast")
+                .bindTo(registry);
+
+        FunctionTimer acquisition = registry
+                .get("vaadin.session.backend.marker.acquisition")
+                .tag("backend", "hazelcast").functionTimer();
+        assertEquals(2, acquisition.count());
+        assertEquals(20, acquisition.totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(0,
+                registry.get("vaadin.session.backend.serialization.wait")
+                        .functionTimer().count());
+        assertEquals(3, registry.get("vaadin.session.backend.writes.failed")
+                .functionCounter().count());
+    }
+
+    @Test
+    void backendType_derivedFromClassName() {
+        InMemoryBackendConnector backend = new InMemoryBackendConnector();
+
+        assertEquals("inmemory", MicrometerSessionMetrics.backendType(backend));
+        assertEquals("sharded", MicrometerSessionMetrics
+                .backendType(new ShardedBackendConnector(List.of(backend))));
+    }
+}
@@ -0,0 +1,88 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.serialization;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteBufferOutputStreamTest {
+
+    @Test
+    void write_exceedsInitialCapacity_bufferGrows() {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        byte[] data = new byte[3 * DirectBufferPool.MIN_CAPACITY + 5];
+        new Random(42).nextBytes(data);
+
+        ByteBufferOutputStream out = new ByteBufferOutputStream(pool);
+        out.write(data[0]);
+        out.write(data, 1, data.length - 1);
+
+        ByteBuffer buffer = out.toByteBuffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(data.length, out.size());
+        byte[] written = new byte[buffer.remaining()];
+        buffer.get(written);
+        assertArrayEquals(data, written);
+    }
+
+    @Test
+    void release_bufferReturnedToPoolAndReused() {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBufferOutputStream out = new ByteBufferOutputStream(pool);
+        out.write(1);
+        out.release();
+        out.release();
+
+        assertEquals(DirectBufferPool.MIN_CAPACITY, pool.getPooledBytes());
+        assertThrows(IllegalStateException.class, out::toByteBuffer);
+
+        ByteBufferOutputStream other = new ByteBufferOutputStream(pool);
+        assertEquals(0, pool.getPooledBytes());
+        other.write(2);
+        assertEquals(1, other.size());
+    }
+
+    @Test
+    void release_poolFull_bufferDropped() {
+        DirectBufferPool pool = new DirectBufferPool(0);
+        ByteBufferOutputStream out = new ByteBufferOutputStream(pool);
+        out.release();
+
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    void objectStreams_roundTrip() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBufferOutputStream out = new ByteBufferOutputStream(pool);
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+            objectOut.writeObject("hello");
+            objectOut.writeObject(new int[] { 1, 2, 3 });
+        }
+
+        try (ObjectInputStream objectIn = new ObjectInputStream(
+                new ByteBufferInputStream(out.toByteBuffer()))) {
+            assertEquals("hello", objectIn.readObject());
+            assertArrayEquals(new int[] { 1, 2, 3 },
+                    (int[]) objectIn.readObject());
+            assertEquals(-1, objectIn.read());
+        }
+        out.release();
+    }
+}
@@ -0,0 +1,147 @@
+/*-
+ * Copyright (C) 2022 Vaadin Ltd
+ *
+ * This program is available under Vaadin Commercial License and Service Terms.
+ *
+ *
+ * See <https://vaadin.com/commercial-license-and-service-terms> for the full
+ * license.
+ */
+package com.vaadin.kubernetes.starter.sessiontracker.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationProfiler.Entry;
+import com.vaadin.kubernetes.starter.sessiontracker.serialization.SerializationProfiler.Report;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class SerializationProfilerTest {
+
+    private final TransientHandler handler = mock(TransientHandler.class);
+
+    @Test
+    void sample_oneInSampleRate() {
+        SerializationProfiler profiler = new SerializationProfiler(3);
+        Map<String, Object> attributes = Map.of();
+
+        assertNull(profiler.sample(attributes));
+        assertNull(profiler.sample(attributes));
+        assertNotNull(profiler.sample(attributes));
+        assertNull(profiler.sample(attributes));
+    }
+
+    @Test
+    void profiledSerialization_bytesAttributedToClassesAndAttributes()
+            throws Exception {
+        SerializationProfiler profiler = new SerializationProfiler(1);
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("large", new Holder(new byte[10_000]));
+        attributes.put("small", new Holder(new byte[10]));
+
+        byte[] data = serialize(profiler, attributes);
+        Report report = profiler.getReport(10);
+
+        assertEquals(1, report.samples());
+        assertEquals(data.length, report.bytes());
+        assertEquals(data.length,
+                report.classes().stream().mapToLong(Entry::bytes).sum());
+        assertEquals(data.length,
+                report.attributes().stream().mapToLong(Entry::bytes).sum());
+        Entry largest = report.classes().get(0);
+        assertEquals(byte[].class.getName(), largest.name());
+        assertEquals(2, largest.count());
+        assertTrue(largest.bytes() > 10_000);
+        assertEquals("large", report.attributes().get(0).name());
+        assertTrue(entry(report.attributes(), "small").bytes() < 1_000);
+        assertEquals(2, entry(report.classes(), Holder.class.getName())
+                .count());
+    }
+
+    @Test
+    void profiledSerialization_streamCanBeRead() throws Exception {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("data", new Holder(new byte[] { 1, 2, 3 }));
+        attributes.put("text", "hello".repeat(500));
+
+        byte[] profiled = serialize(new SerializationProfiler(1), attributes);
+        byte[] plain = serialize(new SerializationProfiler(2), attributes);
+
+        assertArrayEquals(plain, profiled);
+        try (SerializationInputStream in = new TransientInjectableObjectInputStream(
+                new ByteArrayInputStream(profiled), handler)) {
+            Map<String, Object> read = in.readWithTransients();
+            assertArrayEquals(new byte[] { 1, 2, 3 },
+                    ((Holder) read.get("data")).data);
+            assertEquals(attributes.get("text"), read.get("text"));
+        }
+    }
+
+    @Test
+    void reset_resultsDiscarded() throws Exception {
+        SerializationProfiler profiler = new SerializationProfiler(1);
+        serialize(profiler, Map.of("key", "value"));
+
+        profiler.reset();
+
+        Report report = profiler.getReport(10);
+        assertEquals(0, report.samples());
+        assertTrue(report.classes().isEmpty());
+    }
+
+    @Test
+    void maxEntries_exceedingEntriesAggregated() throws Exception {
+        SerializationProfiler profiler = new SerializationProfiler(1, 2);
+        Map<String, Object> attributes = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            attributes.put("attribute" + i, "value" + i);
+        }
+
+        serialize(profiler, attributes);
+
+        List<Entry> entries = profiler.getReport(10).attributes();
+        assertEquals(3, entries.size());
+        assertNotNull(entry(entries, SerializationProfiler.OTHER));
+    }
+
+    private byte[] serialize(SerializationProfiler profiler,
+            Map<String, Object> attributes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SerializationProfiler.Sample sample = profiler.sample(attributes);
+        try (SerializationOutputStream stream = TransientInjectableObjectOutputStream
+                .newInstance(sample != null ? sample.wrap(out) : out,
+                        handler)) {
+            stream.setProfilerSample(sample);
+            stream.writeWithTransients(attributes);
+        }
+        if (sample != null) {
+            sample.complete();
+        }
+        return out.toByteArray();
+    }
+
+    private static Entry entry(List<Entry> entries, String name) {
+        return entries.stream().filter(e -> e.name().equals(name)).findFirst()
+                .orElseThrow();
+    }
+
+    private static class Holder implements Serializable {
+        private final byte[] data;
+
+        private Holder(byte[] data) {
+            this.data = data;
+        }
+    }
+}